@@ -0,0 +1,181 @@
+// A test of the memory allocated by the solver, on the instance families of
+// the test harness (see StableMatchingTest.test(int[], int[])).
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+public class AllocationBudgetTest {
+
+    // Every instance is solved twice, and the bytes allocated by the solving
+    // thread are measured with com.sun.management.ThreadMXBean.
+
+    // The cold solve is the one of the harness: constructStableMatching(Instance)
+    // on a new StableMatching, with a new workspace. It may allocate
+    //
+    //     COLD_FIXED + COLD_PER_GROUP (m + w) + COLD_PER_CELL m w
+    //
+    // bytes: the workspace (a heap of about 72 bytes for every group of
+    // women), the rows of the rank table and of engagedCount (at most m w
+    // cells each, as the preferences), and the sparse and dense results.
+
+    public final static long COLD_FIXED = 4096;
+
+    public final static long COLD_PER_GROUP = 160;
+
+    public final static long COLD_PER_CELL = 16;
+
+    // The warm solve is StableMatchingSolver.solve, on the workspace of a
+    // thread that already solved the same instance. It may only allocate the
+    // sparse result, WARM_FIXED + 4 (m + 1) + 8 size bytes, WARM_FIXED
+    // covering the headers of the object and of its arrays.
+
+    public final static long WARM_FIXED = 256;
+
+    // The warm solve is repeated WARM_RUNS times, and the fewest bytes are
+    // checked: a compilation or a deoptimization of the JIT during one run
+    // allocates some kilobytes that are not the solver's. An allocation of the
+    // proposal loop happens in every run, so the minimum still shows it.
+
+    public final static int WARM_RUNS = 5;
+
+    // Neither budget grows with the number of proposals: the proposal loop
+    // must not allocate. The bytes of the warm solve beyond its result, per
+    // proposal, are printed for information.
+
+    // This is the output stream of the tests.
+
+    private PrintStream out;
+
+    private StableMatchingTest generator;
+
+    private InstanceGenerator randomGenerator;
+
+    private final static com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private int failures, successes;
+
+    AllocationBudgetTest (PrintStream out, long seed)
+    {
+        this.out = out;
+        this.generator = new StableMatchingTest(null, out, new Random(seed));
+        this.randomGenerator = new InstanceGenerator(seed);
+    }
+
+    // The k-th instance of StableMatchingTest.test(int[], int[]) on given group
+    // counts, k = FIXED being a random one.
+
+    Instance instance (int k, int[] menGroupCount, int[] womenGroupCount)
+    {
+        int m = menGroupCount.length;
+        int w = womenGroupCount.length;
+        if (k < StableMatchingTest.FIXED) {
+            int[][][] prefs = generator.fixedPrefs(k, m, w);
+            return new Instance(menGroupCount, womenGroupCount, prefs[0], prefs[1]);
+        }
+        return new Instance(menGroupCount, womenGroupCount, randomGenerator.randomPrefs(m, w), randomGenerator.randomPrefs(w, m));
+    }
+
+    static long allocated ()
+    {
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    // Measure the solves of one instance, and check them against the budgets.
+
+    void check (int k, int[] menGroupCount, int[] womenGroupCount)
+    {
+        int m = menGroupCount.length;
+        int w = womenGroupCount.length;
+        long n = 0;
+        for (int s : menGroupCount)
+            n += s;
+        Instance instance = instance(k, menGroupCount, womenGroupCount);
+
+        long start = allocated();
+        new StableMatching().constructStableMatching(instance);
+        long cold = allocated() - start;
+
+        StableMatchingSolver solver = new StableMatchingSolver();
+        solver.solve(instance);
+        SparseMatching result = null;
+        long warm = Long.MAX_VALUE;
+        for (int r = 0; r < WARM_RUNS; r++) {
+            start = allocated();
+            result = solver.solve(instance);
+            warm = Math.min(warm, allocated() - start);
+        }
+
+        // The proposals are counted by an instrumented solver, whose
+        // statistics are not part of the measures. It also reports the engine
+        // chosen for the instance, printed with the measures.
+        long[] proposals = new long[1];
+        Engine[] engine = new Engine[1];
+        new StableMatching(stats -> {
+            proposals[0] = stats.proposals;
+            engine[0] = stats.engine;
+        }).constructSparseStableMatching(
+                menGroupCount, womenGroupCount, instance.menPrefs(), instance.womenPrefs());
+
+        long coldBudget = COLD_FIXED + COLD_PER_GROUP * (m + w) + COLD_PER_CELL * (long) m * w;
+        long resultBytes = 4L * (m + 1) + 8L * result.size();
+        long warmBudget = WARM_FIXED + resultBytes;
+        boolean ok = cold <= coldBudget && warm <= warmBudget;
+        out.printf("%-16s %-11s n = %10d, m = %5d, w = %5d: cold %11d bytes (budget %11d), warm %9d bytes (budget %9d), %8.4f extra bytes/proposal%s\n",
+                StableMatchingTest.FAMILIES[k], engine[0], n, m, w, cold, coldBudget, warm, warmBudget,
+                Math.max(0, warm - resultBytes - WARM_FIXED) / (double) Math.max(1, proposals[0]), ok ? "" : "  OVER BUDGET");
+        if (ok)
+            successes++;
+        else
+            failures++;
+    }
+
+    void checkFamilies (int[] menGroupCount, int[] womenGroupCount)
+    {
+        for (int k = 0; k <= StableMatchingTest.FIXED; k++)
+            check(k, menGroupCount, womenGroupCount);
+    }
+
+    // Check the families on unit instances of every size of the harness from
+    // SMALL on, then on the m/w grid of the harness for a few estimates of n,
+    // the same groups getting more and more people.
+
+    public boolean test ()
+    {
+        out.println("Starting allocation tests...\n");
+
+        // Load and compile the classes of the solver, whose first use allocates,
+        // without printing these measures.
+        PrintStream saved = out;
+        out = new PrintStream(OutputStream.nullOutputStream());
+        for (int r = 0; r < 3; r++)
+            checkFamilies(generator.unit(64), generator.unit(64));
+        failures = successes = 0;
+        out = saved;
+
+        for (int n = StableMatchingTest.SMALL; n <= StableMatchingTest.LARGE; n *= 2)
+            checkFamilies(generator.unit(n), generator.unit(n));
+        for (int nEstimate : new int[] { 3000, 1000000, 100000000 })
+            for (int m = 1; m <= StableMatchingTest.LARGE_NONUNIT; m *= 4)
+                for (int w = 1; w <= StableMatchingTest.LARGE_NONUNIT; w *= 4) {
+                    int[][] mw = randomGenerator.randomMW(m, w, nEstimate, Integer.MAX_VALUE);
+                    if (mw != null)
+                        checkFamilies(mw[0], mw[1]);
+                }
+
+        out.println();
+        out.printf("Done allocation tests. In total, %d success(es) and %d failure(s).\n", successes, failures);
+        return failures == 0;
+    }
+
+    // Usage: java AllocationBudgetTest
+    // The exit status is 1 when a solve is over budget.
+
+    public static void main (String[] args)
+    {
+        boolean ok = new AllocationBudgetTest(System.out, 0L).test();
+        System.exit(ok ? 0 : 1);
+    }
+}
@@ -0,0 +1,110 @@
+import java.util.Arrays;
+
+/*
+  The scheduler of the groups of men with single men, used by StableMatching and
+  LongStableMatching.
+
+  A group with c > 0 single men is in the bucket b = floor(log2 c), that is c in
+  [2^b, 2^(b+1)). Every bucket is a doubly linked list threaded through the arrays
+  next and previous, and the bit b of nonEmpty is set when the bucket b has groups,
+  so that update and peek are O(1): peek returns the first group of the highest
+  non-empty bucket, whose number of single men is more than half of the largest one.
+
+  A bucket is a FIFO: a group entering a bucket goes after the groups already in it,
+  and a group staying in its bucket keeps its place. With unit groups, the men made
+  single during a pass over the bucket propose after it, in the order of the pass.
+
+  Since the largest number of single men of a group is at least singleMen / m, the
+  group returned by peek has more than singleMen / 2m single men, which is what the
+  bound on the number of proposals needs, without rescanning the m groups to find
+  the groups above that threshold.
+  */
+class BucketQueue {
+
+  // The number of buckets, one for every bit of a long count.
+  static final int BUCKETS = 64;
+
+  // The first and the last group of every bucket, -1 for an empty bucket.
+  private final int[] head = new int[BUCKETS];
+  private final int[] tail = new int[BUCKETS];
+
+  // The bit b is set when the bucket b is not empty.
+  private long nonEmpty;
+
+  // The bucket of every group, -1 for a group without single men.
+  private int[] bucket = new int[0];
+
+  // The neighbours of every group in the list of its bucket, -1 at the ends.
+  private int[] next = new int[0];
+  private int[] previous = new int[0];
+
+  // The number of moves of a group from a bucket to another one, since the last reset.
+  long moves;
+
+  // Make the queue empty, for groups 0 to m - 1. The arrays only grow.
+  void reset (int m) {
+    if (m > bucket.length) {
+      bucket = new int[m];
+      next = new int[m];
+      previous = new int[m];
+    }
+    Arrays.fill(bucket, 0, m, -1);
+    Arrays.fill(head, -1);
+    Arrays.fill(tail, -1);
+    nonEmpty = 0;
+    moves = 0;
+  }
+
+  boolean isEmpty () {
+    return nonEmpty == 0;
+  }
+
+  // A group of the highest non-empty bucket. The queue must not be empty.
+  int peek () {
+    return head[BUCKETS - 1 - Long.numberOfLeadingZeros(nonEmpty)];
+  }
+
+  // Put the group at the end of the bucket of its new number of single men, removing it
+  // from the queue when count is 0. A group staying in its bucket keeps its place.
+  void update (int group, long count) {
+    int b = count == 0 ? -1 : BUCKETS - 1 - Long.numberOfLeadingZeros(count);
+    int old = bucket[group];
+    if (b == old) {
+      return;
+    }
+    if (old >= 0) {
+      int p = previous[group];
+      int n = next[group];
+      if (p >= 0) {
+        next[p] = n;
+      }
+      else {
+        head[old] = n;
+      }
+      if (n >= 0) {
+        previous[n] = p;
+      }
+      else {
+        tail[old] = p;
+      }
+      if (head[old] < 0) {
+        nonEmpty &= ~(1L << old);
+      }
+    }
+    bucket[group] = b;
+    if (b >= 0) {
+      int p = tail[b];
+      previous[group] = p;
+      next[group] = -1;
+      if (p >= 0) {
+        next[p] = group;
+      }
+      else {
+        head[b] = group;
+        nonEmpty |= 1L << b;
+      }
+      tail[b] = group;
+    }
+    moves++;
+  }
+}
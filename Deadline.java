@@ -0,0 +1,54 @@
+/*
+  A cooperative cancellation token for a solve: the solve stops when the deadline is
+  reached or when cancel is called, from any thread.
+
+  StableMatching checks the token every CHECK_INTERVAL proposals, so that the check
+  is a counter test in the proposal loop, and a volatile read and a clock read once in
+  a while. A solver that stops throws a SolveCancelledException.
+  */
+public final class Deadline {
+
+  // The number of proposals between two checks of the token, a power of 2.
+  public static final int CHECK_INTERVAL = 1 << 10;
+
+  // The value of System.nanoTime() at the deadline, if limited.
+  private final long deadlineNanos;
+  private final boolean limited;
+
+  private volatile boolean cancelled;
+
+  private Deadline (long deadlineNanos, boolean limited) {
+    this.deadlineNanos = deadlineNanos;
+    this.limited = limited;
+  }
+
+  // A token only expiring when cancelled.
+  public static Deadline never () {
+    return new Deadline(0, false);
+  }
+
+  // A token expiring in the given number of milliseconds, or when cancelled.
+  public static Deadline after (long millis) {
+    return new Deadline(System.nanoTime() + millis * 1000000L, true);
+  }
+
+  public void cancel () {
+    cancelled = true;
+  }
+
+  public boolean isCancelled () {
+    return cancelled;
+  }
+
+  public boolean isExpired () {
+    return cancelled || (limited && System.nanoTime() - deadlineNanos >= 0);
+  }
+
+  // The number of nanoseconds left before the deadline, Long.MAX_VALUE if not limited.
+  public long remainingNanos () {
+    if (cancelled) {
+      return 0;
+    }
+    return limited ? Math.max(0, deadlineNanos - System.nanoTime()) : Long.MAX_VALUE;
+  }
+}
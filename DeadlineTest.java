@@ -0,0 +1,322 @@
+// A test of the cancellation of StableMatching by a Deadline: an expired
+// deadline stops every engine, cancel stops a solve from another thread, a
+// deadline that never expires gives the plain matching, the engagements of a
+// cancelled solve never exceed the counts, and the workspace of a
+// StableMatchingSolver gives the plain matchings after a cancelled solve.
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+public class DeadlineTest {
+
+    // The number of random instances of every check, and the smallest and
+    // the largest number of groups of men or women of an instance. Below a
+    // few hundred groups, a solve makes less than Deadline.CHECK_INTERVAL
+    // proposals, and only checks its deadline before the first one.
+
+    public final static int INSTANCES = 1000;
+
+    public final static int MIN_GROUPS = 8;
+
+    public final static int MAX_GROUPS = 512;
+
+    // The number of groups of the instances cancelled from another thread,
+    // and the reads of their men preferences before the cancellation.
+
+    public final static int LARGE_GROUPS = 2048;
+
+    public final static int READS_BEFORE_CANCEL = 4 * Deadline.CHECK_INTERVAL;
+
+    // This is the output stream of the tests.
+
+    private PrintStream out;
+
+    private Random random;
+
+    private StableMatchingTest generator;
+
+    private int failures, successes;
+
+    // The number of solves cancelled in every engine.
+
+    private EnumMap<Engine, Integer> cancelled = new EnumMap<Engine, Integer>(Engine.class);
+
+    DeadlineTest (PrintStream out, long seed)
+    {
+        this.out = out;
+        this.random = new Random(seed);
+        this.generator = new StableMatchingTest(null, out, random);
+    }
+
+    void check (boolean ok, String what)
+    {
+        if (ok) {
+            successes++;
+        }
+        else {
+            failures++;
+            out.printf("FAILURE: %s\n", what);
+        }
+    }
+
+    // The men preferences of an instance, calling cancel when they are read
+    // for the reads-th time.
+
+    static class CancellingMatrix extends PreferenceMatrix {
+        final PreferenceMatrix prefs;
+        final long reads;
+        long read;
+
+        CancellingMatrix (PreferenceMatrix prefs, long reads)
+        {
+            super(prefs.rows(), prefs.columns());
+            this.prefs = prefs;
+            this.reads = reads;
+        }
+
+        void cancel ()
+        {
+        }
+
+        public int get (int row, int index)
+        {
+            if (++read == reads)
+                cancel();
+            return prefs.get(row, index);
+        }
+
+        public void set (int row, int index, int value)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        public int cellBytes ()
+        {
+            return prefs.cellBytes();
+        }
+    }
+
+    // A random instance of each engine: a master list on the women side, one
+    // person per group, or random groups.
+
+    Instance randomInstance (Engine engine)
+    {
+        int m = MIN_GROUPS + random.nextInt(MAX_GROUPS - MIN_GROUPS + 1);
+        int w = engine == Engine.ONE_TO_ONE ? m : MIN_GROUPS + random.nextInt(MAX_GROUPS - MIN_GROUPS + 1);
+        return randomInstance(engine, m, w);
+    }
+
+    Instance randomInstance (Engine engine, int m, int w)
+    {
+        int[][] mw = engine == Engine.ONE_TO_ONE
+            ? new int[][] { generator.unit(m), generator.unit(w) }
+            : generator.randomMW(m, w, m + w + random.nextInt(4 * m * w), Integer.MAX_VALUE);
+        int[][] womenPrefs = engine == Engine.MASTER_LIST
+            ? generator.uniformPrefs(w, generator.randomPermutation(m))
+            : generator.randomPrefs(w, m);
+        return new Instance(mw[0], mw[1], generator.randomPrefs(m, w), womenPrefs);
+    }
+
+    static int[][] plain (Instance instance)
+    {
+        return new StableMatching().constructStableMatching(instance);
+    }
+
+    // The number of proposals of the plain solve of an instance.
+
+    static long proposals (Instance instance)
+    {
+        long[] proposals = new long[1];
+        new StableMatching(stats -> proposals[0] = stats.proposals).constructStableMatching(instance);
+        return proposals[0];
+    }
+
+    static String describe (Engine engine, Instance instance)
+    {
+        return engine + " " + instance.m() + " x " + instance.w();
+    }
+
+    // Null if the engagements of a cancelled solve fit in the counts, a
+    // description of their first defect otherwise.
+
+    static String defect (Instance instance, SparseMatching partial)
+    {
+        if (partial == null)
+            return "no engagements";
+        if (partial.menGroups() != instance.m() || partial.womenGroups() != instance.w())
+            return "wrong dimensions";
+        long[] women = new long[instance.w()];
+        for (int i = 0; i < instance.m(); i++) {
+            long men = 0;
+            for (int e = partial.rowStart(i); e < partial.rowEnd(i); e++) {
+                if (partial.count(e) <= 0)
+                    return "a cell (" + i + ", " + partial.womenGroup(e) + ") of count " + partial.count(e);
+                men += partial.count(e);
+                women[partial.womenGroup(e)] += partial.count(e);
+            }
+            if (men > instance.menGroupCount(i))
+                return men + " men of the group " + i + " engaged, of " + instance.menGroupCount(i);
+        }
+        for (int j = 0; j < instance.w(); j++)
+            if (women[j] > instance.womenGroupCount(j))
+                return women[j] + " women of the group " + j + " engaged, of " + instance.womenGroupCount(j);
+        return null;
+    }
+
+    // Check the exception of a cancelled solve: its progress is the one of
+    // the engine, and its engagements fit in the counts.
+
+    void checkCancelled (Engine engine, Instance instance, SolveCancelledException e, String what)
+    {
+        SolveStats progress = e.progress();
+        check(progress != null && progress.engine == engine,
+              what + " " + describe(engine, instance) + " has the progress " + progress);
+        String defect = defect(instance, e.partial());
+        check(defect == null, what + " " + describe(engine, instance) + " has engagements with " + defect);
+        cancelled.merge(engine, 1, Integer::sum);
+    }
+
+    // An expired deadline and a cancelled one stop every engine before it
+    // proposes.
+
+    void checkExpired ()
+    {
+        for (Engine engine : Engine.values()) {
+            Instance instance = randomInstance(engine);
+            Deadline cancelledDeadline = Deadline.never();
+            cancelledDeadline.cancel();
+            for (Deadline deadline : new Deadline[] { Deadline.after(0), cancelledDeadline }) {
+                try {
+                    new StableMatching().constructStableMatching(instance, deadline);
+                    check(false, "an expired deadline does not stop " + describe(engine, instance));
+                } catch (SolveCancelledException e) {
+                    checkCancelled(engine, instance, e, "an expired deadline on");
+                    check(e.progress() != null && e.progress().proposals == 0,
+                          "an expired deadline does not stop " + describe(engine, instance) + " before it proposes");
+                }
+            }
+        }
+    }
+
+    // cancel called from another thread once the solve has read the men
+    // preferences READS_BEFORE_CANCEL times, the solve waiting for it.
+
+    void checkCancelFromThread () throws Exception
+    {
+        for (Engine engine : new Engine[] { Engine.ONE_TO_ONE, Engine.GROUPED }) {
+            Instance instance = randomInstance(engine, LARGE_GROUPS, LARGE_GROUPS);
+            Deadline deadline = Deadline.never();
+            CountDownLatch reached = new CountDownLatch(1);
+            Thread canceller = new Thread(() -> {
+                try {
+                    reached.await();
+                    deadline.cancel();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "canceller");
+            canceller.start();
+            CancellingMatrix menPrefs = new CancellingMatrix(instance.menPrefs(), READS_BEFORE_CANCEL) {
+                void cancel ()
+                {
+                    reached.countDown();
+                    while (!deadline.isCancelled())
+                        Thread.onSpinWait();
+                }
+            };
+            try {
+                new StableMatching().constructStableMatching(
+                    new Instance(instance.menGroupCount(), instance.womenGroupCount(), menPrefs, instance.womenPrefs()), deadline);
+                check(false, "cancel from another thread does not stop " + describe(engine, instance));
+            } catch (SolveCancelledException e) {
+                checkCancelled(engine, instance, e, "cancel from another thread on");
+                check(e.progress() != null && e.progress().proposals >= READS_BEFORE_CANCEL - LARGE_GROUPS,
+                      "cancel from another thread stops " + describe(engine, instance) + " too early");
+            } finally {
+                reached.countDown();
+                canceller.join();
+            }
+        }
+    }
+
+    // Deadline.never gives exactly the plain matching, and so does a
+    // deadline cancelled after the solve has read all it needs.
+
+    void checkNever ()
+    {
+        for (int t = 0; t < INSTANCES; t++) {
+            Engine engine = Engine.values()[t % Engine.values().length];
+            Instance instance = randomInstance(engine);
+            int[][] expected = plain(instance);
+            check(Arrays.deepEquals(new StableMatching().constructStableMatching(instance, Deadline.never()), expected),
+                  "Deadline.never changes the matching of " + describe(engine, instance));
+            check(Arrays.deepEquals(new StableMatching().constructStableMatching(instance, Deadline.after(60000)), expected),
+                  "a distant deadline changes the matching of " + describe(engine, instance));
+        }
+    }
+
+    // Solves cancelled after a random number of reads of the men preferences,
+    // up to the proposals of the plain solve, each followed by a plain solve with the same workspace of a
+    // StableMatchingSolver: the engagements of the cancelled solves fit in the
+    // counts, and the following matchings are the plain ones.
+
+    void checkPartialAndWorkspace ()
+    {
+        StableMatchingSolver solver = new StableMatchingSolver();
+        for (int t = 0; t < INSTANCES; t++) {
+            Engine engine = t % 2 == 0 ? Engine.ONE_TO_ONE : Engine.GROUPED;
+            Instance instance = randomInstance(engine);
+            Deadline deadline = Deadline.never();
+            long reads = 1 + (long) (random.nextDouble() * proposals(instance));
+            CancellingMatrix menPrefs = new CancellingMatrix(instance.menPrefs(), reads) {
+                void cancel ()
+                {
+                    deadline.cancel();
+                }
+            };
+            Instance cancelling = new Instance(instance.menGroupCount(), instance.womenGroupCount(), menPrefs, instance.womenPrefs());
+            try {
+                SparseMatching matching = solver.solve(cancelling, deadline);
+                // The solve ended before the next check of the deadline.
+                check(Arrays.deepEquals(matching.toArray(), plain(instance)),
+                      "a solve ending before its cancellation is not the plain matching of " + describe(engine, instance));
+            } catch (SolveCancelledException e) {
+                checkCancelled(engine, instance, e, "a cancelled solve of");
+            }
+            Instance next = randomInstance(t % 4 < 2 ? Engine.ONE_TO_ONE : Engine.GROUPED);
+            check(Arrays.deepEquals(solver.solve(next).toArray(), plain(next)),
+                  "the workspace after a cancelled solve does not give the plain matching of " + next.m() + " x " + next.w());
+        }
+    }
+
+    public boolean test () throws Exception
+    {
+        out.println("Starting deadline tests...\n");
+
+        checkExpired();
+        checkCancelFromThread();
+        checkNever();
+        checkPartialAndWorkspace();
+
+        // Both proposal loops must have been cancelled in the middle.
+        for (Engine engine : new Engine[] { Engine.ONE_TO_ONE, Engine.GROUPED })
+            check(cancelled.getOrDefault(engine, 0) > 2 + INSTANCES / 10, "too few cancelled solves of " + engine);
+
+        out.println();
+        out.printf("Cancelled: %s\n", cancelled);
+        out.printf("Done deadline tests. In total, %d success(es) and %d failure(s).\n", successes, failures);
+        return failures == 0;
+    }
+
+    // Usage: java DeadlineTest
+    // The exit status is 1 when a check fails.
+
+    public static void main (String[] args) throws Exception
+    {
+        boolean ok = new DeadlineTest(System.out, 0L).test();
+        System.exit(ok ? 0 : 1);
+    }
+}
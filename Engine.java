@@ -0,0 +1,50 @@
+/*
+  The algorithm chosen by StableMatching for an instance, after the shape of the instance,
+  reported in SolveStats.
+
+  MASTER_LIST: one side has a master list (see MasterList), one greedy pass. This includes
+  the degenerate shapes m = 1 and w = 1, where the single row is a master list, solved in
+  O(m + w), and the empty instances.
+  ONE_TO_ONE: every group has one person (see OneToOne), the classic Gale-Shapley algorithm
+  on arrays, without heaps nor scheduler.
+  GROUPED: any other instance, the grouped algorithm of StableMatching.
+  */
+public enum Engine {
+  MASTER_LIST,
+  ONE_TO_ONE,
+  GROUPED;
+
+  // The engine of an instance. The checks read O(m + w) cells, except when the rows of a
+  // side are equal without sharing their storage (see PreferenceMatrix.sameRow).
+  static Engine select (
+    int[] menGroupCount,
+    int[] womenGroupCount,
+    PreferenceMatrix menPrefs,
+    PreferenceMatrix womenPrefs
+  ) {
+    return select(menGroupCount, womenGroupCount, MasterList.side(menPrefs, womenPrefs));
+  }
+
+  // The engine of an instance whose side with a master list is already known (see
+  // MasterList.side), so that the rows are not compared again.
+  static Engine select (int[] menGroupCount, int[] womenGroupCount, int masterListSide) {
+    int m = menGroupCount.length;
+    int w = womenGroupCount.length;
+    if (m <= 1 || w <= 1 || masterListSide != MasterList.NONE) {
+      return MASTER_LIST;
+    }
+    if (m == w && allOnes(menGroupCount) && allOnes(womenGroupCount)) {
+      return ONE_TO_ONE;
+    }
+    return GROUPED;
+  }
+
+  private static boolean allOnes (int[] groupCount) {
+    for (int count : groupCount) {
+      if (count != 1) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
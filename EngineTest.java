@@ -0,0 +1,141 @@
+// A test of the engines of StableMatching (see Engine): every instance is
+// solved with the engine selected after its shape, and with the GROUPED
+// engine alone, and the two matchings must be the same, the men-optimal one.
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Random;
+
+public class EngineTest {
+
+    // The largest unit size, the number of random grouped shapes, and the
+    // largest number of groups of men or women of such a shape.
+
+    public final static int MAX_UNIT = 96;
+
+    public final static int SHAPES = 2000;
+
+    public final static int MAX_GROUPS = 24;
+
+    // This is the output stream of the tests.
+
+    private PrintStream out;
+
+    private Random random;
+
+    private StableMatchingTest generator;
+
+    private int failures, successes;
+
+    // The number of instances solved by every engine.
+
+    private EnumMap<Engine, Integer> engines = new EnumMap<Engine, Integer>(Engine.class);
+
+    EngineTest (PrintStream out, long seed)
+    {
+        this.out = out;
+        this.random = new Random(seed);
+        this.generator = new StableMatchingTest(null, out, random);
+    }
+
+    // Compare the selected engine with the GROUPED engine on one instance.
+
+    void check (String family, int[] mc, int[] wc, int[][] mp, int[][] wp)
+    {
+        PreferenceMatrix menPrefs = PreferenceMatrix.wrap(mp, wc.length);
+        PreferenceMatrix womenPrefs = PreferenceMatrix.wrap(wp, mc.length);
+        Engine[] engine = new Engine[1];
+        int[][] selected = new StableMatching(stats -> engine[0] = stats.engine)
+            .constructSparseStableMatching(mc, wc, menPrefs, womenPrefs).toArray();
+        int[][] grouped = new StableMatching(null, false)
+            .constructSparseStableMatching(mc, wc, menPrefs, womenPrefs).toArray();
+        engines.merge(engine[0], 1, Integer::sum);
+        if (Arrays.deepEquals(selected, grouped)) {
+            successes++;
+        }
+        else {
+            failures++;
+            out.printf("FAILURE: %s on a %s %d x %d instance is not the matching of GROUPED\n",
+                       engine[0], family, mc.length, wc.length);
+            if (mc.length * wc.length <= 64) {
+                out.printf("men: %s, women: %s\n", Arrays.toString(mc), Arrays.toString(wc));
+                out.printf("men prefs: %s\nwomen prefs: %s\n", Arrays.deepToString(mp), Arrays.deepToString(wp));
+            }
+        }
+    }
+
+    // The families of the harness, and the random instances with a master
+    // list on one side, on given group counts.
+
+    void checkFamilies (int[] mc, int[] wc)
+    {
+        int m = mc.length;
+        int w = wc.length;
+        for (int k = 0; k < StableMatchingTest.FIXED; k++) {
+            int[][][] prefs = generator.fixedPrefs(k, m, w);
+            check(StableMatchingTest.FAMILIES[k], mc, wc, prefs[0], prefs[1]);
+        }
+        check(StableMatchingTest.FAMILIES[StableMatchingTest.FIXED], mc, wc,
+              generator.randomPrefs(m, w), generator.randomPrefs(w, m));
+        check("WOMEN_LIST", mc, wc, visions(m, w), masterList(w, m));
+        check("MEN_LIST", mc, wc, masterList(m, w), visions(w, m));
+    }
+
+    // A random master list of rows groups among columns groups, whose rows
+    // share their storage or are copies, equal without being shared.
+
+    int[][] masterList (int rows, int columns)
+    {
+        int[][] prefs = generator.uniformPrefs(rows, generator.randomPermutation(columns));
+        return random.nextBoolean() ? prefs : StableMatchingTest.deepCopy2D(prefs);
+    }
+
+    // Random preferences of rows groups among columns groups, shared by a
+    // random number of visions, up to beyond MasterList.MAX_VISIONS.
+
+    int[][] visions (int rows, int columns)
+    {
+        int[][] vision = generator.randomPrefs(1 + random.nextInt(2 * MasterList.MAX_VISIONS), columns);
+        int[][] prefs = new int[rows][];
+        for (int r = 0; r < rows; r++)
+            prefs[r] = vision[random.nextInt(vision.length)];
+        return prefs;
+    }
+
+    public boolean test ()
+    {
+        out.println("Starting engine tests...\n");
+
+        for (int n = 0; n <= MAX_UNIT; n++)
+            checkFamilies(generator.unit(n), generator.unit(n));
+        for (int t = 0; t < SHAPES; t++) {
+            int m = 1 + random.nextInt(MAX_GROUPS);
+            int w = 1 + random.nextInt(MAX_GROUPS);
+            int[][] mw = generator.randomMW(m, w, Math.max(m, w) + random.nextInt(4 * m * w), Integer.MAX_VALUE);
+            checkFamilies(mw[0], mw[1]);
+        }
+
+        // Every engine must have been exercised.
+        for (Engine engine : Engine.values()) {
+            if (engines.getOrDefault(engine, 0) == 0) {
+                failures++;
+                out.printf("FAILURE: no instance was solved by %s\n", engine);
+            }
+        }
+
+        out.println();
+        out.printf("Engines: %s\n", engines);
+        out.printf("Done engine tests. In total, %d success(es) and %d failure(s).\n", successes, failures);
+        return failures == 0;
+    }
+
+    // Usage: java EngineTest
+    // The exit status is 1 when a check fails.
+
+    public static void main (String[] args)
+    {
+        boolean ok = new EngineTest(System.out, 0L).test();
+        System.exit(ok ? 0 : 1);
+    }
+}
@@ -0,0 +1,188 @@
+import java.util.Arrays;
+
+/*
+  The algorithm of StableMatching with incomplete preference lists.
+
+  A group of men proposes to the groups of its list in order, as in StableMatching, and a
+  group of women rejects at once the groups of men it does not list. The single men of a
+  group that has proposed to its whole list stay single: the group leaves the scheduler,
+  and only comes back when some of its men are left by their wives, to find that it has
+  nobody left to propose to.
+
+  All the state is sized to the lists, not to m x w: the engaged counts of the men groups
+  are stored one list after the other, the ranks of the women come from a SparseRankTable,
+  and the heap of a women group is only allocated when a men group first gets engaged to it.
+  */
+class IncompleteStableMatching implements IncompleteStableMatchingInterface {
+
+  public SparseMatching constructStableMatching (
+    int[] menGroupCount,
+    int[] womenGroupCount,
+    int[][] menPrefs,
+    int[][] womenPrefs
+  ) {
+    // The number of men groups.
+    int m = menGroupCount.length;
+
+    // The number of women groups.
+    int w = womenGroupCount.length;
+
+    checkCounts(menGroupCount);
+    checkCounts(womenGroupCount);
+    checkLists(menPrefs, m, w);
+    checkLists(womenPrefs, w, m);
+
+    // The ranks of the men groups for the women groups, sorted when a women group first
+    // receives a proposal.
+    SparseRankTable ranks = new SparseRankTable(womenPrefs);
+
+    // The number of single men in every group.
+    int[] singleMenGroupCount = menGroupCount.clone();
+
+    // The number of single women in every group.
+    int[] singleWomenGroupCount = womenGroupCount.clone();
+
+    // The position, in the list of every men group, of the most attractive women group
+    // that the group of men does not propose to, the length of the list when the group
+    // has proposed to all of it.
+    int[] mostUnproposedWomenGroup = new int[m];
+
+    // The heaps of the groups of women, see StableMatching, null when nobody is engaged
+    // to the group yet.
+    RankHeap[] menGroupEngagedTo = new RankHeap[w];
+
+    // engagedCount[rowStart[i] + k] is the number of men of the group i engaged to the
+    // women group menPrefs[i][k].
+    int[] rowStart = new int[m + 1];
+    for (int i = 0; i < m; i++) {
+      rowStart[i + 1] = Math.addExact(rowStart[i], menPrefs[i].length);
+    }
+    int[] engagedCount = new int[rowStart[m]];
+
+    // The groups of men with single men and women groups left to propose to, see BucketQueue.
+    BucketQueue singleMenGroups = new BucketQueue();
+    singleMenGroups.reset(m);
+    for (int i = m - 1; i >= 0; i--) {
+      singleMenGroups.update(i, singleMenGroupCount[i]);
+    }
+
+    while (!singleMenGroups.isEmpty()) {
+      int currentMenGroup = singleMenGroups.peek();
+      int currentPosition = mostUnproposedWomenGroup[currentMenGroup];
+      int[] currentPrefs = menPrefs[currentMenGroup];
+      if (currentPosition == currentPrefs.length) {
+        // The single men of the group stay single.
+        singleMenGroups.update(currentMenGroup, 0);
+        continue;
+      }
+      int currentWomenGroup = currentPrefs[currentPosition];
+      int currentEntry = rowStart[currentMenGroup] + currentPosition;
+      int currentRank = ranks.rank(currentWomenGroup, currentMenGroup);
+      RankHeap engaged = menGroupEngagedTo[currentWomenGroup];
+
+      if (currentRank < 0) {
+        // The women group does not find the men group acceptable.
+        mostUnproposedWomenGroup[currentMenGroup] += 1;
+      }
+      else if (singleWomenGroupCount[currentWomenGroup] > 0) {
+        int c = Math.min(singleWomenGroupCount[currentWomenGroup], singleMenGroupCount[currentMenGroup]);
+        if (engagedCount[currentEntry] == 0) {
+          if (engaged == null) {
+            engaged = new RankHeap();
+            menGroupEngagedTo[currentWomenGroup] = engaged;
+          }
+          engaged.offer(currentRank, currentPosition);
+        }
+        singleMenGroupCount[currentMenGroup] -= c;
+        singleWomenGroupCount[currentWomenGroup] -= c;
+        engagedCount[currentEntry] += c;
+      }
+      else if (engaged != null && currentRank < engaged.peek()) {
+        int leastAttractiveRank = engaged.peek();
+        int leastAttractivePosition = engaged.peekPayload();
+        int leastAttractiveMenGroup = womenPrefs[currentWomenGroup][leastAttractiveRank];
+        int leastAttractiveEntry = rowStart[leastAttractiveMenGroup] + leastAttractivePosition;
+        int c = Math.min(engagedCount[leastAttractiveEntry], singleMenGroupCount[currentMenGroup]);
+        if (engagedCount[currentEntry] == 0) {
+          engaged.offer(currentRank, currentPosition);
+        }
+        singleMenGroupCount[currentMenGroup] -= c;
+        engagedCount[currentEntry] += c;
+        singleMenGroupCount[leastAttractiveMenGroup] += c;
+        singleMenGroups.update(leastAttractiveMenGroup, singleMenGroupCount[leastAttractiveMenGroup]);
+        engagedCount[leastAttractiveEntry] -= c;
+        if (engagedCount[leastAttractiveEntry] == 0) {
+          engaged.poll();
+        }
+      }
+      else {
+        // The proposal was not accepted, or the women group is empty. We go to the next
+        // women group.
+        mostUnproposedWomenGroup[currentMenGroup] += 1;
+      }
+      singleMenGroups.update(currentMenGroup, singleMenGroupCount[currentMenGroup]);
+    }
+
+    return toSparseMatching(w, menPrefs, rowStart, engagedCount, mostUnproposedWomenGroup);
+  }
+
+  // The matching of the engaged counts, whose non-zero cells are at positions up to
+  // mostUnproposedWomenGroup[i] in the list of every men group i.
+  private static SparseMatching toSparseMatching (int w, int[][] menPrefs, int[] rowStart, int[] engagedCount,
+      int[] mostUnproposedWomenGroup) {
+    int m = menPrefs.length;
+    int[] resultStart = new int[m + 1];
+    for (int i = 0; i < m; i++) {
+      int end = rowStart[i] + Math.min(mostUnproposedWomenGroup[i] + 1, menPrefs[i].length);
+      int cells = 0;
+      for (int e = rowStart[i]; e < end; e++) {
+        if (engagedCount[e] > 0) {
+          cells++;
+        }
+      }
+      resultStart[i + 1] = resultStart[i] + cells;
+    }
+    int[] womenGroup = new int[resultStart[m]];
+    int[] count = new int[resultStart[m]];
+    for (int i = 0; i < m; i++) {
+      int f = resultStart[i];
+      for (int k = 0; k < menPrefs[i].length && f < resultStart[i + 1]; k++) {
+        if (engagedCount[rowStart[i] + k] > 0) {
+          womenGroup[f] = menPrefs[i][k];
+          count[f] = engagedCount[rowStart[i] + k];
+          f++;
+        }
+      }
+    }
+    return new SparseMatching(w, resultStart, womenGroup, count);
+  }
+
+  private static void checkCounts (int[] counts) {
+    for (int c : counts) {
+      if (c < 0) {
+        throw new IllegalArgumentException("Negative group count " + c);
+      }
+    }
+  }
+
+  // Check that every list of prefs has groups in [0, columns), each at most once.
+  private static void checkLists (int[][] prefs, int rows, int columns) {
+    if (prefs.length != rows) {
+      throw new IllegalArgumentException(prefs.length + " preference lists instead of " + rows);
+    }
+    // The last list in which every group was seen.
+    int[] seen = new int[columns];
+    Arrays.fill(seen, -1);
+    for (int i = 0; i < rows; i++) {
+      for (int g : prefs[i]) {
+        if (g < 0 || g >= columns) {
+          throw new IllegalArgumentException("List " + i + " has the group " + g + ", not in [0, " + columns + ")");
+        }
+        if (seen[g] == i) {
+          throw new IllegalArgumentException("List " + i + " has the group " + g + " twice");
+        }
+        seen[g] = i;
+      }
+    }
+  }
+}
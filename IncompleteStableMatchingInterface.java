@@ -0,0 +1,33 @@
+public interface IncompleteStableMatchingInterface {
+
+  // The problem of StableMatchingInterface, with incomplete preference lists.
+
+  // menGroupCount and womenGroupCount are described in StableMatchingInterface, except
+  // that the number of men and the number of women may differ.
+
+  // menPrefs:
+  // The i-th group of men only finds some groups of women acceptable: menPrefs[i] lists
+  // them in decreasing order of preference, with any length up to w and no group twice.
+
+  // womenPrefs:
+  // Likewise, womenPrefs[j] lists the groups of men that the j-th group of women finds
+  // acceptable, in decreasing order of preference.
+
+  // A man and a woman can only marry if the group of each of them lists the group of the
+  // other, and people may stay single. The lists take memory in their total length, and
+  // so does the result, so that m and w can be far too large for an m x w matrix.
+
+  public SparseMatching constructStableMatching (
+    int[] menGroupCount,
+    int[] womenGroupCount,
+    int[][] menPrefs,
+    int[][] womenPrefs
+  );
+
+  // The method constructStableMatching must return the matching as a SparseMatching,
+  // whose cells are all mutually acceptable pairs of groups, and where no group has more
+  // people married than it has. The matching must be stable: there is no man and woman
+  // whose groups list each other, such that the man is single or prefers the group of
+  // the woman to the group of his wife, and the woman is single or prefers the group of
+  // the man to the group of her husband.
+}
@@ -0,0 +1,300 @@
+// A test of IncompleteStableMatching: its matchings of random instances with
+// incomplete lists must be stable, its matchings of complete lists must be
+// those of StableMatching, and its memory must grow with the lengths of the
+// lists, not with m x w.
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+
+public class IncompleteStableMatchingTest {
+
+    // The number of random instances, and the largest number of groups of
+    // men or women of an instance.
+
+    public final static int INSTANCES = 5000;
+
+    public final static int MAX_GROUPS = 12;
+
+    // The large sparse instance: GROUPS groups of men and of women, every
+    // group of men listing LIST_LENGTH groups of women, and every group of
+    // women listing the groups of men that list it. Its solve may allocate
+    //
+    //     BYTES_PER_GROUP (m + w) + BYTES_PER_ENTRY (length of the lists)
+    //
+    // bytes, for the counts, the positions, the heaps and the scheduler of
+    // the groups, and the engaged counts, the rank table and the result of
+    // the entries, while one int per cell of m x w would take 4 m w bytes.
+
+    public final static int GROUPS = 300000;
+
+    public final static int LIST_LENGTH = 8;
+
+    public final static long BYTES_PER_GROUP = 128;
+
+    public final static long BYTES_PER_ENTRY = 16;
+
+    // This is the output stream of the tests.
+
+    private PrintStream out;
+
+    private Random random;
+
+    private StableMatchingTest generator;
+
+    private IncompleteStableMatching box = new IncompleteStableMatching();
+
+    private final static com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private int failures, successes;
+
+    IncompleteStableMatchingTest (PrintStream out, long seed)
+    {
+        this.out = out;
+        this.random = new Random(seed);
+        this.generator = new StableMatchingTest(null, out, random);
+    }
+
+    // A random list of some of the groups in [0, n), possibly empty.
+
+    int[] randomList (int n)
+    {
+        int[] p = generator.randomPermutation(n);
+        return Arrays.copyOf(p, random.nextInt(n + 1));
+    }
+
+    int[] randomCounts (int n)
+    {
+        int[] counts = new int[n];
+        for (int i = 0; i < n; i++)
+            counts[i] = random.nextInt(6);
+        return counts;
+    }
+
+    // The position of every group of every list, -1 for the groups it does
+    // not list. Only for the small instances.
+
+    static int[][] positions (int[][] prefs, int columns)
+    {
+        int[][] res = new int[prefs.length][columns];
+        for (int r = 0; r < prefs.length; r++) {
+            Arrays.fill(res[r], -1);
+            for (int k = 0; k < prefs[r].length; k++)
+                res[r][prefs[r][k]] = k;
+        }
+        return res;
+    }
+
+    /*
+      Return null if the matching is stable for the groups, a description of
+      its first defect otherwise. Its cells must be mutually acceptable pairs of
+      groups, with positive counts, and no group may have more people married
+      than it has. No acceptable pair (i, j) may block it: i has a single man
+      or a man married to a group it lists after j, and j has a single woman or
+      a woman married to a group it lists after i. Only for the small
+      instances.
+      */
+    static String defect (int[] mc, int[] wc, int[][] mp, int[][] wp, SparseMatching mar)
+    {
+        int m = mc.length;
+        int w = wc.length;
+        if (mar.menGroups() != m || mar.womenGroups() != w)
+            return "wrong dimensions";
+        int[][] menPosition = positions(mp, w);
+        int[][] womenPosition = positions(wp, m);
+        int[] married = new int[w];
+        // The position of the worst partner group of every group, -1 if none.
+        int[] worstWife = new int[m];
+        int[] worstHusband = new int[w];
+        Arrays.fill(worstHusband, -1);
+        for (int i = 0; i < m; i++) {
+            int row = 0;
+            worstWife[i] = -1;
+            for (int e = mar.rowStart(i); e < mar.rowEnd(i); e++) {
+                int j = mar.womenGroup(e);
+                int c = mar.count(e);
+                if (c <= 0)
+                    return "a cell (" + i + ", " + j + ") of count " + c;
+                if (menPosition[i][j] < 0 || womenPosition[j][i] < 0)
+                    return "a cell (" + i + ", " + j + ") of a pair that is not acceptable";
+                row += c;
+                married[j] += c;
+                worstWife[i] = Math.max(worstWife[i], menPosition[i][j]);
+                worstHusband[j] = Math.max(worstHusband[j], womenPosition[j][i]);
+            }
+            if (row > mc[i])
+                return "too many men married in the group " + i;
+            if (row < mc[i])
+                worstWife[i] = mp[i].length;
+        }
+        for (int j = 0; j < w; j++) {
+            if (married[j] > wc[j])
+                return "too many women married in the group " + j;
+            if (married[j] < wc[j])
+                worstHusband[j] = wp[j].length;
+        }
+        for (int i = 0; i < m; i++)
+            for (int k = 0; k < Math.min(worstWife[i], mp[i].length); k++) {
+                int j = mp[i][k];
+                int position = womenPosition[j][i];
+                if (position >= 0 && position < worstHusband[j])
+                    return "a blocking pair (" + i + ", " + j + ")";
+            }
+        return null;
+    }
+
+    void check (int[] mc, int[] wc, int[][] mp, int[][] wp, String what)
+    {
+        String defect = defect(mc, wc, mp, wp, box.constructStableMatching(mc, wc, mp, wp));
+        if (defect == null) {
+            successes++;
+        }
+        else {
+            failures++;
+            out.printf("FAILURE: %s, %d x %d: %s\n", what, mc.length, wc.length, defect);
+            out.printf("men: %s, women: %s\n", Arrays.toString(mc), Arrays.toString(wc));
+            out.printf("men prefs: %s\nwomen prefs: %s\n", Arrays.deepToString(mp), Arrays.deepToString(wp));
+        }
+    }
+
+    // With complete lists and as many men as women, the matching of
+    // StableMatching.
+
+    void checkComplete (int m, int w)
+    {
+        int[][] mw = generator.randomMW(m, w, Math.max(m, w) + random.nextInt(4 * m * w), Integer.MAX_VALUE);
+        int[][] mp = generator.randomPrefs(m, w);
+        int[][] wp = generator.randomPrefs(w, m);
+        int[][] expected = new StableMatching().constructStableMatching(mw[0], mw[1], mp, wp);
+        if (Arrays.deepEquals(box.constructStableMatching(mw[0], mw[1], mp, wp).toArray(), expected)) {
+            successes++;
+        }
+        else {
+            failures++;
+            out.printf("FAILURE: complete lists, %d x %d: not the matching of StableMatching\n", m, w);
+        }
+    }
+
+    static boolean lists (int[] list, int g)
+    {
+        for (int h : list)
+            if (h == g)
+                return true;
+        return false;
+    }
+
+    // The large sparse instance: its matching must fit the counts and the
+    // lists, and its solve must stay within the budget of its lists.
+
+    void checkLarge ()
+    {
+        int m = GROUPS;
+        int w = GROUPS;
+        int[] mc = new int[m];
+        int[] wc = new int[w];
+        int[][] mp = new int[m][LIST_LENGTH];
+        int[] listed = new int[w];
+        for (int i = 0; i < m; i++) {
+            mc[i] = 1 + random.nextInt(4);
+            // LIST_LENGTH distinct random groups of women.
+            for (int k = 0; k < LIST_LENGTH; k++) {
+                int j;
+                boolean repeated;
+                do {
+                    j = random.nextInt(w);
+                    repeated = false;
+                    for (int l = 0; l < k; l++)
+                        repeated |= mp[i][l] == j;
+                } while (repeated);
+                mp[i][k] = j;
+                listed[j]++;
+            }
+        }
+        int[][] wp = new int[w][];
+        for (int j = 0; j < w; j++) {
+            wc[j] = 1 + random.nextInt(4);
+            wp[j] = new int[listed[j]];
+            listed[j] = 0;
+        }
+        for (int i = 0; i < m; i++)
+            for (int j : mp[i])
+                wp[j][listed[j]++] = i;
+        for (int j = 0; j < w; j++)
+            for (int k = wp[j].length - 1; k > 0; k--) {
+                int l = random.nextInt(k + 1);
+                int t = wp[j][k];
+                wp[j][k] = wp[j][l];
+                wp[j][l] = t;
+            }
+        long entries = 2L * m * LIST_LENGTH;
+
+        long thread = Thread.currentThread().getId();
+        long start = threads.getThreadAllocatedBytes(thread);
+        long startNanos = System.nanoTime();
+        SparseMatching mar = box.constructStableMatching(mc, wc, mp, wp);
+        long nanos = System.nanoTime() - startNanos;
+        long bytes = threads.getThreadAllocatedBytes(thread) - start;
+        long budget = BYTES_PER_GROUP * (m + w) + BYTES_PER_ENTRY * entries;
+
+        long married = 0;
+        int[] womenMarried = new int[w];
+        boolean fits = mar.menGroups() == m && mar.womenGroups() == w;
+        for (int i = 0; i < m && fits; i++) {
+            int row = 0;
+            for (int e = mar.rowStart(i); e < mar.rowEnd(i); e++) {
+                int j = mar.womenGroup(e);
+                row += mar.count(e);
+                womenMarried[j] += mar.count(e);
+                fits &= mar.count(e) > 0 && lists(mp[i], j);
+            }
+            fits &= row <= mc[i];
+            married += row;
+        }
+        for (int j = 0; j < w && fits; j++)
+            fits &= womenMarried[j] <= wc[j];
+
+        out.printf("m = w = %d, %d list entries: %d couples, %.1f ms, %d bytes (budget %d, m x w ints: %d)%s\n",
+                   GROUPS, entries, married, nanos / 1e6, bytes, budget, 4L * m * w,
+                   fits && bytes <= budget ? "" : "  FAILURE");
+        if (fits && bytes <= budget)
+            successes++;
+        else
+            failures++;
+    }
+
+    public boolean test ()
+    {
+        out.println("Starting incomplete-list tests...\n");
+
+        for (int t = 0; t < INSTANCES; t++) {
+            int m = 1 + random.nextInt(MAX_GROUPS);
+            int w = 1 + random.nextInt(MAX_GROUPS);
+            int[] mc = randomCounts(m);
+            int[] wc = randomCounts(w);
+            int[][] mp = new int[m][];
+            int[][] wp = new int[w][];
+            for (int i = 0; i < m; i++)
+                mp[i] = randomList(w);
+            for (int j = 0; j < w; j++)
+                wp[j] = randomList(m);
+            check(mc, wc, mp, wp, "random incomplete lists");
+            checkComplete(m, w);
+        }
+        checkLarge();
+
+        out.println();
+        out.printf("Done incomplete-list tests. In total, %d success(es) and %d failure(s).\n", successes, failures);
+        return failures == 0;
+    }
+
+    // Usage: java IncompleteStableMatchingTest
+    // The exit status is 1 when a check fails.
+
+    public static void main (String[] args)
+    {
+        boolean ok = new IncompleteStableMatchingTest(System.out, 0L).test();
+        System.exit(ok ? 0 : 1);
+    }
+}
@@ -0,0 +1,428 @@
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+  A stable matching kept up to date while its instance is edited.
+
+  The constructor solves an instance, and apply updates the matching after a Delta,
+  a set of changes of group counts and of preference lists, returning the men-optimal
+  stable matching of the edited instance.
+
+  The Gale-Shapley algorithm gives the men-optimal matching whatever the order of the
+  proposals, so a change that leaves every step of the previous run valid can be
+  repaired by going on with the proposals from the previous state:
+
+  - more men in a group: the new men are single, and propose from the current position
+    of their group, as if they had arrived last;
+  - fewer women in a group: its single women leave first, then women engaged to its
+    least attractive men, who become single, as if as many new men, the favourites of
+    the group of women, had proposed to it last;
+  - more women in a group that never had fewer single women than proposing men: every
+    proposal it received is accepted in the same way;
+  - new preferences of a group of men, equal to the old ones up to its current position;
+  - new preferences of a group of women, keeping the order of the groups of men that
+    proposed to it.
+
+  The work of such a repair is proportional to the proposals it makes.
+
+  The other changes (fewer men, more women in a group that rejected men, other new
+  preferences) can make a past rejection unjustified, and the proposals of the previous
+  run cannot be undone one by one: the remaining rejections can justify each other in a
+  cycle, ending in a stable matching that is not men-optimal. For these changes the
+  proposals are replayed from the start, but the preferences and the rank tables of the
+  instance are kept and only the edited rows are updated, so that the repair costs
+  O(m + w) plus the proposals, instead of the O(m * w) inversion of a new solve.
+  */
+public class IncrementalStableMatching {
+
+  // A set of changes to an instance, applied by IncrementalStableMatching.apply.
+  public static class Delta {
+    private final int[] menGroupChanges;
+    private final int[] womenGroupChanges;
+
+    // The groups whose counts are changed.
+    private final BitSet menGroupChanged = new BitSet();
+    private final BitSet womenGroupChanged = new BitSet();
+
+    private final Map<Integer, int[]> menPrefsChanges = new LinkedHashMap<Integer, int[]>();
+    private final Map<Integer, int[]> womenPrefsChanges = new LinkedHashMap<Integer, int[]>();
+
+    // A delta for an instance with m groups of men and w groups of women.
+    public Delta (int m, int w) {
+      menGroupChanges = new int[m];
+      womenGroupChanges = new int[w];
+    }
+
+    // Set the number of men of the group i.
+    public Delta menGroupCount (int i, int count) {
+      if (count < 0) {
+        throw new IllegalArgumentException("Negative group count " + count);
+      }
+      menGroupChanges[i] = count;
+      menGroupChanged.set(i);
+      return this;
+    }
+
+    // Set the number of women of the group j.
+    public Delta womenGroupCount (int j, int count) {
+      if (count < 0) {
+        throw new IllegalArgumentException("Negative group count " + count);
+      }
+      womenGroupChanges[j] = count;
+      womenGroupChanged.set(j);
+      return this;
+    }
+
+    // Set the preferences of the group of men i, a permutation of [0, w).
+    public Delta menPrefs (int i, int[] prefs) {
+      if (!PreferenceMatrix.isPermutation(prefs, new boolean[womenGroupChanges.length])) {
+        throw new IllegalArgumentException("The preferences of the group of men " + i + " are not a permutation of [0, " + womenGroupChanges.length + ")");
+      }
+      menPrefsChanges.put(i, prefs.clone());
+      return this;
+    }
+
+    // Set the preferences of the group of women j, a permutation of [0, m).
+    public Delta womenPrefs (int j, int[] prefs) {
+      if (!PreferenceMatrix.isPermutation(prefs, new boolean[menGroupChanges.length])) {
+        throw new IllegalArgumentException("The preferences of the group of women " + j + " are not a permutation of [0, " + menGroupChanges.length + ")");
+      }
+      womenPrefsChanges.put(j, prefs.clone());
+      return this;
+    }
+  }
+
+  private final int m;
+  private final int w;
+
+  // The instance, with its own copies of the preferences.
+  private final int[] menGroupCount;
+  private final int[] womenGroupCount;
+  private final PreferenceMatrix menPrefs;
+  private final PreferenceMatrix womenPrefs;
+
+  // menRanks.get(i, j) is the position of the women group j in the preferences of the men group i,
+  // and womenRanks.get(j, i) the position of the men group i in the preferences of the women group j.
+  private final PreferenceMatrix menRanks;
+  private final PreferenceMatrix womenRanks;
+
+  // The state of the Gale-Shapley algorithm, as in StableMatching.
+  private final int[] singleMenGroupCount;
+  private final int[] singleWomenGroupCount;
+  private final int[] mostUnproposedWomenGroup;
+  private final int[][] engagedCount;
+  private final RankHeap[] menGroupEngagedTo;
+
+  // Whether a group of women received a proposal from more men than its single women.
+  private final boolean[] saturated;
+
+  // The groups of men with single men, waiting to propose.
+  private final int[] pending;
+  private int pendingSize;
+  private final boolean[] isPending;
+
+  public IncrementalStableMatching (int[] menGroupCount, int[] womenGroupCount,
+      PreferenceMatrix menPrefs, PreferenceMatrix womenPrefs) {
+    m = menGroupCount.length;
+    w = womenGroupCount.length;
+    if (sum(menGroupCount) != sum(womenGroupCount)) {
+      throw new IllegalArgumentException("There are not as many men as women");
+    }
+    this.menGroupCount = menGroupCount.clone();
+    this.womenGroupCount = womenGroupCount.clone();
+    this.menPrefs = PreferenceMatrix.allocate(m, w);
+    this.womenPrefs = PreferenceMatrix.allocate(w, m);
+    menRanks = PreferenceMatrix.allocate(m, w);
+    womenRanks = PreferenceMatrix.allocate(w, m);
+    int[] row = new int[w];
+    for (int i = 0; i < m; i++) {
+      menPrefs.getRow(i, row);
+      setMenRow(i, row);
+    }
+    row = new int[m];
+    for (int j = 0; j < w; j++) {
+      womenPrefs.getRow(j, row);
+      setWomenRow(j, row);
+    }
+
+    singleMenGroupCount = new int[m];
+    singleWomenGroupCount = this.womenGroupCount.clone();
+    mostUnproposedWomenGroup = new int[m];
+    engagedCount = new int[m][];
+    for (int i = 0; i < m; i++) {
+      engagedCount[i] = new int[Math.min(w, StableMatching.INITIAL_ROW_CAPACITY)];
+    }
+    menGroupEngagedTo = new RankHeap[w];
+    for (int j = 0; j < w; j++) {
+      menGroupEngagedTo[j] = new RankHeap();
+    }
+    saturated = new boolean[w];
+    pending = new int[m];
+    isPending = new boolean[m];
+
+    restart();
+  }
+
+  public IncrementalStableMatching (int[] menGroupCount, int[] womenGroupCount, int[][] menPrefs, int[][] womenPrefs) {
+    this(menGroupCount, womenGroupCount,
+        PreferenceMatrix.wrap(menPrefs, womenGroupCount.length),
+        PreferenceMatrix.wrap(womenPrefs, menGroupCount.length));
+  }
+
+  // The current men-optimal stable matching.
+  public SparseMatching matching () {
+    return StableMatching.toSparseMatching(m, w, menPrefs, engagedCount, mostUnproposedWomenGroup);
+  }
+
+  // Apply the changes of the delta to the instance, and return its men-optimal stable matching.
+  public SparseMatching apply (Delta delta) {
+    if (delta.menGroupChanges.length != m || delta.womenGroupChanges.length != w) {
+      throw new IllegalArgumentException("The delta is for another instance size");
+    }
+    long menDifference = 0;
+    long womenDifference = 0;
+    for (int i = 0; i < m; i++) {
+      if (delta.menGroupChanged.get(i)) {
+        menDifference += delta.menGroupChanges[i] - menGroupCount[i];
+      }
+    }
+    for (int j = 0; j < w; j++) {
+      if (delta.womenGroupChanged.get(j)) {
+        womenDifference += delta.womenGroupChanges[j] - womenGroupCount[j];
+      }
+    }
+    if (menDifference != womenDifference) {
+      throw new IllegalArgumentException("The delta does not keep as many men as women");
+    }
+
+    // The changes are checked against the previous run before any of them is made.
+    boolean replay = false;
+    for (int i = 0; i < m && !replay; i++) {
+      replay = delta.menGroupChanged.get(i) && delta.menGroupChanges[i] < menGroupCount[i];
+    }
+    for (int j = 0; j < w && !replay; j++) {
+      replay = delta.womenGroupChanged.get(j) && delta.womenGroupChanges[j] > womenGroupCount[j] && saturated[j];
+    }
+    for (Map.Entry<Integer, int[]> change : delta.menPrefsChanges.entrySet()) {
+      if (change.getValue().length != w) {
+        throw new IllegalArgumentException("The preferences of a group of men must have " + w + " elements");
+      }
+      replay = replay || !keepsMenRun(change.getKey(), change.getValue());
+    }
+    for (Map.Entry<Integer, int[]> change : delta.womenPrefsChanges.entrySet()) {
+      if (change.getValue().length != m) {
+        throw new IllegalArgumentException("The preferences of a group of women must have " + m + " elements");
+      }
+      replay = replay || !keepsWomenRun(change.getKey(), change.getValue());
+    }
+
+    for (Map.Entry<Integer, int[]> change : delta.menPrefsChanges.entrySet()) {
+      setMenRow(change.getKey(), change.getValue());
+    }
+    for (Map.Entry<Integer, int[]> change : delta.womenPrefsChanges.entrySet()) {
+      setWomenRow(change.getKey(), change.getValue());
+      if (!replay) {
+        rankEngaged(change.getKey());
+      }
+    }
+
+    if (replay) {
+      for (int i = 0; i < m; i++) {
+        if (delta.menGroupChanged.get(i)) {
+          menGroupCount[i] = delta.menGroupChanges[i];
+        }
+      }
+      for (int j = 0; j < w; j++) {
+        if (delta.womenGroupChanged.get(j)) {
+          womenGroupCount[j] = delta.womenGroupChanges[j];
+        }
+      }
+      restart();
+    }
+    else {
+      // The groups set to their current count are left alone.
+      for (int j = 0; j < w; j++) {
+        if (!delta.womenGroupChanged.get(j) || delta.womenGroupChanges[j] == womenGroupCount[j]) {
+          continue;
+        }
+        if (delta.womenGroupChanges[j] > womenGroupCount[j]) {
+          singleWomenGroupCount[j] += delta.womenGroupChanges[j] - womenGroupCount[j];
+        }
+        else {
+          removeWomen(j, womenGroupCount[j] - delta.womenGroupChanges[j]);
+        }
+        womenGroupCount[j] = delta.womenGroupChanges[j];
+      }
+      for (int i = 0; i < m; i++) {
+        if (delta.menGroupChanged.get(i) && delta.menGroupChanges[i] != menGroupCount[i]) {
+          singleMenGroupCount[i] += delta.menGroupChanges[i] - menGroupCount[i];
+          menGroupCount[i] = delta.menGroupChanges[i];
+          makePending(i);
+        }
+      }
+      propose();
+    }
+    return matching();
+  }
+
+  // Forget the proposals, and run the Gale-Shapley algorithm from the start.
+  private void restart () {
+    for (int i = 0; i < m; i++) {
+      int[] row = engagedCount[i];
+      Arrays.fill(row, 0, Math.min(row.length, mostUnproposedWomenGroup[i] + 1), 0);
+      mostUnproposedWomenGroup[i] = 0;
+      singleMenGroupCount[i] = menGroupCount[i];
+    }
+    for (int j = 0; j < w; j++) {
+      menGroupEngagedTo[j].clear();
+      singleWomenGroupCount[j] = womenGroupCount[j];
+    }
+    Arrays.fill(saturated, false);
+    pendingSize = 0;
+    Arrays.fill(isPending, false);
+    for (int i = 0; i < m; i++) {
+      makePending(i);
+    }
+    propose();
+  }
+
+  // The sum of the given counts, which must be non-negative.
+  private static long sum (int[] counts) {
+    long total = 0;
+    for (int c : counts) {
+      if (c < 0) {
+        throw new IllegalArgumentException("Negative group count " + c);
+      }
+      total += c;
+    }
+    return total;
+  }
+
+  private void setMenRow (int i, int[] row) {
+    menPrefs.setRow(i, row);
+    for (int k = 0; k < w; k++) {
+      menRanks.set(i, row[k], k);
+    }
+  }
+
+  private void setWomenRow (int j, int[] row) {
+    womenPrefs.setRow(j, row);
+    for (int k = 0; k < m; k++) {
+      womenRanks.set(j, row[k], k);
+    }
+  }
+
+  // Whether the new preferences of the men group i are the old ones up to its current position.
+  private boolean keepsMenRun (int i, int[] row) {
+    for (int k = 0; k <= mostUnproposedWomenGroup[i]; k++) {
+      if (row[k] != menPrefs.get(i, k)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // Whether the new preferences of the women group j keep the order of the men groups that
+  // proposed to it, the groups whose current position is at or after j.
+  private boolean keepsWomenRun (int j, int[] row) {
+    int last = -1;
+    for (int k = 0; k < m; k++) {
+      int i = row[k];
+      if (menRanks.get(i, j) <= mostUnproposedWomenGroup[i]) {
+        if (womenRanks.get(j, i) < last) {
+          return false;
+        }
+        last = womenRanks.get(j, i);
+      }
+    }
+    return true;
+  }
+
+  // Fill the heap of the women group j again, with the ranks of its new preferences.
+  private void rankEngaged (int j) {
+    RankHeap engaged = menGroupEngagedTo[j];
+    engaged.clear();
+    for (int i = 0; i < m; i++) {
+      int position = menRanks.get(i, j);
+      if (position <= mostUnproposedWomenGroup[i] && engagedCount[i][position] > 0) {
+        engaged.offer(womenRanks.get(j, i), position);
+      }
+    }
+  }
+
+  private void makePending (int i) {
+    if (!isPending[i] && singleMenGroupCount[i] > 0) {
+      isPending[i] = true;
+      pending[pendingSize++] = i;
+    }
+  }
+
+  // Remove the given number of women of the group j: single women first, then
+  // women engaged to the least attractive men, who become single.
+  private void removeWomen (int j, int leaving) {
+    int c = Math.min(leaving, singleWomenGroupCount[j]);
+    singleWomenGroupCount[j] -= c;
+    leaving -= c;
+    saturated[j] |= leaving > 0;
+    RankHeap engaged = menGroupEngagedTo[j];
+    while (leaving > 0) {
+      int t = womenPrefs.get(j, engaged.peek());
+      int position = engaged.peekPayload();
+      c = Math.min(leaving, engagedCount[t][position]);
+      engagedCount[t][position] -= c;
+      if (engagedCount[t][position] == 0) {
+        engaged.poll();
+      }
+      singleMenGroupCount[t] += c;
+      makePending(t);
+      leaving -= c;
+    }
+  }
+
+  // Run the Gale-Shapley proposals until no group of men has single men.
+  private void propose () {
+    while (pendingSize > 0) {
+      int i = pending[--pendingSize];
+      isPending[i] = false;
+      while (singleMenGroupCount[i] > 0) {
+        int position = mostUnproposedWomenGroup[i];
+        int j = menPrefs.get(i, position);
+        int[] row = engagedCount[i];
+        RankHeap engaged = menGroupEngagedTo[j];
+        int rank = womenRanks.get(j, i);
+        int c;
+        saturated[j] |= singleWomenGroupCount[j] < singleMenGroupCount[i];
+        if (singleWomenGroupCount[j] > 0) {
+          c = Math.min(singleWomenGroupCount[j], singleMenGroupCount[i]);
+          singleWomenGroupCount[j] -= c;
+        }
+        else if (!engaged.isEmpty() && rank < engaged.peek()) {
+          int t = womenPrefs.get(j, engaged.peek());
+          int tPosition = engaged.peekPayload();
+          c = Math.min(engagedCount[t][tPosition], singleMenGroupCount[i]);
+          engagedCount[t][tPosition] -= c;
+          if (engagedCount[t][tPosition] == 0) {
+            engaged.poll();
+          }
+          singleMenGroupCount[t] += c;
+          makePending(t);
+        }
+        else {
+          // The proposal was not accepted. We go to the next women group.
+          mostUnproposedWomenGroup[i] = position + 1;
+          if (position + 1 == row.length) {
+            engagedCount[i] = Arrays.copyOf(row, Math.min(w, 2 * row.length));
+          }
+          continue;
+        }
+        if (row[position] == 0) {
+          engaged.offer(rank, position);
+        }
+        row[position] += c;
+        singleMenGroupCount[i] -= c;
+      }
+    }
+  }
+}
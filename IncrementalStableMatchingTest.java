@@ -0,0 +1,184 @@
+// A test of IncrementalStableMatching: random deltas are applied to random
+// instances, and every matching is compared with a full solve of the edited
+// instance by StableMatching.
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Random;
+
+public class IncrementalStableMatchingTest {
+
+    // The number of instances, the deltas applied to each of them, and the
+    // largest number of groups of men or women of an instance.
+
+    public final static int INSTANCES = 1000;
+
+    public final static int DELTAS = 20;
+
+    public final static int MAX_GROUPS = 12;
+
+    // This is the output stream of the tests.
+
+    private PrintStream out;
+
+    private Random random;
+
+    private StableMatchingTest generator;
+
+    private int failures, successes;
+
+    IncrementalStableMatchingTest (PrintStream out, long seed)
+    {
+        this.out = out;
+        this.random = new Random(seed);
+        this.generator = new StableMatchingTest(null, out, random);
+    }
+
+    // The preferences with two consecutive groups swapped, from the position
+    // from on, or the same ones when they have less than two groups.
+
+    int[] swap (int[] prefs, int from)
+    {
+        int[] res = prefs.clone();
+        if (prefs.length > 1) {
+            int k = Math.min(from, prefs.length - 2) + random.nextInt(prefs.length - 1 - Math.min(from, prefs.length - 2));
+            res[k] = prefs[k + 1];
+            res[k + 1] = prefs[k];
+        }
+        return res;
+    }
+
+    // Record a delta on the counts and preferences mc, wc, mp, wp, changing
+    // them in place. Every kind of change of IncrementalStableMatching is drawn:
+    // the changes it repairs and the ones it replays.
+
+    IncrementalStableMatching.Delta delta (int[] mc, int[] wc, int[][] mp, int[][] wp)
+    {
+        int m = mc.length;
+        int w = wc.length;
+        IncrementalStableMatching.Delta delta = new IncrementalStableMatching.Delta(m, w);
+        int i = random.nextInt(m);
+        int j = random.nextInt(w);
+        int d = 1 + random.nextInt(3);
+        switch (random.nextInt(8)) {
+        case 0:
+            // More men and more women.
+            mc[i] += d;
+            wc[j] += d;
+            delta.menGroupCount(i, mc[i]).womenGroupCount(j, wc[j]);
+            break;
+        case 1:
+            // Fewer men and fewer women.
+            d = Math.min(d, Math.min(mc[i], wc[j]));
+            mc[i] -= d;
+            wc[j] -= d;
+            delta.menGroupCount(i, mc[i]).womenGroupCount(j, wc[j]);
+            break;
+        case 2:
+            // Women moving from a group to another one.
+            int k = random.nextInt(w);
+            d = Math.min(d, wc[j]);
+            wc[j] -= d;
+            wc[k] += d;
+            delta.womenGroupCount(j, wc[j]).womenGroupCount(k, wc[k]);
+            break;
+        case 3:
+            // Men moving from a group to another one.
+            int l = random.nextInt(m);
+            d = Math.min(d, mc[i]);
+            mc[i] -= d;
+            mc[l] += d;
+            delta.menGroupCount(i, mc[i]).menGroupCount(l, mc[l]);
+            break;
+        case 4:
+            // New preferences of a group of men, likely kept up to its position.
+            mp[i] = swap(mp[i], w / 2);
+            delta.menPrefs(i, mp[i]);
+            break;
+        case 5:
+            // New preferences of a group of women.
+            wp[j] = swap(wp[j], 0);
+            delta.womenPrefs(j, wp[j]);
+            break;
+        case 6:
+            // Counts set to their current values, which change nothing.
+            delta.menGroupCount(i, mc[i]).womenGroupCount(j, wc[j]);
+            break;
+        default:
+            // New random preferences on both sides.
+            mp[i] = generator.randomPermutation(w);
+            wp[j] = generator.randomPermutation(m);
+            delta.menPrefs(i, mp[i]).womenPrefs(j, wp[j]);
+        }
+        return delta;
+    }
+
+    // Compare the matching of the incremental engine with a full solve.
+
+    void check (SparseMatching matching, int[] mc, int[] wc, int[][] mp, int[][] wp, String what)
+    {
+        int[][] expected = new StableMatching().constructStableMatching(mc.clone(), wc.clone(), mp, wp);
+        if (Arrays.deepEquals(matching.toArray(), expected)) {
+            successes++;
+        }
+        else {
+            failures++;
+            out.printf("FAILURE: %s of a %d x %d instance is not the matching of a full solve\n",
+                       what, mc.length, wc.length);
+        }
+    }
+
+    // Check that an invalid change is rejected with an IllegalArgumentException.
+
+    void checkRejected (Runnable change, String what)
+    {
+        try {
+            change.run();
+            failures++;
+            out.printf("FAILURE: %s is accepted\n", what);
+        } catch (IllegalArgumentException e) {
+            successes++;
+        }
+    }
+
+    public boolean test ()
+    {
+        out.println("Starting incremental tests...\n");
+
+        for (int t = 0; t < INSTANCES; t++) {
+            int m = 1 + random.nextInt(MAX_GROUPS);
+            int w = 1 + random.nextInt(MAX_GROUPS);
+            int[][] mw = generator.randomMW(m, w, Math.max(m, w) + random.nextInt(4 * m * w), Integer.MAX_VALUE);
+            int[] mc = mw[0];
+            int[] wc = mw[1];
+            int[][] mp = generator.randomPrefs(m, w);
+            int[][] wp = generator.randomPrefs(w, m);
+            IncrementalStableMatching engine = new IncrementalStableMatching(mc, wc, mp, wp);
+            check(engine.matching(), mc, wc, mp, wp, "the first matching");
+            for (int d = 0; d < DELTAS; d++) {
+                IncrementalStableMatching.Delta delta = delta(mc, wc, mp, wp);
+                check(engine.apply(delta), mc, wc, mp, wp, "the matching after " + (d + 1) + " deltas");
+            }
+        }
+
+        IncrementalStableMatching.Delta delta = new IncrementalStableMatching.Delta(3, 3);
+        checkRejected(() -> delta.menGroupCount(0, -5), "a negative count of men");
+        checkRejected(() -> delta.womenGroupCount(1, -1), "a negative count of women");
+        checkRejected(() -> delta.menPrefs(0, new int[] { 0, 1, 1 }), "a row of men preferences with a repeated group");
+        checkRejected(() -> delta.menPrefs(0, new int[] { 0, 1 }), "a short row of men preferences");
+        checkRejected(() -> delta.womenPrefs(2, new int[] { 0, 1, 3 }), "a row of women preferences out of range");
+
+        out.println();
+        out.printf("Done incremental tests. In total, %d success(es) and %d failure(s).\n", successes, failures);
+        return failures == 0;
+    }
+
+    // Usage: java IncrementalStableMatchingTest
+    // The exit status is 1 when a check fails.
+
+    public static void main (String[] args)
+    {
+        boolean ok = new IncrementalStableMatchingTest(System.out, 0L).test();
+        System.exit(ok ? 0 : 1);
+    }
+}
@@ -0,0 +1,76 @@
+/*
+  An immutable problem instance: the group counts and the preferences of the groups of
+  men and women, as described in StableMatchingInterface.
+
+  The group counts are copied, and the preferences are kept as read-only views of the
+  given matrices (see PreferenceMatrix.readOnly), without copying them: a solver cannot
+  change an instance, so that any number of solvers and verifiers, in any number of
+  threads, can share one instance. The owner of the matrices must not change them
+  while the instance is in use.
+  */
+public final class Instance {
+
+  // The solvers of this package read the counts without copying them, and never change them.
+  final int[] menGroupCount;
+  final int[] womenGroupCount;
+  private final PreferenceMatrix menPrefs;
+  private final PreferenceMatrix womenPrefs;
+
+  public Instance (int[] menGroupCount, int[] womenGroupCount, PreferenceMatrix menPrefs, PreferenceMatrix womenPrefs) {
+    int m = menGroupCount.length;
+    int w = womenGroupCount.length;
+    if (menPrefs.rows() != m || menPrefs.columns() != w || womenPrefs.rows() != w || womenPrefs.columns() != m) {
+      throw new IllegalArgumentException("Preference matrices do not match the group counts");
+    }
+    this.menGroupCount = menGroupCount.clone();
+    this.womenGroupCount = womenGroupCount.clone();
+    this.menPrefs = menPrefs.readOnly();
+    this.womenPrefs = womenPrefs.readOnly();
+  }
+
+  public Instance (int[] menGroupCount, int[] womenGroupCount, int[][] menPrefs, int[][] womenPrefs) {
+    this(menGroupCount, womenGroupCount,
+        PreferenceMatrix.wrap(menPrefs, womenGroupCount.length),
+        PreferenceMatrix.wrap(womenPrefs, menGroupCount.length));
+  }
+
+  // The number of men groups.
+  public int m () {
+    return menGroupCount.length;
+  }
+
+  // The number of women groups.
+  public int w () {
+    return womenGroupCount.length;
+  }
+
+  // The number of men in the group i.
+  public int menGroupCount (int i) {
+    return menGroupCount[i];
+  }
+
+  // The number of women in the group j.
+  public int womenGroupCount (int j) {
+    return womenGroupCount[j];
+  }
+
+  // A fresh copy of the counts of the men groups.
+  public int[] menGroupCount () {
+    return menGroupCount.clone();
+  }
+
+  // A fresh copy of the counts of the women groups.
+  public int[] womenGroupCount () {
+    return womenGroupCount.clone();
+  }
+
+  // The read-only men preferences.
+  public PreferenceMatrix menPrefs () {
+    return menPrefs;
+  }
+
+  // The read-only women preferences.
+  public PreferenceMatrix womenPrefs () {
+    return womenPrefs;
+  }
+}
@@ -0,0 +1,220 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/*
+  A binary file holding a problem instance and, optionally, its marriage matrix.
+
+  The file is little-endian and laid out as follows:
+
+    int     MAGIC ("SMIF")
+    int     VERSION
+    int     m, the number of men groups
+    int     w, the number of women groups
+    int     1 if the file holds a marriage matrix, 0 otherwise
+    int[m]  menGroupCount
+    int[w]  womenGroupCount
+    menPrefs, m x w cells of PreferenceMatrix.cellBytes(w) bytes, in row-major order
+    womenPrefs, w x m cells of PreferenceMatrix.cellBytes(m) bytes, in row-major order
+    int[m * w]  the marriage matrix in row-major order, if present
+
+  The reader maps the file in memory with FileChannel.map, and the preference matrices
+  are PreferenceMatrix views of the mapping: the rows are read directly from the page
+  cache, without parsing the file and without copying the matrices on the heap.
+  */
+public class InstanceFile {
+
+  public static final int MAGIC = 0x534D4946;
+
+  public static final int VERSION = 1;
+
+  // The size of the header in bytes.
+  static final int HEADER_BYTES = 5 * 4;
+
+  // The size of the buffer used by the writer.
+  static final int WRITE_BUFFER_BYTES = 1 << 20;
+
+  private final int[] menGroupCount;
+  private final int[] womenGroupCount;
+  private final PreferenceMatrix menPrefs;
+  private final PreferenceMatrix womenPrefs;
+
+  // The mapping of the marriage matrix, null if the file does not hold one.
+  private final ByteBuffer marriages;
+
+  private InstanceFile (int[] menGroupCount, int[] womenGroupCount,
+      PreferenceMatrix menPrefs, PreferenceMatrix womenPrefs, ByteBuffer marriages) {
+    this.menGroupCount = menGroupCount;
+    this.womenGroupCount = womenGroupCount;
+    this.menPrefs = menPrefs;
+    this.womenPrefs = womenPrefs;
+    this.marriages = marriages;
+  }
+
+  public int[] menGroupCount () {
+    return menGroupCount;
+  }
+
+  public int[] womenGroupCount () {
+    return womenGroupCount;
+  }
+
+  public PreferenceMatrix menPrefs () {
+    return menPrefs;
+  }
+
+  public PreferenceMatrix womenPrefs () {
+    return womenPrefs;
+  }
+
+  public boolean hasMarriages () {
+    return marriages != null;
+  }
+
+  // Return the number of couples formed by the men group i and the women group j.
+  public int marriages (int i, int j) {
+    return marriages.getInt((i * womenGroupCount.length + j) * 4);
+  }
+
+  // Return a fresh copy of the marriage matrix, null if the file does not hold one.
+  public int[][] marriages () {
+    if (marriages == null) {
+      return null;
+    }
+    int m = menGroupCount.length;
+    int w = womenGroupCount.length;
+    int[][] mar = new int[m][w];
+    for (int i = 0; i < m; i++) {
+      for (int j = 0; j < w; j++) {
+        mar[i][j] = marriages(i, j);
+      }
+    }
+    return mar;
+  }
+
+  // Write an instance, and its marriage matrix when mar is not null, in the given file.
+  public static void write (Path path, int[] menGroupCount, int[] womenGroupCount,
+      PreferenceMatrix menPrefs, PreferenceMatrix womenPrefs, int[][] mar) throws IOException {
+    int m = menGroupCount.length;
+    int w = womenGroupCount.length;
+    if (menPrefs.rows() != m || menPrefs.columns() != w || womenPrefs.rows() != w || womenPrefs.columns() != m) {
+      throw new IllegalArgumentException("Preference matrices do not match the group counts");
+    }
+    try (FileChannel channel = FileChannel.open(path,
+          StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+      buffer.putInt(MAGIC);
+      buffer.putInt(VERSION);
+      buffer.putInt(m);
+      buffer.putInt(w);
+      buffer.putInt(mar == null ? 0 : 1);
+      for (int i = 0; i < m; i++) {
+        putCell(channel, buffer, 4, menGroupCount[i]);
+      }
+      for (int j = 0; j < w; j++) {
+        putCell(channel, buffer, 4, womenGroupCount[j]);
+      }
+      putMatrix(channel, buffer, menPrefs);
+      putMatrix(channel, buffer, womenPrefs);
+      if (mar != null) {
+        for (int i = 0; i < m; i++) {
+          for (int j = 0; j < w; j++) {
+            putCell(channel, buffer, 4, mar[i][j]);
+          }
+        }
+      }
+      flush(channel, buffer);
+    }
+  }
+
+  // Write an instance given with jagged preferences.
+  public static void write (Path path, int[] menGroupCount, int[] womenGroupCount,
+      int[][] menPrefs, int[][] womenPrefs, int[][] mar) throws IOException {
+    write(path, menGroupCount, womenGroupCount,
+        PreferenceMatrix.wrap(menPrefs, womenGroupCount.length),
+        PreferenceMatrix.wrap(womenPrefs, menGroupCount.length), mar);
+  }
+
+  // Map the given file in memory.
+  public static InstanceFile map (Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      ByteBuffer header = map(channel, 0, HEADER_BYTES);
+      if (header.getInt() != MAGIC) {
+        throw new IOException(path + " is not an instance file");
+      }
+      int version = header.getInt();
+      if (version != VERSION) {
+        throw new IOException(path + " has unsupported version " + version);
+      }
+      int m = header.getInt();
+      int w = header.getInt();
+      boolean hasMarriages = header.getInt() != 0;
+      if (m < 0 || w < 0) {
+        throw new IOException(path + " has invalid dimensions " + m + " x " + w);
+      }
+
+      long position = HEADER_BYTES;
+      ByteBuffer counts = map(channel, position, 4L * (m + w));
+      int[] menGroupCount = new int[m];
+      int[] womenGroupCount = new int[w];
+      counts.asIntBuffer().get(menGroupCount).get(womenGroupCount);
+      position += 4L * (m + w);
+
+      long menBytes = (long) m * w * PreferenceMatrix.cellBytes(w);
+      PreferenceMatrix menPrefs = PreferenceMatrix.wrap(map(channel, position, menBytes), m, w);
+      position += menBytes;
+
+      long womenBytes = (long) w * m * PreferenceMatrix.cellBytes(m);
+      PreferenceMatrix womenPrefs = PreferenceMatrix.wrap(map(channel, position, womenBytes), w, m);
+      position += womenBytes;
+
+      ByteBuffer marriages = hasMarriages ? map(channel, position, 4L * m * w) : null;
+
+      // The mappings remain valid once the channel is closed.
+      return new InstanceFile(menGroupCount, womenGroupCount, menPrefs, womenPrefs, marriages);
+    }
+  }
+
+  private static ByteBuffer map (FileChannel channel, long position, long size) throws IOException {
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException("Section of " + size + " bytes is too large to be mapped");
+    }
+    if (position + size > channel.size()) {
+      throw new IOException("Truncated instance file");
+    }
+    return channel.map(FileChannel.MapMode.READ_ONLY, position, size).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  private static void putMatrix (FileChannel channel, ByteBuffer buffer, PreferenceMatrix prefs) throws IOException {
+    int width = PreferenceMatrix.cellBytes(prefs.columns());
+    int[] row = new int[prefs.columns()];
+    for (int i = 0; i < prefs.rows(); i++) {
+      prefs.getRow(i, row);
+      for (int k = 0; k < row.length; k++) {
+        putCell(channel, buffer, width, row[k]);
+      }
+    }
+  }
+
+  private static void putCell (FileChannel channel, ByteBuffer buffer, int width, int value) throws IOException {
+    if (buffer.remaining() < width) {
+      flush(channel, buffer);
+    }
+    switch (width) {
+      case 1: buffer.put((byte) value); break;
+      case 2: buffer.putChar((char) value); break;
+      default: buffer.putInt(value);
+    }
+  }
+
+  private static void flush (FileChannel channel, ByteBuffer buffer) throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+}
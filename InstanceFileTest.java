@@ -0,0 +1,213 @@
+// A test of InstanceFile: instances written and mapped back must have the
+// same counts, preferences and marriage matrix, with cells of one, two or
+// four bytes on both sides of the boundaries, the solve of the mapped
+// matrices must be the one of the arrays, and files with a wrong magic
+// number, an unknown version or a truncated section must be rejected.
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+public class InstanceFileTest {
+
+    // The number of random instances, and their largest number of groups of
+    // men or women.
+
+    public final static int INSTANCES = 200;
+
+    public final static int MAX_GROUPS = 12;
+
+    // The numbers of groups on both sides of the boundaries of the cell
+    // widths (see PreferenceMatrix.cellBytes), and the width of their cells.
+
+    public final static int[] WIDE = { 255, 256, 257, 65535, 65536, 65537 };
+
+    public final static int[] WIDE_CELL_BYTES = { 1, 1, 2, 2, 2, 4 };
+
+    // The number of groups on the other side of the wide instances.
+
+    public final static int NARROW = 2;
+
+    // This is the output stream of the tests.
+
+    private PrintStream out;
+
+    private Random random;
+
+    private StableMatchingTest generator;
+
+    private Path directory;
+
+    private int failures, successes;
+
+    InstanceFileTest (PrintStream out, long seed)
+    {
+        this.out = out;
+        this.random = new Random(seed);
+        this.generator = new StableMatchingTest(null, out, random);
+    }
+
+    void check (boolean ok, String what)
+    {
+        if (ok) {
+            successes++;
+        }
+        else {
+            failures++;
+            out.printf("FAILURE: %s\n", what);
+        }
+    }
+
+    // n people in g groups, as even as possible.
+
+    static int[] evenCounts (int n, int g)
+    {
+        int[] counts = new int[g];
+        for (int k = 0; k < g; k++)
+            counts[k] = n / g + (k < n % g ? 1 : 0);
+        return counts;
+    }
+
+    // Write the instance, with its marriage matrix or not, map it back, and
+    // compare everything, the solve of the mapped matrices included.
+
+    void roundTrip (int[] mc, int[] wc, int[][] mp, int[][] wp, boolean withMarriages) throws IOException
+    {
+        int m = mc.length;
+        int w = wc.length;
+        String what = m + " x " + w + (withMarriages ? " with marriages" : "");
+        int[][] mar = new StableMatching().constructStableMatching(mc, wc, mp, wp);
+        Path path = directory.resolve("instance.smi");
+        InstanceFile.write(path, mc, wc, mp, wp, withMarriages ? mar : null);
+        check(Files.size(path) == InstanceFile.HEADER_BYTES + 4L * (m + w)
+              + (long) m * w * (PreferenceMatrix.cellBytes(w) + PreferenceMatrix.cellBytes(m))
+              + (withMarriages ? 4L * m * w : 0), "the file of a " + what + " instance does not have its size");
+
+        InstanceFile file = InstanceFile.map(path);
+        check(Arrays.equals(file.menGroupCount(), mc) && Arrays.equals(file.womenGroupCount(), wc),
+              "the counts of a " + what + " instance are not read back");
+        check(file.menPrefs().cellBytes() == PreferenceMatrix.cellBytes(w)
+              && file.womenPrefs().cellBytes() == PreferenceMatrix.cellBytes(m),
+              "the cells of a " + what + " instance do not have the width of their columns");
+        check(Arrays.deepEquals(file.menPrefs().toArray(), mp) && Arrays.deepEquals(file.womenPrefs().toArray(), wp),
+              "the preferences of a " + what + " instance are not read back");
+        check(file.hasMarriages() == withMarriages && Arrays.deepEquals(file.marriages(), withMarriages ? mar : null),
+              "the marriage matrix of a " + what + " instance is not read back");
+        if (withMarriages) {
+            int i = random.nextInt(m);
+            int j = random.nextInt(w);
+            check(file.marriages(i, j) == mar[i][j], "the cell (" + i + ", " + j + ") of a " + what + " instance is not read back");
+        }
+        check(Arrays.deepEquals(new StableMatching().constructStableMatching(file.menGroupCount(), file.womenGroupCount(),
+                                                                            file.menPrefs(), file.womenPrefs()), mar),
+              "the solve of the mapped matrices of a " + what + " instance is not the one of the arrays");
+    }
+
+    // A file that InstanceFile.map must reject.
+
+    void checkRejected (Path path, String what)
+    {
+        try {
+            InstanceFile.map(path);
+            check(false, what + " is accepted");
+        } catch (IOException e) {
+            successes++;
+        }
+    }
+
+    void rewrite (Path path, int offset, int value) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            ByteBuffer cell = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(0, value);
+            channel.write(cell, offset);
+        }
+    }
+
+    void truncate (Path path, long size) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(size);
+        }
+    }
+
+    // A wrong magic number, an unknown version, and files truncated in every
+    // section.
+
+    void checkRejections () throws IOException
+    {
+        int[][] mw = generator.randomMW(5, 7, 40, Integer.MAX_VALUE);
+        int[][] mp = generator.randomPrefs(5, 7);
+        int[][] wp = generator.randomPrefs(7, 5);
+        int[][] mar = new StableMatching().constructStableMatching(mw[0], mw[1], mp, wp);
+        Path path = directory.resolve("rejected.smi");
+
+        InstanceFile.write(path, mw[0], mw[1], mp, wp, mar);
+        rewrite(path, 0, InstanceFile.MAGIC + 1);
+        checkRejected(path, "a file with a wrong magic number");
+
+        InstanceFile.write(path, mw[0], mw[1], mp, wp, mar);
+        rewrite(path, 4, InstanceFile.VERSION + 1);
+        checkRejected(path, "a file with an unknown version");
+
+        InstanceFile.write(path, mw[0], mw[1], mp, wp, mar);
+        long size = Files.size(path);
+        long counts = InstanceFile.HEADER_BYTES + 4 * (5 + 7);
+        long[] sizes = { 0, 3, InstanceFile.HEADER_BYTES - 1, InstanceFile.HEADER_BYTES + 5, counts + 1, counts + 5 * 7 + 1, size - 1 };
+        for (long truncated : sizes) {
+            InstanceFile.write(path, mw[0], mw[1], mp, wp, mar);
+            truncate(path, truncated);
+            checkRejected(path, "a file truncated to " + truncated + " of its " + size + " bytes");
+        }
+        Files.deleteIfExists(path);
+    }
+
+    public boolean test () throws IOException
+    {
+        out.println("Starting instance file tests...\n");
+
+        directory = Files.createTempDirectory("instance-file-test");
+        try {
+            for (int t = 0; t < INSTANCES; t++) {
+                int m = 1 + random.nextInt(MAX_GROUPS);
+                int w = 1 + random.nextInt(MAX_GROUPS);
+                int[][] mw = generator.randomMW(m, w, Math.max(m, w) + random.nextInt(4 * m * w), Integer.MAX_VALUE);
+                roundTrip(mw[0], mw[1], generator.randomPrefs(m, w), generator.randomPrefs(w, m), t % 2 == 0);
+            }
+
+            // The wide instances, with the wide side on the men and on the women.
+            for (int k = 0; k < WIDE.length; k++) {
+                int n = WIDE[k];
+                check(PreferenceMatrix.cellBytes(n) == WIDE_CELL_BYTES[k], n + " columns do not take " + WIDE_CELL_BYTES[k] + " bytes");
+                int[] narrow = evenCounts(n, NARROW);
+                int[] wide = generator.unit(n);
+                roundTrip(narrow, wide, generator.randomPrefs(NARROW, n), generator.randomPrefs(n, NARROW), k % 2 == 0);
+                roundTrip(wide, narrow, generator.randomPrefs(n, NARROW), generator.randomPrefs(NARROW, n), k % 2 != 0);
+            }
+
+            checkRejections();
+        } finally {
+            Files.deleteIfExists(directory.resolve("instance.smi"));
+            Files.deleteIfExists(directory);
+        }
+
+        out.println();
+        out.printf("Done instance file tests. In total, %d success(es) and %d failure(s).\n", successes, failures);
+        return failures == 0;
+    }
+
+    // Usage: java InstanceFileTest
+    // The exit status is 1 when a check fails.
+
+    public static void main (String[] args) throws IOException
+    {
+        boolean ok = new InstanceFileTest(System.out, 0L).test();
+        System.exit(ok ? 0 : 1);
+    }
+}
@@ -0,0 +1,257 @@
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntConsumer;
+
+/*
+  A generator of random instances, the same for the same seed whatever the number of threads.
+
+  Every matrix or array of group counts is drawn from its own seed, the next one of the
+  sequence of the generator. The row i of a matrix is drawn from the stream
+  PermutationSource.rowRandom(seed, i), which does not depend on the other rows, so that
+  the rows are drawn in parallel on a ForkJoinPool, and a random matrix is the one of
+  PreferenceSource.randomPermutations with the same seed. The instances are not those of
+  StableMatchingTest, whose rows all come from one sequential Random.
+  */
+class InstanceGenerator {
+
+  // The number of cells drawn by a task without splitting it.
+  static final int SEQUENTIAL_CELLS = 1 << 14;
+
+  // The number of people placed in their groups by one stream, in the sparse case of randomMW.
+  static final int PEOPLE_PER_STREAM = 1 << 16;
+
+  // The sequence of the seeds of the matrices and arrays drawn.
+  private final SplittableRandom seeds;
+
+  private final ForkJoinPool pool;
+
+  InstanceGenerator (long seed) {
+    this(seed, ForkJoinPool.commonPool());
+  }
+
+  InstanceGenerator (long seed, ForkJoinPool pool) {
+    this.seeds = new SplittableRandom(seed);
+    this.pool = pool;
+  }
+
+  // The seed of the next matrix or array drawn.
+  synchronized long nextSeed () {
+    return seeds.nextLong();
+  }
+
+  // Fill p with the permutation of [0, p.length) drawn by a Fisher-Yates shuffle from the
+  // given stream, the row of PermutationSource drawn from the same stream.
+  static void randomPermutation (SplittableRandom random, int[] p) {
+    int n = p.length;
+    for (int k = 0; k < n; k++) {
+      p[k] = k;
+    }
+    for (int k = 0; k < n; k++) {
+      int r = k + random.nextInt(n - k);
+      int cell = p[r];
+      p[r] = p[k];
+      p[k] = cell;
+    }
+  }
+
+  // A random preference matrix with m rows, every row a random permutation of [0, w).
+  int[][] randomPrefs (int m, int w) {
+    long seed = nextSeed();
+    int[][] prefs = new int[m][];
+    forEachRow(m, w, i -> {
+      prefs[i] = new int[w];
+      randomPermutation(PermutationSource.rowRandom(seed, i), prefs[i]);
+    });
+    return prefs;
+  }
+
+  // The same, in a compact heap matrix (see PreferenceMatrix.allocate).
+  PreferenceMatrix randomMatrix (int m, int w) {
+    long seed = nextSeed();
+    PreferenceMatrix prefs = PreferenceMatrix.allocate(m, w);
+    forEachRow(m, w, i -> {
+      int[] row = new int[w];
+      randomPermutation(PermutationSource.rowRandom(seed, i), row);
+      prefs.setRow(i, row);
+    });
+    return prefs;
+  }
+
+  // The group counts of StableMatchingTest.randomMW, with the same distribution: m groups of
+  // men and w groups of women, with about nEstimate people, or null if there are more than
+  // nBound people. In the dense case, the row i of the m x w counts adding up to the group
+  // sizes is drawn from its own stream; in the sparse case, every PEOPLE_PER_STREAM people
+  // are placed in their groups from their own stream.
+  int[][] randomMW (int m, int w, int nEstimate, int nBound) {
+    int[][] res = new int[2][];
+    long n;
+    if (nEstimate > (long) m * w) {
+      long seed = nextSeed();
+      int boundPerSquare = (int) (1 + (2L * nEstimate / ((long) m * w)));
+      long[] menSums = new long[m];
+      long[] womenSums = pool.invoke(new SquaresTask(seed, menSums, w, boundPerSquare, 0, m,
+          Math.max(1, SEQUENTIAL_CELLS / Math.max(1, w))));
+      n = 0;
+      for (long s : menSums) {
+        n += s;
+      }
+      if (n > nBound) {
+        return null;
+      }
+      res[0] = toInt(menSums);
+      res[1] = toInt(womenSums);
+    }
+    else {
+      if (nEstimate < m || nEstimate < w) {
+        return null;
+      }
+      res[0] = randomGroups(m, nEstimate);
+      res[1] = randomGroups(w, nEstimate);
+      n = nEstimate;
+    }
+    return n <= nBound ? res : null;
+  }
+
+  // Groups of at least one person each, the n - groups other people being placed uniformly.
+  private int[] randomGroups (int groups, int n) {
+    long seed = nextSeed();
+    int people = n - groups;
+    int streams = (int) ((people + (long) PEOPLE_PER_STREAM - 1) / PEOPLE_PER_STREAM);
+    int[] sizes = streams == 0 ? new int[groups] : pool.invoke(new GroupsTask(seed, groups, people, 0, streams));
+    for (int i = 0; i < groups; i++) {
+      sizes[i]++;
+    }
+    return sizes;
+  }
+
+  private static int[] toInt (long[] counts) {
+    int[] res = new int[counts.length];
+    for (int i = 0; i < counts.length; i++) {
+      res[i] = (int) counts[i];
+    }
+    return res;
+  }
+
+  // Run body for every row in [0, rows) on the pool, a row having the given number of cells.
+  private void forEachRow (int rows, int cells, IntConsumer body) {
+    pool.invoke(new RowsTask(body, 0, rows, Math.max(1, SEQUENTIAL_CELLS / Math.max(1, cells))));
+  }
+
+  // The task running body for the rows in [from, to).
+  private static final class RowsTask extends RecursiveAction {
+    final IntConsumer body;
+    final int from;
+    final int to;
+    final int grain;
+
+    RowsTask (IntConsumer body, int from, int to, int grain) {
+      this.body = body;
+      this.from = from;
+      this.to = to;
+      this.grain = grain;
+    }
+
+    @Override
+    protected void compute () {
+      if (to - from <= grain) {
+        for (int i = from; i < to; i++) {
+          body.accept(i);
+        }
+        return;
+      }
+      int middle = (from + to) >>> 1;
+      invokeAll(new RowsTask(body, from, middle, grain), new RowsTask(body, middle, to, grain));
+    }
+  }
+
+  // The task drawing the rows in [from, to) of the counts of randomMW, storing the sums of
+  // the rows in menSums and returning the sums of the columns of these rows.
+  private static final class SquaresTask extends RecursiveTask<long[]> {
+    final long seed;
+    final long[] menSums;
+    final int w;
+    final int bound;
+    final int from;
+    final int to;
+    final int grain;
+
+    SquaresTask (long seed, long[] menSums, int w, int bound, int from, int to, int grain) {
+      this.seed = seed;
+      this.menSums = menSums;
+      this.w = w;
+      this.bound = bound;
+      this.from = from;
+      this.to = to;
+      this.grain = grain;
+    }
+
+    @Override
+    protected long[] compute () {
+      if (to - from <= grain) {
+        long[] womenSums = new long[w];
+        for (int i = from; i < to; i++) {
+          SplittableRandom random = PermutationSource.rowRandom(seed, i);
+          long sum = 0;
+          for (int j = 0; j < w; j++) {
+            int rv = random.nextInt(bound) + 1;
+            sum += rv;
+            womenSums[j] += rv;
+          }
+          menSums[i] = sum;
+        }
+        return womenSums;
+      }
+      int middle = (from + to) >>> 1;
+      SquaresTask right = new SquaresTask(seed, menSums, w, bound, middle, to, grain);
+      right.fork();
+      long[] womenSums = new SquaresTask(seed, menSums, w, bound, from, middle, grain).compute();
+      long[] rightSums = right.join();
+      for (int j = 0; j < w; j++) {
+        womenSums[j] += rightSums[j];
+      }
+      return womenSums;
+    }
+  }
+
+  // The task placing the people of the streams in [from, to) in the groups, and returning
+  // the number of people placed in every group.
+  private static final class GroupsTask extends RecursiveTask<int[]> {
+    final long seed;
+    final int groups;
+    final int people;
+    final int from;
+    final int to;
+
+    GroupsTask (long seed, int groups, int people, int from, int to) {
+      this.seed = seed;
+      this.groups = groups;
+      this.people = people;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected int[] compute () {
+      if (to - from == 1) {
+        int[] sizes = new int[groups];
+        SplittableRandom random = PermutationSource.rowRandom(seed, from);
+        int count = (int) Math.min(PEOPLE_PER_STREAM, people - (long) from * PEOPLE_PER_STREAM);
+        for (int k = 0; k < count; k++) {
+          sizes[random.nextInt(groups)]++;
+        }
+        return sizes;
+      }
+      int middle = (from + to) >>> 1;
+      GroupsTask right = new GroupsTask(seed, groups, people, middle, to);
+      right.fork();
+      int[] sizes = new GroupsTask(seed, groups, people, from, middle).compute();
+      int[] rightSizes = right.join();
+      for (int i = 0; i < groups; i++) {
+        sizes[i] += rightSizes[i];
+      }
+      return sizes;
+    }
+  }
+}
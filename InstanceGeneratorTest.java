@@ -0,0 +1,127 @@
+// A test of InstanceGenerator: the rows are drawn from independent streams,
+// and the instances are the same whatever the number of threads.
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+
+public class InstanceGeneratorTest {
+
+    // The number of rows whose streams are compared, and the number of outputs
+    // of a stream compared.
+
+    public final static int ROWS = 64;
+
+    public final static int OUTPUTS = 16;
+
+    // This is the output stream of the tests.
+
+    private PrintStream out;
+
+    private long seed;
+
+    private int failures, successes;
+
+    InstanceGeneratorTest (PrintStream out, long seed)
+    {
+        this.out = out;
+        this.seed = seed;
+    }
+
+    void check (boolean ok, String what)
+    {
+        if (ok) {
+            successes++;
+        }
+        else {
+            failures++;
+            out.printf("FAILURE: %s\n", what);
+        }
+    }
+
+    // The first outputs of the stream of a row.
+
+    long[] outputs (long row)
+    {
+        SplittableRandom random = PermutationSource.rowRandom(seed, row);
+        long[] res = new long[OUTPUTS];
+        for (int k = 0; k < OUTPUTS; k++)
+            res[k] = random.nextLong();
+        return res;
+    }
+
+    // Whether the stream y is the stream x shifted by some outputs, x[k + s] == y[k],
+    // or the other way round.
+
+    static boolean shifted (long[] x, long[] y)
+    {
+        for (int s = 0; s < x.length / 2; s++) {
+            boolean xy = true, yx = true;
+            for (int k = 0; k + s < x.length; k++) {
+                xy &= x[k + s] == y[k];
+                yx &= y[k + s] == x[k];
+            }
+            if (xy || yx)
+                return true;
+        }
+        return false;
+    }
+
+    public boolean test ()
+    {
+        out.println("Starting generator tests...\n");
+
+        // The streams of neighbouring rows are not shifted copies of each other.
+        long[] previous = outputs(0);
+        for (int i = 1; i < ROWS; i++) {
+            long[] current = outputs(i);
+            check(!shifted(previous, current), "the streams of the rows " + (i - 1) + " and " + i + " are shifted copies");
+            previous = current;
+        }
+
+        // Nor are the rows of a random preference matrix.
+        int[][] prefs = new InstanceGenerator(seed).randomPrefs(ROWS, 1024);
+        for (int i = 1; i < ROWS; i++) {
+            int same = 0;
+            for (int k = 0; k + 1 < prefs[i].length; k++)
+                if (prefs[i - 1][k + 1] == prefs[i][k] || prefs[i - 1][k] == prefs[i][k])
+                    same++;
+            // Two independent permutations agree on about 2 of these cells.
+            check(same < 32, "the rows " + (i - 1) + " and " + i + " of randomPrefs agree on " + same + " cells");
+        }
+
+        // The men and women sums of the dense case of randomMW come from distinct
+        // rows and columns, and differ.
+        int[][] mw = new InstanceGenerator(seed).randomMW(16, 16, 1000000, Integer.MAX_VALUE);
+        check(!Arrays.equals(mw[0], mw[1]), "randomMW(16, 16, 1000000) has the same men and women sums");
+        check(Arrays.stream(mw[0]).distinct().count() > 8, "randomMW(16, 16, 1000000) has equal men sums");
+
+        // The same instances on one thread and on the common pool.
+        ForkJoinPool single = new ForkJoinPool(1);
+        InstanceGenerator sequential = new InstanceGenerator(seed, single);
+        InstanceGenerator parallel = new InstanceGenerator(seed);
+        check(Arrays.deepEquals(sequential.randomPrefs(300, 500), parallel.randomPrefs(300, 500)),
+              "randomPrefs depends on the number of threads");
+        check(Arrays.deepEquals(sequential.randomMW(64, 64, 100000, Integer.MAX_VALUE),
+                                parallel.randomMW(64, 64, 100000, Integer.MAX_VALUE)),
+              "the dense randomMW depends on the number of threads");
+        check(Arrays.deepEquals(sequential.randomMW(4096, 4096, 1000000, Integer.MAX_VALUE),
+                                parallel.randomMW(4096, 4096, 1000000, Integer.MAX_VALUE)),
+              "the sparse randomMW depends on the number of threads");
+        single.shutdown();
+
+        out.println();
+        out.printf("Done generator tests. In total, %d success(es) and %d failure(s).\n", successes, failures);
+        return failures == 0;
+    }
+
+    // Usage: java InstanceGeneratorTest
+    // The exit status is 1 when a check fails.
+
+    public static void main (String[] args)
+    {
+        boolean ok = new InstanceGeneratorTest(System.out, 0L).test();
+        System.exit(ok ? 0 : 1);
+    }
+}
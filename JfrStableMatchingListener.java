@@ -0,0 +1,109 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/*
+  A StableMatchingListener emitting a JDK Flight Recorder event for every solve.
+
+  The event StableMatching.Solve lasts as long as the call to the solver, and holds
+  the counters and phase times of SolveStats. It costs nothing when no recording has
+  the event enabled, for instance:
+    java -XX:StartFlightRecording:filename=solve.jfr ...
+    jfr print --events StableMatching.Solve solve.jfr
+  */
+public class JfrStableMatchingListener implements StableMatchingListener {
+
+  @Name("StableMatching.Solve")
+  @Label("Stable Matching Solve")
+  @Category("Stable Matching")
+  @Description("One call to constructStableMatching")
+  static class SolveEvent extends Event {
+    @Label("Engine")
+    String engine;
+
+    @Label("Men Groups")
+    int m;
+
+    @Label("Women Groups")
+    int w;
+
+    @Label("Men")
+    long n;
+
+    @Label("Proposals")
+    long proposals;
+
+    @Label("Accepted")
+    long accepted;
+
+    @Label("Displacements")
+    long displacements;
+
+    @Label("Rejections")
+    long rejections;
+
+    @Label("Heap Adds")
+    long heapAdds;
+
+    @Label("Heap Offers")
+    long heapOffers;
+
+    @Label("Heap Removes")
+    long heapRemoves;
+
+    @Label("Bucket Moves")
+    long bucketMoves;
+
+    @Label("Inverted Rows")
+    long invertedRows;
+
+    @Label("Inversion")
+    @Timespan(Timespan.NANOSECONDS)
+    long inversion;
+
+    @Label("Main Loop")
+    @Timespan(Timespan.NANOSECONDS)
+    long mainLoop;
+  }
+
+  // The event of the solve running on the current thread.
+  private final ThreadLocal<SolveEvent> current = new ThreadLocal<SolveEvent>();
+
+  @Override
+  public void solveStarted (int m, int w) {
+    SolveEvent event = new SolveEvent();
+    event.begin();
+    current.set(event);
+  }
+
+  @Override
+  public void solveFinished (SolveStats stats) {
+    SolveEvent event = current.get();
+    current.remove();
+    if (event == null) {
+      return;
+    }
+    event.end();
+    if (event.shouldCommit()) {
+      event.engine = String.valueOf(stats.engine);
+      event.m = stats.m;
+      event.w = stats.w;
+      event.n = stats.n;
+      event.proposals = stats.proposals;
+      event.accepted = stats.accepted;
+      event.displacements = stats.displacements;
+      event.rejections = stats.rejections;
+      event.heapAdds = stats.heapAdds;
+      event.heapOffers = stats.heapOffers;
+      event.heapRemoves = stats.heapRemoves;
+      event.bucketMoves = stats.bucketMoves;
+      event.invertedRows = stats.invertedRows;
+      event.inversion = stats.inversionNanos;
+      event.mainLoop = stats.mainLoopNanos;
+      event.commit();
+    }
+  }
+}
@@ -0,0 +1,189 @@
+import java.util.Arrays;
+
+/*
+  The algorithm of StableMatching with long group counts.
+
+  An instance of at most Integer.MAX_VALUE people is solved by StableMatching, its engines
+  included, and only its result is widened to longs. The loop below runs the instances
+  beyond, sharing the scheduler, the heaps, the rank table and their contest step with
+  StableMatching; only the arithmetic on the counts is its own. Either way, the result is
+  a dense m x w matrix of longs, twice as large as the one of StableMatching: on instances
+  with many small groups, filling it is most of the gap with the int path (see
+  StableMatchingBenchmark -long).
+
+  The counts of single people, the engaged counts and the cells of the result are longs,
+  the rest of the state (positions, ranks, heaps of ranks) is the same as in StableMatching.
+  Every transfer moves c = min(a, b) people with a and b non-negative counts, and no count
+  ever exceeds the total number of people, which is checked once to fit in a long: the
+  arithmetic of the main loop cannot overflow.
+  */
+class LongStableMatching implements LongStableMatchingInterface {
+
+  public long[][] constructStableMatching (
+    long[] menGroupCount,
+    long[] womenGroupCount,
+    int[][] menPrefs,
+    int[][] womenPrefs
+  ) {
+    return constructStableMatching(
+      menGroupCount,
+      womenGroupCount,
+      PreferenceMatrix.wrap(menPrefs, womenGroupCount.length),
+      PreferenceMatrix.wrap(womenPrefs, menGroupCount.length)
+    );
+  }
+
+  @Override
+  public long[][] constructStableMatching (
+    long[] menGroupCount,
+    long[] womenGroupCount,
+    PreferenceMatrix menPrefs,
+    PreferenceMatrix womenPrefs
+  ) {
+    // The number of men groups.
+    int m = menGroupCount.length;
+
+    // The number of women groups.
+    int w = womenGroupCount.length;
+
+    long total = total(menGroupCount);
+    if (total != total(womenGroupCount)) {
+      throw new IllegalArgumentException("There are not as many men as women");
+    }
+    if (total <= Integer.MAX_VALUE) {
+      return solveInt(menGroupCount, womenGroupCount, menPrefs, womenPrefs);
+    }
+
+    // The inverse of the womenPrefs, computed row by row when a women group is first contested.
+    RankTable invWomenPrefs = new RankTable(womenPrefs);
+
+    // The number of single men in every group.
+    long[] singleMenGroupCount = menGroupCount.clone();
+
+    // The number of single women in every group.
+    long[] singleWomenGroupCount = womenGroupCount.clone();
+
+    // The position, in the preferences of every men group, of the most attractive
+    // women group that the group of men does not propose to.
+    int[] mostUnproposedWomenGroup = new int[m];
+
+    // The heaps of the groups of women, see StableMatching.
+    RankHeap[] menGroupEngagedTo = new RankHeap[w];
+    for (int j = 0; j < w; j++) {
+      menGroupEngagedTo[j] = new RankHeap();
+    }
+    boolean[] contested = new boolean[w];
+
+    // engagedCount[i][k] is the number of men of the group i engaged to the women group menPrefs.get(i, k).
+    long[][] engagedCount = new long[m][];
+    for (int i = 0; i < m; i++) {
+      engagedCount[i] = new long[Math.min(w, StableMatching.INITIAL_ROW_CAPACITY)];
+    }
+
+    // The groups of men with single men, see BucketQueue.
+    BucketQueue singleMenGroups = new BucketQueue();
+    singleMenGroups.reset(m);
+    for (int i = m - 1; i >= 0; i--) {
+      singleMenGroups.update(i, singleMenGroupCount[i]);
+    }
+
+    while (!singleMenGroups.isEmpty()) {
+      int currentMenGroup = singleMenGroups.peek();
+      int currentPosition = mostUnproposedWomenGroup[currentMenGroup];
+      int currentWomenGroup = menPrefs.get(currentMenGroup, currentPosition);
+      long[] currentEngagedCount = engagedCount[currentMenGroup];
+
+      if (singleWomenGroupCount[currentWomenGroup] > 0) {
+        long c = Math.min(singleWomenGroupCount[currentWomenGroup], singleMenGroupCount[currentMenGroup]);
+        if (currentEngagedCount[currentPosition] == 0) {
+          menGroupEngagedTo[currentWomenGroup].add(currentMenGroup, currentPosition);
+        }
+        singleMenGroupCount[currentMenGroup] -= c;
+        singleWomenGroupCount[currentWomenGroup] -= c;
+        currentEngagedCount[currentPosition] += c;
+      }
+      else {
+        RankHeap engaged = menGroupEngagedTo[currentWomenGroup];
+        if (!contested[currentWomenGroup]) {
+          StableMatching.contest(engaged, invWomenPrefs, currentWomenGroup);
+          contested[currentWomenGroup] = true;
+        }
+        int leastAttractiveRank = engaged.peek();
+        int leastAttractivePosition = engaged.peekPayload();
+        int leastAttractiveMenGroup = womenPrefs.get(currentWomenGroup, leastAttractiveRank);
+        int currentRank = invWomenPrefs.rank(currentWomenGroup, currentMenGroup);
+        if (currentRank < leastAttractiveRank) {
+          long[] leastAttractiveEngagedCount = engagedCount[leastAttractiveMenGroup];
+          long c = Math.min(leastAttractiveEngagedCount[leastAttractivePosition], singleMenGroupCount[currentMenGroup]);
+          if (currentEngagedCount[currentPosition] == 0) {
+            engaged.offer(currentRank, currentPosition);
+          }
+          singleMenGroupCount[currentMenGroup] -= c;
+          currentEngagedCount[currentPosition] += c;
+          singleMenGroupCount[leastAttractiveMenGroup] += c;
+          singleMenGroups.update(leastAttractiveMenGroup, singleMenGroupCount[leastAttractiveMenGroup]);
+          leastAttractiveEngagedCount[leastAttractivePosition] -= c;
+          if (leastAttractiveEngagedCount[leastAttractivePosition] == 0) {
+            engaged.poll();
+          }
+        }
+        else {
+          // The proposal was not accepted. We go to the next women group.
+          mostUnproposedWomenGroup[currentMenGroup] += 1;
+          if (currentPosition + 1 == currentEngagedCount.length) {
+            engagedCount[currentMenGroup] = Arrays.copyOf(currentEngagedCount, Math.min(w, 2 * currentEngagedCount.length));
+          }
+        }
+      }
+      singleMenGroups.update(currentMenGroup, singleMenGroupCount[currentMenGroup]);
+    }
+
+    long[][] mar = new long[m][w];
+    for (int i = 0; i < m; i++) {
+      for (int k = 0; k <= mostUnproposedWomenGroup[i] && k < engagedCount[i].length; k++) {
+        mar[i][menPrefs.get(i, k)] = engagedCount[i][k];
+      }
+    }
+    return mar;
+  }
+
+  // Solve an instance of at most Integer.MAX_VALUE people with StableMatching, and widen
+  // its matching, the same one since both give the men-optimal stable matching.
+  private static long[][] solveInt (
+    long[] menGroupCount,
+    long[] womenGroupCount,
+    PreferenceMatrix menPrefs,
+    PreferenceMatrix womenPrefs
+  ) {
+    int m = menGroupCount.length;
+    int w = womenGroupCount.length;
+    int[] menCounts = new int[m];
+    for (int i = 0; i < m; i++) {
+      menCounts[i] = (int) menGroupCount[i];
+    }
+    int[] womenCounts = new int[w];
+    for (int j = 0; j < w; j++) {
+      womenCounts[j] = (int) womenGroupCount[j];
+    }
+    SparseMatching matching = new StableMatching().constructSparseStableMatching(menCounts, womenCounts, menPrefs, womenPrefs);
+    long[][] mar = new long[m][w];
+    for (int i = 0; i < m; i++) {
+      for (int e = matching.rowStart(i); e < matching.rowEnd(i); e++) {
+        mar[i][matching.womenGroup(e)] = matching.count(e);
+      }
+    }
+    return mar;
+  }
+
+  // The sum of the given counts, which must be non-negative and fit in a long.
+  private static long total (long[] counts) {
+    long total = 0;
+    for (long c : counts) {
+      if (c < 0) {
+        throw new IllegalArgumentException("Negative group count " + c);
+      }
+      total = Math.addExact(total, c);
+    }
+    return total;
+  }
+}
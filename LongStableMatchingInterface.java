@@ -0,0 +1,35 @@
+public interface LongStableMatchingInterface {
+
+  // The problem of StableMatchingInterface, for populations beyond 2^31 people.
+
+  // menGroupCount and womenGroupCount are long arrays: the number of men in the i-th
+  // group is menGroupCount[i], the number of women in the j-th group is womenGroupCount[j].
+  // The sum of all entries of menGroupCount and that of womenGroupCount are the same,
+  // and at most Long.MAX_VALUE.
+
+  // menPrefs and womenPrefs are described in StableMatchingInterface.
+
+  public long[][] constructStableMatching (
+    long[] menGroupCount,
+    long[] womenGroupCount,
+    int[][] menPrefs,
+    int[][] womenPrefs
+  );
+
+  // The method constructStableMatching must return a long[m][w] array "mar", mar[i][j]
+  // being the number of couples with the groom in the i-th group of men and the bride
+  // in the j-th group of women. This array must describe a stable matching.
+
+  // The same problem, with the preferences given as PreferenceMatrix objects. The default
+  // implementation copies the matrices in jagged arrays; implementations should override
+  // it to read the matrices directly.
+
+  default long[][] constructStableMatching (
+    long[] menGroupCount,
+    long[] womenGroupCount,
+    PreferenceMatrix menPrefs,
+    PreferenceMatrix womenPrefs
+  ) {
+    return constructStableMatching(menGroupCount, womenGroupCount, menPrefs.toArray(), womenPrefs.toArray());
+  }
+}
@@ -0,0 +1,181 @@
+// A test of LongStableMatching: on instances whose counts fit in an int, its
+// matching must be the one of StableMatching; on instances of more than
+// Integer.MAX_VALUE people, it must be stable, and scale with the counts.
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Random;
+
+public class LongStableMatchingTest {
+
+    // The number of random instances of every check, and the largest number
+    // of groups of men or women of an instance.
+
+    public final static int INSTANCES = 2000;
+
+    public final static int MAX_GROUPS = 16;
+
+    // The factor of the counts of the large instances, so that their totals
+    // exceed Integer.MAX_VALUE.
+
+    public final static long SCALE = 1L << 32;
+
+    // This is the output stream of the tests.
+
+    private PrintStream out;
+
+    private Random random;
+
+    private StableMatchingTest generator;
+
+    private int failures, successes;
+
+    LongStableMatchingTest (PrintStream out, long seed)
+    {
+        this.out = out;
+        this.random = new Random(seed);
+        this.generator = new StableMatchingTest(null, out, random);
+    }
+
+    static long[] toLong (int[] counts)
+    {
+        long[] res = new long[counts.length];
+        for (int i = 0; i < counts.length; i++)
+            res[i] = counts[i];
+        return res;
+    }
+
+    static long[] scale (int[] counts, long factor)
+    {
+        long[] res = new long[counts.length];
+        for (int i = 0; i < counts.length; i++)
+            res[i] = counts[i] * factor;
+        return res;
+    }
+
+    void check (boolean ok, String what, int m, int w)
+    {
+        if (ok) {
+            successes++;
+        }
+        else {
+            failures++;
+            out.printf("FAILURE: %s on a %d x %d instance\n", what, m, w);
+        }
+    }
+
+    /*
+      Whether mar is a stable matching of the groups: its rows and columns sum
+      to the counts, and no men group i and women group j block it, that is, i
+      has men married to a worse group than j, and j has women married to a
+      worse group than i.
+      */
+    static boolean isStable (long[] mc, long[] wc, int[][] mp, int[][] wp, long[][] mar)
+    {
+        int m = mc.length;
+        int w = wc.length;
+        long[] columns = new long[w];
+        for (int i = 0; i < m; i++) {
+            long row = 0;
+            for (int j = 0; j < w; j++) {
+                if (mar[i][j] < 0)
+                    return false;
+                row += mar[i][j];
+                columns[j] += mar[i][j];
+            }
+            if (row != mc[i])
+                return false;
+        }
+        if (!Arrays.equals(columns, wc))
+            return false;
+
+        // The position of the worst partner group of every group, -1 if none.
+        int[] worstWife = new int[m];
+        int[] worstHusband = new int[w];
+        Arrays.fill(worstHusband, -1);
+        int[][] rankOfMan = new int[w][m];
+        for (int j = 0; j < w; j++)
+            for (int k = 0; k < m; k++)
+                rankOfMan[j][wp[j][k]] = k;
+        for (int i = 0; i < m; i++) {
+            worstWife[i] = -1;
+            for (int k = 0; k < w; k++) {
+                int j = mp[i][k];
+                if (mar[i][j] > 0) {
+                    worstWife[i] = k;
+                    worstHusband[j] = Math.max(worstHusband[j], rankOfMan[j][i]);
+                }
+            }
+        }
+        for (int i = 0; i < m; i++)
+            for (int k = 0; k < worstWife[i]; k++) {
+                int j = mp[i][k];
+                if (rankOfMan[j][i] < worstHusband[j])
+                    return false;
+            }
+        return true;
+    }
+
+    public boolean test ()
+    {
+        out.println("Starting long-count tests...\n");
+
+        LongStableMatching box = new LongStableMatching();
+        for (int t = 0; t < INSTANCES; t++) {
+            int m = 1 + random.nextInt(MAX_GROUPS);
+            int w = 1 + random.nextInt(MAX_GROUPS);
+            int[][] mw = generator.randomMW(m, w, Math.max(m, w) + random.nextInt(4 * m * w), Integer.MAX_VALUE);
+            int[][] mp = generator.randomPrefs(m, w);
+            int[][] wp = generator.randomPrefs(w, m);
+            int[][] expected = new StableMatching().constructStableMatching(mw[0], mw[1], mp, wp);
+
+            // The counts fit in an int: the matching of StableMatching.
+            long[][] mar = box.constructStableMatching(toLong(mw[0]), toLong(mw[1]), mp, wp);
+            boolean same = true;
+            for (int i = 0; i < m; i++)
+                for (int j = 0; j < w; j++)
+                    same &= mar[i][j] == expected[i][j];
+            check(same, "the matching is not the one of StableMatching", m, w);
+
+            // The counts times SCALE: a stable matching, the one of StableMatching
+            // times SCALE, since every transfer then moves a multiple of SCALE
+            // people, and the men-optimal matching does not depend on the order
+            // of the proposals.
+            long[] mc = scale(mw[0], SCALE);
+            long[] wc = scale(mw[1], SCALE);
+            mar = box.constructStableMatching(mc, wc, mp, wp);
+            check(isStable(mc, wc, mp, wp, mar), "the matching of more than 2^31 people is not stable", m, w);
+            same = true;
+            for (int i = 0; i < m; i++)
+                for (int j = 0; j < w; j++)
+                    same &= mar[i][j] == expected[i][j] * SCALE;
+            check(same, "the matching of more than 2^31 people is not the scaled one", m, w);
+        }
+
+        // A single pair of groups beyond every int count, and a total that
+        // does not fit in a long.
+        long[][] mar = box.constructStableMatching(new long[] { Long.MAX_VALUE / 2 }, new long[] { Long.MAX_VALUE / 2 },
+                                                   new int[][] { { 0 } }, new int[][] { { 0 } });
+        check(mar[0][0] == Long.MAX_VALUE / 2, "the couples of one pair of groups are not all married", 1, 1);
+        try {
+            box.constructStableMatching(new long[] { Long.MAX_VALUE, 1 }, new long[] { Long.MAX_VALUE, 1 },
+                                        new int[][] { { 0, 1 }, { 1, 0 } }, new int[][] { { 0, 1 }, { 1, 0 } });
+            check(false, "a total beyond Long.MAX_VALUE is accepted", 2, 2);
+        } catch (ArithmeticException e) {
+            successes++;
+        }
+
+        out.println();
+        out.printf("Done long-count tests. In total, %d success(es) and %d failure(s).\n", successes, failures);
+        return failures == 0;
+    }
+
+    // Usage: java LongStableMatchingTest
+    // The exit status is 1 when a check fails.
+
+    public static void main (String[] args)
+    {
+        boolean ok = new LongStableMatchingTest(System.out, 0L).test();
+        System.exit(ok ? 0 : 1);
+    }
+}
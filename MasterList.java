@@ -0,0 +1,227 @@
+import java.util.Arrays;
+
+/*
+  The stable matching of an instance where one side has a master list: all the groups of
+  women share one ranking of the groups of men, or all the groups of men share one ranking
+  of the groups of women, as in StableMatchingTest.uniformPrefs.
+
+  The stable matching is then unique, and found by one greedy pass, a serial dictatorship.
+  With a master list of the women, the groups of men choose in the order of that list,
+  every group taking the single women of its most desirable groups until all its men are
+  engaged: a group of women preferring a group of men to its partners was full when that
+  group chose. With a master list of the men, the groups of women choose in the same way.
+
+  The choosing groups with the same preferences (a vision, see visions) share a pointer to
+  the first group of their list that is not full yet, the full groups staying full, so that
+  a pass reads O(m + w + v w) cells for v visions, and no heap nor rank is needed.
+  The matching is built in two passes, the first one counting the cells of every row of
+  the result, so that only the result is allocated.
+  */
+class MasterList {
+
+  // The largest number of visions grouped on the choosing side, beyond which every group
+  // is its own vision.
+  static final int MAX_VISIONS = 16;
+
+  // The side of an instance with a master list, see side.
+  static final int NONE = 0;
+  static final int WOMEN = 1;
+  static final int MEN = 2;
+
+  // The side with a master list, the women being checked first: WOMEN, MEN, or NONE. With one
+  // group on either side, the rows of the women trivially hold the same preferences.
+  static int side (PreferenceMatrix menPrefs, PreferenceMatrix womenPrefs) {
+    if (womenPrefs.rows() <= 1 || womenPrefs.columns() <= 1 || isMasterList(womenPrefs)) {
+      return WOMEN;
+    }
+    return isMasterList(menPrefs) ? MEN : NONE;
+  }
+
+  // Whether all the rows of the matrix hold the same preferences.
+  static boolean isMasterList (PreferenceMatrix prefs) {
+    for (int r = 1; r < prefs.rows(); r++) {
+      if (!prefs.sameRow(0, r)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /*
+    Group the rows of the matrix by their preferences: vision[r] is the vision of the row r,
+    the visions being numbered in the order of their first row, stored in first. Return the
+    number of visions, or -1 with vision[r] = r when there are more than first.length. Rows
+    of different visions usually differ in their first cells, so that grouping random rows
+    reads O(first.length^2) cells.
+    */
+  static int visions (PreferenceMatrix prefs, int[] vision, int[] first) {
+    int visions = 0;
+    for (int r = 0; r < prefs.rows(); r++) {
+      int v = 0;
+      while (v < visions && !prefs.sameRow(first[v], r)) {
+        v++;
+      }
+      if (v == visions) {
+        if (visions == first.length) {
+          for (int i = 0; i < prefs.rows(); i++) {
+            vision[i] = i;
+          }
+          return -1;
+        }
+        first[visions++] = r;
+      }
+      vision[r] = v;
+    }
+    return visions;
+  }
+
+  // The stable matching, given the side with a master list, WOMEN or MEN, as found by side.
+  // The arrays of counts of the workspace are used as scratch.
+  static SparseMatching solve (
+    SolverWorkspace workspace,
+    int[] menGroupCount,
+    int[] womenGroupCount,
+    PreferenceMatrix menPrefs,
+    PreferenceMatrix womenPrefs,
+    int side
+  ) {
+    int m = menGroupCount.length;
+    int w = womenGroupCount.length;
+    if (m == 0 || w == 0) {
+      return new SparseMatching(w, new int[m + 1], new int[0], new int[0]);
+    }
+    if (side != WOMEN && side != MEN) {
+      throw new IllegalArgumentException("Neither side has a master list");
+    }
+    boolean women = side == WOMEN;
+    workspace.reserve(m, w);
+    // As after any solve, the rank table of the workspace is the one of the instance (see
+    // StableMatchingLattice), none of its rows being computed.
+    workspace.invWomenPrefs.reset(womenPrefs);
+    int[] rowStart = new int[m + 1];
+    if (women) {
+      menChoose(workspace, menGroupCount, womenGroupCount, menPrefs, womenPrefs, rowStart, null, null);
+    }
+    else {
+      womenChoose(workspace, menGroupCount, womenGroupCount, menPrefs, womenPrefs, rowStart, null, null);
+    }
+    for (int i = 0; i < m; i++) {
+      rowStart[i + 1] += rowStart[i];
+    }
+    int[] womenGroup = new int[rowStart[m]];
+    int[] count = new int[rowStart[m]];
+    if (women) {
+      menChoose(workspace, menGroupCount, womenGroupCount, menPrefs, womenPrefs, rowStart, womenGroup, count);
+    }
+    else {
+      womenChoose(workspace, menGroupCount, womenGroupCount, menPrefs, womenPrefs, rowStart, womenGroup, count);
+    }
+    return new SparseMatching(w, rowStart, womenGroup, count);
+  }
+
+  // The groups of men choose in the order of the master list of the women. With womenGroup
+  // null, only count the cells of the row i in rowStart[i + 1]; otherwise write them from
+  // rowStart[i].
+  private static void menChoose (
+    SolverWorkspace workspace,
+    int[] menGroupCount,
+    int[] womenGroupCount,
+    PreferenceMatrix menPrefs,
+    PreferenceMatrix womenPrefs,
+    int[] rowStart,
+    int[] womenGroup,
+    int[] count
+  ) {
+    int m = menGroupCount.length;
+    int w = womenGroupCount.length;
+    int[] singleWomenGroupCount = workspace.singleWomenGroupCount;
+    System.arraycopy(womenGroupCount, 0, singleWomenGroupCount, 0, w);
+    int[] vision = workspace.rowVision;
+    int visions = visions(menPrefs, vision, workspace.visionRow);
+    // The position of the first group of women not full yet, in the list of every vision.
+    int[] firstNotFull = workspace.mostUnproposedWomenGroup;
+    Arrays.fill(firstNotFull, 0, visions < 0 ? m : visions, 0);
+
+    for (int r = 0; r < m; r++) {
+      int i = womenPrefs.get(0, r);
+      int v = vision[i];
+      int single = menGroupCount[i];
+      int e = rowStart[i];
+      int k = firstNotFull[v];
+      while (single > 0 && k < w) {
+        int j = menPrefs.get(i, k);
+        int c = Math.min(single, singleWomenGroupCount[j]);
+        if (c > 0) {
+          if (womenGroup == null) {
+            rowStart[i + 1]++;
+          }
+          else {
+            womenGroup[e] = j;
+            count[e] = c;
+            e++;
+          }
+          single -= c;
+          singleWomenGroupCount[j] -= c;
+        }
+        if (singleWomenGroupCount[j] == 0) {
+          k++;
+        }
+      }
+      firstNotFull[v] = k;
+    }
+  }
+
+  // The groups of women choose in the order of the master list of the men. With womenGroup
+  // null, only count the cells of the row i in rowStart[i + 1]; otherwise write them from
+  // rowStart[i].
+  private static void womenChoose (
+    SolverWorkspace workspace,
+    int[] menGroupCount,
+    int[] womenGroupCount,
+    PreferenceMatrix menPrefs,
+    PreferenceMatrix womenPrefs,
+    int[] rowStart,
+    int[] womenGroup,
+    int[] count
+  ) {
+    int m = menGroupCount.length;
+    int w = womenGroupCount.length;
+    int[] singleMenGroupCount = workspace.singleMenGroupCount;
+    System.arraycopy(menGroupCount, 0, singleMenGroupCount, 0, m);
+    int[] vision = workspace.rowVision;
+    int visions = visions(womenPrefs, vision, workspace.visionRow);
+    // The position of the first group of men not all engaged yet, in the list of every vision.
+    int[] firstNotFull = workspace.singleWomenGroupCount;
+    Arrays.fill(firstNotFull, 0, visions < 0 ? w : visions, 0);
+    // The next cell of every row of the result.
+    int[] next = workspace.mostUnproposedWomenGroup;
+    System.arraycopy(rowStart, 0, next, 0, m);
+
+    for (int r = 0; r < w; r++) {
+      int j = menPrefs.get(0, r);
+      int v = vision[j];
+      int single = womenGroupCount[j];
+      int k = firstNotFull[v];
+      while (single > 0 && k < m) {
+        int i = womenPrefs.get(j, k);
+        int c = Math.min(single, singleMenGroupCount[i]);
+        if (c > 0) {
+          if (womenGroup == null) {
+            rowStart[i + 1]++;
+          }
+          else {
+            womenGroup[next[i]] = j;
+            count[next[i]] = c;
+            next[i]++;
+          }
+          single -= c;
+          singleMenGroupCount[i] -= c;
+        }
+        if (singleMenGroupCount[i] == 0) {
+          k++;
+        }
+      }
+      firstNotFull[v] = k;
+    }
+  }
+}
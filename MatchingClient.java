@@ -0,0 +1,126 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/*
+  A client of MatchingServer over one connection.
+
+  send and receive may be called from two threads, so that many requests are in flight:
+  the responses come in the order their solves end, and carry the ids of their requests.
+  send is thread-safe, receive must only be called by one thread at a time.
+  */
+public class MatchingClient implements AutoCloseable {
+
+  // A response of the server.
+  public static final class Response {
+    public final int id;
+    public final int status;
+
+    // The time the request waited for a solver, and the time of the solve, in nanoseconds.
+    public final long queueNanos;
+    public final long solveNanos;
+
+    // The matching if the status is OK, null otherwise.
+    public final SparseMatching matching;
+
+    // The reason of a status other than OK, null otherwise.
+    public final String message;
+
+    Response (int id, int status, long queueNanos, long solveNanos, SparseMatching matching, String message) {
+      this.id = id;
+      this.status = status;
+      this.queueNanos = queueNanos;
+      this.solveNanos = solveNanos;
+      this.matching = matching;
+      this.message = message;
+    }
+
+    public boolean isOk () {
+      return status == MatchingProtocol.OK;
+    }
+  }
+
+  private final SocketChannel channel;
+
+  private final ByteBuffer header = ByteBuffer.allocate(MatchingProtocol.RESPONSE_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+  // Connect to a server, at an address of MatchingProtocol.address.
+  public MatchingClient (String address) throws IOException {
+    this(MatchingProtocol.address(address));
+  }
+
+  public MatchingClient (SocketAddress address) throws IOException {
+    channel = SocketChannel.open(address instanceof UnixDomainSocketAddress ? StandardProtocolFamily.UNIX : StandardProtocolFamily.INET);
+    channel.connect(address);
+  }
+
+  // Send a request, with a time limit in milliseconds, 0 for none.
+  public void send (int id, Instance instance, int timeoutMillis) throws IOException {
+    send(MatchingProtocol.encodeRequest(id, timeoutMillis, instance));
+  }
+
+  // Send an encoded request, as one of MatchingProtocol.encodeRequest, to send the same
+  // instance many times without encoding it again. The position of the frame is kept.
+  public synchronized void send (ByteBuffer frame) throws IOException {
+    ByteBuffer bytes = frame.duplicate();
+    while (bytes.hasRemaining()) {
+      channel.write(bytes);
+    }
+  }
+
+  // Wait for the next response.
+  public Response receive () throws IOException {
+    header.clear();
+    readFully(header);
+    header.flip();
+    int length = header.getInt();
+    if (header.getInt() != MatchingProtocol.RESPONSE_MAGIC) {
+      throw new IOException("Not a response of a matching server");
+    }
+    int id = header.getInt();
+    int status = header.getInt();
+    long queueNanos = header.getLong();
+    long solveNanos = header.getLong();
+    ByteBuffer body = ByteBuffer.allocate(length - (MatchingProtocol.RESPONSE_HEADER_BYTES - 4)).order(ByteOrder.LITTLE_ENDIAN);
+    readFully(body);
+    body.flip();
+    if (status != MatchingProtocol.OK) {
+      byte[] text = new byte[body.getInt()];
+      body.get(text);
+      return new Response(id, status, queueNanos, solveNanos, null, new String(text, StandardCharsets.UTF_8));
+    }
+    int m = body.getInt();
+    int w = body.getInt();
+    int size = body.getInt();
+    int[] rowStart = new int[m + 1];
+    int[] womenGroup = new int[size];
+    int[] count = new int[size];
+    body.asIntBuffer().get(rowStart).get(womenGroup).get(count);
+    return new Response(id, status, queueNanos, solveNanos, new SparseMatching(w, rowStart, womenGroup, count), null);
+  }
+
+  // Send a request and wait for its response, when no other request is in flight.
+  public Response solve (Instance instance, int timeoutMillis) throws IOException {
+    send(0, instance, timeoutMillis);
+    return receive();
+  }
+
+  private void readFully (ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer) < 0) {
+        throw new EOFException("The server closed the connection");
+      }
+    }
+  }
+
+  @Override
+  public void close () throws IOException {
+    channel.close();
+  }
+}
@@ -0,0 +1,252 @@
+// A load generator of MatchingServer: several connections send random instances with
+// a bounded number of requests in flight, and the throughput and the latencies seen by
+// the clients are printed at the end.
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class MatchingLoadGenerator {
+
+    // The number of distinct instances sent, encoded once and sent again and again,
+    // so that the clients do not spend their time generating instances.
+
+    public final static int POOL = 32;
+
+    // The address of the server, as in MatchingProtocol.address.
+
+    private String address;
+
+    private int connections;
+
+    private int requests;
+
+    // The largest number of requests in flight on a connection.
+
+    private int window;
+
+    // The time limit of a solve in milliseconds, 0 for none.
+
+    private int timeoutMillis;
+
+    // Whether every matching received is checked with StabilityVerifier.
+
+    private boolean verify;
+
+    private Instance[] instances = new Instance[POOL];
+
+    private ByteBuffer[] frames = new ByteBuffer[POOL];
+
+    // The latencies of the requests answered, from the send to the receive, in
+    // nanoseconds, and the times the server reported, by connection.
+
+    private long[][] latencies;
+
+    private long[][] queueNanos;
+
+    private long[][] solveNanos;
+
+    private AtomicInteger[] statuses = new AtomicInteger[MatchingProtocol.ERROR + 1];
+
+    private AtomicInteger unstable = new AtomicInteger();
+
+    MatchingLoadGenerator (String address, int connections, int requests, int window,
+                           int timeoutMillis, boolean verify)
+    {
+        this.address = address;
+        this.connections = connections;
+        this.requests = requests;
+        this.window = window;
+        this.timeoutMillis = timeoutMillis;
+        this.verify = verify;
+        latencies = new long[connections][requests];
+        queueNanos = new long[connections][requests];
+        solveNanos = new long[connections][requests];
+        for (int s = 0; s < statuses.length; s++) {
+            statuses[s] = new AtomicInteger();
+        }
+    }
+
+    // Draw the instances of the pool, with m groups of men, w groups of women and
+    // about nEstimate people, as in StableMatchingTest.randomMW.
+
+    void generate (long seed, int m, int w, int nEstimate)
+    {
+        InstanceGenerator generator = new InstanceGenerator(seed);
+        for (int k = 0; k < POOL; k++) {
+            int[][] counts = generator.randomMW(m, w, nEstimate, Integer.MAX_VALUE);
+            instances[k] = new Instance(counts[0], counts[1],
+                                        generator.randomMatrix(m, w), generator.randomMatrix(w, m));
+            frames[k] = MatchingProtocol.encodeRequest(0, timeoutMillis, instances[k]);
+        }
+    }
+
+    // Run the connections until all their requests are answered, and return the
+    // elapsed time in nanoseconds.
+
+    long run () throws Exception
+    {
+        List<Thread> threads = new ArrayList<Thread>();
+        AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        long start = System.nanoTime();
+        for (int c = 0; c < connections; c++) {
+            int connection = c;
+            Thread thread = new Thread(() -> {
+                try {
+                    connection(connection);
+                } catch (Exception e) {
+                    failure.compareAndSet(null, e);
+                }
+            }, "matching-client-" + c);
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        return System.nanoTime() - start;
+    }
+
+    // Send the requests of a connection from this thread, and receive their responses
+    // from another one. The request r sends the instance r % POOL, with the id r.
+
+    private void connection (int c) throws Exception
+    {
+        long[] sent = new long[requests];
+        Semaphore inFlight = new Semaphore(window);
+        MatchingClient client = new MatchingClient(address);
+        AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        Thread receiver = new Thread(() -> {
+            try {
+                for (int k = 0; k < requests; k++) {
+                    MatchingClient.Response response = client.receive();
+                    long now = System.nanoTime();
+                    int r = response.id;
+                    latencies[c][r] = now - sent[r];
+                    queueNanos[c][r] = response.queueNanos;
+                    solveNanos[c][r] = response.solveNanos;
+                    statuses[response.status].incrementAndGet();
+                    inFlight.release();
+                    if (verify && response.isOk()) {
+                        check(instances[r % POOL], response.matching);
+                    }
+                }
+            } catch (IOException e) {
+                failure.set(e);
+                inFlight.release(requests);
+            }
+        }, "matching-receiver-" + c);
+        try {
+            receiver.start();
+            for (int r = 0; r < requests && failure.get() == null; r++) {
+                inFlight.acquire();
+                ByteBuffer frame = frames[r % POOL].duplicate().order(frames[r % POOL].order());
+                frame.putInt(8, r);
+                sent[r] = System.nanoTime();
+                client.send(frame);
+            }
+            receiver.join();
+        } finally {
+            // When the send loop fails, the receiver would wait forever for the responses:
+            // closing the client ends it.
+            client.close();
+            receiver.join();
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+
+    private void check (Instance instance, SparseMatching matching)
+    {
+        StabilityReport report = new StabilityVerifier().verify(instance.menGroupCount(), instance.womenGroupCount(),
+                                                                 instance.menPrefs(), instance.womenPrefs(), matching);
+        if (report.kind != StabilityReport.Kind.STABLE) {
+            unstable.incrementAndGet();
+        }
+    }
+
+    // Print the throughput, the percentiles of the latencies, the mean times reported
+    // by the server and the number of responses of every status.
+
+    void report (long elapsed)
+    {
+        int answered = connections * requests;
+        long[] all = new long[answered];
+        double queue = 0, solve = 0;
+        for (int c = 0; c < connections; c++) {
+            System.arraycopy(latencies[c], 0, all, c * requests, requests);
+            for (int r = 0; r < requests; r++) {
+                queue += queueNanos[c][r];
+                solve += solveNanos[c][r];
+            }
+        }
+        Arrays.sort(all);
+        System.out.printf("%d requests on %d connections, %d in flight each, in %.3f s%n",
+                          answered, connections, window, elapsed / 1e9);
+        System.out.printf("throughput %.1f requests/s%n", answered / (elapsed / 1e9));
+        System.out.printf("latency p50 %.3f ms, p99 %.3f ms, max %.3f ms%n",
+                          percentile(all, 0.50) / 1e6, percentile(all, 0.99) / 1e6, all[answered - 1] / 1e6);
+        System.out.printf("server mean queue %.3f ms, mean solve %.3f ms%n",
+                          queue / answered / 1e6, solve / answered / 1e6);
+        System.out.printf("%d ok, %d invalid, %d timeouts, %d errors%n",
+                          statuses[MatchingProtocol.OK].get(), statuses[MatchingProtocol.INVALID].get(),
+                          statuses[MatchingProtocol.TIMEOUT].get(), statuses[MatchingProtocol.ERROR].get());
+        if (verify) {
+            System.out.printf("%d unstable matchings%n", unstable.get());
+        }
+    }
+
+    // The value of rank ceil(p n) of the sorted values, the nearest-rank percentile.
+
+    static long percentile (long[] sorted, double p)
+    {
+        int rank = (int) Math.ceil(p * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    // Usage: java MatchingLoadGenerator [-verify] [-timeout ms] [address] [connections]
+    //            [requests per connection] [window] [m] [w] [nEstimate]
+    // The defaults are 7421, 4 connections of 1000 requests, 8 in flight each, and
+    // instances of 64 x 64 groups with about 1000 people.
+
+    public static void main (String[] args) throws Exception
+    {
+        boolean verify = false;
+        int timeoutMillis = 0;
+        int a = 0;
+        for (; a < args.length && args[a].startsWith("-"); a++) {
+            if (args[a].equals("-verify")) {
+                verify = true;
+            }
+            else if (args[a].equals("-timeout")) {
+                timeoutMillis = Integer.parseInt(args[++a]);
+            }
+            else {
+                throw new IllegalArgumentException("Unknown option " + args[a]);
+            }
+        }
+        String address = args.length > a ? args[a] : "7421";
+        int connections = args.length > a + 1 ? Integer.parseInt(args[a + 1]) : 4;
+        int requests = args.length > a + 2 ? Integer.parseInt(args[a + 2]) : 1000;
+        int window = args.length > a + 3 ? Integer.parseInt(args[a + 3]) : 8;
+        int m = args.length > a + 4 ? Integer.parseInt(args[a + 4]) : 64;
+        int w = args.length > a + 5 ? Integer.parseInt(args[a + 5]) : 64;
+        int nEstimate = args.length > a + 6 ? Integer.parseInt(args[a + 6]) : 1000;
+        MatchingLoadGenerator load = new MatchingLoadGenerator(address, connections, requests, window, timeoutMillis, verify);
+        load.generate(new Random().nextLong(), m, w, nEstimate);
+        load.report(load.run());
+        if (load.unstable.get() > 0 || load.statuses[MatchingProtocol.ERROR].get() > 0) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/*
+  The binary protocol of MatchingServer, over a TCP or Unix-domain stream socket.
+
+  All the numbers are little-endian, as in InstanceFile. A client sends request frames:
+
+    int     the number of bytes of the frame after this int
+    int     REQUEST_MAGIC ("SMRQ")
+    int     the id of the request, chosen by the client
+    int     the time limit of the solve in milliseconds, 0 for none
+    int     m, the number of men groups
+    int     w, the number of women groups
+    int[m]  menGroupCount
+    int[w]  womenGroupCount
+    menPrefs, m x w cells of PreferenceMatrix.cellBytes(w) bytes, in row-major order
+    womenPrefs, w x m cells of PreferenceMatrix.cellBytes(m) bytes, in row-major order
+
+  and the server sends a response frame for every request, in the order the solves end:
+
+    int     the number of bytes of the frame after this int
+    int     RESPONSE_MAGIC ("SMRS")
+    int     the id of the request
+    int     the status, OK, INVALID, TIMEOUT or ERROR
+    long    the time the request waited for a solver, in nanoseconds
+    long    the time of the solve, in nanoseconds
+    if OK: the matching in CSR form (see SparseMatching)
+      int   m, int w, int size
+      int[m + 1] rowStart, int[size] womenGroup, int[size] count
+    otherwise: int the length of a UTF-8 message, and its bytes
+
+  A client may send any number of requests before reading the responses.
+  */
+final class MatchingProtocol {
+
+  static final int REQUEST_MAGIC = 0x534D5251;
+
+  static final int RESPONSE_MAGIC = 0x534D5253;
+
+  // The statuses of a response.
+  static final int OK = 0;
+  static final int INVALID = 1;
+  static final int TIMEOUT = 2;
+  static final int ERROR = 3;
+
+  // The bytes of a request frame up to w, the length included.
+  static final int REQUEST_HEADER_BYTES = 6 * 4;
+
+  // The bytes of a response frame up to the solve time, the length included.
+  static final int RESPONSE_HEADER_BYTES = 4 * 4 + 2 * 8;
+
+  // The largest frame accepted.
+  static final int MAX_FRAME_BYTES = 1 << 30;
+
+  private MatchingProtocol () {
+  }
+
+  // The address "host:port", a port on the loopback interface, or the path of a Unix-domain socket.
+  static SocketAddress address (String address) {
+    int colon = address.lastIndexOf(':');
+    if (colon >= 0) {
+      return new InetSocketAddress(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+    }
+    if (!address.isEmpty() && address.chars().allMatch(Character::isDigit)) {
+      return new InetSocketAddress("127.0.0.1", Integer.parseInt(address));
+    }
+    return UnixDomainSocketAddress.of(address);
+  }
+
+  // The number of bytes of the frame of a request after its length.
+  static long requestBytes (int m, int w) {
+    return REQUEST_HEADER_BYTES - 4 + 4L * (m + w)
+        + (long) m * w * PreferenceMatrix.cellBytes(w) + (long) w * m * PreferenceMatrix.cellBytes(m);
+  }
+
+  // The frame of a request, ready to be written.
+  static ByteBuffer encodeRequest (int id, int timeoutMillis, Instance instance) {
+    int m = instance.m();
+    int w = instance.w();
+    long bytes = requestBytes(m, w);
+    if (bytes + 4 > MAX_FRAME_BYTES) {
+      throw new IllegalArgumentException("Instance too large for a request: " + m + " x " + w);
+    }
+    ByteBuffer frame = ByteBuffer.allocate((int) bytes + 4).order(ByteOrder.LITTLE_ENDIAN);
+    frame.putInt((int) bytes);
+    frame.putInt(REQUEST_MAGIC);
+    frame.putInt(id);
+    frame.putInt(timeoutMillis);
+    frame.putInt(m);
+    frame.putInt(w);
+    for (int i = 0; i < m; i++) {
+      frame.putInt(instance.menGroupCount[i]);
+    }
+    for (int j = 0; j < w; j++) {
+      frame.putInt(instance.womenGroupCount[j]);
+    }
+    putMatrix(frame, instance.menPrefs());
+    putMatrix(frame, instance.womenPrefs());
+    frame.flip();
+    return frame;
+  }
+
+  private static void putMatrix (ByteBuffer frame, PreferenceMatrix prefs) {
+    int width = PreferenceMatrix.cellBytes(prefs.columns());
+    int[] row = new int[prefs.columns()];
+    for (int i = 0; i < prefs.rows(); i++) {
+      prefs.getRow(i, row);
+      for (int k = 0; k < row.length; k++) {
+        switch (width) {
+          case 1: frame.put((byte) row[k]); break;
+          case 2: frame.putChar((char) row[k]); break;
+          default: frame.putInt(row[k]);
+        }
+      }
+    }
+  }
+
+  // The instance of the body of a request frame, the bytes after w. The preference matrices
+  // are views of the body, which must not be changed while the instance is in use. Every
+  // row must be a permutation, which costs one more reading of the matrices.
+  static Instance decodeInstance (int m, int w, ByteBuffer body) {
+    if (body.remaining() != requestBytes(m, w) - (REQUEST_HEADER_BYTES - 4)) {
+      throw new IllegalArgumentException("The request does not have the size of a " + m + " x " + w + " instance");
+    }
+    int[] menGroupCount = new int[m];
+    int[] womenGroupCount = new int[w];
+    long men = 0;
+    long women = 0;
+    for (int i = 0; i < m; i++) {
+      menGroupCount[i] = body.getInt();
+      men += menGroupCount[i];
+    }
+    for (int j = 0; j < w; j++) {
+      womenGroupCount[j] = body.getInt();
+      women += womenGroupCount[j];
+    }
+    for (int count : menGroupCount) {
+      if (count < 0) {
+        throw new IllegalArgumentException("Negative group count " + count);
+      }
+    }
+    for (int count : womenGroupCount) {
+      if (count < 0) {
+        throw new IllegalArgumentException("Negative group count " + count);
+      }
+    }
+    if (men != women) {
+      throw new IllegalArgumentException("There are " + men + " men and " + women + " women");
+    }
+    PreferenceMatrix menPrefs = PreferenceMatrix.wrap(body, m, w);
+    body.position(body.position() + m * w * PreferenceMatrix.cellBytes(w));
+    PreferenceMatrix womenPrefs = PreferenceMatrix.wrap(body, w, m);
+    checkPermutations(menPrefs, "men");
+    checkPermutations(womenPrefs, "women");
+    return new Instance(menGroupCount, womenGroupCount, menPrefs, womenPrefs);
+  }
+
+  private static void checkPermutations (PreferenceMatrix prefs, String side) {
+    int[] row = new int[prefs.columns()];
+    boolean[] seen = new boolean[prefs.columns()];
+    for (int i = 0; i < prefs.rows(); i++) {
+      prefs.getRow(i, row);
+      if (!PreferenceMatrix.isPermutation(row, seen)) {
+        throw new IllegalArgumentException("The preferences of the " + side + " group " + i + " are not a permutation");
+      }
+    }
+  }
+
+  // The frame of a response, with the matching when the status is OK, the message otherwise.
+  static ByteBuffer encodeResponse (int id, int status, long queueNanos, long solveNanos, SparseMatching matching, String message) {
+    byte[] text = status == OK ? null : String.valueOf(message).getBytes(StandardCharsets.UTF_8);
+    int bytes = RESPONSE_HEADER_BYTES - 4 + (status == OK
+        ? 4 * (3 + matching.menGroups() + 1 + 2 * matching.size())
+        : 4 + text.length);
+    ByteBuffer frame = ByteBuffer.allocate(bytes + 4).order(ByteOrder.LITTLE_ENDIAN);
+    frame.putInt(bytes);
+    frame.putInt(RESPONSE_MAGIC);
+    frame.putInt(id);
+    frame.putInt(status);
+    frame.putLong(queueNanos);
+    frame.putLong(solveNanos);
+    if (status == OK) {
+      int m = matching.menGroups();
+      frame.putInt(m);
+      frame.putInt(matching.womenGroups());
+      frame.putInt(matching.size());
+      for (int i = 0; i <= m; i++) {
+        frame.putInt(i < m ? matching.rowStart(i) : matching.size());
+      }
+      for (int e = 0; e < matching.size(); e++) {
+        frame.putInt(matching.womenGroup(e));
+      }
+      for (int e = 0; e < matching.size(); e++) {
+        frame.putInt(matching.count(e));
+      }
+    }
+    else {
+      frame.putInt(text.length);
+      frame.put(text);
+    }
+    frame.flip();
+    return frame;
+  }
+}
@@ -0,0 +1,438 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/*
+  A long-running matching server: the clients send instances over a local socket, in the
+  binary encoding of MatchingProtocol, and get their stable matchings back, without paying
+  the startup and the warmup of a JVM per instance.
+
+  Every connection has a reader thread, decoding the requests in place: the preference
+  matrices of an instance are views of the bytes of its frame. The requests wait in one
+  queue for the worker threads, and a worker takes up to MAX_BATCH of them at once, solving
+  them one after the other with its own workspace (see StableMatchingSolver), and queueing
+  every response for the writer thread of its connection as soon as its solve ends: a
+  worker never waits for a client to read.
+
+  A request is only read when its estimated memory footprint fits in the memory budget,
+  minus the footprints of the requests read and not solved yet, as in ParallelTestRunner:
+  the reader of a client sending faster than the workers solve stops reading, and the
+  client is slowed down by the flow control of the socket. A request larger than the
+  budget is read when no other request is in the server. Likewise, the reader of a client
+  not reading its responses stops reading while more than MAX_OUTGOING_BYTES of them are
+  queued for it, so that this client only holds up itself.
+  */
+public class MatchingServer implements AutoCloseable {
+
+  // The largest number of requests a worker takes from the queue at once.
+  static final int MAX_BATCH = 16;
+
+  // The footprint of a request besides its frame and its rank table, in bytes.
+  static final long REQUEST_OVERHEAD = 1 << 16;
+
+  // The bytes of responses queued for a connection beyond which its requests are not read.
+  static final long MAX_OUTGOING_BYTES = 1 << 24;
+
+  // A request read and not answered yet.
+  private static final class Request {
+    final Connection connection;
+    final int id;
+    final int timeoutMillis;
+    final Instance instance;
+    final long footprint;
+    final long receivedNanos;
+
+    Request (Connection connection, int id, int timeoutMillis, Instance instance, long footprint, long receivedNanos) {
+      this.connection = connection;
+      this.id = id;
+      this.timeoutMillis = timeoutMillis;
+      this.instance = instance;
+      this.footprint = footprint;
+      this.receivedNanos = receivedNanos;
+    }
+  }
+
+  /*
+    A client connection. Its reader expects a response for every request it reads, the
+    workers queue the responses, and its writer writes them in order. The channel is closed
+    by the writer, once the reader is done and every expected response is written, or at
+    once when a write fails, the responses queued then being dropped.
+    */
+  private static final class Connection {
+    final SocketChannel channel;
+
+    private final ArrayDeque<ByteBuffer> outgoing = new ArrayDeque<ByteBuffer>();
+
+    // The bytes of the queued responses.
+    private long outgoingBytes;
+
+    // The number of responses expected and not written yet.
+    private int expected;
+
+    private boolean reading = true;
+
+    // Whether a write failed: the client is gone.
+    private boolean broken;
+
+    Connection (SocketChannel channel) {
+      this.channel = channel;
+    }
+
+    synchronized void expect () {
+      expected++;
+    }
+
+    // Queue a response for the writer, without waiting.
+    synchronized void send (ByteBuffer frame) {
+      if (broken) {
+        expected--;
+      }
+      else {
+        outgoing.add(frame);
+        outgoingBytes += frame.remaining();
+      }
+      notifyAll();
+    }
+
+    // Wait until the client has read enough of its responses, or is gone.
+    synchronized void awaitOutgoing () throws InterruptedException {
+      while (!broken && outgoingBytes > MAX_OUTGOING_BYTES) {
+        wait();
+      }
+    }
+
+    synchronized void endOfRequests () {
+      reading = false;
+      notifyAll();
+    }
+
+    // Write the responses until the last one expected.
+    void write () {
+      try {
+        while (true) {
+          ByteBuffer frame;
+          synchronized (this) {
+            while (outgoing.isEmpty() && (reading || expected > 0)) {
+              wait();
+            }
+            if (outgoing.isEmpty()) {
+              return;
+            }
+            frame = outgoing.poll();
+          }
+          int bytes = frame.remaining();
+          try {
+            while (frame.hasRemaining()) {
+              channel.write(frame);
+            }
+          } catch (IOException e) {
+            fail();
+            continue;
+          }
+          synchronized (this) {
+            outgoingBytes -= bytes;
+            expected--;
+            notifyAll();
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        closeChannel();
+      }
+    }
+
+    // Drop the queued responses, and close the channel, which stops the reader.
+    private void fail () {
+      synchronized (this) {
+        broken = true;
+        expected -= 1 + outgoing.size();
+        outgoing.clear();
+        outgoingBytes = 0;
+        notifyAll();
+      }
+      closeChannel();
+    }
+
+    private void closeChannel () {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        // Nothing more can be done with this client.
+      }
+    }
+  }
+
+  private final ServerSocketChannel server;
+
+  private final SocketAddress address;
+
+  private final StableMatchingSolver solver = new StableMatchingSolver();
+
+  private final LinkedBlockingQueue<Request> queue = new LinkedBlockingQueue<Request>();
+
+  private final List<Thread> threads = new ArrayList<Thread>();
+
+  // The memory budget of the requests, in bytes, and the part of it that is not used by
+  // the requests read and not solved yet.
+  private final long budget;
+  private long available;
+
+  // The number of requests read and not solved yet.
+  private int pending;
+
+  // The number of requests answered, by status.
+  private final long[] answered = new long[MatchingProtocol.ERROR + 1];
+
+  private volatile boolean closed;
+
+  // Listen on the given address, and start the given number of workers.
+  public MatchingServer (SocketAddress address, int workers, long budget) throws IOException {
+    if (address instanceof UnixDomainSocketAddress) {
+      Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+      server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+    }
+    else {
+      server = ServerSocketChannel.open();
+    }
+    server.bind(address);
+    this.address = server.getLocalAddress();
+    this.budget = this.available = budget;
+    for (int k = 0; k < workers; k++) {
+      start("matching-worker-" + k, this::work);
+    }
+    start("matching-acceptor", this::accept);
+  }
+
+  // The address the server listens on, with the actual port when the given one was 0.
+  public SocketAddress address () {
+    return address;
+  }
+
+  // The number of requests answered with the given status.
+  public synchronized long answered (int status) {
+    return answered[status];
+  }
+
+  private void start (String name, Runnable body) {
+    Thread thread = new Thread(body, name);
+    thread.setDaemon(true);
+    threads.add(thread);
+    thread.start();
+  }
+
+  private void accept () {
+    int connections = 0;
+    while (!closed) {
+      try {
+        SocketChannel channel = server.accept();
+        Connection connection = new Connection(channel);
+        Thread writer = new Thread(connection::write, "matching-writer-" + connections);
+        writer.setDaemon(true);
+        writer.start();
+        Thread reader = new Thread(() -> read(connection), "matching-reader-" + connections++);
+        reader.setDaemon(true);
+        reader.start();
+      } catch (ClosedChannelException e) {
+        return;
+      } catch (IOException e) {
+        if (!closed) {
+          System.err.println("MatchingServer: cannot accept a connection: " + e);
+        }
+      }
+    }
+  }
+
+  // Read the requests of a connection until the client closes it.
+  private void read (Connection connection) {
+    ByteBuffer header = ByteBuffer.allocate(MatchingProtocol.REQUEST_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    SocketChannel channel = connection.channel;
+    try {
+      while (!closed) {
+        connection.awaitOutgoing();
+        if (!readFully(channel, header, true)) {
+          break;
+        }
+        header.flip();
+        int length = header.getInt();
+        int magic = header.getInt();
+        int id = header.getInt();
+        int timeoutMillis = header.getInt();
+        int m = header.getInt();
+        int w = header.getInt();
+        header.clear();
+        String error = null;
+        if (magic != MatchingProtocol.REQUEST_MAGIC || length < MatchingProtocol.REQUEST_HEADER_BYTES - 4
+            || length > MatchingProtocol.MAX_FRAME_BYTES || m < 0 || w < 0) {
+          error = "Invalid frame header";
+        }
+        else if ((long) m * w > MatchingProtocol.MAX_FRAME_BYTES || length != MatchingProtocol.requestBytes(m, w)) {
+          // Checked before the footprint, which follows m and w, is admitted: the body of a
+          // header claiming a large instance may never come.
+          error = "The request does not have the size of a " + m + " x " + w + " instance";
+        }
+        if (error != null) {
+          // The stream cannot be resynchronized.
+          connection.expect();
+          connection.send(MatchingProtocol.encodeResponse(id, MatchingProtocol.INVALID, 0, 0, null, error));
+          count(MatchingProtocol.INVALID);
+          return;
+        }
+        long footprint = length + (long) m * w * PreferenceMatrix.cellBytes(m) + REQUEST_OVERHEAD;
+        admit(footprint);
+        long receivedNanos;
+        Instance instance;
+        try {
+          ByteBuffer body = ByteBuffer.allocate(length - (MatchingProtocol.REQUEST_HEADER_BYTES - 4)).order(ByteOrder.LITTLE_ENDIAN);
+          readFully(channel, body, false);
+          body.flip();
+          receivedNanos = System.nanoTime();
+          instance = MatchingProtocol.decodeInstance(m, w, body);
+        } catch (IllegalArgumentException e) {
+          release(footprint);
+          connection.expect();
+          connection.send(MatchingProtocol.encodeResponse(id, MatchingProtocol.INVALID, 0, 0, null, e.getMessage()));
+          count(MatchingProtocol.INVALID);
+          continue;
+        } catch (IOException | RuntimeException e) {
+          release(footprint);
+          throw e;
+        }
+        connection.expect();
+        queue.add(new Request(connection, id, timeoutMillis, instance, footprint, receivedNanos));
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (IOException e) {
+      if (!closed && channel.isOpen()) {
+        System.err.println("MatchingServer: connection closed: " + e);
+      }
+    } finally {
+      connection.endOfRequests();
+    }
+  }
+
+  // Fill the buffer from the channel. Return false at the end of the stream before the
+  // first byte, when allowed.
+  private static boolean readFully (SocketChannel channel, ByteBuffer buffer, boolean endAllowed) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer) < 0) {
+        if (endAllowed && buffer.position() == 0) {
+          return false;
+        }
+        throw new EOFException("Truncated request");
+      }
+    }
+    return true;
+  }
+
+  // Take the requests from the queue by batches, and answer them.
+  private void work () {
+    List<Request> batch = new ArrayList<Request>(MAX_BATCH);
+    try {
+      while (!closed) {
+        batch.add(queue.take());
+        queue.drainTo(batch, MAX_BATCH - 1);
+        for (Request request : batch) {
+          answer(request);
+        }
+        batch.clear();
+      }
+    } catch (InterruptedException e) {
+      // The server is closed.
+    }
+  }
+
+  private void answer (Request request) {
+    long start = System.nanoTime();
+    Deadline deadline = request.timeoutMillis > 0 ? Deadline.after(request.timeoutMillis) : null;
+    SparseMatching matching = null;
+    int status = MatchingProtocol.OK;
+    String message = null;
+    try {
+      matching = deadline == null ? solver.solve(request.instance) : solver.solve(request.instance, deadline);
+    } catch (SolveCancelledException e) {
+      status = MatchingProtocol.TIMEOUT;
+      message = e.getMessage();
+    } catch (RuntimeException e) {
+      // A failure of the solver, the instances being checked when they are read.
+      status = MatchingProtocol.ERROR;
+      message = e.toString();
+    }
+    long end = System.nanoTime();
+    // The instance is no longer used: its footprint is released before the response is
+    // written, which depends on the client.
+    release(request.footprint);
+    count(status);
+    request.connection.send(MatchingProtocol.encodeResponse(request.id, status,
+        start - request.receivedNanos, end - start, matching, message));
+  }
+
+  // Wait until the footprint fits in the available memory, or no request is in the server.
+  private synchronized void admit (long footprint) throws InterruptedException {
+    while (pending > 0 && footprint > available) {
+      wait();
+    }
+    available -= footprint;
+    pending++;
+  }
+
+  private synchronized void release (long footprint) {
+    available += footprint;
+    pending--;
+    notifyAll();
+  }
+
+  private synchronized void count (int status) {
+    answered[status]++;
+  }
+
+  // Stop listening and stop the workers. The connections are closed by their clients.
+  @Override
+  public void close () throws IOException {
+    closed = true;
+    server.close();
+    for (Thread thread : threads) {
+      thread.interrupt();
+    }
+    if (address instanceof UnixDomainSocketAddress) {
+      Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+    }
+  }
+
+  // Usage: java MatchingServer [address] [workers] [budget in MB]
+  // The address is "host:port", a port on the loopback interface or the path of a
+  // Unix-domain socket, 7421 by default. The default number of workers is the number of
+  // processors, and the default budget three quarters of the maximum heap.
+  public static void main (String[] args) throws Exception {
+    SocketAddress address = MatchingProtocol.address(args.length > 0 ? args[0] : "7421");
+    int workers = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+    long budget = args.length > 2 ? Long.parseLong(args[2]) << 20 : Runtime.getRuntime().maxMemory() / 4 * 3;
+    MatchingServer server = new MatchingServer(address, workers, budget);
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      try {
+        server.close();
+      } catch (IOException e) {
+        // The process ends anyway.
+      }
+      System.err.printf("MatchingServer: %d ok, %d invalid, %d timeouts, %d errors%n",
+          server.answered(MatchingProtocol.OK), server.answered(MatchingProtocol.INVALID),
+          server.answered(MatchingProtocol.TIMEOUT), server.answered(MatchingProtocol.ERROR));
+    }));
+    System.err.printf("MatchingServer: listening on %s with %d workers and a budget of %d MB%n",
+        server.address(), workers, budget >> 20);
+    Thread.currentThread().join();
+  }
+}
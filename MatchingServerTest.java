@@ -0,0 +1,334 @@
+// A test of MatchingServer over a Unix-domain socket: pipelined requests get
+// the matchings of StableMatching, invalid requests and headers are answered
+// INVALID, requests out of time TIMEOUT, and a client sending requests
+// without reading its responses does not keep the server from answering the
+// others.
+
+import java.io.PrintStream;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class MatchingServerTest {
+
+    // The server: its workers and its memory budget, small enough for the
+    // requests of the client that does not read to exceed it.
+
+    public final static int WORKERS = 2;
+
+    public final static long BUDGET = 64L << 20;
+
+    // The number of pipelined requests checked against StableMatching, and
+    // their largest number of groups of men or women.
+
+    public final static int PIPELINED = 200;
+
+    public final static int MAX_GROUPS = 32;
+
+    // The number of requests of 64 x 64 groups sent by the client that does
+    // not read, about 80 KB of footprint each, so that they do not all fit in
+    // the budget.
+
+    public final static int UNREAD = 2000;
+
+    public final static int UNREAD_GROUPS = 64;
+
+    // The number of groups of men and of women of the request that times
+    // out, of one person each and random preferences, so that its solve makes
+    // several thousand proposals and inverts as many rows, and its timeout,
+    // in milliseconds.
+
+    public final static int TIMEOUT_GROUPS = 2000;
+
+    public final static int TIMEOUT_MILLIS = 1;
+
+    // The time the server is given to answer, in seconds.
+
+    public final static int WAIT_SECONDS = 20;
+
+    // This is the output stream of the tests.
+
+    private PrintStream out;
+
+    private InstanceGenerator generator;
+
+    private int failures, successes;
+
+    MatchingServerTest (PrintStream out, long seed)
+    {
+        this.out = out;
+        this.generator = new InstanceGenerator(seed);
+    }
+
+    void check (boolean ok, String what)
+    {
+        if (ok) {
+            successes++;
+        }
+        else {
+            failures++;
+            out.printf("FAILURE: %s\n", what);
+        }
+    }
+
+    Instance randomInstance (int m, int w, int nEstimate)
+    {
+        int[][] counts = generator.randomMW(m, w, nEstimate, Integer.MAX_VALUE);
+        return new Instance(counts[0], counts[1], generator.randomMatrix(m, w), generator.randomMatrix(w, m));
+    }
+
+    static boolean sameMatching (Instance instance, SparseMatching matching)
+    {
+        int[][] expected = new StableMatching().constructStableMatching(instance);
+        return matching != null && Arrays.deepEquals(matching.toArray(), expected);
+    }
+
+    // Send all the requests from one thread while another one receives them,
+    // and compare every matching with the one of StableMatching.
+
+    void checkPipelined (SocketAddress address) throws Exception
+    {
+        Instance[] instances = new Instance[PIPELINED];
+        Random random = new Random(0L);
+        for (int r = 0; r < PIPELINED; r++) {
+            int m = 1 + random.nextInt(MAX_GROUPS);
+            int w = 1 + random.nextInt(MAX_GROUPS);
+            instances[r] = randomInstance(m, w, Math.max(m, w) + random.nextInt(4 * m * w));
+        }
+        ExecutorService sender = Executors.newSingleThreadExecutor();
+        try (MatchingClient client = new MatchingClient(address)) {
+            Future<?> sent = sender.submit(() -> {
+                for (int r = 0; r < PIPELINED; r++)
+                    client.send(r, instances[r], 0);
+                return null;
+            });
+            boolean[] received = new boolean[PIPELINED];
+            for (int k = 0; k < PIPELINED; k++) {
+                MatchingClient.Response response = client.receive();
+                int r = response.id;
+                check(r >= 0 && r < PIPELINED && !received[r], "a pipelined response has an unexpected id " + r);
+                if (r >= 0 && r < PIPELINED) {
+                    received[r] = true;
+                    check(response.isOk() && sameMatching(instances[r], response.matching),
+                          "the pipelined request " + r + " does not get the matching of StableMatching");
+                }
+            }
+            sent.get();
+        } finally {
+            sender.shutdownNow();
+        }
+    }
+
+    // A client sends UNREAD requests and reads nothing: the server must still
+    // solve them all, and answer another client meanwhile. The first client
+    // then reads all its responses.
+
+    void checkUnread (MatchingServer server) throws Exception
+    {
+        Instance instance = randomInstance(UNREAD_GROUPS, UNREAD_GROUPS, UNREAD_GROUPS);
+        ByteBuffer frame = MatchingProtocol.encodeRequest(0, 0, instance);
+        ExecutorService threads = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setDaemon(true);
+            return thread;
+        });
+        long answeredBefore = server.answered(MatchingProtocol.OK);
+        try (MatchingClient silent = new MatchingClient(server.address())) {
+            AtomicInteger sentCount = new AtomicInteger();
+            Future<?> sent = threads.submit(() -> {
+                for (int r = 0; r < UNREAD; r++) {
+                    ByteBuffer request = frame.duplicate().order(frame.order());
+                    request.putInt(8, r);
+                    silent.send(request);
+                    sentCount.incrementAndGet();
+                }
+                return null;
+            });
+
+            // Another client is answered while the first one reads nothing,
+            // once the first one has sent all its requests or cannot send more.
+            int last = -1;
+            while (!sent.isDone() && sentCount.get() != last) {
+                last = sentCount.get();
+                Thread.sleep(500);
+            }
+            Instance other = randomInstance(8, 8, 100);
+            Future<MatchingClient.Response> answer = threads.submit(() -> {
+                try (MatchingClient client = new MatchingClient(server.address())) {
+                    return client.solve(other, 0);
+                }
+            });
+            try {
+                MatchingClient.Response response = answer.get(WAIT_SECONDS, TimeUnit.SECONDS);
+                check(response.isOk() && sameMatching(other, response.matching),
+                      "a client is not answered the matching of StableMatching");
+            } catch (TimeoutException e) {
+                check(false, "a client is not answered while another one does not read");
+            }
+
+            // All the requests of the silent client are solved, none read.
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(WAIT_SECONDS);
+            while (server.answered(MatchingProtocol.OK) - answeredBefore < UNREAD + 1 && System.nanoTime() < deadline)
+                Thread.sleep(10);
+            long answered = server.answered(MatchingProtocol.OK) - answeredBefore;
+            check(answered == UNREAD + 1, "only " + answered + " of " + (UNREAD + 1) + " requests solved");
+            if (answered != UNREAD + 1)
+                return;
+            sent.get();
+
+            // Then the silent client reads all its responses.
+            boolean[] received = new boolean[UNREAD];
+            int ok = 0;
+            for (int k = 0; k < UNREAD; k++) {
+                MatchingClient.Response response = silent.receive();
+                if (response.isOk() && response.id >= 0 && response.id < UNREAD && !received[response.id]) {
+                    received[response.id] = true;
+                    ok++;
+                }
+            }
+            check(ok == UNREAD, "the client that did not read gets " + ok + " of its " + UNREAD + " responses");
+            check(sameMatching(instance, silent.solve(instance, 0).matching),
+                  "the client that did not read is not answered afterwards");
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+
+    // Requests whose rows are not permutations are answered INVALID, on a
+    // connection that goes on.
+
+    void checkInvalid (SocketAddress address) throws Exception
+    {
+        int[] counts = { 2, 2, 2 };
+        int[][] prefs = { { 0, 1, 2 }, { 1, 2, 0 }, { 2, 0, 1 } };
+        int[][] repeated = { { 0, 1, 2 }, { 0, 0, 1 }, { 2, 0, 1 } };
+        int[][] outOfRange = { { 0, 1, 2 }, { 1, 2, 0 }, { 1, 1, 7 } };
+        try (MatchingClient client = new MatchingClient(address)) {
+            MatchingClient.Response response = client.solve(new Instance(counts, counts, repeated, prefs), 0);
+            check(response.status == MatchingProtocol.INVALID, "men preferences with a repeated group are not invalid");
+            response = client.solve(new Instance(counts, counts, prefs, outOfRange), 0);
+            check(response.status == MatchingProtocol.INVALID, "women preferences out of range are not invalid");
+            Instance valid = new Instance(counts, counts, prefs, prefs);
+            response = client.solve(valid, 0);
+            check(response.isOk() && sameMatching(valid, response.matching),
+                  "a valid request after invalid ones does not get the matching of StableMatching");
+        }
+    }
+
+    // Headers whose length is not the one of their m x w instance, and whose
+    // body never comes: they are answered INVALID before their footprint is
+    // admitted, and another client is answered while they are open. The
+    // first claims a footprint of about 4 TB, the second one that overflows
+    // a long.
+
+    void checkHeaders (SocketAddress address) throws Exception
+    {
+        int[] sizes = { 1 << 20, Integer.MAX_VALUE };
+        ExecutorService threads = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<MatchingClient> clients = new ArrayList<MatchingClient>();
+        try {
+            for (int n : sizes) {
+                MatchingClient client = new MatchingClient(address);
+                clients.add(client);
+                ByteBuffer header = ByteBuffer.allocate(MatchingProtocol.REQUEST_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(1000).putInt(MatchingProtocol.REQUEST_MAGIC).putInt(7).putInt(0).putInt(n).putInt(n);
+                header.flip();
+                client.send(header);
+                Future<MatchingClient.Response> answer = threads.submit(client::receive);
+                try {
+                    MatchingClient.Response response = answer.get(WAIT_SECONDS, TimeUnit.SECONDS);
+                    check(response.id == 7 && response.status == MatchingProtocol.INVALID,
+                          "a header claiming " + n + " x " + n + " groups in 1000 bytes is not invalid");
+                } catch (TimeoutException e) {
+                    check(false, "a header claiming " + n + " x " + n + " groups in 1000 bytes is not answered");
+                }
+            }
+
+            // The others are still answered.
+            Instance other = randomInstance(8, 8, 100);
+            Future<MatchingClient.Response> answer = threads.submit(() -> {
+                try (MatchingClient client = new MatchingClient(address)) {
+                    return client.solve(other, 0);
+                }
+            });
+            try {
+                MatchingClient.Response response = answer.get(WAIT_SECONDS, TimeUnit.SECONDS);
+                check(response.isOk() && sameMatching(other, response.matching),
+                      "a client is not answered the matching of StableMatching after invalid headers");
+            } catch (TimeoutException e) {
+                check(false, "a client is not answered after invalid headers");
+            }
+        } finally {
+            for (MatchingClient client : clients)
+                client.close();
+            threads.shutdownNow();
+        }
+    }
+
+    // A request whose solve cannot end before its timeout is answered
+    // TIMEOUT, and the same instance without a timeout is solved.
+
+    void checkTimeout (SocketAddress address) throws Exception
+    {
+        int n = TIMEOUT_GROUPS;
+        int[] counts = new int[n];
+        Arrays.fill(counts, 1);
+        Instance instance = new Instance(counts, counts, generator.randomMatrix(n, n), generator.randomMatrix(n, n));
+        try (MatchingClient client = new MatchingClient(address)) {
+            MatchingClient.Response response = client.solve(instance, TIMEOUT_MILLIS);
+            check(response.status == MatchingProtocol.TIMEOUT && response.matching == null,
+                  "a request of " + n + " x " + n + " groups with a timeout of " + TIMEOUT_MILLIS + " ms does not time out");
+            response = client.solve(instance, 0);
+            check(response.isOk() && sameMatching(instance, response.matching),
+                  "a request without a timeout after a timeout does not get the matching of StableMatching");
+        }
+    }
+
+    public boolean test () throws Exception
+    {
+        out.println("Starting matching server tests...\n");
+
+        Path directory = Files.createTempDirectory("matching-server-test");
+        Path socket = directory.resolve("server.sock");
+        try (MatchingServer server = new MatchingServer(UnixDomainSocketAddress.of(socket), WORKERS, BUDGET)) {
+            checkPipelined(server.address());
+            checkInvalid(server.address());
+            checkHeaders(server.address());
+            checkTimeout(server.address());
+            checkUnread(server);
+        } finally {
+            Files.deleteIfExists(socket);
+            Files.deleteIfExists(directory);
+        }
+
+        out.println();
+        out.printf("Done matching server tests. In total, %d success(es) and %d failure(s).\n", successes, failures);
+        return failures == 0;
+    }
+
+    // Usage: java MatchingServerTest
+    // The exit status is 1 when a check fails.
+
+    public static void main (String[] args) throws Exception
+    {
+        boolean ok = new MatchingServerTest(System.out, 0L).test();
+        System.exit(ok ? 0 : 1);
+    }
+}
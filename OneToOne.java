@@ -0,0 +1,124 @@
+import java.util.Arrays;
+
+/*
+  The stable matching of an instance where every group has one person, by the classic
+  Gale-Shapley algorithm on arrays.
+
+  The single men are on a stack, and every man proposes to the women of his list in order,
+  from the position of his last proposal. A woman compares two men by their ranks, from the
+  rank table of the workspace, a row being only computed when the woman is first contested.
+  There is no heap, no scheduler of the groups and no engaged counts: a step is a few array
+  reads, and the result has exactly one cell per row.
+  */
+class OneToOne {
+
+  // The stable matching, checking the deadline every Deadline.CHECK_INTERVAL proposals when
+  // it is not null. The counters of the run are written in stats when it is not null. The
+  // arrays of counts of the workspace are used as scratch.
+  static SparseMatching solve (
+    SolverWorkspace workspace,
+    PreferenceMatrix menPrefs,
+    PreferenceMatrix womenPrefs,
+    Deadline deadline,
+    SolveStats stats
+  ) {
+    int n = menPrefs.rows();
+    long proposals = 0;
+    long accepted = 0;
+    long displacements = 0;
+    long rejections = 0;
+    long invertedRows = 0;
+
+    workspace.reserve(n, n);
+    RankTable invWomenPrefs = workspace.invWomenPrefs;
+    invWomenPrefs.reset(womenPrefs);
+
+    // The position of the last proposal of every man.
+    int[] position = workspace.mostUnproposedWomenGroup;
+    Arrays.fill(position, 0, n, 0);
+
+    // The husband of every woman, -1 for a single one.
+    int[] husband = workspace.singleWomenGroupCount;
+    Arrays.fill(husband, 0, n, -1);
+
+    // The stack of the single men, the man 0 on top.
+    int[] single = workspace.singleMenGroupCount;
+    int top = 0;
+    for (int i = n - 1; i >= 0; i--) {
+      single[top++] = i;
+    }
+
+    while (top > 0) {
+      // Stop with the current engagements if the deadline expired.
+      if (deadline != null && (proposals & (Deadline.CHECK_INTERVAL - 1)) == 0 && deadline.isExpired()) {
+        if (stats != null) {
+          counters(stats, proposals, accepted, displacements, rejections, invertedRows);
+        }
+        throw new SolveCancelledException(toSparseMatching(n, husband), stats);
+      }
+
+      int i = single[top - 1];
+      int j = menPrefs.get(i, position[i]);
+      int h = husband[j];
+      proposals++;
+      if (h < 0) {
+        husband[j] = i;
+        top--;
+        accepted++;
+        continue;
+      }
+      if (!invWomenPrefs.isComputed(j)) {
+        invertedRows++;
+      }
+      PreferenceMatrix ranks = invWomenPrefs.row(j);
+      if (ranks.get(0, i) < ranks.get(0, h)) {
+        // The woman leaves her husband, who is single in place of the man, and goes on with
+        // the next woman of his list.
+        husband[j] = i;
+        single[top - 1] = h;
+        position[h]++;
+        displacements++;
+      }
+      else {
+        position[i]++;
+        rejections++;
+      }
+    }
+
+    if (stats != null) {
+      counters(stats, proposals, accepted, displacements, rejections, invertedRows);
+    }
+    return toSparseMatching(n, husband);
+  }
+
+  private static void counters (SolveStats stats, long proposals, long accepted, long displacements, long rejections,
+      long invertedRows) {
+    stats.proposals = proposals;
+    stats.accepted = accepted;
+    stats.displacements = displacements;
+    stats.rejections = rejections;
+    stats.invertedRows = invertedRows;
+  }
+
+  // The matching of the engaged couples, the man of a row without wife having no cell.
+  static SparseMatching toSparseMatching (int n, int[] husband) {
+    int[] rowStart = new int[n + 1];
+    for (int j = 0; j < n; j++) {
+      if (husband[j] >= 0) {
+        rowStart[husband[j] + 1]++;
+      }
+    }
+    for (int i = 0; i < n; i++) {
+      rowStart[i + 1] += rowStart[i];
+    }
+    int[] womenGroup = new int[rowStart[n]];
+    int[] count = new int[rowStart[n]];
+    for (int j = 0; j < n; j++) {
+      if (husband[j] >= 0) {
+        womenGroup[rowStart[husband[j]]] = j;
+        count[rowStart[husband[j]]] = 1;
+      }
+    }
+    return new SparseMatching(n, rowStart, womenGroup, count);
+  }
+}
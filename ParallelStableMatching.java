@@ -0,0 +1,263 @@
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+  A parallel version of StableMatching, in the style of the McVitie-Wilson algorithm.
+
+  Every group of men with single men is handled by a task of a ForkJoinPool, that
+  proposes to the women groups in order of preference until all the men of the group
+  are engaged. Proposals to a group of women are serialized by a striped lock, so that
+  proposals to different groups of women run concurrently. When a task displaces some
+  men of another group, it gives them back to that group, and starts a task for it if
+  none is running.
+
+  Whatever the order of the proposals, the Gale-Shapley algorithm ends with the
+  men-optimal stable matching, so the result is exactly the one of StableMatching.
+  */
+class ParallelStableMatching implements StableMatchingInterface {
+
+  // Below this number of cells in a preference matrix, we use the sequential solver.
+  static final long SEQUENTIAL_THRESHOLD = 1L << 16;
+
+  // The number of lock stripes per thread of the pool.
+  static final int STRIPES_PER_THREAD = 16;
+
+  private final ForkJoinPool pool;
+
+  ParallelStableMatching () {
+    this(ForkJoinPool.commonPool());
+  }
+
+  ParallelStableMatching (ForkJoinPool pool) {
+    this.pool = pool;
+  }
+
+  public int[][] constructStableMatching (
+    int[] menGroupCount,
+    int[] womenGroupCount,
+    int[][] menPrefs,
+    int[][] womenPrefs
+  ) {
+    return constructStableMatching(
+      menGroupCount,
+      womenGroupCount,
+      PreferenceMatrix.wrap(menPrefs, womenGroupCount.length),
+      PreferenceMatrix.wrap(womenPrefs, menGroupCount.length)
+    );
+  }
+
+  @Override
+  public int[][] constructStableMatching (
+    int[] menGroupCount,
+    int[] womenGroupCount,
+    PreferenceMatrix menPrefs,
+    PreferenceMatrix womenPrefs
+  ) {
+    int m = menGroupCount.length;
+    int w = womenGroupCount.length;
+    if ((long) m * w < SEQUENTIAL_THRESHOLD || pool.getParallelism() == 1) {
+      return new StableMatching().constructStableMatching(menGroupCount, womenGroupCount, menPrefs, womenPrefs);
+    }
+    return new Run(menGroupCount, womenGroupCount, menPrefs, womenPrefs).solve();
+  }
+
+  // The state of one call to constructStableMatching.
+  private final class Run {
+
+    final int m;
+    final int w;
+    final PreferenceMatrix menPrefs;
+    final PreferenceMatrix womenPrefs;
+
+    // The rank of every men group for every women group, computed before proposing.
+    final RankTable invWomenPrefs;
+
+    // The matching matrix, the column j is only accessed under the lock of the women group j.
+    final int[][] M;
+
+    // The number of single women in every group, under the lock of the group.
+    final int[] singleWomenGroupCount;
+
+    // The ranks of the men groups engaged to every group of women, under the lock of the group.
+    final RankHeap[] menGroupEngagedTo;
+
+    // The lock of the women group j is locks[j & (locks.length - 1)].
+    final Object[] locks;
+
+    // The position in its preferences of the next women group a group of men proposes to.
+    // It is only accessed by the task of the men group.
+    final int[] mostUnproposedWomenGroup;
+
+    // The number of men displaced from every group and not yet handled by its task.
+    final AtomicIntegerArray returnedMen;
+
+    // 1 if a task is running for the group of men, 0 otherwise.
+    final AtomicIntegerArray active;
+
+    // The number of tasks not yet finished, the latch is released when it reaches 0.
+    final AtomicInteger pendingTasks = new AtomicInteger();
+    final CountDownLatch done = new CountDownLatch(1);
+
+    // The first exception thrown by a task. The other tasks then stop proposing, and the
+    // solve throws it once they have all finished.
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+    Run (int[] menGroupCount, int[] womenGroupCount, PreferenceMatrix menPrefs, PreferenceMatrix womenPrefs) {
+      m = menGroupCount.length;
+      w = womenGroupCount.length;
+      this.menPrefs = menPrefs;
+      this.womenPrefs = womenPrefs;
+
+      invWomenPrefs = new RankTable(womenPrefs);
+      invWomenPrefs.computeAll(pool);
+
+      M = new int[m][w];
+      singleWomenGroupCount = womenGroupCount.clone();
+      menGroupEngagedTo = new RankHeap[w];
+      for (int j = 0; j < w; j++) {
+        menGroupEngagedTo[j] = new RankHeap();
+      }
+      int wanted = Math.max(1, Math.min(w, pool.getParallelism() * STRIPES_PER_THREAD));
+      int stripes = Integer.highestOneBit(wanted);
+      if (stripes < wanted) {
+        stripes <<= 1;
+      }
+      locks = new Object[stripes];
+      for (int s = 0; s < stripes; s++) {
+        locks[s] = new Object();
+      }
+      mostUnproposedWomenGroup = new int[m];
+      returnedMen = new AtomicIntegerArray(menGroupCount);
+      active = new AtomicIntegerArray(m);
+    }
+
+    int[][] solve () {
+      // The pending count starts at 1 so that it cannot reach 0 before all the tasks are submitted.
+      pendingTasks.set(1);
+      for (int i = 0; i < m; i++) {
+        if (returnedMen.get(i) > 0) {
+          active.set(i, 1);
+          pendingTasks.incrementAndGet();
+          pool.execute(new ProposalTask(i));
+        }
+      }
+      taskDone();
+      // The caller may be a worker of the pool itself: it is then compensated while it
+      // waits, so that the proposal tasks always have a thread to run on.
+      try {
+        ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+          public boolean block () throws InterruptedException {
+            done.await();
+            return true;
+          }
+
+          public boolean isReleasable () {
+            return done.getCount() == 0;
+          }
+        });
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while solving", e);
+      }
+      Throwable e = failure.get();
+      if (e instanceof RuntimeException) {
+        throw (RuntimeException) e;
+      }
+      if (e != null) {
+        throw new IllegalStateException(e);
+      }
+      return M;
+    }
+
+    void taskDone () {
+      if (pendingTasks.decrementAndGet() == 0) {
+        done.countDown();
+      }
+    }
+
+    // Give back c displaced men to the group i, and start its task if needed.
+    void giveBack (int i, int c) {
+      returnedMen.getAndAdd(i, c);
+      if (active.compareAndSet(i, 0, 1)) {
+        pendingTasks.incrementAndGet();
+        new ProposalTask(i).fork();
+      }
+    }
+
+    // Propose singleMen men of the group i to its current women group, and return the
+    // number of men of the group still single. Displaced men are given back to their group.
+    int propose (int i, int singleMen) {
+      int position = mostUnproposedWomenGroup[i];
+      int j = menPrefs.get(i, position);
+      int rank = invWomenPrefs.rank(j, i);
+      int displacedGroup = -1;
+      int c;
+      synchronized (locks[j & (locks.length - 1)]) {
+        RankHeap engaged = menGroupEngagedTo[j];
+        if (singleWomenGroupCount[j] > 0) {
+          c = Math.min(singleWomenGroupCount[j], singleMen);
+          singleWomenGroupCount[j] -= c;
+        }
+        else {
+          int leastAttractiveRank = engaged.peek();
+          if (rank >= leastAttractiveRank) {
+            // The proposal was not accepted. We go to the next women group.
+            mostUnproposedWomenGroup[i] = position + 1;
+            return singleMen;
+          }
+          displacedGroup = womenPrefs.get(j, leastAttractiveRank);
+          c = Math.min(M[displacedGroup][j], singleMen);
+          M[displacedGroup][j] -= c;
+          if (M[displacedGroup][j] == 0) {
+            engaged.poll();
+          }
+        }
+        if (M[i][j] == 0) {
+          engaged.offer(rank, position);
+        }
+        M[i][j] += c;
+      }
+      if (displacedGroup >= 0) {
+        giveBack(displacedGroup, c);
+      }
+      return singleMen - c;
+    }
+
+    // The task proposing the single men of a group until they are all engaged.
+    final class ProposalTask extends RecursiveAction {
+      final int i;
+
+      ProposalTask (int i) {
+        this.i = i;
+      }
+
+      @Override
+      protected void compute () {
+        try {
+          while (true) {
+            int singleMen = returnedMen.getAndSet(i, 0);
+            while (singleMen > 0 && failure.get() == null) {
+              singleMen = propose(i, singleMen);
+              if (singleMen == 0) {
+                singleMen = returnedMen.getAndSet(i, 0);
+              }
+            }
+            active.set(i, 0);
+            // Some men may have been given back after the last check.
+            if (returnedMen.get(i) == 0 || failure.get() != null || !active.compareAndSet(i, 0, 1)) {
+              break;
+            }
+          }
+        } catch (Throwable e) {
+          failure.compareAndSet(null, e);
+        } finally {
+          taskDone();
+        }
+      }
+    }
+  }
+}
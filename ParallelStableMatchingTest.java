@@ -0,0 +1,220 @@
+// A test of ParallelStableMatching: on random grouped instances above its
+// sequential threshold, its matching must be the one of StableMatching, on
+// pools of several sizes, when it is called from the workers of its own pool,
+// and a failure of a task must only be thrown once all the tasks are done.
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ParallelStableMatchingTest {
+
+    // The sizes of the pools, and the number of random instances solved on
+    // every pool.
+
+    public final static int[] POOLS = { 2, 8 };
+
+    public final static int INSTANCES = 200;
+
+    // The smallest and the largest number of groups of men or women of an
+    // instance, whose m x w must reach ParallelStableMatching.SEQUENTIAL_THRESHOLD.
+
+    public final static int MIN_GROUPS = 256;
+
+    public final static int MAX_GROUPS = 400;
+
+    // The number of solves called at once from the workers of a pool of
+    // NESTED_POOL threads, and the time they are given, in seconds.
+
+    public final static int NESTED = 16;
+
+    public final static int NESTED_POOL = 2;
+
+    public final static int WAIT_SECONDS = 60;
+
+    // This is the output stream of the tests.
+
+    private PrintStream out;
+
+    private Random random;
+
+    private StableMatchingTest generator;
+
+    private int failures, successes;
+
+    ParallelStableMatchingTest (PrintStream out, long seed)
+    {
+        this.out = out;
+        this.random = new Random(seed);
+        this.generator = new StableMatchingTest(null, out, random);
+    }
+
+    void check (boolean ok, String what)
+    {
+        if (ok) {
+            successes++;
+        }
+        else {
+            failures++;
+            out.printf("FAILURE: %s\n", what);
+        }
+    }
+
+    // A random instance of at least SEQUENTIAL_THRESHOLD cells per matrix.
+
+    Instance randomInstance ()
+    {
+        int m = MIN_GROUPS + random.nextInt(MAX_GROUPS - MIN_GROUPS + 1);
+        int w = MIN_GROUPS + random.nextInt(MAX_GROUPS - MIN_GROUPS + 1);
+        int[][] mw = generator.randomMW(m, w, Math.max(m, w) + random.nextInt(4 * m * w), Integer.MAX_VALUE);
+        return new Instance(mw[0], mw[1], generator.randomPrefs(m, w), generator.randomPrefs(w, m));
+    }
+
+    static String describe (Instance instance)
+    {
+        return instance.m() + " x " + instance.w();
+    }
+
+    // The random instances, on a pool of the given size.
+
+    void checkPool (int threads)
+    {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            ParallelStableMatching box = new ParallelStableMatching(pool);
+            for (int t = 0; t < INSTANCES; t++) {
+                Instance instance = randomInstance();
+                check(Arrays.deepEquals(box.constructStableMatching(instance), new StableMatching().constructStableMatching(instance)),
+                      "a " + describe(instance) + " instance on " + threads + " threads is not the matching of StableMatching");
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // NESTED solves called at once from the workers of a pool of NESTED_POOL
+    // threads, that all wait for the tasks of their solve on the same pool.
+
+    void checkNested () throws Exception
+    {
+        ForkJoinPool pool = new ForkJoinPool(NESTED_POOL);
+        try {
+            ParallelStableMatching box = new ParallelStableMatching(pool);
+            List<Instance> instances = new ArrayList<Instance>();
+            List<Future<int[][]>> results = new ArrayList<Future<int[][]>>();
+            for (int t = 0; t < NESTED; t++) {
+                Instance instance = randomInstance();
+                instances.add(instance);
+                results.add(pool.submit(() -> box.constructStableMatching(instance)));
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(WAIT_SECONDS);
+            for (int t = 0; t < NESTED; t++) {
+                try {
+                    int[][] mar = results.get(t).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                    check(Arrays.deepEquals(mar, new StableMatching().constructStableMatching(instances.get(t))),
+                          "the nested solve " + t + " is not the matching of StableMatching");
+                } catch (TimeoutException e) {
+                    check(false, "the nested solve " + t + " is not done after " + WAIT_SECONDS + " s");
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // The men preferences of an instance, failing on the first read of the
+    // row failing, and counting all the reads.
+
+    static final class FailingMatrix extends PreferenceMatrix {
+        final PreferenceMatrix prefs;
+        final int failing;
+        final AtomicLong reads = new AtomicLong();
+
+        FailingMatrix (PreferenceMatrix prefs, int failing)
+        {
+            super(prefs.rows(), prefs.columns());
+            this.prefs = prefs;
+            this.failing = failing;
+        }
+
+        public int get (int row, int index)
+        {
+            reads.incrementAndGet();
+            if (row == failing)
+                throw new IllegalStateException("A failing row");
+            return prefs.get(row, index);
+        }
+
+        public void set (int row, int index, int value)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        public int cellBytes ()
+        {
+            return prefs.cellBytes();
+        }
+    }
+
+    // The task of the first group of men failing at its first proposal: the
+    // solve must throw its exception, and no task may still propose once it
+    // has thrown.
+
+    void checkFailure ()
+    {
+        ForkJoinPool pool = new ForkJoinPool(POOLS[POOLS.length - 1]);
+        try {
+            Instance instance = randomInstance();
+            int failing = 0;
+            while (instance.menGroupCount(failing) == 0)
+                failing++;
+            FailingMatrix menPrefs = new FailingMatrix(instance.menPrefs(), failing);
+            try {
+                new ParallelStableMatching(pool).constructStableMatching(instance.menGroupCount(), instance.womenGroupCount(),
+                                                                         menPrefs, instance.womenPrefs());
+                check(false, "a failing task does not fail the solve");
+                return;
+            } catch (IllegalStateException e) {
+                check("A failing row".equals(e.getMessage()), "the solve does not throw the exception of the task: " + e);
+            }
+            long reads = menPrefs.reads.get();
+            Thread.sleep(100);
+            check(menPrefs.reads.get() == reads, "tasks still propose after the solve has thrown");
+            check(pool.awaitQuiescence(WAIT_SECONDS, TimeUnit.SECONDS), "the pool is still busy after the solve has thrown");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    public boolean test () throws Exception
+    {
+        out.println("Starting parallel solver tests...\n");
+
+        for (int threads : POOLS)
+            checkPool(threads);
+        checkNested();
+        checkFailure();
+
+        out.println();
+        out.printf("Done parallel solver tests. In total, %d success(es) and %d failure(s).\n", successes, failures);
+        return failures == 0;
+    }
+
+    // Usage: java ParallelStableMatchingTest
+    // The exit status is 1 when a check fails.
+
+    public static void main (String[] args) throws Exception
+    {
+        boolean ok = new ParallelStableMatchingTest(System.out, 0L).test();
+        System.exit(ok ? 0 : 1);
+    }
+}
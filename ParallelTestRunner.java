@@ -0,0 +1,294 @@
+// A runner of the test suites of StableMatchingTest, running the test cases
+// concurrently and printing their output in the order of the suite.
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+public class ParallelTestRunner {
+
+    // The cases of a suite are those of StableMatchingTest.test(char), in the
+    // same order: every group shape is tested on FIXED non-random instances
+    // and R random ones, and every such instance is a case. A case draws its
+    // random data from its own seed, mixed from the seed of the runner and the
+    // index of the case by PermutationSource.rowSeed, so that a case gives the
+    // same instance whatever the number of threads. The random instances are
+    // thus not those of the sequential suite, whose cases share one Random.
+
+    // A case is only started when its estimated memory footprint fits in the
+    // memory budget, minus the footprints of the running cases. A case larger
+    // than the budget runs alone. The footprint of a case is CASE_MATRICES
+    // int matrices of m x w cells: the two preference matrices, the rank
+    // table of the solver and the dense result.
+
+    public final static int CASE_MATRICES = 4;
+
+    // The footprint of a case besides its matrices, in bytes.
+
+    public final static long CASE_OVERHEAD = 1 << 20;
+
+    // The solver being tested. A new one is made for every case, so that the
+    // solver does not have to be thread-safe.
+
+    private Supplier<StableMatchingInterface> boxes;
+
+    // This is the output stream of the suite.
+
+    private PrintStream out;
+
+    // The stream of the timing records of the runs, in the order of the suite,
+    // null when no records are wanted (see StableMatchingTest.records). With
+    // more than one thread, the runs disturb each other's times.
+
+    PrintStream records;
+
+    private long seed;
+
+    private int threads;
+
+    // The memory budget of the cases, in bytes, and the part of it that is not
+    // used by the running cases.
+
+    private long budget, available;
+
+    // The number of running cases.
+
+    private int running;
+
+    ParallelTestRunner (Supplier<StableMatchingInterface> boxes, PrintStream out, long seed, int threads, long budget)
+    {
+        this.boxes = boxes;
+        this.out = out;
+        this.seed = seed;
+        this.threads = threads;
+        this.budget = this.available = budget;
+    }
+
+    // A case: the k-th instance on given group counts, k < FIXED being the
+    // non-random ones.
+
+    static class Case
+    {
+        final int[] menGroupCount, womenGroupCount;
+        final int k;
+
+        Case (int[] menGroupCount, int[] womenGroupCount, int k)
+        {
+            this.menGroupCount = menGroupCount;
+            this.womenGroupCount = womenGroupCount;
+            this.k = k;
+        }
+
+        long footprint ()
+        {
+            return CASE_MATRICES * 4L * menGroupCount.length * womenGroupCount.length + CASE_OVERHEAD;
+        }
+    }
+
+    // The outcome of a case: its output, its records and its counts of
+    // successes and failures.
+
+    static class Outcome
+    {
+        final String output, records;
+        final int successes, failures;
+
+        Outcome (String output, String records, int successes, int failures)
+        {
+            this.output = output;
+            this.records = records;
+            this.successes = successes;
+            this.failures = failures;
+        }
+    }
+
+    // The cases of a suite, in order. The group counts of the tests with
+    // groups are drawn from the seed of the runner.
+
+    List<Case> cases (char testType)
+    {
+        List<Case> cases = new ArrayList<Case>();
+        StableMatchingTest g = new StableMatchingTest(null, out, new Random(seed));
+        for (int n = 0; n <= StableMatchingTest.SMALL; n++)
+            addCases(cases, g.unit(n), g.unit(n));
+        for (int n = 2 * StableMatchingTest.SMALL; n <= StableMatchingTest.LARGE; n *= 2)
+            addCases(cases, g.unit(n), g.unit(n));
+
+        int nBound = StableMatchingTest.nBound(testType);
+        InstanceGenerator counts = new InstanceGenerator(seed);
+        for (int nEstimate : StableMatchingTest.N_RANGE) {
+            if (nEstimate < nBound)
+                for (int m = 1; m <= StableMatchingTest.LARGE_NONUNIT; m *= 4)
+                    for (int w = 1; w <= StableMatchingTest.LARGE_NONUNIT; w *= 4) {
+                        int[][] mw = counts.randomMW(m, w, nEstimate, nBound);
+                        if (mw != null)
+                            addCases(cases, mw[0], mw[1]);
+                    }
+        }
+        return cases;
+    }
+
+    static void addCases (List<Case> cases, int[] menGroupCount, int[] womenGroupCount)
+    {
+        for (int k = 0; k < StableMatchingTest.FIXED + StableMatchingTest.R; k++)
+            cases.add(new Case(menGroupCount, womenGroupCount, k));
+    }
+
+    // Run one case, with the output of the harness in a buffer.
+
+    Outcome run (Case c, long caseSeed)
+    {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        PrintStream caseOut = new PrintStream(buffer, false);
+        ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream();
+        StableMatchingTest harness = new StableMatchingTest(boxes.get(), caseOut, new Random(caseSeed));
+        harness.collectBeforeRun = false;
+        if (records != null)
+            harness.records = new PrintStream(recordBuffer, false);
+        try {
+            int m = c.menGroupCount.length;
+            int w = c.womenGroupCount.length;
+            int[][] menPrefs, womenPrefs;
+            if (c.k < StableMatchingTest.FIXED) {
+                int[][][] prefs = harness.fixedPrefs(c.k, m, w);
+                menPrefs = prefs[0];
+                womenPrefs = prefs[1];
+            }
+            else {
+                InstanceGenerator random = new InstanceGenerator(caseSeed);
+                menPrefs = random.randomPrefs(m, w);
+                womenPrefs = random.randomPrefs(w, m);
+            }
+            String family = StableMatchingTest.FAMILIES[Math.min(c.k, StableMatchingTest.FIXED)];
+            harness.run(family, c.menGroupCount, c.womenGroupCount, menPrefs, womenPrefs);
+        } finally {
+            harness.close();
+        }
+        caseOut.flush();
+        if (harness.records != null)
+            harness.records.flush();
+        return new Outcome(buffer.toString(), recordBuffer.toString(), harness.successes(), harness.failures());
+    }
+
+    // Wait until the footprint fits in the available memory, or no case runs.
+
+    synchronized void admit (long footprint) throws InterruptedException
+    {
+        while (running > 0 && footprint > available)
+            wait();
+        available -= footprint;
+        running++;
+    }
+
+    synchronized void release (long footprint)
+    {
+        available += footprint;
+        running--;
+        notifyAll();
+    }
+
+    // Run a test suite, and print the outcomes of its cases in order.
+
+    public void test (char testType) throws InterruptedException
+    {
+        out.printf("Starting test suite %c...\n\n", testType);
+        if (records != null)
+            records.println(StableMatchingTest.RECORD_HEADER);
+        List<Case> cases = cases(testType);
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        ArrayDeque<Future<Outcome>> pending = new ArrayDeque<Future<Outcome>>();
+        int[] totals = new int[2];
+        try {
+            for (int index = 0; index < cases.size(); index++) {
+                final Case c = cases.get(index);
+                final long caseSeed = PermutationSource.rowSeed(seed, index);
+                final long footprint = Math.min(c.footprint(), budget);
+                // Keep at most two cases per thread waiting or running, then
+                // wait for the memory of the case.
+                while (pending.size() >= 2 * threads)
+                    print(pending.poll(), totals);
+                admit(footprint);
+                pending.add(workers.submit(() -> {
+                    try {
+                        return run(c, caseSeed);
+                    } finally {
+                        release(footprint);
+                    }
+                }));
+                while (!pending.isEmpty() && pending.peek().isDone())
+                    print(pending.poll(), totals);
+            }
+            while (!pending.isEmpty())
+                print(pending.poll(), totals);
+        } finally {
+            workers.shutdownNow();
+        }
+
+        out.println();
+        out.printf("Done test suite %c. In total, %d success(es) and %d failure(s).\n",
+                testType, totals[0], totals[1]);
+    }
+
+    void print (Future<Outcome> future, int[] totals) throws InterruptedException
+    {
+        try {
+            Outcome outcome = future.get();
+            out.print(outcome.output);
+            if (records != null)
+                records.print(outcome.records);
+            totals[0] += outcome.successes;
+            totals[1] += outcome.failures;
+        } catch (ExecutionException e) {
+            // The harness records the exceptions of the box, this is a bug of the runner.
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    // Usage: java ParallelTestRunner [-records file] [-grouped] [suite] [threads] [solver class]
+    // The default suite is A, the default number of threads is the number of
+    // processors, and the default solver is StableMatching. The memory budget
+    // is three quarters of the maximum heap. With -records, the timing records
+    // of the runs are written in the given CSV file; use one thread to record
+    // a baseline. With -grouped, the solver is StableMatching with the GROUPED
+    // engine on every instance (see Engine), whatever its shape: the fixed
+    // families and the unit instances otherwise go to the other engines.
+
+    public static void main (String[] args) throws Exception
+    {
+        PrintStream records = null;
+        if (args.length > 1 && args[0].equals("-records")) {
+            records = new PrintStream(args[1]);
+            args = Arrays.copyOfRange(args, 2, args.length);
+        }
+        boolean grouped = args.length > 0 && args[0].equals("-grouped");
+        if (grouped)
+            args = Arrays.copyOfRange(args, 1, args.length);
+        char testType = args.length > 0 ? args[0].charAt(0) : 'A';
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        String solver = args.length > 2 ? args[2] : "StableMatching";
+        Supplier<StableMatchingInterface> boxes = () -> {
+            if (grouped)
+                return new StableMatching(null, false);
+            try {
+                return (StableMatchingInterface) Class.forName(solver).getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalArgumentException("Cannot create a " + solver, e);
+            }
+        };
+        long budget = Runtime.getRuntime().maxMemory() / 4 * 3;
+        ParallelTestRunner runner = new ParallelTestRunner(boxes, System.out, 0L, threads, budget);
+        runner.records = records;
+        runner.test(testType);
+        if (records != null)
+            records.close();
+    }
+}
@@ -0,0 +1,111 @@
+import java.util.SplittableRandom;
+
+/*
+  The source of PreferenceSource.randomPermutations.
+
+  Row i is the permutation drawn by a Fisher-Yates shuffle from the stream rowRandom(seed, i).
+  The shuffle is sparse: it only stores the cells that a swap moved, in an open-addressing
+  map of ints (see MovedCells), so that drawing the first k cells of a row costs O(k) time
+  and two arrays of O(k) ints, whatever the number of columns. A read draws the row again
+  from its start, the source keeps no state and can be shared.
+  */
+class PermutationSource implements PreferenceSource {
+
+  private final int rows;
+  private final int columns;
+  private final long seed;
+
+  PermutationSource (int rows, int columns, long seed) {
+    if (rows < 0 || columns < 0) {
+      throw new IllegalArgumentException("Negative dimension " + rows + " x " + columns);
+    }
+    this.rows = rows;
+    this.columns = columns;
+    this.seed = seed;
+  }
+
+  public int rows () {
+    return rows;
+  }
+
+  public int columns () {
+    return columns;
+  }
+
+  public int read (int row, int from, int[] dst, int offset, int length) {
+    int end = (int) Math.min(columns, (long) from + length);
+    SplittableRandom random = rowRandom(seed, row);
+    // moved.get(k) is the cell at the index k, k itself for the indices no swap changed.
+    MovedCells moved = new MovedCells(end);
+    for (int k = 0; k < end; k++) {
+      int r = k + random.nextInt(columns - k);
+      int cell = moved.get(r);
+      moved.put(r, moved.get(k));
+      if (k >= from) {
+        dst[offset + k - from] = cell;
+      }
+    }
+    return Math.max(0, end - from);
+  }
+
+  /*
+    The cells of a row moved by the swaps of a shuffle, by index. A swap at the step k puts
+    one index, so that a map for k steps holds at most k indices, in a table of at least
+    twice as many slots with linear probing. A slot holds its index plus one, 0 when empty.
+    */
+  private static final class MovedCells {
+    private final int[] indices;
+    private final int[] cells;
+    private final int shift;
+
+    MovedCells (int steps) {
+      int slots = Integer.highestOneBit(Math.max(2, steps) * 2 - 1) << 1;
+      indices = new int[slots];
+      cells = new int[slots];
+      shift = Integer.numberOfLeadingZeros(slots) + 1;
+    }
+
+    // The cell at the given index.
+    int get (int index) {
+      int mask = indices.length - 1;
+      for (int slot = (index * 0x9E3779B9) >>> shift; ; slot = (slot + 1) & mask) {
+        if (indices[slot] == index + 1) {
+          return cells[slot];
+        }
+        if (indices[slot] == 0) {
+          return index;
+        }
+      }
+    }
+
+    void put (int index, int cell) {
+      int mask = indices.length - 1;
+      int slot = (index * 0x9E3779B9) >>> shift;
+      while (indices[slot] != 0 && indices[slot] != index + 1) {
+        slot = (slot + 1) & mask;
+      }
+      indices[slot] = index + 1;
+      cells[slot] = cell;
+    }
+  }
+
+  // The random stream of the given row, independent of the streams of the other rows.
+  static SplittableRandom rowRandom (long seed, long row) {
+    return new SplittableRandom(rowSeed(seed, row));
+  }
+
+  // The seed of the stream of the given row. The seeds of two rows must not differ by a
+  // multiple of the gamma of SplittableRandom, 0x9E3779B97F4A7C15, or the stream of one
+  // row would be the stream of the other one shifted: the row is mixed before the seed.
+  static long rowSeed (long seed, long row) {
+    return mix64(seed ^ mix64(row));
+  }
+
+  // The 64-bit finalizer of MurmurHash3, in the variant 13 of David Stafford, a bijection
+  // whose every output bit depends on every input bit.
+  static long mix64 (long z) {
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+}
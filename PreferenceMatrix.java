@@ -0,0 +1,375 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/*
+  A preference matrix with rows x columns cells, every cell holding a value in [0, columns).
+
+  Row i of the matrix is the preference list of the i-th group: get(i, 0) is its most
+  desirable group and get(i, columns - 1) its least desirable one. The same layout is
+  used by StableMatching for the inverse of the women preferences, get(j, i) being
+  then the rank of the men group i for the women group j.
+
+  The cells are stored contiguously in row-major order, and the width of a cell is the
+  smallest of byte, short or int able to hold every value in [0, columns). At m = w = 8192
+  a matrix thus takes 128 megabytes instead of the 256 megabytes of an int[][].
+  A matrix can also live off-heap in a direct ByteBuffer (see allocateDirect).
+  */
+public abstract class PreferenceMatrix implements PreferenceSource {
+
+  // The largest number of cells of a heap matrix (the limit of a Java array).
+  static final long MAX_CELLS = Integer.MAX_VALUE - 8;
+
+  // The number of rows.
+  final int rows;
+
+  // The number of columns, that is the length of every row.
+  final int columns;
+
+  PreferenceMatrix (int rows, int columns) {
+    if (rows < 0 || columns < 0) {
+      throw new IllegalArgumentException("Negative dimension " + rows + " x " + columns);
+    }
+    this.rows = rows;
+    this.columns = columns;
+  }
+
+  public final int rows () {
+    return rows;
+  }
+
+  public final int columns () {
+    return columns;
+  }
+
+  // Return the cell in the given row at the given index.
+  public abstract int get (int row, int index);
+
+  // Set the cell in the given row at the given index, value must be in [0, columns).
+  public abstract void set (int row, int index, int value);
+
+  // The number of bytes used to store one cell.
+  public abstract int cellBytes ();
+
+  // Copy the given row in dst[0 .. columns).
+  public void getRow (int row, int[] dst) {
+    for (int k = 0; k < columns; k++) {
+      dst[k] = get(row, k);
+    }
+  }
+
+  // Copy src[0 .. columns) in the given row.
+  public void setRow (int row, int[] src) {
+    for (int k = 0; k < columns; k++) {
+      set(row, k, src[k]);
+    }
+  }
+
+  // Whether the rows a and b hold the same preferences, stopping at the first difference.
+  public boolean sameRow (int a, int b) {
+    for (int k = 0; k < columns; k++) {
+      if (get(a, k) != get(b, k)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public int read (int row, int from, int[] dst, int offset, int length) {
+    int n = Math.max(0, Math.min(length, columns - from));
+    for (int k = 0; k < n; k++) {
+      dst[offset + k] = get(row, from + k);
+    }
+    return n;
+  }
+
+  // Copy the rows of the given source in a new heap matrix.
+  public static PreferenceMatrix of (PreferenceSource source) {
+    PreferenceMatrix res = allocate(source.rows(), source.columns());
+    int[] row = new int[source.columns()];
+    for (int i = 0; i < source.rows(); i++) {
+      if (source.read(i, 0, row, 0, row.length) != row.length) {
+        throw new IllegalStateException("The row " + i + " of the source has less than " + row.length + " cells");
+      }
+      res.setRow(i, row);
+    }
+    return res;
+  }
+
+  // Return a view of this matrix whose set and setRow throw an UnsupportedOperationException.
+  // The view shares the cells of this matrix, which the owner of the matrix can still change.
+  public PreferenceMatrix readOnly () {
+    return new ReadOnlyMatrix(this);
+  }
+
+  // Return a fresh jagged copy of this matrix.
+  public int[][] toArray () {
+    int[][] res = new int[rows][columns];
+    for (int i = 0; i < rows; i++) {
+      getRow(i, res[i]);
+    }
+    return res;
+  }
+
+  // The number of bytes used by a cell of a matrix with the given number of columns.
+  static int cellBytes (int columns) {
+    if (columns <= (1 << 8)) {
+      return 1;
+    }
+    if (columns <= (1 << 16)) {
+      return 2;
+    }
+    return 4;
+  }
+
+  // Whether row is a permutation of [0, seen.length). seen must be all false, and is left so.
+  static boolean isPermutation (int[] row, boolean[] seen) {
+    boolean permutation = row.length == seen.length;
+    int k = 0;
+    for (; permutation && k < row.length; k++) {
+      int g = row[k];
+      permutation = g >= 0 && g < seen.length && !seen[g];
+      if (permutation) {
+        seen[g] = true;
+      }
+    }
+    // Clear the cells set, the last row[k - 1] only if it was set.
+    for (int l = permutation ? k - 1 : k - 2; l >= 0; l--) {
+      seen[row[l]] = false;
+    }
+    return permutation;
+  }
+
+  // Allocate a zeroed heap matrix with the narrowest possible cells.
+  public static PreferenceMatrix allocate (int rows, int columns) {
+    long cells = (long) rows * columns;
+    if (cells > MAX_CELLS) {
+      throw new IllegalArgumentException("Too many cells for a heap matrix: " + rows + " x " + columns);
+    }
+    switch (cellBytes(columns)) {
+      case 1: return new ByteMatrix(rows, columns);
+      case 2: return new ShortMatrix(rows, columns);
+      default: return new IntMatrix(rows, columns);
+    }
+  }
+
+  // Allocate a zeroed off-heap matrix with the narrowest possible cells.
+  public static PreferenceMatrix allocateDirect (int rows, int columns) {
+    int width = cellBytes(columns);
+    long bytes = (long) rows * columns * width;
+    if (bytes > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Too many bytes for a direct matrix: " + rows + " x " + columns);
+    }
+    return new BufferMatrix(rows, columns, width,
+        ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder()));
+  }
+
+  // Return a matrix reading its cells from the given buffer, starting at its current position,
+  // with the narrowest possible cells in the byte order of the buffer. The buffer is not copied,
+  // so that a memory-mapped file can be read without loading it on the heap.
+  public static PreferenceMatrix wrap (ByteBuffer cells, int rows, int columns) {
+    int width = cellBytes(columns);
+    long bytes = (long) rows * columns * width;
+    if (bytes > cells.remaining()) {
+      throw new IllegalArgumentException("Buffer too small for a matrix: " + rows + " x " + columns);
+    }
+    ByteOrder order = cells.order();
+    ByteBuffer slice = cells.slice();
+    slice.limit((int) bytes);
+    return new BufferMatrix(rows, columns, width, slice.order(order));
+  }
+
+  // Copy the given jagged preferences in a new heap matrix, every row must have columns elements.
+  public static PreferenceMatrix of (int[][] prefs, int columns) {
+    PreferenceMatrix res = allocate(prefs.length, columns);
+    for (int i = 0; i < prefs.length; i++) {
+      res.setRow(i, prefs[i]);
+    }
+    return res;
+  }
+
+  // Return a view of the given jagged preferences, without copying them.
+  public static PreferenceMatrix wrap (int[][] prefs, int columns) {
+    return new JaggedMatrix(prefs, columns);
+  }
+
+  private static final class ByteMatrix extends PreferenceMatrix {
+    private final byte[] cells;
+
+    ByteMatrix (int rows, int columns) {
+      super(rows, columns);
+      cells = new byte[rows * columns];
+    }
+
+    public int get (int row, int index) {
+      return cells[row * columns + index] & 0xFF;
+    }
+
+    public void set (int row, int index, int value) {
+      cells[row * columns + index] = (byte) value;
+    }
+
+    public int cellBytes () {
+      return 1;
+    }
+  }
+
+  private static final class ShortMatrix extends PreferenceMatrix {
+    // A char is an unsigned 16 bits integer.
+    private final char[] cells;
+
+    ShortMatrix (int rows, int columns) {
+      super(rows, columns);
+      cells = new char[rows * columns];
+    }
+
+    public int get (int row, int index) {
+      return cells[row * columns + index];
+    }
+
+    public void set (int row, int index, int value) {
+      cells[row * columns + index] = (char) value;
+    }
+
+    public int cellBytes () {
+      return 2;
+    }
+  }
+
+  private static final class IntMatrix extends PreferenceMatrix {
+    private final int[] cells;
+
+    IntMatrix (int rows, int columns) {
+      super(rows, columns);
+      cells = new int[rows * columns];
+    }
+
+    public int get (int row, int index) {
+      return cells[row * columns + index];
+    }
+
+    public void set (int row, int index, int value) {
+      cells[row * columns + index] = value;
+    }
+
+    public void getRow (int row, int[] dst) {
+      System.arraycopy(cells, row * columns, dst, 0, columns);
+    }
+
+    public void setRow (int row, int[] src) {
+      System.arraycopy(src, 0, cells, row * columns, columns);
+    }
+
+    public int cellBytes () {
+      return 4;
+    }
+  }
+
+  private static final class BufferMatrix extends PreferenceMatrix {
+    private final int width;
+    private final ByteBuffer cells;
+
+    BufferMatrix (int rows, int columns, int width, ByteBuffer cells) {
+      super(rows, columns);
+      this.width = width;
+      this.cells = cells;
+    }
+
+    public int get (int row, int index) {
+      int offset = (row * columns + index) * width;
+      switch (width) {
+        case 1: return cells.get(offset) & 0xFF;
+        case 2: return cells.getChar(offset);
+        default: return cells.getInt(offset);
+      }
+    }
+
+    public void set (int row, int index, int value) {
+      int offset = (row * columns + index) * width;
+      switch (width) {
+        case 1: cells.put(offset, (byte) value); break;
+        case 2: cells.putChar(offset, (char) value); break;
+        default: cells.putInt(offset, value);
+      }
+    }
+
+    public int cellBytes () {
+      return width;
+    }
+  }
+
+  private static final class ReadOnlyMatrix extends PreferenceMatrix {
+    private final PreferenceMatrix matrix;
+
+    ReadOnlyMatrix (PreferenceMatrix matrix) {
+      super(matrix.rows, matrix.columns);
+      this.matrix = matrix;
+    }
+
+    public int get (int row, int index) {
+      return matrix.get(row, index);
+    }
+
+    public void set (int row, int index, int value) {
+      throw new UnsupportedOperationException("A read-only matrix cannot be changed");
+    }
+
+    public void getRow (int row, int[] dst) {
+      matrix.getRow(row, dst);
+    }
+
+    public void setRow (int row, int[] src) {
+      throw new UnsupportedOperationException("A read-only matrix cannot be changed");
+    }
+
+    public int read (int row, int from, int[] dst, int offset, int length) {
+      return matrix.read(row, from, dst, offset, length);
+    }
+
+    public boolean sameRow (int a, int b) {
+      return matrix.sameRow(a, b);
+    }
+
+    public PreferenceMatrix readOnly () {
+      return this;
+    }
+
+    public int cellBytes () {
+      return matrix.cellBytes();
+    }
+  }
+
+  private static final class JaggedMatrix extends PreferenceMatrix {
+    private final int[][] prefs;
+
+    JaggedMatrix (int[][] prefs, int columns) {
+      super(prefs.length, columns);
+      this.prefs = prefs;
+    }
+
+    public int get (int row, int index) {
+      return prefs[row][index];
+    }
+
+    public void set (int row, int index, int value) {
+      prefs[row][index] = value;
+    }
+
+    public void getRow (int row, int[] dst) {
+      System.arraycopy(prefs[row], 0, dst, 0, columns);
+    }
+
+    public void setRow (int row, int[] src) {
+      System.arraycopy(src, 0, prefs[row], 0, columns);
+    }
+
+    // The rows shared by reference, as those of StableMatchingTest.uniformPrefs, are equal
+    // without reading them.
+    public boolean sameRow (int a, int b) {
+      return prefs[a] == prefs[b] || super.sameRow(a, b);
+    }
+
+    public int cellBytes () {
+      return 4;
+    }
+  }
+}
@@ -0,0 +1,44 @@
+/*
+  A source of preference lists, read front to back.
+
+  Row i of the source is the preference list of the i-th group, as in PreferenceMatrix,
+  but its cells do not have to be stored: a source can produce them when they are read.
+  The solver only reads the prefix of a men group up to the last women group it proposed
+  to, so that StableMatching.constructSparseStableMatching, given the men preferences as a
+  source, only keeps these prefixes in memory (see PrefixMatrix).
+
+  A PreferenceMatrix is a source. So is a matrix mapped from an InstanceFile, whose
+  pages are then only read for the prefixes. The static methods build sources computing
+  their rows from a seed or from a scoring function.
+  */
+public interface PreferenceSource {
+
+  // The number of rows.
+  int rows ();
+
+  // The number of columns, that is the length of every row.
+  int columns ();
+
+  // Copy the cells of the given row from the index from, at most length of them, in
+  // dst[offset ..]. Return the number of cells copied, less than length only at the
+  // end of the row. Reading the cells of a row in order must cost about their number.
+  int read (int row, int from, int[] dst, int offset, int length);
+
+  // A score of a column for a row, a higher score being more desirable.
+  interface Scorer {
+    int score (int row, int column);
+  }
+
+  // A source of random permutations of [0, columns), the same for the same seed. A read of the
+  // first k cells of a row costs O(k) time and memory, whatever the number of columns.
+  static PreferenceSource randomPermutations (int rows, int columns, long seed) {
+    return new PermutationSource(rows, columns, seed);
+  }
+
+  // A source whose rows sort the columns by decreasing score, ties by increasing column.
+  // A read costs the scores of the whole row and a sort, that is O(columns log columns)
+  // time and O(columns) temporary memory, so that only one row is ever held at a time.
+  static PreferenceSource byScore (int rows, int columns, Scorer scorer) {
+    return new ScoreSource(rows, columns, scorer);
+  }
+}
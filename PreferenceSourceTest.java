@@ -0,0 +1,203 @@
+// A test of the preference sources: the rows of randomPermutations must be
+// the shuffles of InstanceGenerator from the same streams, those of byScore
+// must sort the columns by decreasing score and increasing column, reads of
+// any part of a row must be the same cells, and the solve of men preferences
+// given as a source must be the one of the materialized matrix.
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+public class PreferenceSourceTest {
+
+    // The number of random sources and instances, and their largest number
+    // of rows or columns.
+
+    public final static int INSTANCES = 500;
+
+    public final static int MAX_GROUPS = 64;
+
+    // The number of columns of the wide source, and the length of the
+    // prefixes read from it.
+
+    public final static int WIDE = 1 << 24;
+
+    public final static int PREFIX = 1000;
+
+    // This is the output stream of the tests.
+
+    private PrintStream out;
+
+    private Random random;
+
+    private StableMatchingTest generator;
+
+    private int failures, successes;
+
+    PreferenceSourceTest (PrintStream out, long seed)
+    {
+        this.out = out;
+        this.random = new Random(seed);
+        this.generator = new StableMatchingTest(null, out, random);
+    }
+
+    void check (boolean ok, String what)
+    {
+        if (ok) {
+            successes++;
+        }
+        else {
+            failures++;
+            out.printf("FAILURE: %s\n", what);
+        }
+    }
+
+    static int[] readRow (PreferenceSource source, int row)
+    {
+        int[] res = new int[source.columns()];
+        source.read(row, 0, res, 0, res.length);
+        return res;
+    }
+
+    // Reads of random parts of every row, past the end included, must be the
+    // cells of the row.
+
+    void checkReads (PreferenceSource source, int[][] rows, String what)
+    {
+        int columns = source.columns();
+        for (int i = 0; i < rows.length; i++) {
+            check(Arrays.equals(readRow(source, i), rows[i]), "the row " + i + " of " + what + " is not the expected one");
+            int from = random.nextInt(columns + 1);
+            int length = random.nextInt(columns + 2);
+            int offset = random.nextInt(3);
+            int[] dst = new int[offset + length];
+            int read = source.read(i, from, dst, offset, length);
+            int expected = Math.min(length, columns - from);
+            check(read == expected && Arrays.equals(Arrays.copyOfRange(dst, offset, offset + read),
+                                                    Arrays.copyOfRange(rows[i], from, from + read)),
+                  "the cells [" + from + ", " + (from + length) + ") of the row " + i + " of " + what + " are not the expected ones");
+        }
+    }
+
+    // The rows of randomPermutations, against the dense shuffles of
+    // InstanceGenerator from the same streams.
+
+    void checkPermutations ()
+    {
+        int rows = 1 + random.nextInt(MAX_GROUPS);
+        int columns = 1 + random.nextInt(random.nextBoolean() ? MAX_GROUPS : 4 * MAX_GROUPS * MAX_GROUPS);
+        long seed = random.nextLong();
+        int[][] expected = new int[rows][columns];
+        for (int i = 0; i < rows; i++)
+            InstanceGenerator.randomPermutation(PermutationSource.rowRandom(seed, i), expected[i]);
+        checkReads(PreferenceSource.randomPermutations(rows, columns, seed), expected,
+                   "randomPermutations(" + rows + ", " + columns + ")");
+    }
+
+    // The prefixes of the rows of a wide source, which cannot be read whole.
+
+    void checkWidePrefixes ()
+    {
+        long seed = random.nextLong();
+        PreferenceSource source = PreferenceSource.randomPermutations(MAX_GROUPS, WIDE, seed);
+        int[] row = new int[WIDE];
+        for (int i = 0; i < 4; i++) {
+            InstanceGenerator.randomPermutation(PermutationSource.rowRandom(seed, i), row);
+            int[] prefix = new int[PREFIX];
+            source.read(i, 0, prefix, 0, PREFIX);
+            check(Arrays.equals(prefix, Arrays.copyOf(row, PREFIX)),
+                  "the prefix of the row " + i + " of randomPermutations(" + MAX_GROUPS + ", " + WIDE + ") is not the shuffle");
+        }
+    }
+
+    // The rows of byScore, against a sort of the boxed columns, on scores
+    // with many ties and with the extreme values.
+
+    void checkScores ()
+    {
+        int rows = 1 + random.nextInt(MAX_GROUPS);
+        int columns = 1 + random.nextInt(MAX_GROUPS);
+        int[][] scores = new int[rows][columns];
+        int[] values = { Integer.MIN_VALUE, -1, 0, 1, Integer.MAX_VALUE };
+        for (int i = 0; i < rows; i++)
+            for (int k = 0; k < columns; k++)
+                scores[i][k] = random.nextBoolean() ? values[random.nextInt(values.length)] : random.nextInt(7) - 3;
+        int[][] expected = new int[rows][];
+        for (int i = 0; i < rows; i++) {
+            int[] score = scores[i];
+            expected[i] = IntStream.range(0, columns).boxed()
+                .sorted(Comparator.comparing((Integer k) -> -(long) score[k]).thenComparing(k -> k))
+                .mapToInt(Integer::intValue).toArray();
+        }
+        checkReads(PreferenceSource.byScore(rows, columns, (i, k) -> scores[i][k]), expected,
+                   "byScore(" + rows + ", " + columns + ")");
+    }
+
+    // A solve of men preferences given as a source, read through PrefixMatrix,
+    // against the solve of the matrix of the same rows.
+
+    void checkSolve (PreferenceSource menPrefs, int[] mc, int[] wc, String what)
+    {
+        int m = mc.length;
+        int w = wc.length;
+        PreferenceMatrix womenPrefs = PreferenceMatrix.wrap(generator.randomPrefs(w, m), m);
+        PreferenceMatrix materialized = PreferenceMatrix.of(menPrefs);
+        SparseMatching expected = new StableMatching().constructSparseStableMatching(mc, wc, materialized, womenPrefs);
+        SparseMatching fromSource = new StableMatching().constructSparseStableMatching(mc, wc, menPrefs, womenPrefs);
+        check(Arrays.deepEquals(fromSource.toArray(), expected.toArray()),
+              "the solve of " + what + " is not the one of its matrix");
+
+        // The prefixes kept by PrefixMatrix, read in any order.
+        PrefixMatrix prefixes = new PrefixMatrix(menPrefs);
+        boolean same = true;
+        for (int t = 0; t < m * w; t++) {
+            int i = random.nextInt(m);
+            int k = random.nextInt(w);
+            same &= prefixes.get(i, k) == materialized.get(i, k);
+        }
+        check(same, "the cells of a PrefixMatrix of " + what + " are not those of the source");
+    }
+
+    void checkSolves ()
+    {
+        int m = 2 + random.nextInt(MAX_GROUPS - 1);
+        int w = 2 + random.nextInt(MAX_GROUPS - 1);
+        int[][] mw = generator.randomMW(m, w, m + w + random.nextInt(4 * m * w), Integer.MAX_VALUE);
+        long seed = random.nextLong();
+        checkSolve(PreferenceSource.randomPermutations(m, w, seed), mw[0], mw[1],
+                   "randomPermutations(" + m + ", " + w + ")");
+        int[][] scores = generator.randomPrefs(m, w);
+        checkSolve(PreferenceSource.byScore(m, w, (i, k) -> scores[i][k] % 5), mw[0], mw[1],
+                   "byScore(" + m + ", " + w + ")");
+        // One person per group: the ONE_TO_ONE engine.
+        checkSolve(PreferenceSource.randomPermutations(m, m, seed), generator.unit(m), generator.unit(m),
+                   "randomPermutations(" + m + ", " + m + ") of one person per group");
+    }
+
+    public boolean test ()
+    {
+        out.println("Starting preference source tests...\n");
+
+        for (int t = 0; t < INSTANCES; t++) {
+            checkPermutations();
+            checkScores();
+            checkSolves();
+        }
+        checkWidePrefixes();
+
+        out.println();
+        out.printf("Done preference source tests. In total, %d success(es) and %d failure(s).\n", successes, failures);
+        return failures == 0;
+    }
+
+    // Usage: java PreferenceSourceTest
+    // The exit status is 1 when a check fails.
+
+    public static void main (String[] args)
+    {
+        boolean ok = new PreferenceSourceTest(System.out, 0L).test();
+        System.exit(ok ? 0 : 1);
+    }
+}
@@ -0,0 +1,66 @@
+import java.util.Arrays;
+
+/*
+  A read-only matrix view of a PreferenceSource, keeping the prefixes of the rows read so far.
+
+  get(i, k) reads the row i from the source up to the index k when it is not cached yet,
+  doubling the length of the cached prefix, so that reading a prefix of length k costs
+  O(log k) reads of the source and O(k) memory. StableMatching reads the men preferences
+  of a source through this view: a men group only reads its list up to its current position.
+  */
+class PrefixMatrix extends PreferenceMatrix {
+
+  private final PreferenceSource source;
+
+  // The cached prefix of every row, null for a row not read yet.
+  private final int[][] prefixes;
+
+  // The number of cells of every row read from the source.
+  private final int[] length;
+
+  PrefixMatrix (PreferenceSource source) {
+    super(source.rows(), source.columns());
+    this.source = source;
+    prefixes = new int[rows][];
+    length = new int[rows];
+  }
+
+  public int get (int row, int index) {
+    if (index >= length[row]) {
+      fetch(row, index);
+    }
+    return prefixes[row][index];
+  }
+
+  public void set (int row, int index, int value) {
+    throw new UnsupportedOperationException("A prefix matrix is read-only");
+  }
+
+  // Comparing two rows would read them whole from the source, so a row is only the same as itself.
+  public boolean sameRow (int a, int b) {
+    return a == b;
+  }
+
+  public PreferenceMatrix readOnly () {
+    return this;
+  }
+
+  public int cellBytes () {
+    return 4;
+  }
+
+  // Read the given row from the source, at least up to the given index.
+  private void fetch (int row, int index) {
+    if (index >= columns) {
+      throw new IndexOutOfBoundsException("Index " + index + " out of " + columns + " columns");
+    }
+    int capacity = Math.min(columns, Math.max(index + 1, Math.max(StableMatching.INITIAL_ROW_CAPACITY, 2 * length[row])));
+    int[] prefix = prefixes[row] == null ? new int[capacity] : Arrays.copyOf(prefixes[row], capacity);
+    int read = source.read(row, length[row], prefix, length[row], capacity - length[row]);
+    if (read != capacity - length[row]) {
+      throw new IllegalStateException("The row " + row + " of the source has less than " + columns + " cells");
+    }
+    prefixes[row] = prefix;
+    length[row] = capacity;
+  }
+}
@@ -0,0 +1,130 @@
+/*
+  A binary max-heap of primitive int ranks, every rank carrying an int payload.
+
+  It is used by StableMatching to store, for every group of women, the ranks
+  (in the preferences of that group of women) of the groups of men engaged to it.
+  The top of the heap is then the least attractive group of men engaged to the
+  group of women. Storing ranks directly avoids boxing and comparator calls.
+
+  A rank and its payload are packed in one long, the rank in the high 32 bits,
+  so that the ranks, which are distinct in a heap, order the entries.
+  */
+class RankHeap {
+
+  // The default capacity of a new heap.
+  static final int DEFAULT_CAPACITY = 4;
+
+  // The entries of the heap, entries[0] is the largest one.
+  private long[] entries;
+
+  // The number of entries in the heap.
+  private int size;
+
+  RankHeap () {
+    this(DEFAULT_CAPACITY);
+  }
+
+  RankHeap (int capacity) {
+    entries = new long[Math.max(capacity, 1)];
+    size = 0;
+  }
+
+  int size () {
+    return size;
+  }
+
+  boolean isEmpty () {
+    return size == 0;
+  }
+
+  void clear () {
+    size = 0;
+  }
+
+  // Return the largest rank, the heap must not be empty.
+  int peek () {
+    return (int) (entries[0] >>> 32);
+  }
+
+  // Return the payload of the largest rank, the heap must not be empty.
+  int peekPayload () {
+    return (int) entries[0];
+  }
+
+  // Insert a non negative rank with its payload in O(log size).
+  void offer (int rank, int payload) {
+    if (size == entries.length) {
+      entries = java.util.Arrays.copyOf(entries, 2 * size);
+    }
+    long entry = ((long) rank << 32) | (payload & 0xFFFFFFFFL);
+    // Sift up.
+    int k = size++;
+    while (k > 0) {
+      int parent = (k - 1) >>> 1;
+      long p = entries[parent];
+      if (p >= entry) {
+        break;
+      }
+      entries[k] = p;
+      k = parent;
+    }
+    entries[k] = entry;
+  }
+
+  /*
+    The heap can also be filled in any order with add, and ordered afterwards with
+    heapify. StableMatching uses this for the groups of women that still have single
+    women, whose ranks of men are not needed yet: the key is then the men group,
+    replaced by its rank with setKey before calling heapify.
+    */
+
+  // Append an entry without ordering the heap.
+  void add (int key, int payload) {
+    if (size == entries.length) {
+      entries = java.util.Arrays.copyOf(entries, 2 * size);
+    }
+    entries[size++] = ((long) key << 32) | (payload & 0xFFFFFFFFL);
+  }
+
+  // Return the key of the k-th entry, in [0, size).
+  int key (int k) {
+    return (int) (entries[k] >>> 32);
+  }
+
+  // Replace the key of the k-th entry, in [0, size).
+  void setKey (int k, int key) {
+    entries[k] = ((long) key << 32) | (entries[k] & 0xFFFFFFFFL);
+  }
+
+  // Restore the heap order in O(size).
+  void heapify () {
+    for (int k = (size >>> 1) - 1; k >= 0; k--) {
+      siftDown(k, entries[k]);
+    }
+  }
+
+  // Remove the largest rank in O(log size), the heap must not be empty.
+  void poll () {
+    siftDown(0, entries[--size]);
+  }
+
+  // Put the entry at position k or below, moving the larger children up.
+  private void siftDown (int k, long entry) {
+    int half = size >>> 1;
+    while (k < half) {
+      int child = 2 * k + 1;
+      long c = entries[child];
+      int right = child + 1;
+      if (right < size && entries[right] > c) {
+        child = right;
+        c = entries[right];
+      }
+      if (entry >= c) {
+        break;
+      }
+      entries[k] = c;
+      k = child;
+    }
+    entries[k] = entry;
+  }
+}
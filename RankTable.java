@@ -0,0 +1,138 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/*
+  The inverse of the women preferences: rank(j, i) is the position of the men group i
+  in the preferences of the women group j.
+
+  A row is only computed, and only allocated, the first time it is needed, so that the
+  groups of women that are never contested cost nothing. A table can be reset and reused
+  for another instance, keeping the storage of its rows. When the whole table is needed,
+  computeAll fills it in parallel, one block of rows per task.
+  Every row is a 1 x m PreferenceMatrix, with the narrowest cells able to hold m ranks.
+  */
+class RankTable {
+
+  // The number of bytes of the rows inverted by one task of computeAll, so that
+  // the rows of a task, read and written, stay in the cache of its core.
+  static final int BLOCK_BYTES = 1 << 18;
+
+  // The women preferences, a w x m matrix.
+  private PreferenceMatrix womenPrefs;
+
+  // The number of men groups.
+  private int m;
+
+  // The storage of the rows, kept by reset when m does not change.
+  private PreferenceMatrix[] rows;
+
+  // Whether the row of the women group j is computed.
+  private boolean[] computed;
+
+  // A buffer of m ints, used to read the preferences of a women group.
+  private int[] prefs;
+
+  RankTable () {
+    rows = new PreferenceMatrix[0];
+    computed = new boolean[0];
+    prefs = new int[0];
+  }
+
+  RankTable (PreferenceMatrix womenPrefs) {
+    this();
+    reset(womenPrefs);
+  }
+
+  // Forget the computed rows and use the given women preferences. The storage of
+  // the rows is reused if the number of men groups does not change, so that a
+  // solver reusing its table does not allocate it again.
+  void reset (PreferenceMatrix womenPrefs) {
+    int w = womenPrefs.rows();
+    if (womenPrefs.columns() != m) {
+      m = womenPrefs.columns();
+      rows = new PreferenceMatrix[Math.max(w, rows.length)];
+      prefs = new int[m];
+    }
+    else if (w > rows.length) {
+      rows = Arrays.copyOf(rows, w);
+    }
+    if (w > computed.length) {
+      computed = new boolean[w];
+    }
+    else {
+      Arrays.fill(computed, 0, w, false);
+    }
+    this.womenPrefs = womenPrefs;
+  }
+
+  boolean isComputed (int j) {
+    return computed[j];
+  }
+
+  // Return the ranks of the women group j, computing them if needed.
+  PreferenceMatrix row (int j) {
+    if (!computed[j]) {
+      invert(j, prefs);
+    }
+    return rows[j];
+  }
+
+  // Return the rank of the men group i for the women group j.
+  int rank (int j, int i) {
+    return row(j).get(0, i);
+  }
+
+  // Compute all the rows not computed yet, in parallel on the given pool.
+  void computeAll (ForkJoinPool pool) {
+    int rowsPerBlock = Math.max(1, BLOCK_BYTES / Math.max(1, m * (4 + PreferenceMatrix.cellBytes(m))));
+    pool.invoke(new InvertTask(0, womenPrefs.rows(), rowsPerBlock));
+  }
+
+  // Invert the preferences of the women group j, using prefs as a buffer of m ints.
+  private void invert (int j, int[] prefs) {
+    PreferenceMatrix row = rows[j];
+    if (row == null) {
+      row = PreferenceMatrix.allocate(1, m);
+      rows[j] = row;
+    }
+    // Read the preferences sequentially, then scatter the ranks in the row.
+    womenPrefs.getRow(j, prefs);
+    for (int r = 0; r < m; r++) {
+      row.set(0, prefs[r], r);
+    }
+    computed[j] = true;
+  }
+
+  // The task computing the rows in [from, to).
+  private final class InvertTask extends RecursiveAction {
+    final int from;
+    final int to;
+    final int rowsPerBlock;
+
+    InvertTask (int from, int to, int rowsPerBlock) {
+      this.from = from;
+      this.to = to;
+      this.rowsPerBlock = rowsPerBlock;
+    }
+
+    @Override
+    protected void compute () {
+      if (to - from <= rowsPerBlock) {
+        int[] prefs = new int[m];
+        for (int j = from; j < to; j++) {
+          if (!computed[j]) {
+            invert(j, prefs);
+          }
+        }
+        return;
+      }
+      int middle = (from + to) >>> 1;
+      ForkJoinTask.invokeAll(
+        new InvertTask(from, middle, rowsPerBlock),
+        new InvertTask(middle, to, rowsPerBlock)
+      );
+    }
+  }
+}
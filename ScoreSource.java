@@ -0,0 +1,48 @@
+import java.util.Arrays;
+
+/*
+  The source of PreferenceSource.byScore.
+
+  A read scores every column of the row and sorts them. A score and a column are packed
+  in a long, the complement of the score in the high half, so that sorting the longs
+  gives decreasing scores, and increasing columns for equal scores.
+  */
+class ScoreSource implements PreferenceSource {
+
+  private final int rows;
+  private final int columns;
+  private final PreferenceSource.Scorer scorer;
+
+  ScoreSource (int rows, int columns, PreferenceSource.Scorer scorer) {
+    if (rows < 0 || columns < 0) {
+      throw new IllegalArgumentException("Negative dimension " + rows + " x " + columns);
+    }
+    this.rows = rows;
+    this.columns = columns;
+    this.scorer = scorer;
+  }
+
+  public int rows () {
+    return rows;
+  }
+
+  public int columns () {
+    return columns;
+  }
+
+  public int read (int row, int from, int[] dst, int offset, int length) {
+    int end = (int) Math.min(columns, (long) from + length);
+    if (end <= from) {
+      return 0;
+    }
+    long[] keys = new long[columns];
+    for (int k = 0; k < columns; k++) {
+      keys[k] = ((long) ~scorer.score(row, k) << 32) | k;
+    }
+    Arrays.sort(keys);
+    for (int k = from; k < end; k++) {
+      dst[offset + k - from] = (int) keys[k];
+    }
+    return end - from;
+  }
+}
@@ -0,0 +1,30 @@
+/*
+  Thrown by a solver whose Deadline expired.
+
+  The solver leaves no shared state behind (a workspace is released before throwing).
+  The exception carries the engagements at the time of the stop, which are a matching
+  of some of the men but in general not a stable one, and the statistics of the run so
+  far, both null when the solver stopped before proposing.
+  */
+public class SolveCancelledException extends RuntimeException {
+
+  private final SparseMatching partial;
+
+  private final SolveStats progress;
+
+  public SolveCancelledException (SparseMatching partial, SolveStats progress) {
+    super(progress == null ? "The solve was cancelled" : "The solve was cancelled after " + progress.proposals + " proposals");
+    this.partial = partial;
+    this.progress = progress;
+  }
+
+  // The engagements when the solver stopped.
+  public SparseMatching partial () {
+    return partial;
+  }
+
+  // The statistics of the run until the solver stopped.
+  public SolveStats progress () {
+    return progress;
+  }
+}
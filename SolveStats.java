@@ -0,0 +1,53 @@
+/*
+  The statistics of one run of StableMatching, given to its StableMatchingListener.
+  */
+public class SolveStats {
+
+  // The engine which solved the instance; the other engines only count their proposals,
+  // the proposal loop of GROUPED also counting its heap and bucket operations.
+  public Engine engine;
+
+  // The number of men groups and women groups, and the number of men.
+  public int m;
+  public int w;
+  public long n;
+
+  // The number of proposals of a group of men to a group of women.
+  public long proposals;
+
+  // The proposals to a group of women with single women.
+  public long accepted;
+
+  // The proposals displacing men of the least attractive group engaged to the women group.
+  public long displacements;
+
+  // The proposals rejected by a group of women, the men group going to the next one.
+  public long rejections;
+
+  // The men groups added to the heap of a group of women before it is contested, unordered
+  // (see RankHeap.add), and the insertions in and removals from the ordered heaps.
+  public long heapAdds;
+  public long heapOffers;
+  public long heapRemoves;
+
+  // The moves of a group of men from a bucket of the BucketQueue to another one.
+  public long bucketMoves;
+
+  // The number of contested groups of women, whose ranks of the men groups were computed.
+  public long invertedRows;
+
+  // The time spent inverting the women preferences, in nanoseconds.
+  public long inversionNanos;
+
+  // The time spent in the proposal loop, inversions excluded, in nanoseconds.
+  public long mainLoopNanos;
+
+  @Override
+  public String toString () {
+    return String.format(
+      "%s, m = %d, w = %d, n = %d: %d proposals (%d accepted, %d displacements, %d rejections), "
+      + "%d heap adds, %d heap offers, %d heap removes, %d bucket moves, %d inverted rows, inversion %.3f ms, main loop %.3f ms",
+      engine, m, w, n, proposals, accepted, displacements, rejections, heapAdds, heapOffers, heapRemoves, bucketMoves,
+      invertedRows, inversionNanos / 1e6, mainLoopNanos / 1e6);
+  }
+}
@@ -0,0 +1,269 @@
+// A test of the instrumentation of StableMatching: the listener must be
+// called once before and once after every solve, cancelled ones included,
+// the counters of SolveStats must agree with each other and with the
+// matching of every engine, the instrumented matching must be the plain one,
+// and the JFR listener must commit one event per solve with the counters of
+// the run when its event is enabled, and none when it is not.
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+public class SolveStatsTest {
+
+    // The number of random instances, and their largest number of groups of
+    // men or women.
+
+    public final static int INSTANCES = 2000;
+
+    public final static int MAX_GROUPS = 64;
+
+    // The number of solves recorded by JFR.
+
+    public final static int RECORDED = 20;
+
+    // The name of the event of JfrStableMatchingListener.
+
+    public final static String EVENT = "StableMatching.Solve";
+
+    // This is the output stream of the tests.
+
+    private PrintStream out;
+
+    private Random random;
+
+    private StableMatchingTest generator;
+
+    private int failures, successes;
+
+    SolveStatsTest (PrintStream out, long seed)
+    {
+        this.out = out;
+        this.random = new Random(seed);
+        this.generator = new StableMatchingTest(null, out, random);
+    }
+
+    void check (boolean ok, String what)
+    {
+        if (ok) {
+            successes++;
+        }
+        else {
+            failures++;
+            out.printf("FAILURE: %s\n", what);
+        }
+    }
+
+    // A listener keeping the statistics of every solve, checking that its
+    // calls come in pairs, and passing them on to another listener if any.
+
+    static class RecordingListener implements StableMatchingListener {
+        final StableMatchingListener next;
+        final List<SolveStats> finished = new ArrayList<SolveStats>();
+        int started;
+        boolean open, paired = true;
+
+        RecordingListener (StableMatchingListener next)
+        {
+            this.next = next;
+        }
+
+        public void solveStarted (int m, int w)
+        {
+            paired &= !open;
+            open = true;
+            started++;
+            if (next != null)
+                next.solveStarted(m, w);
+        }
+
+        public void solveFinished (SolveStats stats)
+        {
+            paired &= open;
+            open = false;
+            finished.add(stats);
+            if (next != null)
+                next.solveFinished(stats);
+        }
+    }
+
+    // A random instance of each engine: a master list on the women side, one
+    // person per group, or random groups.
+
+    Instance randomInstance (Engine engine)
+    {
+        int m = 1 + random.nextInt(MAX_GROUPS);
+        int w = engine == Engine.ONE_TO_ONE ? m : 1 + random.nextInt(MAX_GROUPS);
+        int[][] mw = engine == Engine.ONE_TO_ONE
+            ? new int[][] { generator.unit(m), generator.unit(w) }
+            : generator.randomMW(m, w, Math.max(m, w) + random.nextInt(4 * m * w), Integer.MAX_VALUE);
+        int[][] womenPrefs = engine == Engine.MASTER_LIST
+            ? generator.uniformPrefs(w, generator.randomPermutation(m))
+            : generator.randomPrefs(w, m);
+        return new Instance(mw[0], mw[1], generator.randomPrefs(m, w), womenPrefs);
+    }
+
+    static long total (int[] counts)
+    {
+        long n = 0;
+        for (int c : counts)
+            n += c;
+        return n;
+    }
+
+    // The counters of a finished solve, against each other and the matching.
+
+    void checkCounters (Instance instance, SolveStats s, SparseMatching matching, boolean shapeEngines)
+    {
+        int m = instance.m();
+        int w = instance.w();
+        String what = "the counters " + s + " of a " + m + " x " + w + " instance";
+        Engine expected = shapeEngines
+            ? Engine.select(instance.menGroupCount(), instance.womenGroupCount(), instance.menPrefs(), instance.womenPrefs())
+            : Engine.GROUPED;
+        check(s.engine == expected, what + " are not those of " + expected);
+        check(s.m == m && s.w == w && s.n == total(instance.menGroupCount()), what + " do not have its dimensions");
+        check(s.proposals == s.accepted + s.displacements + s.rejections && s.accepted >= 0 && s.displacements >= 0
+              && s.rejections >= 0, what + " do not add up");
+        switch (s.engine) {
+        case MASTER_LIST:
+            // One accepted proposal per cell of the matching.
+            check(s.accepted == matching.size() && s.proposals == s.accepted, what + " are not one proposal per cell");
+            break;
+        case ONE_TO_ONE:
+            // Every woman accepts the first proposal, and the others displace or are rejected.
+            check(s.accepted == m && s.heapAdds == 0 && s.heapOffers == 0 && s.heapRemoves == 0 && s.invertedRows <= w,
+                  what + " are not those of a one-to-one solve");
+            break;
+        default:
+            // Every cell enters a heap once when it is engaged, by add before its
+            // women group is contested and by offer after, and leaves it when
+            // its last couple is displaced: the cells left are those of the matching.
+            check(s.heapAdds + s.heapOffers - s.heapRemoves == matching.size(),
+                  what + " do not leave the " + matching.size() + " cells of the matching in the heaps");
+            check(s.heapAdds <= s.accepted && s.heapOffers <= s.displacements && s.heapRemoves <= s.displacements,
+                  what + " have more heap operations than proposals");
+            check(s.invertedRows <= w && (s.invertedRows == 0) == (s.displacements + s.rejections == 0),
+                  what + " do not contest a women group exactly when a proposal is not accepted");
+        }
+        check(s.inversionNanos >= 0 && s.mainLoopNanos >= 0, what + " have negative durations");
+    }
+
+    // Solves of every engine, and of GROUPED on every shape, against the
+    // plain solve.
+
+    void checkSolves ()
+    {
+        for (int t = 0; t < INSTANCES; t++) {
+            Engine engine = Engine.values()[t % Engine.values().length];
+            boolean shapeEngines = random.nextBoolean();
+            Instance instance = randomInstance(engine);
+            RecordingListener listener = new RecordingListener(null);
+            StableMatching solver = new StableMatching(listener, shapeEngines);
+            SparseMatching matching = solver.constructSparseStableMatching(instance.menGroupCount(), instance.womenGroupCount(),
+                                                                           instance.menPrefs(), instance.womenPrefs());
+            check(listener.paired && listener.started == 1 && listener.finished.size() == 1,
+                  "the listener of a solve is called " + listener.started + " and " + listener.finished.size() + " times");
+            if (listener.finished.size() == 1)
+                checkCounters(instance, listener.finished.get(0), matching, shapeEngines);
+            check(Arrays.deepEquals(matching.toArray(), new StableMatching(null, shapeEngines).constructStableMatching(instance)),
+                  "the instrumented matching of a " + instance.m() + " x " + instance.w() + " instance is not the plain one");
+        }
+    }
+
+    // Solves cancelled before their first proposal, by every engine.
+
+    void checkCancelled ()
+    {
+        for (Engine engine : Engine.values()) {
+            Instance instance = randomInstance(engine);
+            RecordingListener listener = new RecordingListener(null);
+            try {
+                new StableMatching(listener).constructStableMatching(instance, Deadline.after(0));
+                check(false, "an expired deadline does not stop " + engine);
+            } catch (SolveCancelledException e) {
+                check(listener.paired && listener.started == 1 && listener.finished.size() == 1
+                      && listener.finished.get(0) == e.progress(),
+                      "the listener of a cancelled " + engine + " solve is not called once with its progress");
+            }
+        }
+    }
+
+    // The events committed while solving RECORDED instances with the JFR
+    // listener, the event enabled or not, and the statistics of the solves.
+
+    List<RecordedEvent> record (boolean enabled, List<SolveStats> stats) throws IOException
+    {
+        Path path = Files.createTempFile("solve-stats-test", ".jfr");
+        try (Recording recording = new Recording()) {
+            if (enabled)
+                recording.enable(EVENT);
+            else
+                recording.disable(EVENT);
+            recording.start();
+            RecordingListener listener = new RecordingListener(new JfrStableMatchingListener());
+            for (int t = 0; t < RECORDED; t++)
+                new StableMatching(listener).constructStableMatching(randomInstance(Engine.values()[t % Engine.values().length]));
+            recording.stop();
+            recording.dump(path);
+            stats.addAll(listener.finished);
+            List<RecordedEvent> events = new ArrayList<RecordedEvent>();
+            for (RecordedEvent event : RecordingFile.readAllEvents(path))
+                if (event.getEventType().getName().equals(EVENT))
+                    events.add(event);
+            events.sort(Comparator.comparing(RecordedEvent::getStartTime));
+            return events;
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    void checkJfr () throws IOException
+    {
+        List<SolveStats> stats = new ArrayList<SolveStats>();
+        List<RecordedEvent> events = record(true, stats);
+        check(events.size() == RECORDED, events.size() + " events recorded for " + RECORDED + " solves");
+        for (int t = 0; t < Math.min(events.size(), stats.size()); t++) {
+            RecordedEvent e = events.get(t);
+            SolveStats s = stats.get(t);
+            check(e.getString("engine").equals(String.valueOf(s.engine)) && e.getInt("m") == s.m && e.getInt("w") == s.w
+                  && e.getLong("proposals") == s.proposals && e.getLong("rejections") == s.rejections
+                  && e.getLong("heapAdds") == s.heapAdds && e.getLong("heapOffers") == s.heapOffers
+                  && e.getLong("heapRemoves") == s.heapRemoves,
+                  "the event " + t + " does not hold the counters " + s);
+        }
+        check(record(false, new ArrayList<SolveStats>()).isEmpty(), "events are committed while the event is disabled");
+    }
+
+    public boolean test () throws IOException
+    {
+        out.println("Starting solve statistics tests...\n");
+
+        checkSolves();
+        checkCancelled();
+        checkJfr();
+
+        out.println();
+        out.printf("Done solve statistics tests. In total, %d success(es) and %d failure(s).\n", successes, failures);
+        return failures == 0;
+    }
+
+    // Usage: java SolveStatsTest
+    // The exit status is 1 when a check fails.
+
+    public static void main (String[] args) throws IOException
+    {
+        boolean ok = new SolveStatsTest(System.out, 0L).test();
+        System.exit(ok ? 0 : 1);
+    }
+}
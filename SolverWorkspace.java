@@ -0,0 +1,97 @@
+import java.util.Arrays;
+
+/*
+  The working memory of StableMatching: the counts of single people, the proposal
+  positions, the engaged counts, the heaps of the groups of women, the rank table,
+  the scheduler of the groups of men with single men and the visions of MasterList.
+
+  A workspace only grows: prepare keeps every array large enough for the previous
+  instances, so that solving a stream of instances of similar sizes with the same
+  workspace allocates nothing but the results. A workspace must only be used by one
+  thread at a time.
+  */
+class SolverWorkspace {
+
+  // The dimensions of the instance being solved.
+  int m;
+  int w;
+
+  // See StableMatching for the meaning of these arrays, only their first m or w cells are used.
+  int[] singleMenGroupCount = new int[0];
+  int[] singleWomenGroupCount = new int[0];
+  int[] mostUnproposedWomenGroup = new int[0];
+  int[][] engagedCount = new int[0][];
+  RankHeap[] menGroupEngagedTo = new RankHeap[0];
+  boolean[] contested = new boolean[0];
+  RankTable invWomenPrefs = new RankTable();
+
+  // The groups of men with single men, see BucketQueue.
+  final BucketQueue singleMenGroups = new BucketQueue();
+
+  // Whether a solve did not finish, so that the rows of engagedCount are not all zero.
+  boolean dirty;
+
+  // The vision of every row of a preference matrix, and the first row of every vision,
+  // see MasterList.visions.
+  int[] rowVision = new int[0];
+  final int[] visionRow = new int[MasterList.MAX_VISIONS];
+
+  // Make the workspace ready for an instance with m groups of men and w groups of women.
+  // The rows of engagedCount are zero, the heaps are empty and no group of women is contested.
+  void prepare (int m, int w, PreferenceMatrix womenPrefs) {
+    if (dirty) {
+      for (int[] row : engagedCount) {
+        if (row != null) {
+          Arrays.fill(row, 0);
+        }
+      }
+      dirty = false;
+    }
+    reserve(m, w);
+    int rowCapacity = Math.min(w, StableMatching.INITIAL_ROW_CAPACITY);
+    for (int i = 0; i < m; i++) {
+      if (engagedCount[i] == null || engagedCount[i].length < rowCapacity) {
+        engagedCount[i] = new int[rowCapacity];
+      }
+    }
+    for (int j = 0; j < w; j++) {
+      menGroupEngagedTo[j].clear();
+    }
+    Arrays.fill(contested, 0, w, false);
+    invWomenPrefs.reset(womenPrefs);
+    this.m = m;
+    this.w = w;
+    dirty = true;
+  }
+
+  // Make the arrays of counts and the rowVision large enough for m groups of men and w
+  // groups of women, without touching their cells (see MasterList.solve).
+  void reserve (int m, int w) {
+    if (m > singleMenGroupCount.length) {
+      singleMenGroupCount = new int[m];
+      mostUnproposedWomenGroup = new int[m];
+      engagedCount = Arrays.copyOf(engagedCount, m);
+    }
+    if (w > singleWomenGroupCount.length) {
+      singleWomenGroupCount = new int[w];
+      contested = new boolean[w];
+      int old = menGroupEngagedTo.length;
+      menGroupEngagedTo = Arrays.copyOf(menGroupEngagedTo, w);
+      for (int j = old; j < w; j++) {
+        menGroupEngagedTo[j] = new RankHeap();
+      }
+    }
+    if (Math.max(m, w) > rowVision.length) {
+      rowVision = new int[Math.max(m, w)];
+    }
+  }
+
+  // Clear the used cells of engagedCount, once the result of a solve is built.
+  void release () {
+    for (int i = 0; i < m; i++) {
+      int[] row = engagedCount[i];
+      Arrays.fill(row, 0, Math.min(row.length, mostUnproposedWomenGroup[i] + 1), 0);
+    }
+    dirty = false;
+  }
+}
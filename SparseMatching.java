@@ -0,0 +1,135 @@
+import java.util.Arrays;
+
+/*
+  A sparse marriage matrix, stored in compressed sparse row (CSR) form.
+
+  Only the non-zero cells are stored: the cells of the men group i are the entries
+  e in [rowStart(i), rowEnd(i)), the entry e meaning that count(e) men of the group i
+  are married to women of the group womenGroup(e). The entries of a row are not in
+  any particular order, and a women group appears at most once in a row.
+  */
+public class SparseMatching {
+
+  // The number of women groups.
+  private final int w;
+
+  // The entries of the men group i are in [rowStart[i], rowStart[i+1]).
+  private final int[] rowStart;
+
+  private final int[] womenGroup;
+
+  private final int[] count;
+
+  SparseMatching (int w, int[] rowStart, int[] womenGroup, int[] count) {
+    this.w = w;
+    this.rowStart = rowStart;
+    this.womenGroup = womenGroup;
+    this.count = count;
+  }
+
+  // The number of men groups.
+  public int menGroups () {
+    return rowStart.length - 1;
+  }
+
+  // The number of women groups.
+  public int womenGroups () {
+    return w;
+  }
+
+  // The number of non-zero cells.
+  public int size () {
+    return rowStart[rowStart.length - 1];
+  }
+
+  public int rowStart (int i) {
+    return rowStart[i];
+  }
+
+  public int rowEnd (int i) {
+    return rowStart[i + 1];
+  }
+
+  public int womenGroup (int e) {
+    return womenGroup[e];
+  }
+
+  public int count (int e) {
+    return count[e];
+  }
+
+  // Return the number of couples formed by the men group i and the women group j,
+  // in time linear in the number of entries of the row i.
+  public int get (int i, int j) {
+    for (int e = rowStart[i]; e < rowStart[i + 1]; e++) {
+      if (womenGroup[e] == j) {
+        return count[e];
+      }
+    }
+    return 0;
+  }
+
+  // Return the dense int[m][w] marriage matrix.
+  public int[][] toArray () {
+    int m = menGroups();
+    int[][] mar = new int[m][w];
+    for (int i = 0; i < m; i++) {
+      for (int e = rowStart[i]; e < rowStart[i + 1]; e++) {
+        mar[i][womenGroup[e]] = count[e];
+      }
+    }
+    return mar;
+  }
+
+  // Return the sparse form of a dense marriage matrix with w columns.
+  public static SparseMatching of (int[][] mar, int w) {
+    int m = mar.length;
+    int[] rowStart = new int[m + 1];
+    for (int i = 0; i < m; i++) {
+      int nonZero = 0;
+      for (int j = 0; j < w; j++) {
+        if (mar[i][j] != 0) {
+          nonZero++;
+        }
+      }
+      rowStart[i + 1] = rowStart[i] + nonZero;
+    }
+    int[] womenGroup = new int[rowStart[m]];
+    int[] count = new int[rowStart[m]];
+    for (int i = 0; i < m; i++) {
+      int e = rowStart[i];
+      for (int j = 0; j < w; j++) {
+        if (mar[i][j] != 0) {
+          womenGroup[e] = j;
+          count[e] = mar[i][j];
+          e++;
+        }
+      }
+    }
+    return new SparseMatching(w, rowStart, womenGroup, count);
+  }
+
+  // Return the matching seen from the women: the men groups of the result are the women
+  // groups of this matching, and the other way round.
+  public SparseMatching transpose () {
+    int m = menGroups();
+    int[] columnStart = new int[w + 1];
+    for (int e = 0; e < size(); e++) {
+      columnStart[womenGroup[e] + 1]++;
+    }
+    for (int j = 0; j < w; j++) {
+      columnStart[j + 1] += columnStart[j];
+    }
+    int[] next = Arrays.copyOf(columnStart, w);
+    int[] menGroup = new int[size()];
+    int[] columnCount = new int[size()];
+    for (int i = 0; i < m; i++) {
+      for (int e = rowStart[i]; e < rowStart[i + 1]; e++) {
+        int f = next[womenGroup[e]]++;
+        menGroup[f] = i;
+        columnCount[f] = count[e];
+      }
+    }
+    return new SparseMatching(m, columnStart, menGroup, columnCount);
+  }
+}
@@ -0,0 +1,73 @@
+import java.util.Arrays;
+
+/*
+  The ranks of the men groups in the incomplete preference lists of the women groups:
+  rank(j, i) is the position of the men group i in the list of the women group j, or -1
+  when j does not list i.
+
+  The rows are stored one after the other in two arrays as long as all the lists together,
+  the row of j being the men groups of its list sorted by group, with their ranks alongside,
+  so that a rank is found by a binary search. As in RankTable, a row is only sorted the
+  first time it is needed.
+  */
+class SparseRankTable {
+
+  // The lists of the women groups.
+  private final int[][] womenPrefs;
+
+  // The row of the women group j is in [start[j], start[j + 1]).
+  private final int[] start;
+
+  // The men groups of every row in increasing order, and their ranks.
+  private final int[] menGroup;
+  private final int[] rank;
+
+  // Whether the row of the women group j is sorted.
+  private final boolean[] computed;
+
+  // A buffer of the longest list, used to sort a row.
+  private final long[] entries;
+
+  SparseRankTable (int[][] womenPrefs) {
+    int w = womenPrefs.length;
+    this.womenPrefs = womenPrefs;
+    start = new int[w + 1];
+    int longest = 0;
+    for (int j = 0; j < w; j++) {
+      start[j + 1] = Math.addExact(start[j], womenPrefs[j].length);
+      longest = Math.max(longest, womenPrefs[j].length);
+    }
+    menGroup = new int[start[w]];
+    rank = new int[start[w]];
+    computed = new boolean[w];
+    entries = new long[longest];
+  }
+
+  boolean isComputed (int j) {
+    return computed[j];
+  }
+
+  // Return the rank of the men group i for the women group j, -1 if j does not list i.
+  int rank (int j, int i) {
+    if (!computed[j]) {
+      sort(j);
+    }
+    int e = Arrays.binarySearch(menGroup, start[j], start[j + 1], i);
+    return e >= 0 ? rank[e] : -1;
+  }
+
+  // Sort the list of the women group j by men group, every group packed with its rank
+  // in one long, the group in the high 32 bits.
+  private void sort (int j) {
+    int[] prefs = womenPrefs[j];
+    for (int r = 0; r < prefs.length; r++) {
+      entries[r] = ((long) prefs[r] << 32) | r;
+    }
+    Arrays.sort(entries, 0, prefs.length);
+    for (int r = 0, e = start[j]; r < prefs.length; r++, e++) {
+      menGroup[e] = (int) (entries[r] >>> 32);
+      rank[e] = (int) entries[r];
+    }
+    computed[j] = true;
+  }
+}
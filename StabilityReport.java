@@ -0,0 +1,77 @@
+/*
+  The result of the verification of a marriage matrix by StabilityVerifier.
+
+  The kind tells which check failed first, in the order of the checks of StableMatchingTest.
+  The meaning of the other fields depends on the kind, they are -1 when unused:
+
+    STABLE              the marriage matrix is a stable matching
+    NULL_RESULT         the marriage matrix is null
+    WRONG_ROW_COUNT     value rows, instead of expected
+    WRONG_ROW_LENGTH    row menGroup has value cells, instead of expected
+    INVALID_ENTRY       cell (menGroup, womenGroup) is value, not in [0, expected]
+    TOO_MANY_MARRIED    value people married up to cell (menGroup, womenGroup), instead of at most expected
+    WRONG_MEN_COUNT     value men of the group menGroup married, instead of expected
+    WRONG_WOMEN_COUNT   value women of the group womenGroup married, instead of expected
+    UNSTABLE            (menGroup, womenGroup) is a blocking pair: a man of the group menGroup
+                        married to a woman of the group worstWife prefers womenGroup, and a woman
+                        of the group womenGroup married to a man of the group worstHusband prefers
+                        menGroup
+  */
+public final class StabilityReport {
+
+  public enum Kind {
+    STABLE,
+    NULL_RESULT,
+    WRONG_ROW_COUNT,
+    WRONG_ROW_LENGTH,
+    INVALID_ENTRY,
+    TOO_MANY_MARRIED,
+    WRONG_MEN_COUNT,
+    WRONG_WOMEN_COUNT,
+    UNSTABLE
+  }
+
+  static final StabilityReport STABLE = new StabilityReport(Kind.STABLE, -1, -1, -1, -1, -1, -1);
+
+  public final Kind kind;
+  public final int menGroup;
+  public final int womenGroup;
+  public final long value;
+  public final long expected;
+  public final int worstWife;
+  public final int worstHusband;
+
+  StabilityReport (Kind kind, int menGroup, int womenGroup, long value, long expected, int worstWife, int worstHusband) {
+    this.kind = kind;
+    this.menGroup = menGroup;
+    this.womenGroup = womenGroup;
+    this.value = value;
+    this.expected = expected;
+    this.worstWife = worstWife;
+    this.worstHusband = worstHusband;
+  }
+
+  static StabilityReport of (Kind kind, int menGroup, int womenGroup, long value, long expected) {
+    return new StabilityReport(kind, menGroup, womenGroup, value, expected, -1, -1);
+  }
+
+  public boolean isStable () {
+    return kind == Kind.STABLE;
+  }
+
+  @Override
+  public String toString () {
+    switch (kind) {
+      case STABLE: return "stable";
+      case NULL_RESULT: return "null result";
+      case WRONG_ROW_COUNT: return value + " rows instead of " + expected;
+      case WRONG_ROW_LENGTH: return "row " + menGroup + " has " + value + " cells instead of " + expected;
+      case INVALID_ENTRY: return "cell (" + menGroup + ", " + womenGroup + ") is " + value + ", not in [0, " + expected + "]";
+      case TOO_MANY_MARRIED: return ">= " + value + " people married, but there are only " + expected;
+      case WRONG_MEN_COUNT: return value + " men married in group " + menGroup + " instead of " + expected;
+      case WRONG_WOMEN_COUNT: return value + " women married in group " + womenGroup + " instead of " + expected;
+      default: return "blocking pair (" + menGroup + ", " + womenGroup + "), worst wife group " + worstWife
+        + ", worst husband group " + worstHusband;
+    }
+  }
+}
@@ -0,0 +1,255 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+  Checks that a marriage matrix is a stable matching of a problem instance.
+
+  The checks are those of StableMatchingTest, in the same order, and the result is a
+  StabilityReport describing the first failed check. The stability check, which is the
+  expensive one, runs in parallel over blocks of men groups: it reports the blocking pair
+  (i, j) with the smallest i, then the smallest j, and the blocks of men groups after a
+  known blocking pair are skipped.
+
+  A man of the group i and a woman of the group j form a blocking pair when the man
+  prefers j to the worst wife of his group, and the woman prefers i to the worst husband
+  of her group. Only the women groups i prefers to his worst wife are looked at, so the
+  preferences of the men do not need to be inverted. Those of the women are, once, by a
+  plain inverse permutation of every row: the verifier does not share the rank table
+  of the solver it checks.
+  */
+public class StabilityVerifier {
+
+  // The number of cells handled sequentially by one task.
+  static final int BLOCK_CELLS = 1 << 16;
+
+  private final ForkJoinPool pool;
+
+  public StabilityVerifier () {
+    this(ForkJoinPool.commonPool());
+  }
+
+  public StabilityVerifier (ForkJoinPool pool) {
+    this.pool = pool;
+  }
+
+  public StabilityReport verify (int[] menGroupCount, int[] womenGroupCount,
+      int[][] menPrefs, int[][] womenPrefs, int[][] mar) {
+    return verify(menGroupCount, womenGroupCount,
+        PreferenceMatrix.wrap(menPrefs, womenGroupCount.length),
+        PreferenceMatrix.wrap(womenPrefs, menGroupCount.length), mar);
+  }
+
+  public StabilityReport verify (int[] menGroupCount, int[] womenGroupCount,
+      PreferenceMatrix menPrefs, PreferenceMatrix womenPrefs, SparseMatching mar) {
+    return verify(menGroupCount, womenGroupCount, menPrefs, womenPrefs, mar == null ? null : mar.toArray());
+  }
+
+  public StabilityReport verify (int[] menGroupCount, int[] womenGroupCount,
+      PreferenceMatrix menPrefs, PreferenceMatrix womenPrefs, int[][] mar) {
+    StabilityReport report = checkCounts(menGroupCount, womenGroupCount, mar);
+    if (report != null) {
+      return report;
+    }
+    return checkStability(menPrefs, womenPrefs, mar);
+  }
+
+  // Check the dimensions and the entries of the marriage matrix, and the number of people
+  // married in every group. Return null if all checks succeed.
+  StabilityReport checkCounts (int[] menGroupCount, int[] womenGroupCount, int[][] mar) {
+    int m = menGroupCount.length;
+    int w = womenGroupCount.length;
+    long n = 0;
+    for (int s : menGroupCount) {
+      n += s;
+    }
+
+    if (mar == null) {
+      return StabilityReport.of(StabilityReport.Kind.NULL_RESULT, -1, -1, -1, -1);
+    }
+    if (mar.length != m) {
+      return StabilityReport.of(StabilityReport.Kind.WRONG_ROW_COUNT, -1, -1, mar.length, m);
+    }
+
+    long sumMar = 0;
+    long[] sumMarMen = new long[m];
+    long[] sumMarWomen = new long[w];
+    for (int i = 0; i < m; i++) {
+      int[] row = mar[i];
+      if (row.length != w) {
+        return StabilityReport.of(StabilityReport.Kind.WRONG_ROW_LENGTH, i, -1, row.length, w);
+      }
+      for (int j = 0; j < w; j++) {
+        if (row[j] < 0 || row[j] > n) {
+          return StabilityReport.of(StabilityReport.Kind.INVALID_ENTRY, i, j, row[j], n);
+        }
+        sumMar += row[j];
+        sumMarMen[i] += row[j];
+        sumMarWomen[j] += row[j];
+        if (sumMar > n) {
+          return StabilityReport.of(StabilityReport.Kind.TOO_MANY_MARRIED, i, j, sumMar, n);
+        }
+      }
+    }
+
+    for (int i = 0; i < m; i++) {
+      if (sumMarMen[i] != menGroupCount[i]) {
+        return StabilityReport.of(StabilityReport.Kind.WRONG_MEN_COUNT, i, -1, sumMarMen[i], menGroupCount[i]);
+      }
+    }
+    for (int j = 0; j < w; j++) {
+      if (sumMarWomen[j] != womenGroupCount[j]) {
+        return StabilityReport.of(StabilityReport.Kind.WRONG_WOMEN_COUNT, -1, j, sumMarWomen[j], womenGroupCount[j]);
+      }
+    }
+    return null;
+  }
+
+  // Check that a marriage matrix, whose counts are correct, has no blocking pair.
+  StabilityReport checkStability (PreferenceMatrix menPrefs, PreferenceMatrix womenPrefs, int[][] mar) {
+    Scan scan = new Scan(menPrefs, womenPrefs, mar);
+    return scan.run();
+  }
+
+  // The state of one stability check.
+  private final class Scan {
+    final int m;
+    final int w;
+    final PreferenceMatrix menPrefs;
+    final PreferenceMatrix womenPrefs;
+    final int[][] mar;
+
+    // Least preferred wife (menPrefs.get(i, worstWifeIndex[i])) for a man from every group i.
+    final int[] worstWifeIndex;
+
+    // Least preferred husband (womenPrefs.get(j, worstHusbandIndex[j])) for a woman from every group j.
+    final int[] worstHusbandIndex;
+
+    // The rank of every men group for every women group, revWomenPrefs.get(j, i).
+    final PreferenceMatrix revWomenPrefs;
+
+    // The smallest men group of a known blocking pair, m if none is known.
+    final AtomicInteger firstUnstable;
+
+    Scan (PreferenceMatrix menPrefs, PreferenceMatrix womenPrefs, int[][] mar) {
+      this.m = mar.length;
+      this.w = menPrefs.columns();
+      this.menPrefs = menPrefs;
+      this.womenPrefs = womenPrefs;
+      this.mar = mar;
+      worstWifeIndex = new int[m];
+      worstHusbandIndex = new int[w];
+      revWomenPrefs = PreferenceMatrix.allocate(w, m);
+      firstUnstable = new AtomicInteger(m);
+    }
+
+    StabilityReport run () {
+      pool.invoke(new Phase(Phase.INVERSE, 0, w, rowsPerBlock(m)));
+      pool.invoke(new Phase(Phase.WORST_WIFE, 0, m, rowsPerBlock(w)));
+      pool.invoke(new Phase(Phase.WORST_HUSBAND, 0, w, rowsPerBlock(m)));
+      pool.invoke(new Phase(Phase.BLOCKING_PAIRS, 0, m, rowsPerBlock(w)));
+      int i = firstUnstable.get();
+      if (i == m) {
+        return StabilityReport.STABLE;
+      }
+      int j = blockingPartner(i);
+      return new StabilityReport(StabilityReport.Kind.UNSTABLE, i, j, -1, -1,
+          menPrefs.get(i, worstWifeIndex[i]), womenPrefs.get(j, worstHusbandIndex[j]));
+    }
+
+    int rowsPerBlock (int columns) {
+      return Math.max(1, BLOCK_CELLS / Math.max(1, columns));
+    }
+
+    void findWorstWife (int i) {
+      for (int jx = w - 1; jx >= 0; jx--) {
+        if (mar[i][menPrefs.get(i, jx)] > 0) {
+          worstWifeIndex[i] = jx;
+          break;
+        }
+      }
+    }
+
+    void invert (int j) {
+      for (int ix = 0; ix < m; ix++) {
+        revWomenPrefs.set(j, womenPrefs.get(j, ix), ix);
+      }
+    }
+
+    void findWorstHusband (int j) {
+      for (int ix = m - 1; ix >= 0; ix--) {
+        if (mar[womenPrefs.get(j, ix)][j] > 0) {
+          worstHusbandIndex[j] = ix;
+          break;
+        }
+      }
+    }
+
+    // Return the smallest women group forming a blocking pair with the men group i, w if none.
+    int blockingPartner (int i) {
+      int partner = w;
+      for (int jx = 0; jx < worstWifeIndex[i]; jx++) {
+        int j = menPrefs.get(i, jx);
+        if (j < partner && revWomenPrefs.get(j, i) < worstHusbandIndex[j]) {
+          partner = j;
+        }
+      }
+      return partner;
+    }
+
+    // One parallel phase of the check, over the groups in [from, to).
+    final class Phase extends RecursiveAction {
+      static final int WORST_WIFE = 0;
+      static final int WORST_HUSBAND = 1;
+      static final int BLOCKING_PAIRS = 2;
+      static final int INVERSE = 3;
+
+      final int kind;
+      final int from;
+      final int to;
+      final int rowsPerBlock;
+
+      Phase (int kind, int from, int to, int rowsPerBlock) {
+        this.kind = kind;
+        this.from = from;
+        this.to = to;
+        this.rowsPerBlock = rowsPerBlock;
+      }
+
+      @Override
+      protected void compute () {
+        if (to - from > rowsPerBlock) {
+          int middle = (from + to) >>> 1;
+          ForkJoinTask.invokeAll(
+            new Phase(kind, from, middle, rowsPerBlock),
+            new Phase(kind, middle, to, rowsPerBlock)
+          );
+          return;
+        }
+        for (int k = from; k < to; k++) {
+          switch (kind) {
+            case WORST_WIFE:
+              findWorstWife(k);
+              break;
+            case WORST_HUSBAND:
+              findWorstHusband(k);
+              break;
+            case INVERSE:
+              invert(k);
+              break;
+            default:
+              // Early exit: a blocking pair with a smaller men group is known.
+              if (k >= firstUnstable.get()) {
+                return;
+              }
+              if (blockingPartner(k) < w) {
+                firstUnstable.accumulateAndGet(k, Math::min);
+                return;
+              }
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,210 @@
+// A test of StabilityVerifier against brute force: the stable matchings of
+// random instances, perturbed by exchanges of couples between two cells of
+// two rows and two columns, which keep the counts, must get the verdict of a
+// direct search of the blocking pairs, with the same first blocking pair and
+// the same worst partners. The large instances are checked by several blocks
+// of men groups, in parallel.
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+public class StabilityVerifierTest {
+
+    // The number of random instances, their largest number of groups of men
+    // or women, and the number of perturbations of every stable matching.
+
+    public final static int INSTANCES = 2000;
+
+    public final static int MAX_GROUPS = 24;
+
+    public final static int PERTURBATIONS = 4;
+
+    // The number of large instances, and their number of groups, so that
+    // m w exceeds StabilityVerifier.BLOCK_CELLS several times.
+
+    public final static int LARGE_INSTANCES = 20;
+
+    public final static int LARGE_GROUPS = 600;
+
+    // The number of threads of the pool of the verifier.
+
+    public final static int THREADS = 4;
+
+    // This is the output stream of the tests.
+
+    private PrintStream out;
+
+    private Random random;
+
+    private StableMatchingTest generator;
+
+    private StabilityVerifier verifier;
+
+    private int failures, successes;
+
+    // The number of perturbed matrices found unstable and stable.
+
+    private int unstable, stable;
+
+    StabilityVerifierTest (PrintStream out, long seed, ForkJoinPool pool)
+    {
+        this.out = out;
+        this.random = new Random(seed);
+        this.generator = new StableMatchingTest(null, out, random);
+        this.verifier = new StabilityVerifier(pool);
+    }
+
+    void check (boolean ok, String what)
+    {
+        if (ok) {
+            successes++;
+        }
+        else {
+            failures++;
+            out.printf("FAILURE: %s\n", what);
+        }
+    }
+
+    // The position of every group in every list.
+
+    static int[][] ranks (int[][] prefs, int columns)
+    {
+        int[][] res = new int[prefs.length][columns];
+        for (int r = 0; r < prefs.length; r++)
+            for (int k = 0; k < columns; k++)
+                res[r][prefs[r][k]] = k;
+        return res;
+    }
+
+    // The report of the first blocking pair (i, j), by i then by j, found by
+    // looking at every pair, or STABLE.
+
+    static StabilityReport bruteForce (int[][] mp, int[][] wp, int[][] mar)
+    {
+        int m = mar.length;
+        int w = mar[0].length;
+        int[][] menRanks = ranks(mp, w);
+        int[][] womenRanks = ranks(wp, m);
+        int[] worstWife = new int[m];
+        int[] worstHusband = new int[w];
+        for (int i = 0; i < m; i++)
+            for (int j = 0; j < w; j++)
+                if (mar[i][j] > 0) {
+                    worstWife[i] = Math.max(worstWife[i], menRanks[i][j]);
+                    worstHusband[j] = Math.max(worstHusband[j], womenRanks[j][i]);
+                }
+        for (int i = 0; i < m; i++)
+            for (int j = 0; j < w; j++)
+                if (menRanks[i][j] < worstWife[i] && womenRanks[j][i] < worstHusband[j])
+                    return new StabilityReport(StabilityReport.Kind.UNSTABLE, i, j, -1, -1,
+                                               mp[i][worstWife[i]], wp[j][worstHusband[j]]);
+        return StabilityReport.STABLE;
+    }
+
+    static boolean same (StabilityReport a, StabilityReport b)
+    {
+        return a.kind == b.kind && a.menGroup == b.menGroup && a.womenGroup == b.womenGroup
+            && a.worstWife == b.worstWife && a.worstHusband == b.worstHusband;
+    }
+
+    static String describe (StabilityReport r)
+    {
+        return r.kind + " (" + r.menGroup + ", " + r.womenGroup + "), worst wife " + r.worstWife
+            + ", worst husband " + r.worstHusband;
+    }
+
+    // Move one couple of (i1, j1) and one of (i2, j2) to (i1, j2) and (i2, j1),
+    // for random cells with couples in different rows and columns, a few times.
+    // Return false if no such cells are found.
+
+    boolean exchange (int[][] mar)
+    {
+        List<int[]> cells = new ArrayList<int[]>();
+        for (int i = 0; i < mar.length; i++)
+            for (int j = 0; j < mar[i].length; j++)
+                if (mar[i][j] > 0)
+                    cells.add(new int[] { i, j });
+        boolean exchanged = false;
+        for (int e = 1 + random.nextInt(3), tries = 0; e > 0 && tries < 100; tries++) {
+            int[] a = cells.get(random.nextInt(cells.size()));
+            int[] b = cells.get(random.nextInt(cells.size()));
+            if (a[0] == b[0] || a[1] == b[1] || mar[a[0]][a[1]] == 0 || mar[b[0]][b[1]] == 0)
+                continue;
+            mar[a[0]][a[1]]--;
+            mar[b[0]][b[1]]--;
+            mar[a[0]][b[1]]++;
+            mar[b[0]][a[1]]++;
+            cells.add(new int[] { a[0], b[1] });
+            cells.add(new int[] { b[0], a[1] });
+            exchanged = true;
+            e--;
+        }
+        return exchanged;
+    }
+
+    void checkVerdict (int[] mc, int[] wc, int[][] mp, int[][] wp, int[][] mar, String what)
+    {
+        StabilityReport expected = bruteForce(mp, wp, mar);
+        StabilityReport report = verifier.verify(mc, wc, mp, wp, mar);
+        check(same(report, expected), "the verdict on " + what + " of a " + mc.length + " x " + wc.length
+              + " instance is " + describe(report) + " instead of " + describe(expected));
+    }
+
+    void checkInstance (int m, int w)
+    {
+        int[][] mw = generator.randomMW(m, w, Math.max(m, w) + random.nextInt(4 * m * w), Integer.MAX_VALUE);
+        // Random lists, or a master list on one side.
+        int shape = random.nextInt(4);
+        int[][] mp = shape == 1 ? generator.uniformPrefs(m, generator.randomPermutation(w)) : generator.randomPrefs(m, w);
+        int[][] wp = shape == 2 ? generator.uniformPrefs(w, generator.randomPermutation(m)) : generator.randomPrefs(w, m);
+        int[][] mar = new StableMatching().constructStableMatching(mw[0], mw[1], mp, wp);
+        checkVerdict(mw[0], mw[1], mp, wp, mar, "the stable matching");
+        for (int p = 0; p < PERTURBATIONS; p++) {
+            int[][] perturbed = StableMatchingTest.deepCopy2D(mar);
+            if (!exchange(perturbed))
+                break;
+            checkVerdict(mw[0], mw[1], mp, wp, perturbed, "a perturbed matching");
+            if (bruteForce(mp, wp, perturbed).isStable())
+                stable++;
+            else
+                unstable++;
+        }
+    }
+
+    public boolean test ()
+    {
+        out.println("Starting stability verifier tests...\n");
+
+        for (int t = 0; t < INSTANCES; t++)
+            checkInstance(1 + random.nextInt(MAX_GROUPS), 1 + random.nextInt(MAX_GROUPS));
+        for (int t = 0; t < LARGE_INSTANCES; t++)
+            checkInstance(LARGE_GROUPS, LARGE_GROUPS);
+
+        // Both verdicts must have been given on perturbed matrices.
+        check(unstable > 0 && stable > 0, unstable + " unstable and " + stable + " stable perturbed matrices");
+
+        out.println();
+        out.printf("Perturbed: %d unstable, %d stable\n", unstable, stable);
+        out.printf("Done stability verifier tests. In total, %d success(es) and %d failure(s).\n", successes, failures);
+        return failures == 0;
+    }
+
+    // Usage: java StabilityVerifierTest
+    // The exit status is 1 when a check fails.
+
+    public static void main (String[] args)
+    {
+        ForkJoinPool pool = new ForkJoinPool(THREADS);
+        boolean ok;
+        try {
+            ok = new StabilityVerifierTest(System.out, 0L, pool).test();
+        } finally {
+            pool.shutdown();
+        }
+        System.exit(ok ? 0 : 1);
+    }
+}
@@ -1,13 +1,140 @@
 
-import java.util.*;
+import java.util.Arrays;
 
 class StableMatching implements StableMatchingInterface {
 
+  // The initial length of a row of engagedCount.
+  static final int INITIAL_ROW_CAPACITY = 4;
+
+  // The listener notified of every solve, null if the solver is not instrumented.
+  private final StableMatchingListener listener;
+
+  // Whether the engine is selected after the shape of the instance (see Engine), rather
+  // than always GROUPED, as for comparing the engines in StableMatchingBenchmark.
+  private final boolean shapeEngines;
+
+  StableMatching () {
+    this(null);
+  }
+
+  StableMatching (StableMatchingListener listener) {
+    this(listener, true);
+  }
+
+  StableMatching (StableMatchingListener listener, boolean shapeEngines) {
+    this.listener = listener;
+    this.shapeEngines = shapeEngines;
+  }
+
   public int[][] constructStableMatching (
     int[] menGroupCount,
     int[] womenGroupCount,
     int[][] menPrefs,
     int[][] womenPrefs
+  ) {
+    return constructStableMatching(
+      menGroupCount,
+      womenGroupCount,
+      PreferenceMatrix.wrap(menPrefs, womenGroupCount.length),
+      PreferenceMatrix.wrap(womenPrefs, menGroupCount.length)
+    );
+  }
+
+  @Override
+  public int[][] constructStableMatching (
+    int[] menGroupCount,
+    int[] womenGroupCount,
+    PreferenceMatrix menPrefs,
+    PreferenceMatrix womenPrefs
+  ) {
+    return constructSparseStableMatching(menGroupCount, womenGroupCount, menPrefs, womenPrefs).toArray();
+  }
+
+  @Override
+  public SparseMatching constructSparseStableMatching (
+    int[] menGroupCount,
+    int[] womenGroupCount,
+    PreferenceMatrix menPrefs,
+    PreferenceMatrix womenPrefs
+  ) {
+    return solve(new SolverWorkspace(), menGroupCount, womenGroupCount, menPrefs, womenPrefs);
+  }
+
+  // Stop with a SolveCancelledException when the deadline expires.
+  @Override
+  public int[][] constructStableMatching (
+    int[] menGroupCount,
+    int[] womenGroupCount,
+    int[][] menPrefs,
+    int[][] womenPrefs,
+    Deadline deadline
+  ) {
+    return solve(
+      new SolverWorkspace(),
+      menGroupCount,
+      womenGroupCount,
+      PreferenceMatrix.wrap(menPrefs, womenGroupCount.length),
+      PreferenceMatrix.wrap(womenPrefs, menGroupCount.length),
+      deadline
+    ).toArray();
+  }
+
+  @Override
+  public int[][] constructStableMatching (Instance instance) {
+    return solve(new SolverWorkspace(), instance.menGroupCount, instance.womenGroupCount,
+        instance.menPrefs(), instance.womenPrefs()).toArray();
+  }
+
+  // Stop with a SolveCancelledException when the deadline expires.
+  @Override
+  public int[][] constructStableMatching (Instance instance, Deadline deadline) {
+    return solve(new SolverWorkspace(), instance.menGroupCount, instance.womenGroupCount,
+        instance.menPrefs(), instance.womenPrefs(), deadline).toArray();
+  }
+
+  // The women-optimal stable matching, computed by the same algorithm with the roles of
+  // the men and the women swapped: the groups of women propose to the groups of men.
+  public SparseMatching constructWomenOptimalStableMatching (
+    int[] menGroupCount,
+    int[] womenGroupCount,
+    PreferenceMatrix menPrefs,
+    PreferenceMatrix womenPrefs
+  ) {
+    return solve(new SolverWorkspace(), womenGroupCount, menGroupCount, womenPrefs, menPrefs).transpose();
+  }
+
+  // Only the prefixes of the men rows up to the last women group proposed to are read
+  // from the source, and kept in memory.
+  @Override
+  public SparseMatching constructSparseStableMatching (
+    int[] menGroupCount,
+    int[] womenGroupCount,
+    PreferenceSource menPrefs,
+    PreferenceMatrix womenPrefs
+  ) {
+    PreferenceMatrix prefixes = menPrefs instanceof PreferenceMatrix ? (PreferenceMatrix) menPrefs : new PrefixMatrix(menPrefs);
+    return solve(new SolverWorkspace(), menGroupCount, womenGroupCount, prefixes, womenPrefs);
+  }
+
+  // Solve an instance using the arrays of the given workspace (see StableMatchingSolver).
+  SparseMatching solve (
+    SolverWorkspace workspace,
+    int[] menGroupCount,
+    int[] womenGroupCount,
+    PreferenceMatrix menPrefs,
+    PreferenceMatrix womenPrefs
+  ) {
+    return solve(workspace, menGroupCount, womenGroupCount, menPrefs, womenPrefs, null);
+  }
+
+  // The same, checking the deadline every Deadline.CHECK_INTERVAL proposals when it is not null.
+  SparseMatching solve (
+    SolverWorkspace workspace,
+    int[] menGroupCount,
+    int[] womenGroupCount,
+    PreferenceMatrix menPrefs,
+    PreferenceMatrix womenPrefs,
+    Deadline deadline
   ) {
     // The number of men groups.
     int m = menGroupCount.length;
@@ -15,26 +142,77 @@ class StableMatching implements StableMatchingInterface {
     // The number of women groups.
     int w = womenGroupCount.length;
 
-    // Inverse the womenPrefs to have the order of each men group.
-    int[][] invWomenPrefs = new int[w][m];
-    for (int j = 0; j < w; j++) {
-      for (int i = 0; i < m; i++) {
-        invWomenPrefs[j][womenPrefs[j][i]] = i;
+    // The statistics of the run are only collected for the listener.
+    boolean instrumented = listener != null;
+    long startTime = 0;
+    long inversionTime = 0;
+    if (instrumented) {
+      listener.solveStarted(m, w);
+      startTime = System.nanoTime();
+    }
+    long proposals = 0;
+    long accepted = 0;
+    long displacements = 0;
+    long rejections = 0;
+    long heapAdds = 0;
+    long heapOffers = 0;
+    long heapRemoves = 0;
+    long invertedRows = 0;
+
+    // The degenerate shapes and the one-to-one instances have their own engines.
+    // The side with a master list is found once, for the selection and for the pass.
+    int masterListSide = shapeEngines ? MasterList.side(menPrefs, womenPrefs) : MasterList.NONE;
+    Engine engine = shapeEngines ? Engine.select(menGroupCount, womenGroupCount, masterListSide) : Engine.GROUPED;
+    if (engine == Engine.MASTER_LIST) {
+      // The pass is not stopped once started: the deadline is only checked before it.
+      if (deadline != null && deadline.isExpired()) {
+        SolveStats stats = stats(engine, m, w, menGroupCount, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+            instrumented ? System.nanoTime() - startTime : 0);
+        if (instrumented) {
+          listener.solveFinished(stats);
+        }
+        throw new SolveCancelledException(new SparseMatching(w, new int[m + 1], new int[0], new int[0]), stats);
+      }
+      // One greedy pass, every cell of the result being an accepted proposal.
+      SparseMatching masterList = MasterList.solve(workspace, menGroupCount, womenGroupCount, menPrefs, womenPrefs,
+          masterListSide);
+      if (instrumented) {
+        listener.solveFinished(stats(engine, m, w, menGroupCount, masterList.size(), masterList.size(), 0, 0, 0,
+            0, 0, 0, 0, 0, System.nanoTime() - startTime));
+      }
+      return masterList;
+    }
+    if (engine == Engine.ONE_TO_ONE) {
+      // The counters are also kept under a deadline, as the progress of a cancelled solve.
+      SolveStats stats = instrumented || deadline != null
+          ? stats(engine, m, w, menGroupCount, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0) : null;
+      try {
+        return OneToOne.solve(workspace, menPrefs, womenPrefs, deadline, stats);
+      } finally {
+        if (instrumented) {
+          stats.mainLoopNanos = System.nanoTime() - startTime;
+          listener.solveFinished(stats);
+        }
       }
     }
 
-    // The number of single men in every group.
-    int[] singleMenGroupCount = new int[m];
+    workspace.prepare(m, w, womenPrefs);
+
+    /*
+      The inverse of the womenPrefs, to have the order of each men group. A row of
+      the table is only computed when the women group is first contested, that is
+      when a group of men proposes to it while it has no single women left.
+      */
+    RankTable invWomenPrefs = workspace.invWomenPrefs;
 
-    // The number of all single men.
-    int singleMen = 0;
+    // The number of single men in every group.
+    int[] singleMenGroupCount = workspace.singleMenGroupCount;
     for (int i = 0; i < m; i++) {
       singleMenGroupCount[i] = menGroupCount[i];
-      singleMen += singleMenGroupCount[i];
     }
 
     // The number of single women in every group.
-    int[] singleWomenGroupCount = new int[w];
+    int[] singleWomenGroupCount = workspace.singleWomenGroupCount;
     for (int j = 0; j < w; j++) {
       singleWomenGroupCount[j] = womenGroupCount[j];
     }
@@ -43,123 +221,215 @@ class StableMatching implements StableMatchingInterface {
       For every group of men we store the most attractive women group
       that the group of men does not propose to.
       */
-    int[] mostUnproposedWomenGroup = new int [m];
+    int[] mostUnproposedWomenGroup = workspace.mostUnproposedWomenGroup;
     for (int i = 0; i < m; i++) {
       mostUnproposedWomenGroup[i] = 0;
     }
     /*
-      For every group of women we store all groups of men engaded to the women group.
-      We store every group of men engaged to the women group in PriorityQueue to
-      have a direct access of the least attractive men for this group.
+      For every group of women we store the ranks of all groups of men engaged to the
+      women group. We store them in a RankHeap to have a direct access of the least
+      attractive men for this group: the men group womenPrefs.get(j, heap.peek()).
+      The payload of a rank is the position of the women group in the preferences
+      of the men group, that is the index of its cell in engagedCount.
+      Until the women group is contested, the heap is not ordered and its keys are
+      the men groups themselves (see RankHeap.add).
       */
-    ArrayList<PriorityQueue <Integer>> menGroupEngagedTo = new ArrayList<PriorityQueue <Integer>>(w);
-    for (int j = 0; j < w; j++) {
-      /*
-        The comparator of the PriorityQueue is compatible with preferences of the
-        current women group.
-        */
-      final int jfinal = j;
-      menGroupEngagedTo.add(new PriorityQueue<Integer> (m, new Comparator<Integer>() {
-        @Override
-        public int compare (Integer i, Integer ip) {
-          return invWomenPrefs[jfinal][ip] - invWomenPrefs[jfinal][i];
-        }
-      }));
-    }
+    RankHeap[] menGroupEngagedTo = workspace.menGroupEngagedTo;
 
-    // The matching matrix.
-    int[][] M = new int[m][w];
-    for (int i = 0; i < m; i++) {
-      for (int j = 0; j < w; j++) {
-        M[i][j] = 0;
-      }
-    }
+    // Whether the women group was contested, so that its heap is ordered by ranks.
+    boolean[] contested = workspace.contested;
 
     /*
-      We create a Stack to store the groups of men with number of single larger
-      than the total number of single times 1/2m.
+      The matching. Instead of a dense m x w matrix, engagedCount[i][k] is the number
+      of men of the group i engaged to the women group menPrefs.get(i, k). A group of men
+      only proposes to the women groups up to mostUnproposedWomenGroup[i], so the rows
+      grow with the proposals and the whole matching stays proportional to the work done.
       */
-    Stack <Integer> singleMenGroupWithBigNumber = new Stack <Integer>();
+    int[][] engagedCount = workspace.engagedCount;
 
-    while (singleMen > 0) {
+    /*
+      The groups of men with single men, in buckets by the logarithm of their number
+      of single men. The next group to propose has more than the total number of
+      single times 1/2m, see BucketQueue. The groups are queued from the last one, so
+      that the men of a pass over a bucket propose in decreasing order of their groups.
+      */
+    BucketQueue singleMenGroups = workspace.singleMenGroups;
+    singleMenGroups.reset(m);
+    for (int i = m - 1; i >= 0; i--) {
+      singleMenGroups.update(i, singleMenGroupCount[i]);
+    }
 
-      // Adding all the the groups of men with number of single larger
-      // than the total number of single times 1/2m.
-      if (singleMenGroupWithBigNumber.isEmpty()) {
-        for (int i = 0; i < m; i++) {
-          if (singleMenGroupCount[i] > (singleMen /(2*m))) {
-            singleMenGroupWithBigNumber.push(i);
-          }
+    while (!singleMenGroups.isEmpty()) {
+      // Get the group of men.
+      int currentMenGroup = singleMenGroups.peek();
+
+      // Stop with the current engagements if the deadline expired.
+      if (deadline != null && (proposals & (Deadline.CHECK_INTERVAL - 1)) == 0 && deadline.isExpired()) {
+        SparseMatching partial = toSparseMatching(m, w, menPrefs, engagedCount, mostUnproposedWomenGroup);
+        workspace.release();
+        SolveStats stats = stats(engine, m, w, menGroupCount, proposals, accepted, displacements, rejections, heapAdds,
+            heapOffers, heapRemoves, singleMenGroups.moves, invertedRows, inversionTime, instrumented ? System.nanoTime() - startTime : 0);
+        if (instrumented) {
+          listener.solveFinished(stats);
         }
+        throw new SolveCancelledException(partial, stats);
       }
 
-      while (!singleMenGroupWithBigNumber.isEmpty()) {
-        // Get the group of men.
-        int currentMenGroup = singleMenGroupWithBigNumber.pop();
+      // Get the group of women currentMenGroup want to propose.
+      int currentPosition = mostUnproposedWomenGroup[currentMenGroup];
+      int currentWomenGroup = menPrefs.get(currentMenGroup, currentPosition);
+      int[] currentEngagedCount = engagedCount[currentMenGroup];
+      proposals++;
 
-        // Get the group of women currentMenGroup want to propose.
-        int currentWomenGroup = menPrefs[currentMenGroup][mostUnproposedWomenGroup[currentMenGroup]];
+      // Check if there is single woman if the currentWomenGroup.
+      if (singleWomenGroupCount[currentWomenGroup] > 0) {
+        // Match the group of men with the group of women.
+        int a = singleWomenGroupCount[currentWomenGroup];
+        int b = singleMenGroupCount[currentMenGroup];
 
-        // Check if there is single woman if the currentWomenGroup.
-        if (singleWomenGroupCount[currentWomenGroup] > 0) {
-          // Match the group of men with the group of women.
-          int a = singleWomenGroupCount[currentWomenGroup];
+        int c = (a > b) ? b : a;
+        accepted++;
+        // If all men in the group of men were not engaged to any women in the women
+        // group add the group of men to the men engaged to the group women.
+        if (currentEngagedCount[currentPosition] == 0) {
+          menGroupEngagedTo[currentWomenGroup].add(currentMenGroup, currentPosition);
+          heapAdds++;
+        }
+        singleMenGroupCount[currentMenGroup] -= c;
+        singleWomenGroupCount[currentWomenGroup] -= c;
+        currentEngagedCount[currentPosition] += c;
+      }
+      else {
+        // All women in currentWomenGroup are engaged we look for the least attractive
+        // man engaged to this group. The first time, we rank the men groups engaged
+        // to the women group and order its heap.
+        if (!contested[currentWomenGroup]) {
+          long inversionStart = instrumented ? System.nanoTime() : 0;
+          contest(menGroupEngagedTo[currentWomenGroup], invWomenPrefs, currentWomenGroup);
+          contested[currentWomenGroup] = true;
+          invertedRows++;
+          if (instrumented) {
+            inversionTime += System.nanoTime() - inversionStart;
+          }
+        }
+        int leastAttractiveRank = menGroupEngagedTo[currentWomenGroup].peek();
+        int leastAttractivePosition = menGroupEngagedTo[currentWomenGroup].peekPayload();
+        int leastAttractiveMenGroup = womenPrefs.get(currentWomenGroup, leastAttractiveRank);
+        int currentRank = invWomenPrefs.rank(currentWomenGroup, currentMenGroup);
+        // Check if the least attractive man engaged to a women in the current women group
+        // is less attractive to this group than the current men group.
+        if (currentRank < leastAttractiveRank) {
+          // Match the current men group with the number of women in the current women group
+          // engaged to the least attractive man for this women group.
+          int[] leastAttractiveEngagedCount = engagedCount[leastAttractiveMenGroup];
+          int a = leastAttractiveEngagedCount[leastAttractivePosition];
           int b = singleMenGroupCount[currentMenGroup];
 
           int c = (a > b) ? b : a;
+          displacements++;
+
           // If all men in the group of men were not engaged to any women in the women
           // group add the group of men to the men engaged to the group women.
-          if (M[currentMenGroup][currentWomenGroup] == 0) {
-            menGroupEngagedTo.get(currentWomenGroup).offer(currentMenGroup);
+          if (currentEngagedCount[currentPosition] == 0) {
+            menGroupEngagedTo[currentWomenGroup].offer(currentRank, currentPosition);
+            heapOffers++;
           }
-          singleMen -= c;
           singleMenGroupCount[currentMenGroup] -= c;
-          singleWomenGroupCount[currentWomenGroup] -= c;
-          M[currentMenGroup][currentWomenGroup] += c;
+          currentEngagedCount[currentPosition] += c;
+
+          singleMenGroupCount[leastAttractiveMenGroup] += c;
+          singleMenGroups.update(leastAttractiveMenGroup, singleMenGroupCount[leastAttractiveMenGroup]);
+          leastAttractiveEngagedCount[leastAttractivePosition] -= c;
+
+          // If all men in the least attractive group that were engaged to the women
+          // then remove the least attractive group of men from the groups engaged to
+          // group women
+          if (leastAttractiveEngagedCount[leastAttractivePosition] == 0) {
+            menGroupEngagedTo[currentWomenGroup].poll();
+            heapRemoves++;
+          }
         }
         else {
-          // All women in currentWomenGroup are engaged we look for the least attractive
-          // man engaged to this group.
-          Integer leastAttractiveMenGroup = menGroupEngagedTo.get(currentWomenGroup).peek();
-          // Check if the least attractive man engaged to a women in the current women group
-          // is less attractive to this group than the current men group.
-          if (invWomenPrefs[currentWomenGroup][currentMenGroup] < invWomenPrefs[currentWomenGroup][leastAttractiveMenGroup]) {
-            // Match the current men group with the number of women in the current women group
-            // engaged to the least attractive man for this women group.
-            int a = M[leastAttractiveMenGroup][currentWomenGroup];
-            int b = singleMenGroupCount[currentMenGroup];
-
-            int c = (a > b) ? b : a;
-
-            // If all men in the group of men were not engaged to any women in the women
-            // group add the group of men to the men engaged to the group women.
-            if (M[currentMenGroup][currentWomenGroup] == 0) {
-              menGroupEngagedTo.get(currentWomenGroup).offer(currentMenGroup);
-            }
-            singleMenGroupCount[currentMenGroup] -= c;
-            M[currentMenGroup][currentWomenGroup] += c;
-
-            singleMenGroupCount[leastAttractiveMenGroup] += c;
-            M[leastAttractiveMenGroup][currentWomenGroup] -= c;
-
-            // If all men in the least attractive group that were engaged to the women
-            // then remove the least attractive group of men from the groups engaged to
-            // group women
-            if (M[leastAttractiveMenGroup][currentWomenGroup] == 0) {
-              menGroupEngagedTo.get(currentWomenGroup).remove();
-            }
-          }
-          else {
-            // The proposal was not accepted. We go to the next women group.
-            mostUnproposedWomenGroup[currentMenGroup] += 1;
+          // The proposal was not accepted. We go to the next women group.
+          rejections++;
+          mostUnproposedWomenGroup[currentMenGroup] += 1;
+          if (currentPosition + 1 == currentEngagedCount.length) {
+            engagedCount[currentMenGroup] = Arrays.copyOf(currentEngagedCount, Math.min(w, 2 * currentEngagedCount.length));
           }
         }
-        if (singleMenGroupCount[currentMenGroup] > (singleMen /(2*m))) {
-          singleMenGroupWithBigNumber.push(currentMenGroup);
-        }
       }
+      singleMenGroups.update(currentMenGroup, singleMenGroupCount[currentMenGroup]);
+    }
+
+    SparseMatching result = toSparseMatching(m, w, menPrefs, engagedCount, mostUnproposedWomenGroup);
+    workspace.release();
+
+    if (instrumented) {
+      listener.solveFinished(stats(engine, m, w, menGroupCount, proposals, accepted, displacements, rejections, heapAdds,
+          heapOffers, heapRemoves, singleMenGroups.moves, invertedRows, inversionTime, System.nanoTime() - startTime));
+    }
+    return result;
+  }
+
+  // Order the heap of a women group when it is first contested: its keys, the men groups
+  // engaged to it (see RankHeap.add), become their ranks in its preferences.
+  static void contest (RankHeap engaged, RankTable invWomenPrefs, int womenGroup) {
+    PreferenceMatrix ranks = invWomenPrefs.row(womenGroup);
+    for (int k = 0; k < engaged.size(); k++) {
+      engaged.setKey(k, ranks.get(0, engaged.key(k)));
     }
+    engaged.heapify();
+  }
 
-    return M;
+  // The statistics of a run, given its engine, the counters of the proposal loop and its duration.
+  private static SolveStats stats (Engine engine, int m, int w, int[] menGroupCount, long proposals, long accepted,
+      long displacements, long rejections, long heapAdds, long heapOffers, long heapRemoves, long bucketMoves, long invertedRows,
+      long inversionTime, long duration) {
+    SolveStats stats = new SolveStats();
+    stats.engine = engine;
+    stats.m = m;
+    stats.w = w;
+    for (int i = 0; i < m; i++) {
+      stats.n += menGroupCount[i];
+    }
+    stats.proposals = proposals;
+    stats.accepted = accepted;
+    stats.displacements = displacements;
+    stats.rejections = rejections;
+    stats.heapAdds = heapAdds;
+    stats.heapOffers = heapOffers;
+    stats.heapRemoves = heapRemoves;
+    stats.bucketMoves = bucketMoves;
+    stats.invertedRows = invertedRows;
+    stats.inversionNanos = inversionTime;
+    stats.mainLoopNanos = Math.max(0, duration - inversionTime);
+    return stats;
+  }
+
+  // Build the CSR form of the matching from the rows of engagedCount.
+  static SparseMatching toSparseMatching (int m, int w, PreferenceMatrix menPrefs, int[][] engagedCount, int[] mostUnproposedWomenGroup) {
+    int[] rowStart = new int[m + 1];
+    for (int i = 0; i < m; i++) {
+      int nonZero = 0;
+      for (int k = 0; k <= mostUnproposedWomenGroup[i] && k < engagedCount[i].length; k++) {
+        if (engagedCount[i][k] != 0) {
+          nonZero++;
+        }
+      }
+      rowStart[i + 1] = rowStart[i] + nonZero;
+    }
+    int[] womenGroup = new int[rowStart[m]];
+    int[] count = new int[rowStart[m]];
+    for (int i = 0; i < m; i++) {
+      int e = rowStart[i];
+      for (int k = 0; k <= mostUnproposedWomenGroup[i] && k < engagedCount[i].length; k++) {
+        if (engagedCount[i][k] != 0) {
+          womenGroup[e] = menPrefs.get(i, k);
+          count[e] = engagedCount[i][k];
+          e++;
+        }
+      }
+    }
+    return new SparseMatching(w, rowStart, womenGroup, count);
   }
 }
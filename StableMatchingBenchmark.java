@@ -0,0 +1,391 @@
+// A benchmark of stable matching solvers on the instance families of the
+// test harness (see StableMatchingTest.test).
+
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class StableMatchingBenchmark {
+
+    // Every benchmark first runs WARMUP untimed iterations, so that the solver
+    // is compiled by the JIT, and then MEASURE timed iterations. An iteration
+    // solves one instance of the family, a fresh one for the random families.
+
+    public final static int WARMUP = 5;
+
+    public final static int MEASURE = 10;
+
+    // The solver being measured.
+
+    private StableMatchingInterface box;
+
+    // This is the output stream of the results.
+
+    private PrintStream out;
+
+    // The harness, only used to generate the non-random instances of its families.
+
+    private StableMatchingTest generator;
+
+    // The generator of the random preferences and group counts, drawing the rows in
+    // parallel, so that the setup of a large benchmark is short next to the solves.
+
+    private InstanceGenerator randomGenerator;
+
+    // The thread MXBean, used to measure the bytes allocated by the solver.
+
+    private com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // An instance of a benchmark family, with its preferences in arrays as the
+    // box reads them.
+
+    static class Case
+    {
+        final int[] menGroupCount, womenGroupCount;
+        final int[][] menPrefs, womenPrefs;
+
+        Case (int[] menGroupCount, int[] womenGroupCount, int[][] menPrefs, int[][] womenPrefs)
+        {
+            this.menGroupCount = menGroupCount;
+            this.womenGroupCount = womenGroupCount;
+            this.menPrefs = menPrefs;
+            this.womenPrefs = womenPrefs;
+        }
+    }
+
+    // A family of instances: uniform, mixed and random preferences as in
+    // StableMatchingTest.test(int[], int[]), on given group counts.
+
+    enum Family { UNIFORM_IDENTITY, UNIFORM_REVERSE, MIXED_WOMEN, MIXED_MEN, RANDOM }
+
+    StableMatchingBenchmark (StableMatchingInterface box, PrintStream out, Random random)
+    {
+        this.box = box;
+        this.out = out;
+        this.generator = new StableMatchingTest(box, out, random);
+        this.randomGenerator = new InstanceGenerator(random.nextLong());
+    }
+
+    Case generate (Family family, int[] menGroupCount, int[] womenGroupCount)
+    {
+        int m = menGroupCount.length;
+        int w = womenGroupCount.length;
+        StableMatchingTest g = generator;
+        switch (family) {
+        case UNIFORM_IDENTITY:
+            return new Case(menGroupCount, womenGroupCount,
+                    g.uniformPrefs(m, g.identityArray(w)), g.uniformPrefs(w, g.identityArray(m)));
+        case UNIFORM_REVERSE:
+            return new Case(menGroupCount, womenGroupCount,
+                    g.uniformPrefs(m, g.identityArray(w)), g.uniformPrefs(w, g.reverseIdentityArray(m)));
+        case MIXED_WOMEN:
+            return new Case(menGroupCount, womenGroupCount,
+                    g.uniformPrefs(m, g.identityArray(w)), g.mixedPrefs(w, g.identityArray(m), g.reverseIdentityArray(m)));
+        case MIXED_MEN:
+            return new Case(menGroupCount, womenGroupCount,
+                    g.mixedPrefs(m, g.identityArray(w), g.reverseIdentityArray(w)), g.uniformPrefs(w, g.identityArray(m)));
+        default:
+            return new Case(menGroupCount, womenGroupCount, randomGenerator.randomPrefs(m, w), randomGenerator.randomPrefs(w, m));
+        }
+    }
+
+    // The sum of the collection times of all garbage collectors, in milliseconds.
+
+    static long gcMillis ()
+    {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            total += Math.max(0, gc.getCollectionTime());
+        return total;
+    }
+
+    // Solve one instance, and return its duration in nanoseconds. The bytes
+    // allocated by the calling thread are added to allocated[0].
+
+    long solve (Case in, long[] allocated)
+    {
+        long thread = Thread.currentThread().getId();
+        long bytes = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        int[][] mar = box.constructStableMatching(in.menGroupCount, in.womenGroupCount, in.menPrefs, in.womenPrefs);
+        long duration = System.nanoTime() - start;
+        allocated[0] += threads.getThreadAllocatedBytes(thread) - bytes;
+        if (mar == null)
+            throw new IllegalStateException("The solver returned null");
+        return duration;
+    }
+
+    // Run one benchmark and print its results on one line.
+
+    public void bench (Family family, int[] menGroupCount, int[] womenGroupCount)
+    {
+        long n = 0;
+        for (int s : menGroupCount)
+            n += s;
+        Case in = generate(family, menGroupCount, womenGroupCount);
+        long[] allocated = new long[1];
+
+        for (int r = 0; r < WARMUP; r++) {
+            if (family == Family.RANDOM && r > 0)
+                in = generate(family, menGroupCount, womenGroupCount);
+            solve(in, allocated);
+        }
+
+        allocated[0] = 0;
+        long gc = gcMillis();
+        long[] durations = new long[MEASURE];
+        for (int r = 0; r < MEASURE; r++) {
+            if (family == Family.RANDOM)
+                in = generate(family, menGroupCount, womenGroupCount);
+            durations[r] = solve(in, allocated);
+        }
+        gc = gcMillis() - gc;
+
+        long total = 0;
+        for (long d : durations)
+            total += d;
+        Arrays.sort(durations);
+        double mean = total / (double) MEASURE;
+        out.printf("%-16s n = %10d, m = %5d, w = %5d: mean %9.3f ms, p50 %9.3f ms, max %9.3f ms, %10.2f ops/s, %10.3f MB/op, %10.1f MB/s, gc %d ms\n",
+                family, n, menGroupCount.length, womenGroupCount.length,
+                mean / 1e6, durations[MEASURE / 2] / 1e6, durations[MEASURE - 1] / 1e6,
+                1e9 / mean, allocated[0] / (double) MEASURE / (1 << 20),
+                allocated[0] / (total / 1e9) / (1 << 20), gc);
+    }
+
+    // Run the benchmarks with n = m = w people, for every family.
+
+    public void benchUnit (int n)
+    {
+        for (Family family : Family.values())
+            bench(family, generator.unit(n), generator.unit(n));
+    }
+
+    // Run the random benchmarks on the group counts of the m/w grid of the
+    // harness (see StableMatchingTest.test(char)), for a given estimate of n.
+
+    public void benchGrid (int nEstimate, int maxGroups)
+    {
+        for (int m = 1; m <= maxGroups; m *= 4)
+            for (int w = 1; w <= maxGroups; w *= 4) {
+                int[][] mw = randomGenerator.randomMW(m, w, nEstimate, Integer.MAX_VALUE);
+                if (mw != null)
+                    bench(Family.RANDOM, mw[0], mw[1]);
+            }
+    }
+
+    // Run the random benchmarks on the skewed shapes m = groups, w = 1 and m = 1,
+    // w = groups, where the scheduling of the groups of men is most of the work.
+
+    public void benchSkewed (int groups, int nEstimate)
+    {
+        int[][] mw = randomGenerator.randomMW(groups, 1, nEstimate, Integer.MAX_VALUE);
+        if (mw != null)
+            bench(Family.RANDOM, mw[0], mw[1]);
+        mw = randomGenerator.randomMW(1, groups, nEstimate, Integer.MAX_VALUE);
+        if (mw != null)
+            bench(Family.RANDOM, mw[0], mw[1]);
+    }
+
+    // The median duration of the solves of one instance by the given solver, in nanoseconds,
+    // after WARMUP untimed solves.
+
+    long median (StableMatchingInterface solver, Case in)
+    {
+        for (int r = 0; r < WARMUP; r++)
+            solver.constructStableMatching(in.menGroupCount, in.womenGroupCount, in.menPrefs, in.womenPrefs);
+        long[] durations = new long[MEASURE];
+        for (int r = 0; r < MEASURE; r++) {
+            long start = System.nanoTime();
+            solver.constructStableMatching(in.menGroupCount, in.womenGroupCount, in.menPrefs, in.womenPrefs);
+            durations[r] = System.nanoTime() - start;
+        }
+        Arrays.sort(durations);
+        return durations[MEASURE / 2];
+    }
+
+    // Compare the engine selected by StableMatching for an instance of a family (see
+    // Engine) with the GROUPED engine alone, on the same instance.
+
+    public void benchEngine (Family family, int[] menGroupCount, int[] womenGroupCount)
+    {
+        long n = 0;
+        for (int s : menGroupCount)
+            n += s;
+        Case in = generate(family, menGroupCount, womenGroupCount);
+        Engine engine = Engine.select(in.menGroupCount, in.womenGroupCount,
+                PreferenceMatrix.wrap(in.menPrefs, womenGroupCount.length),
+                PreferenceMatrix.wrap(in.womenPrefs, menGroupCount.length));
+        long selected = median(new StableMatching(), in);
+        long grouped = median(new StableMatching(null, false), in);
+        out.printf("%-16s n = %10d, m = %5d, w = %5d: %-11s p50 %9.3f ms, GROUPED p50 %9.3f ms, x %6.2f\n",
+                family, n, menGroupCount.length, womenGroupCount.length, engine,
+                selected / 1e6, grouped / 1e6, grouped / (double) Math.max(1, selected));
+    }
+
+    // Compare the engines on every shape of the harness: the unit instances of every
+    // family with n people, the degenerate shapes m = 1 and w = 1 with about 2^20 people,
+    // and the random grouped shapes of the grid with about 2^20 people.
+
+    public void benchEngines (int n)
+    {
+        for (Family family : Family.values())
+            benchEngine(family, generator.unit(n), generator.unit(n));
+        for (int groups : new int[] { 64, 4096 }) {
+            int[][] mw = randomGenerator.randomMW(1, groups, 1 << 20, Integer.MAX_VALUE);
+            benchEngine(Family.RANDOM, mw[0], mw[1]);
+            mw = randomGenerator.randomMW(groups, 1, 1 << 20, Integer.MAX_VALUE);
+            benchEngine(Family.RANDOM, mw[0], mw[1]);
+        }
+        for (int groups = 16; groups <= StableMatchingTest.LARGE_NONUNIT; groups *= 4) {
+            int[][] mw = randomGenerator.randomMW(groups, groups, 1 << 20, Integer.MAX_VALUE);
+            benchEngine(Family.RANDOM, mw[0], mw[1]);
+        }
+    }
+
+    // The median duration of the solves of one instance by LongStableMatching, with the
+    // counts of the case multiplied by scale, in nanoseconds, after WARMUP untimed solves.
+
+    long medianLong (Case in, long scale)
+    {
+        long[] menGroupCount = new long[in.menGroupCount.length];
+        long[] womenGroupCount = new long[in.womenGroupCount.length];
+        for (int i = 0; i < menGroupCount.length; i++)
+            menGroupCount[i] = in.menGroupCount[i] * scale;
+        for (int j = 0; j < womenGroupCount.length; j++)
+            womenGroupCount[j] = in.womenGroupCount[j] * scale;
+        LongStableMatching solver = new LongStableMatching();
+        for (int r = 0; r < WARMUP; r++)
+            solver.constructStableMatching(menGroupCount, womenGroupCount, in.menPrefs, in.womenPrefs);
+        long[] durations = new long[MEASURE];
+        for (int r = 0; r < MEASURE; r++) {
+            long start = System.nanoTime();
+            solver.constructStableMatching(menGroupCount, womenGroupCount, in.menPrefs, in.womenPrefs);
+            durations[r] = System.nanoTime() - start;
+        }
+        Arrays.sort(durations);
+        return durations[MEASURE / 2];
+    }
+
+    // Compare LongStableMatching with StableMatching on the same random instance: with
+    // the same counts, and with the counts multiplied by 2^32, whose total exceeds an
+    // int (the matching is then the same one, scaled).
+
+    public void benchLong (int[] menGroupCount, int[] womenGroupCount)
+    {
+        long n = 0;
+        for (int s : menGroupCount)
+            n += s;
+        Case in = generate(Family.RANDOM, menGroupCount, womenGroupCount);
+        long plain = median(new StableMatching(), in);
+        long same = medianLong(in, 1);
+        long scaled = medianLong(in, 1L << 32);
+        out.printf("LONG             n = %10d, m = %5d, w = %5d: int p50 %9.3f ms, long p50 %9.3f ms (x %5.2f), long x 2^32 p50 %9.3f ms (x %5.2f)\n",
+                n, menGroupCount.length, womenGroupCount.length, plain / 1e6,
+                same / 1e6, same / (double) Math.max(1, plain), scaled / 1e6, scaled / (double) Math.max(1, plain));
+    }
+
+    // Compare the rotation lattice with one solve on random instances: the time
+    // to build the StableMatchingLattice, then its egalitarian and minimum
+    // regret matchings, as multiples of one constructStableMatching call.
+
+    public void benchLattice (int[] menGroupCount, int[] womenGroupCount)
+    {
+        long n = 0;
+        for (int s : menGroupCount)
+            n += s;
+        long[] allocated = new long[1];
+        long solve = 0, build = 0, egalitarian = 0, regret = 0;
+        int rotations = 0;
+        for (int r = 0; r < WARMUP + MEASURE; r++) {
+            Case in = generate(Family.RANDOM, menGroupCount, womenGroupCount);
+            long t0 = System.nanoTime();
+            solve(in, allocated);
+            long t1 = System.nanoTime();
+            StableMatchingLattice lattice = new StableMatchingLattice(in.menGroupCount, in.womenGroupCount, in.menPrefs, in.womenPrefs);
+            long t2 = System.nanoTime();
+            lattice.egalitarian();
+            long t3 = System.nanoTime();
+            lattice.minimumRegret();
+            long t4 = System.nanoTime();
+            if (r >= WARMUP) {
+                solve += t1 - t0;
+                build += t2 - t1;
+                egalitarian += t3 - t2;
+                regret += t4 - t3;
+                rotations += lattice.rotations();
+            }
+        }
+        out.printf("LATTICE          n = %10d, m = %5d, w = %5d: solve %9.3f ms, lattice %9.3f ms (x %5.1f, %d rotations), egalitarian %9.3f ms (x %5.1f), min-regret %9.3f ms (x %5.1f)\n",
+                n, menGroupCount.length, womenGroupCount.length,
+                solve / 1e6 / MEASURE, build / 1e6 / MEASURE, build / (double) solve, rotations / MEASURE,
+                egalitarian / 1e6 / MEASURE, egalitarian / (double) solve,
+                regret / 1e6 / MEASURE, regret / (double) solve);
+    }
+
+    // Usage: java StableMatchingBenchmark [-lattice | -engines | -long] [solver class] [n...]
+    // The default solver is StableMatching, and the default sizes are 1024 and 4096.
+    // Every size n is used for the unit benchmarks and as the estimate of the grid.
+    // The skewed shapes have 4096 groups on one side and about 2^20 people.
+    // With -lattice, the lattice is measured on unit instances of every size, and on
+    // the grid with groups of about 8 people. With -engines, the engines of StableMatching
+    // are compared on every shape, with unit instances of every size (the solver is ignored).
+    // With -long, LongStableMatching is compared with StableMatching on unit instances of
+    // every size, and on the grid with groups of about 8 people (the solver is ignored).
+
+    public static void main (String[] args) throws Exception
+    {
+        boolean lattice = args.length > 0 && args[0].equals("-lattice");
+        boolean engines = args.length > 0 && args[0].equals("-engines");
+        boolean longCounts = args.length > 0 && args[0].equals("-long");
+        if (lattice || engines || longCounts)
+            args = Arrays.copyOfRange(args, 1, args.length);
+        StableMatchingInterface box = new StableMatching();
+        if (args.length > 0)
+            box = (StableMatchingInterface) Class.forName(args[0]).getDeclaredConstructor().newInstance();
+        List<Integer> sizes = new ArrayList<Integer>();
+        for (int k = 1; k < args.length; k++)
+            sizes.add(Integer.parseInt(args[k]));
+        if (sizes.isEmpty())
+            sizes.addAll(Arrays.asList(1024, 4096));
+
+        StableMatchingBenchmark benchmark = new StableMatchingBenchmark(box, System.out, new Random(0L));
+        if (lattice) {
+            for (int n : sizes)
+                benchmark.benchLattice(benchmark.generator.unit(n), benchmark.generator.unit(n));
+            for (int n : sizes) {
+                int[][] mw = benchmark.randomGenerator.randomMW(n / 8, n / 8, n, Integer.MAX_VALUE);
+                if (mw != null)
+                    benchmark.benchLattice(mw[0], mw[1]);
+            }
+            return;
+        }
+        if (longCounts) {
+            for (int n : sizes)
+                benchmark.benchLong(benchmark.generator.unit(n), benchmark.generator.unit(n));
+            for (int n : sizes) {
+                int[][] mw = benchmark.randomGenerator.randomMW(n / 8, n / 8, n, Integer.MAX_VALUE);
+                if (mw != null)
+                    benchmark.benchLong(mw[0], mw[1]);
+            }
+            return;
+        }
+        if (engines) {
+            for (int n : sizes)
+                benchmark.benchEngines(n);
+            return;
+        }
+        System.out.printf("Benchmarking %s, %d warmup and %d measured iterations.\n",
+                box.getClass().getName(), WARMUP, MEASURE);
+        for (int n : sizes)
+            benchmark.benchUnit(n);
+        for (int n : sizes)
+            benchmark.benchGrid(n, StableMatchingTest.LARGE_NONUNIT);
+        benchmark.benchSkewed(4096, 1 << 20);
+    }
+}
@@ -36,5 +36,86 @@ public interface StableMatchingInterface {
   // "mar".  The element mar[i][j] represents the number of couples in the matching 
   // with the groom belonging to the i-th group of men and the bride belinging to
   // the j-th group of women. This array must describe a stable matching.
-}
 
+  // The same problem, solved before the given deadline: a solver that cannot finish in
+  // time throws a SolveCancelledException. The default implementation only checks the
+  // deadline before solving; implementations should override it to check the deadline
+  // while solving.
+
+  default int[][] constructStableMatching (
+    int[] menGroupCount,
+    int[] womenGroupCount,
+    int[][] menPrefs,
+    int[][] womenPrefs,
+    Deadline deadline
+  ) {
+    if (deadline.isExpired()) {
+      throw new SolveCancelledException(null, null);
+    }
+    return constructStableMatching(menGroupCount, womenGroupCount, menPrefs, womenPrefs);
+  }
+
+  // The same problem, given as an Instance, whose preferences are read-only views: any
+  // number of solvers and verifiers can share the instance. The default implementation
+  // copies the counts and the matrices in arrays; implementations should override it
+  // to read the instance directly.
+
+  default int[][] constructStableMatching (Instance instance) {
+    return constructStableMatching(instance.menGroupCount(), instance.womenGroupCount(), instance.menPrefs(), instance.womenPrefs());
+  }
+
+  // The same, solved before the given deadline, see above.
+
+  default int[][] constructStableMatching (Instance instance, Deadline deadline) {
+    if (deadline.isExpired()) {
+      throw new SolveCancelledException(null, null);
+    }
+    return constructStableMatching(instance);
+  }
+
+  // The same problem, with the preferences given as PreferenceMatrix objects:
+  // menPrefs is an m x w matrix, and womenPrefs is a w x m matrix, whose rows
+  // are the preference lists described above. The default implementation copies
+  // the matrices in jagged arrays; implementations should override it to read
+  // the matrices directly.
+
+  default int[][] constructStableMatching (
+    int[] menGroupCount,
+    int[] womenGroupCount,
+    PreferenceMatrix menPrefs,
+    PreferenceMatrix womenPrefs
+  ) {
+    return constructStableMatching(menGroupCount, womenGroupCount, menPrefs.toArray(), womenPrefs.toArray());
+  }
+
+  // The same problem, returning the matching as a SparseMatching, which only stores
+  // the non-zero cells of the marriage matrix. The default implementation converts
+  // the dense result; implementations should override it to build the sparse
+  // matching without allocating the dense matrix.
+
+  default SparseMatching constructSparseStableMatching (
+    int[] menGroupCount,
+    int[] womenGroupCount,
+    PreferenceMatrix menPrefs,
+    PreferenceMatrix womenPrefs
+  ) {
+    return SparseMatching.of(
+      constructStableMatching(menGroupCount, womenGroupCount, menPrefs, womenPrefs),
+      womenGroupCount.length
+    );
+  }
+
+  // The same problem, with the men preferences given as a PreferenceSource, whose rows
+  // may be produced when they are read, and may not fit in memory all at once. The
+  // default implementation copies the source in a matrix; implementations should
+  // override it to only read the prefixes of the rows they need.
+
+  default SparseMatching constructSparseStableMatching (
+    int[] menGroupCount,
+    int[] womenGroupCount,
+    PreferenceSource menPrefs,
+    PreferenceMatrix womenPrefs
+  ) {
+    return constructSparseStableMatching(menGroupCount, womenGroupCount, PreferenceMatrix.of(menPrefs), womenPrefs);
+  }
+}
@@ -0,0 +1,710 @@
+import java.util.Arrays;
+
+/*
+  The lattice of the stable matchings of an instance, described by its rotations.
+
+  The rotations are those of the marriage matrices, so that nothing depends on the number
+  of people. In a stable matrix, the last group of a women group j is the men group married
+  into j that j likes least. A rotation is a cycle of women groups j_0, ..., j_{k-1} where
+  j_{t+1} is the first women group after j_t in the list of i_t, the last group of j_t,
+  that prefers i_t to its own last group i_{t+1}. Eliminating it c times moves c men of
+  every i_t from j_t to j_{t+1}: the women groups in between do not prefer i_t to their
+  last group, and those married to i_t only trade men of i_t between them. The matrix stays
+  stable, and the same cycle stays exposed until one of the cells (i_t, j_t) empties, so a
+  rotation is eliminated by the smallest of these counts at once. Expanding the groups in
+  people, with the ties broken by number, a rotation of the matrices is a chain of that many
+  rotations of the people (Gusfield and Irving, The Stable Marriage Problem, 2.5), all with
+  the same cells and the same predecessors.
+
+  The men-optimal and the women-optimal matrices are computed by StableMatching, the
+  women-optimal one with the roles swapped; the rank tables of the two solves are kept for
+  the lattice. The rotations are found by eliminating the exposed rotations from the
+  men-optimal matrix until the women-optimal one (3.2). For every move of a rotation r of
+  the men group i from j_t to j_{t+1}, and every women group j from j_t included to j_{t+1}
+  excluded in the list of i, r follows the rotation emptying the last cell of j whose men
+  group j likes less than i: j_t must have i for last group, and the groups passed over must
+  not prefer i to their last group. The rotations emptying the cells of a women group
+  follow each other, so that these are all the conditions for r to be exposed; and since a
+  rotation only moves women to better partners, a women group j_t with no worse group than
+  i_t left has at least as many men of i_t as when r was found, the fewer rotations
+  eliminated. Every stable matrix is the men-optimal one with a closed set of rotations
+  eliminated, and some more rotations exposed by this set partly eliminated.
+
+  The cost of a couple is the position of the women group in the list of the men group
+  plus the position of the men group in the list of the women group, the cost of a
+  matching the sum over its couples, and its regret the largest position of a partner
+  group over all the people. Both are linear in the counts, so that a rotation partly
+  eliminated never beats eliminating it fully or not at all. The egalitarian matching, of
+  minimum cost, is given by a maximum weight closure of the rotations, computed with a
+  minimum cut; the matching of minimum regret by the smallest regret bound whose required
+  rotations are compatible.
+
+  Every elimination empties a cell that is never filled again, so that there are at most
+  m * w rotations. Building the lattice costs O(m * w) for the counts and the rank tables,
+  plus O(w) for every move of a rotation, however many people there are. Among several
+  optimal matchings, the one with the fewest rotations eliminated, the best for the men,
+  is returned.
+  */
+public class StableMatchingLattice {
+
+  private final int m;
+  private final int w;
+
+  private final PreferenceMatrix menPrefs;
+  private final PreferenceMatrix womenPrefs;
+
+  // menRanks.rank(i, j) is the position of the women group j in the list of the men group i,
+  // and womenRanks.rank(j, i) the position of the men group i in the list of the women group j.
+  private final RankTable menRanks;
+  private final RankTable womenRanks;
+
+  private final SparseMatching menOptimal;
+  private final SparseMatching womenOptimal;
+
+  /*
+    The rotations, numbered in the order of their elimination from the men-optimal matrix.
+    The rotation r moves amount[r] men of the group moveMen[e] from the women group
+    moveFrom[e] to the women group moveTo[e], for every move e in
+    [rotationStart[r], rotationStart[r + 1]).
+    */
+  private int rotations;
+  private int[] rotationStart = new int[1];
+  private int[] amount = new int[1];
+  private int moves;
+  private int[] moveMen = new int[16];
+  private int[] moveFrom = new int[16];
+  private int[] moveTo = new int[16];
+
+  // The rotations emptying the cells of the women group j, in order: emptiedBy[j][k] empties
+  // the cell of the men group of rank emptiedRank[j][k] for j, these ranks decreasing with k.
+  private final int[][] emptiedBy;
+  private final int[][] emptiedRank;
+  private final int[] emptied;
+
+  // The rotations that must be eliminated before the rotation r are
+  // predecessors[predecessorStart[r] .. predecessorStart[r + 1]).
+  private int[] predecessorStart;
+  private int[] predecessors;
+
+  public StableMatchingLattice (int[] menGroupCount, int[] womenGroupCount,
+      PreferenceMatrix menPrefs, PreferenceMatrix womenPrefs) {
+    m = menGroupCount.length;
+    w = womenGroupCount.length;
+    this.menPrefs = menPrefs;
+    this.womenPrefs = womenPrefs;
+    long men = 0;
+    long women = 0;
+    for (int c : menGroupCount) {
+      men += c;
+    }
+    for (int c : womenGroupCount) {
+      women += c;
+    }
+    if (men != women) {
+      throw new IllegalArgumentException("There are not as many men as women");
+    }
+
+    // The rank tables are those of the two solves: the rows they inverted are not inverted again.
+    StableMatching solver = new StableMatching();
+    SolverWorkspace menProposing = new SolverWorkspace();
+    SolverWorkspace womenProposing = new SolverWorkspace();
+    menOptimal = solver.solve(menProposing, menGroupCount, womenGroupCount, menPrefs, womenPrefs);
+    womenOptimal = solver.solve(womenProposing, womenGroupCount, menGroupCount, womenPrefs, menPrefs).transpose();
+    womenRanks = menProposing.invWomenPrefs;
+    menRanks = womenProposing.invWomenPrefs;
+    emptiedBy = new int[w][];
+    emptiedRank = new int[w][];
+    emptied = new int[w];
+    findRotations();
+  }
+
+  public StableMatchingLattice (int[] menGroupCount, int[] womenGroupCount, int[][] menPrefs, int[][] womenPrefs) {
+    this(menGroupCount, womenGroupCount,
+        PreferenceMatrix.wrap(menPrefs, womenGroupCount.length),
+        PreferenceMatrix.wrap(womenPrefs, menGroupCount.length));
+  }
+
+  // The number of rotations.
+  public int rotations () {
+    return rotations;
+  }
+
+  public SparseMatching menOptimal () {
+    return menOptimal;
+  }
+
+  public SparseMatching womenOptimal () {
+    return womenOptimal;
+  }
+
+  // A stable matching of minimum cost.
+  public SparseMatching egalitarian () {
+    return eliminate(maximumWeightClosure());
+  }
+
+  // A stable matching of minimum regret.
+  public SparseMatching minimumRegret () {
+    int low = 0;
+    int high = Math.max(m, w);
+    boolean[] best = null;
+    // Every matching has a regret less than max(m, w), so that high is a feasible bound.
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      boolean[] closure = regretClosure(middle);
+      if (closure != null) {
+        high = middle;
+        best = closure;
+      }
+      else {
+        low = middle + 1;
+      }
+    }
+    if (best == null) {
+      best = regretClosure(low);
+    }
+    return eliminate(best);
+  }
+
+  // The cost of a marriage matrix of this instance.
+  public long cost (SparseMatching matching) {
+    long total = 0;
+    for (int i = 0; i < m; i++) {
+      for (int e = matching.rowStart(i); e < matching.rowEnd(i); e++) {
+        total += (long) matching.count(e) * coupleCost(i, matching.womenGroup(e));
+      }
+    }
+    return total;
+  }
+
+  // The regret of a marriage matrix of this instance.
+  public int regret (SparseMatching matching) {
+    int worst = 0;
+    for (int i = 0; i < m; i++) {
+      for (int e = matching.rowStart(i); e < matching.rowEnd(i); e++) {
+        int j = matching.womenGroup(e);
+        worst = Math.max(worst, Math.max(menRanks.rank(i, j), womenRanks.rank(j, i)));
+      }
+    }
+    return worst;
+  }
+
+  private long coupleCost (int i, int j) {
+    return menRanks.rank(i, j) + womenRanks.rank(j, i);
+  }
+
+  /*
+    The state of the matrix while the rotations are eliminated: count[i][j] men of the group
+    i are married into the women group j, last[j] holds the men groups married into j by
+    rank, its top being the last group of j, and lastPosition[i] is the position of the
+    worst women group of i in its list.
+    */
+  private int[][] count;
+  private RankHeap[] last;
+  private int[] lastPosition;
+
+  // No women group at the positions in (lastPosition[i], scan[i]) of the list of i prefers
+  // i to its last group, nor ever will: the last groups only get better.
+  private int[] scan;
+
+  // The predecessors of the rotations as edges (before, after), and 1 + the last rotation
+  // each rotation was added as a predecessor of, to skip the repeated edges.
+  private int[] before = new int[16];
+  private int[] after = new int[16];
+  private int edges;
+  private int[] addedTo = new int[16];
+
+  // Eliminate the exposed rotations from the men-optimal matrix until the women-optimal one.
+  private void findRotations () {
+    count = new int[m][w];
+    last = new RankHeap[w];
+    lastPosition = new int[m];
+    scan = new int[m];
+    Arrays.fill(lastPosition, -1);
+    for (int j = 0; j < w; j++) {
+      last[j] = new RankHeap();
+    }
+    for (int i = 0; i < m; i++) {
+      for (int e = menOptimal.rowStart(i); e < menOptimal.rowEnd(i); e++) {
+        int j = menOptimal.womenGroup(e);
+        int position = menRanks.rank(i, j);
+        count[i][j] = menOptimal.count(e);
+        last[j].offer(womenRanks.rank(j, i), i);
+        lastPosition[i] = Math.max(lastPosition[i], position);
+      }
+      scan[i] = lastPosition[i] + 1;
+    }
+
+    // The women groups of the path being followed, each one pointing to the next.
+    int[] stack = new int[w];
+    int[] next = new int[w];
+    int top = 0;
+    boolean[] onStack = new boolean[w];
+    // The women groups whose last group can no longer move, empty ones included.
+    boolean[] done = new boolean[w];
+    int first = 0;
+    while (true) {
+      if (top == 0) {
+        while (first < w && (done[first] || last[first].isEmpty())) {
+          first++;
+        }
+        if (first == w) {
+          break;
+        }
+        stack[top++] = first;
+        onStack[first] = true;
+      }
+      int a = stack[top - 1];
+      int b = candidate(last[a].peekPayload(), a);
+      if (b < 0 || done[b]) {
+        // Every group on the path leads to a group whose last group cannot move.
+        while (top > 0) {
+          int d = stack[--top];
+          onStack[d] = false;
+          done[d] = true;
+        }
+        continue;
+      }
+      next[a] = b;
+      if (!onStack[b]) {
+        stack[top++] = b;
+        onStack[b] = true;
+        continue;
+      }
+      // The women groups from b to the top of the stack form an exposed rotation.
+      int bottom = top - 1;
+      while (stack[bottom] != b) {
+        bottom--;
+      }
+      int c = Integer.MAX_VALUE;
+      for (int t = bottom; t < top; t++) {
+        int j = stack[t];
+        int i = last[j].peekPayload();
+        addMove(i, j, next[j]);
+        c = Math.min(c, count[i][j]);
+      }
+      rotationStart = grow(rotationStart, rotations + 2);
+      amount = grow(amount, rotations + 1);
+      addedTo = grow(addedTo, rotations + 1);
+      amount[rotations] = c;
+      rotationStart[rotations + 1] = moves;
+      order(rotations);
+      eliminate(rotations);
+      rotations++;
+      for (int t = bottom; t < top; t++) {
+        onStack[stack[t]] = false;
+      }
+      top = bottom;
+    }
+    for (int i = 0; i < m; i++) {
+      for (int e = womenOptimal.rowStart(i); e < womenOptimal.rowEnd(i); e++) {
+        count[i][womenOptimal.womenGroup(e)] -= womenOptimal.count(e);
+      }
+      for (int j = 0; j < w; j++) {
+        if (count[i][j] != 0) {
+          throw new IllegalStateException("The rotations do not lead to the women-optimal matching");
+        }
+      }
+    }
+
+    predecessorStart = new int[rotations + 1];
+    for (int e = 0; e < edges; e++) {
+      predecessorStart[after[e] + 1]++;
+    }
+    for (int r = 0; r < rotations; r++) {
+      predecessorStart[r + 1] += predecessorStart[r];
+    }
+    predecessors = new int[edges];
+    int[] position = Arrays.copyOf(predecessorStart, rotations);
+    for (int e = 0; e < edges; e++) {
+      predecessors[position[after[e]]++] = before[e];
+    }
+    count = null;
+    last = null;
+    lastPosition = null;
+    scan = null;
+    before = null;
+    after = null;
+    addedTo = null;
+  }
+
+  // Whether the women group j prefers the men group i to its last group.
+  private boolean prefers (int j, int i) {
+    return !last[j].isEmpty() && womenRanks.rank(j, i) < last[j].peek();
+  }
+
+  // Return the first women group after a in the list of the men group i that prefers i to
+  // its last group, -1 if there is none. The matrix being stable, none does between a and
+  // the worst women group of i.
+  private int candidate (int i, int a) {
+    int position = lastPosition[i];
+    if (menRanks.rank(i, a) < position && prefers(menPrefs.get(i, position), i)) {
+      return menPrefs.get(i, position);
+    }
+    int k = scan[i];
+    while (k < w && !prefers(menPrefs.get(i, k), i)) {
+      k++;
+    }
+    scan[i] = k;
+    return k < w ? menPrefs.get(i, k) : -1;
+  }
+
+  private void addMove (int i, int from, int to) {
+    if (moves == moveMen.length) {
+      moveMen = Arrays.copyOf(moveMen, 2 * moves);
+      moveFrom = Arrays.copyOf(moveFrom, 2 * moves);
+      moveTo = Arrays.copyOf(moveTo, 2 * moves);
+    }
+    moveMen[moves] = i;
+    moveFrom[moves] = from;
+    moveTo[moves] = to;
+    moves++;
+  }
+
+  private static int[] grow (int[] array, int length) {
+    return length <= array.length ? array : Arrays.copyOf(array, Math.max(length, 2 * array.length));
+  }
+
+  /*
+    Add the predecessors of the rotation r, which is exposed and not eliminated yet. For a
+    move of i from a to b, the women groups strictly between a and the worst women group c of
+    i need not be looked at: once the rotations emptying the cells of c below i are
+    eliminated, c still has men of i, and a stable matrix cannot then have a women group
+    between a and c preferring i to its last group.
+    */
+  private void order (int r) {
+    for (int e = rotationStart[r]; e < rotationStart[r + 1]; e++) {
+      int i = moveMen[e];
+      int from = menRanks.rank(i, moveFrom[e]);
+      int to = menRanks.rank(i, moveTo[e]);
+      for (int k = from; k < to; k = k == from ? Math.max(from + 1, lastPosition[i]) : k + 1) {
+        int j = menPrefs.get(i, k);
+        if (emptied[j] > 0) {
+          addPredecessor(crossing(j, womenRanks.rank(j, i)), r);
+        }
+      }
+    }
+  }
+
+  // The rotation emptying the last cell of the women group j whose men group has a rank
+  // above the given one, -1 if no rotation did.
+  private int crossing (int j, int rank) {
+    int low = 0;
+    int high = emptied[j];
+    // The ranks emptiedRank[j][k] are above rank for k < low and not for k >= high.
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (emptiedRank[j][middle] > rank) {
+        low = middle + 1;
+      }
+      else {
+        high = middle;
+      }
+    }
+    return low == 0 ? -1 : emptiedBy[j][low - 1];
+  }
+
+  private void addPredecessor (int p, int r) {
+    if (p < 0 || p == r || addedTo[p] == r + 1) {
+      return;
+    }
+    addedTo[p] = r + 1;
+    if (edges == before.length) {
+      before = Arrays.copyOf(before, 2 * edges);
+      after = Arrays.copyOf(after, 2 * edges);
+    }
+    before[edges] = p;
+    after[edges] = r;
+    edges++;
+  }
+
+  // Eliminate the exposed rotation r, recording the cells it empties.
+  private void eliminate (int r) {
+    int c = amount[r];
+    for (int e = rotationStart[r]; e < rotationStart[r + 1]; e++) {
+      int i = moveMen[e];
+      int j = moveTo[e];
+      if (count[i][j] == 0) {
+        last[j].offer(womenRanks.rank(j, i), i);
+      }
+      count[i][j] += c;
+      lastPosition[i] = Math.max(lastPosition[i], menRanks.rank(i, j));
+      scan[i] = Math.max(scan[i], lastPosition[i] + 1);
+    }
+    for (int e = rotationStart[r]; e < rotationStart[r + 1]; e++) {
+      int i = moveMen[e];
+      int j = moveFrom[e];
+      count[i][j] -= c;
+      if (count[i][j] == 0) {
+        // The cell of the last group of j empties.
+        last[j].poll();
+        if (emptied[j] == 0) {
+          emptiedBy[j] = new int[2];
+          emptiedRank[j] = new int[2];
+        }
+        else if (emptied[j] == emptiedBy[j].length) {
+          emptiedBy[j] = Arrays.copyOf(emptiedBy[j], 2 * emptied[j]);
+          emptiedRank[j] = Arrays.copyOf(emptiedRank[j], 2 * emptied[j]);
+        }
+        emptiedBy[j][emptied[j]] = r;
+        emptiedRank[j][emptied[j]] = womenRanks.rank(j, i);
+        emptied[j]++;
+      }
+    }
+  }
+
+  // Return the marriage matrix once the given closed set of rotations is eliminated.
+  private SparseMatching eliminate (boolean[] closed) {
+    // The moves of every men group.
+    int[] manStart = new int[m + 1];
+    for (int e = 0; e < moves; e++) {
+      manStart[moveMen[e] + 1]++;
+    }
+    for (int i = 0; i < m; i++) {
+      manStart[i + 1] += manStart[i];
+    }
+    int[] manMoves = new int[moves];
+    int[] position = Arrays.copyOf(manStart, m);
+    int[] moveRotation = new int[moves];
+    for (int r = 0; r < rotations; r++) {
+      for (int e = rotationStart[r]; e < rotationStart[r + 1]; e++) {
+        moveRotation[e] = r;
+        manMoves[position[moveMen[e]]++] = e;
+      }
+    }
+    int[] row = new int[w];
+    int[] rowStart = new int[m + 1];
+    int[] womenGroup = new int[Math.max(menOptimal.size(), 16)];
+    int[] counts = new int[womenGroup.length];
+    int size = 0;
+    for (int i = 0; i < m; i++) {
+      for (int e = menOptimal.rowStart(i); e < menOptimal.rowEnd(i); e++) {
+        row[menOptimal.womenGroup(e)] += menOptimal.count(e);
+      }
+      for (int q = manStart[i]; q < manStart[i + 1]; q++) {
+        int e = manMoves[q];
+        if (closed[moveRotation[e]]) {
+          row[moveFrom[e]] -= amount[moveRotation[e]];
+          row[moveTo[e]] += amount[moveRotation[e]];
+        }
+      }
+      for (int k = 0; k < w; k++) {
+        int j = menPrefs.get(i, k);
+        if (row[j] != 0) {
+          if (size == womenGroup.length) {
+            womenGroup = Arrays.copyOf(womenGroup, 2 * size);
+            counts = Arrays.copyOf(counts, 2 * size);
+          }
+          womenGroup[size] = j;
+          counts[size++] = row[j];
+          row[j] = 0;
+        }
+      }
+      rowStart[i + 1] = size;
+    }
+    return new SparseMatching(w, rowStart, Arrays.copyOf(womenGroup, size), Arrays.copyOf(counts, size));
+  }
+
+  // The smallest closed set of rotations of maximum weight, the weight of a rotation being the
+  // decrease of the cost when it is eliminated, found as the source side of a minimum cut.
+  private boolean[] maximumWeightClosure () {
+    long[] weight = new long[rotations];
+    for (int r = 0; r < rotations; r++) {
+      for (int e = rotationStart[r]; e < rotationStart[r + 1]; e++) {
+        weight[r] += coupleCost(moveMen[e], moveFrom[e]) - coupleCost(moveMen[e], moveTo[e]);
+      }
+      weight[r] *= amount[r];
+    }
+    int source = rotations;
+    int sink = rotations + 1;
+    FlowNetwork network = new FlowNetwork(rotations + 2);
+    long infinite = 1;
+    for (int r = 0; r < rotations; r++) {
+      if (weight[r] > 0) {
+        network.addEdge(source, r, weight[r]);
+        infinite += weight[r];
+      }
+      else if (weight[r] < 0) {
+        network.addEdge(r, sink, -weight[r]);
+      }
+    }
+    for (int r = 0; r < rotations; r++) {
+      for (int k = predecessorStart[r]; k < predecessorStart[r + 1]; k++) {
+        network.addEdge(r, predecessors[k], infinite);
+      }
+    }
+    network.maxFlow(source, sink);
+    return Arrays.copyOf(network.sourceSide(source), rotations);
+  }
+
+  /*
+    The smallest closed set of rotations whose matching has a regret at most bound, null if
+    there is none. A women group only gets better partners and a men group worse ones: the
+    set must hold the rotation emptying the last cell of every women group beyond the bound,
+    with its predecessors, and no rotation moving men to a women group beyond the bound.
+    */
+  private boolean[] regretClosure (int bound) {
+    boolean[] closed = new boolean[rotations];
+    int[] queue = new int[rotations];
+    int size = 0;
+    for (int i = 0; i < m; i++) {
+      for (int e = menOptimal.rowStart(i); e < menOptimal.rowEnd(i); e++) {
+        if (menRanks.rank(i, menOptimal.womenGroup(e)) > bound) {
+          return null;
+        }
+      }
+    }
+    for (int i = 0; i < m; i++) {
+      for (int e = womenOptimal.rowStart(i); e < womenOptimal.rowEnd(i); e++) {
+        int j = womenOptimal.womenGroup(e);
+        if (womenRanks.rank(j, i) > bound) {
+          return null;
+        }
+      }
+    }
+    for (int j = 0; j < w; j++) {
+      int required = crossing(j, bound);
+      if (required >= 0 && !closed[required]) {
+        closed[required] = true;
+        queue[size++] = required;
+      }
+    }
+    for (int k = 0; k < size; k++) {
+      int r = queue[k];
+      for (int e = predecessorStart[r]; e < predecessorStart[r + 1]; e++) {
+        if (!closed[predecessors[e]]) {
+          closed[predecessors[e]] = true;
+          queue[size++] = predecessors[e];
+        }
+      }
+    }
+    for (int r = 0; r < rotations; r++) {
+      if (closed[r]) {
+        for (int e = rotationStart[r]; e < rotationStart[r + 1]; e++) {
+          if (menRanks.rank(moveMen[e], moveTo[e]) > bound) {
+            return null;
+          }
+        }
+      }
+    }
+    return closed;
+  }
+
+  // A flow network for the minimum cuts, solved with Dinic's algorithm.
+  private static final class FlowNetwork {
+    private final int nodes;
+    private int[] head;
+    private int[] target = new int[16];
+    private int[] nextEdge = new int[16];
+    private long[] capacity = new long[16];
+    private int edges;
+
+    FlowNetwork (int nodes) {
+      this.nodes = nodes;
+      head = new int[nodes];
+      Arrays.fill(head, -1);
+    }
+
+    // Add an edge and its residual edge, numbered e and e ^ 1.
+    void addEdge (int from, int to, long c) {
+      if (edges + 2 > target.length) {
+        target = Arrays.copyOf(target, 2 * target.length);
+        nextEdge = Arrays.copyOf(nextEdge, 2 * nextEdge.length);
+        capacity = Arrays.copyOf(capacity, 2 * capacity.length);
+      }
+      target[edges] = to;
+      capacity[edges] = c;
+      nextEdge[edges] = head[from];
+      head[from] = edges++;
+      target[edges] = from;
+      capacity[edges] = 0;
+      nextEdge[edges] = head[to];
+      head[to] = edges++;
+    }
+
+    long maxFlow (int source, int sink) {
+      long flow = 0;
+      int[] level = new int[nodes];
+      int[] current = new int[nodes];
+      int[] path = new int[nodes];
+      while (levels(source, sink, level)) {
+        System.arraycopy(head, 0, current, 0, nodes);
+        // Find the blocking flow with an explicit stack of edges from the source.
+        int length = 0;
+        int u = source;
+        while (true) {
+          if (u == sink) {
+            long push = Long.MAX_VALUE;
+            for (int k = 0; k < length; k++) {
+              push = Math.min(push, capacity[path[k]]);
+            }
+            for (int k = 0; k < length; k++) {
+              capacity[path[k]] -= push;
+              capacity[path[k] ^ 1] += push;
+            }
+            flow += push;
+            length = 0;
+            u = source;
+            continue;
+          }
+          int e = current[u];
+          while (e >= 0 && (capacity[e] == 0 || level[target[e]] != level[u] + 1)) {
+            e = nextEdge[e];
+          }
+          current[u] = e;
+          if (e >= 0) {
+            path[length++] = e;
+            u = target[e];
+          }
+          else {
+            if (u == source) {
+              break;
+            }
+            // A dead end: no augmenting path goes through u any more.
+            level[u] = -1;
+            e = path[--length];
+            u = target[e ^ 1];
+            current[u] = nextEdge[current[u]];
+          }
+        }
+      }
+      return flow;
+    }
+
+    private boolean levels (int source, int sink, int[] level) {
+      Arrays.fill(level, -1);
+      int[] queue = new int[nodes];
+      int size = 0;
+      queue[size++] = source;
+      level[source] = 0;
+      for (int k = 0; k < size; k++) {
+        int u = queue[k];
+        for (int e = head[u]; e >= 0; e = nextEdge[e]) {
+          if (capacity[e] > 0 && level[target[e]] < 0) {
+            level[target[e]] = level[u] + 1;
+            queue[size++] = target[e];
+          }
+        }
+      }
+      return level[sink] >= 0;
+    }
+
+    // The nodes reachable from the source in the residual network.
+    boolean[] sourceSide (int source) {
+      boolean[] reached = new boolean[nodes];
+      int[] queue = new int[nodes];
+      int size = 0;
+      queue[size++] = source;
+      reached[source] = true;
+      for (int k = 0; k < size; k++) {
+        int u = queue[k];
+        for (int e = head[u]; e >= 0; e = nextEdge[e]) {
+          if (capacity[e] > 0 && !reached[target[e]]) {
+            reached[target[e]] = true;
+            queue[size++] = target[e];
+          }
+        }
+      }
+      return reached;
+    }
+  }
+}
@@ -0,0 +1,249 @@
+// A test of StableMatchingLattice against brute force: on small instances,
+// all the stable marriage matrices are enumerated, and the men-optimal,
+// women-optimal, egalitarian and minimum-regret matrices of the lattice must
+// be among them, with the best cost, the best regret, and the best ranks for
+// the men and for the women respectively.
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class StableMatchingLatticeTest {
+
+    // The number of random instances, the largest number of groups of men or
+    // women, and the largest number of men, so that the marriage matrices
+    // can all be enumerated.
+
+    public final static int INSTANCES = 3000;
+
+    public final static int MAX_GROUPS = 4;
+
+    public final static int MAX_PEOPLE = 10;
+
+    // This is the output stream of the tests.
+
+    private PrintStream out;
+
+    private Random random;
+
+    private StableMatchingTest generator;
+
+    private int failures, successes;
+
+    StableMatchingLatticeTest (PrintStream out, long seed)
+    {
+        this.out = out;
+        this.random = new Random(seed);
+        this.generator = new StableMatchingTest(null, out, random);
+    }
+
+    // n people in g groups of at least one.
+
+    int[] randomCounts (int n, int g)
+    {
+        int[] counts = generator.unit(g);
+        for (int k = g; k < n; k++)
+            counts[random.nextInt(g)]++;
+        return counts;
+    }
+
+    // The position of every group in every list.
+
+    static int[][] ranks (int[][] prefs, int columns)
+    {
+        int[][] res = new int[prefs.length][columns];
+        for (int r = 0; r < prefs.length; r++)
+            for (int k = 0; k < columns; k++)
+                res[r][prefs[r][k]] = k;
+        return res;
+    }
+
+    // Whether the matrix is stable: no men group i and women group j such
+    // that i has men married to a group it likes less than j, and j has women
+    // married to a group it likes less than i.
+
+    static boolean isStable (int[][] mar, int[][] menRanks, int[][] womenRanks)
+    {
+        int m = mar.length;
+        int w = menRanks[0].length;
+        int[] worstWife = new int[m];
+        int[] worstHusband = new int[w];
+        Arrays.fill(worstWife, -1);
+        Arrays.fill(worstHusband, -1);
+        for (int i = 0; i < m; i++)
+            for (int j = 0; j < w; j++)
+                if (mar[i][j] > 0) {
+                    worstWife[i] = Math.max(worstWife[i], menRanks[i][j]);
+                    worstHusband[j] = Math.max(worstHusband[j], womenRanks[j][i]);
+                }
+        for (int i = 0; i < m; i++)
+            for (int j = 0; j < w; j++)
+                if (menRanks[i][j] < worstWife[i] && womenRanks[j][i] < worstHusband[j])
+                    return false;
+        return true;
+    }
+
+    // All the stable matrices with the given row and column sums, filled
+    // cell by cell in row-major order.
+
+    static void enumerate (int[][] mar, int cell, int[] rows, int[] columns,
+                           int[][] menRanks, int[][] womenRanks, List<int[][]> stable)
+    {
+        int m = rows.length;
+        int w = columns.length;
+        if (cell == m * w) {
+            if (isStable(mar, menRanks, womenRanks))
+                stable.add(StableMatchingTest.deepCopy2D(mar));
+            return;
+        }
+        int i = cell / w;
+        int j = cell % w;
+        for (int c = 0; c <= Math.min(rows[i], columns[j]); c++) {
+            // The last cell of a row or a column takes what is left.
+            if ((j == w - 1 && c != rows[i]) || (i == m - 1 && c != columns[j]))
+                continue;
+            mar[i][j] = c;
+            rows[i] -= c;
+            columns[j] -= c;
+            enumerate(mar, cell + 1, rows, columns, menRanks, womenRanks, stable);
+            rows[i] += c;
+            columns[j] += c;
+        }
+        mar[i][j] = 0;
+    }
+
+    static long cost (int[][] mar, int[][] menRanks, int[][] womenRanks)
+    {
+        long total = 0;
+        for (int i = 0; i < mar.length; i++)
+            for (int j = 0; j < mar[i].length; j++)
+                total += (long) mar[i][j] * (menRanks[i][j] + womenRanks[j][i]);
+        return total;
+    }
+
+    static int regret (int[][] mar, int[][] menRanks, int[][] womenRanks)
+    {
+        int worst = 0;
+        for (int i = 0; i < mar.length; i++)
+            for (int j = 0; j < mar[i].length; j++)
+                if (mar[i][j] > 0)
+                    worst = Math.max(worst, Math.max(menRanks[i][j], womenRanks[j][i]));
+        return worst;
+    }
+
+    // The number of people of the group r married to one of its first k
+    // groups, for every k, a row of mar or a column when transposed.
+
+    static int[] married (int[][] mar, int r, int[] prefs, boolean transposed)
+    {
+        int[] res = new int[prefs.length];
+        int total = 0;
+        for (int k = 0; k < prefs.length; k++) {
+            total += transposed ? mar[prefs[k]][r] : mar[r][prefs[k]];
+            res[k] = total;
+        }
+        return res;
+    }
+
+    // Whether every group of men, or of women when transposed, has at least
+    // as many people married to its first k groups in best as in any other
+    // stable matrix, for every k.
+
+    static boolean isOptimal (int[][] best, List<int[][]> stable, int[][] prefs, boolean transposed)
+    {
+        for (int[][] other : stable)
+            for (int r = 0; r < prefs.length; r++) {
+                int[] a = married(best, r, prefs[r], transposed);
+                int[] b = married(other, r, prefs[r], transposed);
+                for (int k = 0; k < a.length; k++)
+                    if (a[k] < b[k])
+                        return false;
+            }
+        return true;
+    }
+
+    static boolean contains (List<int[][]> stable, int[][] mar)
+    {
+        for (int[][] other : stable)
+            if (Arrays.deepEquals(other, mar))
+                return true;
+        return false;
+    }
+
+    void check (boolean ok, String what, int[] mc, int[] wc, int[][] mp, int[][] wp)
+    {
+        if (ok) {
+            successes++;
+        }
+        else {
+            failures++;
+            out.printf("FAILURE: %s\n", what);
+            out.printf("men: %s, women: %s\n", Arrays.toString(mc), Arrays.toString(wc));
+            out.printf("men prefs: %s\nwomen prefs: %s\n", Arrays.deepToString(mp), Arrays.deepToString(wp));
+        }
+    }
+
+    void checkInstance (int[] mc, int[] wc, int[][] mp, int[][] wp)
+    {
+        int m = mc.length;
+        int w = wc.length;
+        int[][] menRanks = ranks(mp, w);
+        int[][] womenRanks = ranks(wp, m);
+        List<int[][]> stable = new ArrayList<int[][]>();
+        enumerate(new int[m][w], 0, mc.clone(), wc.clone(), menRanks, womenRanks, stable);
+        long bestCost = Long.MAX_VALUE;
+        int bestRegret = Integer.MAX_VALUE;
+        for (int[][] mar : stable) {
+            bestCost = Math.min(bestCost, cost(mar, menRanks, womenRanks));
+            bestRegret = Math.min(bestRegret, regret(mar, menRanks, womenRanks));
+        }
+
+        StableMatchingLattice lattice = new StableMatchingLattice(mc, wc, mp, wp);
+        int[][] menOptimal = lattice.menOptimal().toArray();
+        int[][] womenOptimal = lattice.womenOptimal().toArray();
+        int[][] egalitarian = lattice.egalitarian().toArray();
+        int[][] minimumRegret = lattice.minimumRegret().toArray();
+        check(contains(stable, menOptimal) && isOptimal(menOptimal, stable, mp, false),
+              "the men-optimal matrix is not the best stable one for the men", mc, wc, mp, wp);
+        check(contains(stable, womenOptimal) && isOptimal(womenOptimal, stable, wp, true),
+              "the women-optimal matrix is not the best stable one for the women", mc, wc, mp, wp);
+        check(contains(stable, egalitarian) && cost(egalitarian, menRanks, womenRanks) == bestCost,
+              "the egalitarian matrix is not a stable one of cost " + bestCost, mc, wc, mp, wp);
+        check(contains(stable, minimumRegret) && regret(minimumRegret, menRanks, womenRanks) == bestRegret,
+              "the minimum-regret matrix is not a stable one of regret " + bestRegret, mc, wc, mp, wp);
+        check(lattice.rotations() <= m * w && (lattice.rotations() == 0) == (stable.size() == 1),
+              lattice.rotations() + " rotations for " + stable.size() + " stable matrices", mc, wc, mp, wp);
+    }
+
+    public boolean test ()
+    {
+        out.println("Starting lattice tests...\n");
+
+        for (int t = 0; t < INSTANCES; t++) {
+            int m = 1 + random.nextInt(MAX_GROUPS);
+            int w = 1 + random.nextInt(MAX_GROUPS);
+            int n = Math.max(m, w) + random.nextInt(MAX_PEOPLE - Math.max(m, w) + 1);
+            int[] mc = randomCounts(n, m);
+            int[] wc = randomCounts(n, w);
+            // Random lists, or a master list on one side.
+            int[][] mp = t % 4 == 1 ? generator.uniformPrefs(m, generator.randomPermutation(w)) : generator.randomPrefs(m, w);
+            int[][] wp = t % 4 == 2 ? generator.uniformPrefs(w, generator.randomPermutation(m)) : generator.randomPrefs(w, m);
+            checkInstance(mc, wc, mp, wp);
+        }
+
+        out.println();
+        out.printf("Done lattice tests. In total, %d success(es) and %d failure(s).\n", successes, failures);
+        return failures == 0;
+    }
+
+    // Usage: java StableMatchingLatticeTest
+    // The exit status is 1 when a check fails.
+
+    public static void main (String[] args)
+    {
+        boolean ok = new StableMatchingLatticeTest(System.out, 0L).test();
+        System.exit(ok ? 0 : 1);
+    }
+}
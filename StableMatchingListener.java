@@ -0,0 +1,15 @@
+/*
+  A listener notified by StableMatching of every call to constructStableMatching.
+
+  A solver without listener, the default, does not measure anything: the counters
+  of the proposal loop are plain local variables, and the clock is never read.
+  */
+public interface StableMatchingListener {
+
+  // Called before solving an instance with m groups of men and w groups of women.
+  default void solveStarted (int m, int w) {
+  }
+
+  // Called after solving the instance, with the statistics of the run.
+  void solveFinished (SolveStats stats);
+}
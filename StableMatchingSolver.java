@@ -0,0 +1,81 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/*
+  A solver for batches of instances, reusing its working memory.
+
+  Every thread solving with this object has its own SolverWorkspace, which only grows,
+  so that once the workspaces are large enough for the instances, a solve allocates
+  nothing but its result. solveAll spreads a batch of instances over the threads of a
+  ForkJoinPool. This object can be shared by any number of threads.
+  */
+public class StableMatchingSolver {
+
+  private final StableMatching solver;
+
+  private final ForkJoinPool pool;
+
+  // The workspace of every thread using this solver.
+  private final ThreadLocal<SolverWorkspace> workspaces = ThreadLocal.withInitial(SolverWorkspace::new);
+
+  public StableMatchingSolver () {
+    this(ForkJoinPool.commonPool(), null);
+  }
+
+  public StableMatchingSolver (ForkJoinPool pool, StableMatchingListener listener) {
+    this.solver = new StableMatching(listener);
+    this.pool = pool;
+  }
+
+  // Solve one instance with the workspace of the current thread.
+  public SparseMatching solve (Instance instance) {
+    return solver.solve(workspaces.get(), instance.menGroupCount, instance.womenGroupCount,
+        instance.menPrefs(), instance.womenPrefs());
+  }
+
+  // The same, stopping with a SolveCancelledException when the deadline expires.
+  public SparseMatching solve (Instance instance, Deadline deadline) {
+    return solver.solve(workspaces.get(), instance.menGroupCount, instance.womenGroupCount,
+        instance.menPrefs(), instance.womenPrefs(), deadline);
+  }
+
+  // Solve a batch of instances in parallel, the k-th matching being the one of the k-th instance.
+  public List<SparseMatching> solveAll (List<Instance> instances) {
+    SparseMatching[] results = new SparseMatching[instances.size()];
+    pool.invoke(new BatchTask(instances, results, 0, results.length));
+    return Arrays.asList(results);
+  }
+
+  // The task solving the instances in [from, to).
+  private final class BatchTask extends RecursiveAction {
+    final List<Instance> instances;
+    final SparseMatching[] results;
+    final int from;
+    final int to;
+
+    BatchTask (List<Instance> instances, SparseMatching[] results, int from, int to) {
+      this.instances = instances;
+      this.results = results;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute () {
+      if (to - from == 1) {
+        results[from] = solve(instances.get(from));
+        return;
+      }
+      if (to - from > 1) {
+        int middle = (from + to) >>> 1;
+        ForkJoinTask.invokeAll(
+          new BatchTask(instances, results, from, middle),
+          new BatchTask(instances, results, middle, to)
+        );
+      }
+    }
+  }
+}
@@ -4,8 +4,15 @@
 // Modified by Adrian Kosowski for the grouped variant.
 
 import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
 import java.util.Random;
 import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class StableMatchingTest {
 
@@ -14,6 +21,17 @@ public class StableMatchingTest {
 
     private StableMatchingInterface box;
 
+    // Whether the box overrides one of the methods reading an Instance or a
+    // PreferenceMatrix. Otherwise, the defaults of StableMatchingInterface would
+    // copy the preferences while the box is timed, so the harness copies them
+    // itself, before starting the clock, and calls the int[][] method.
+
+    private final boolean readsInstances;
+
+    // This is the verifier of the results of the box.
+
+    private StabilityVerifier verifier = new StabilityVerifier();
+
     // Up to a certain size, known as SMALL, we try every value of n. This is
     // cheap and allows giving the box a hard time.
 
@@ -46,13 +64,11 @@ public class StableMatchingTest {
 
     public final static boolean STOP = false;
 
-    // These fields are used to hold the result produced by the matching
-    // algorithm. One might think that they should be local variables of the
-    // method "run(n,menPrefs,womenPrefs)" below, but can't be, because they
-    // are mutated in an inner class.
+    // The executor running the box, on a single daemon thread. When the box
+    // does not stop after a timeout, its thread is abandoned with the executor,
+    // and a new one is created for the next run.
 
-    private int[][] mar;
-    private Throwable exception;
+    private ExecutorService executor = newExecutor();
 
     // This is the output stream that is used for logging.
 
@@ -62,6 +78,29 @@ public class StableMatchingTest {
 
     private int failures, successes;
 
+    // The stream of the timing records, one CSV line per run (see RECORD_HEADER),
+    // null when no records are wanted. The records are read by TimingComparison.
+
+    PrintStream records;
+
+    public final static String RECORD_HEADER = "family,n,m,w,nanos,allocated_bytes,gc_ms,outcome";
+
+    // The names of the instance families in the records: the non-random
+    // instances of fixedPrefs, then the random ones. A run of another
+    // instance is recorded as CUSTOM.
+
+    final static String[] FAMILIES = { "UNIFORM_IDENTITY", "UNIFORM_REVERSE", "MIXED_WOMEN", "MIXED_MEN", "RANDOM" };
+
+    // The thread MXBean, used to measure the bytes allocated by the box.
+
+    private final static com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // Whether to collect garbage before the runs at large sizes. The parallel
+    // runner turns it off, as concurrent runs would collect for each other.
+
+    boolean collectBeforeRun = true;
+
     // A pseudo-random number generator.
 
     private Random random;
@@ -74,18 +113,33 @@ public class StableMatchingTest {
         this.out = out;
         failures = successes = 0;
         this.random = random;
+        readsInstances = box != null && readsInstances(box);
     }
 
-    // This method assumes that its argument is a permutation of [0,n), and
-    // returns the inverse permutation.
+    // Whether the class of the box declares one of these methods, or inherits it
+    // from another class than the interface.
 
-    int[] inversePermutation (int[] p)
+    static boolean readsInstances (StableMatchingInterface box)
     {
-        int n = p.length;
-        int[] inverse = new int [n];
-        for (int i = 0; i < n; i++)
-            inverse[p[i]] = i;
-        return inverse;
+        try {
+            Class<?> c = box.getClass();
+            return c.getMethod("constructStableMatching", Instance.class, Deadline.class).getDeclaringClass() != StableMatchingInterface.class
+                || c.getMethod("constructStableMatching", Instance.class).getDeclaringClass() != StableMatchingInterface.class
+                || c.getMethod("constructStableMatching", int[].class, int[].class, PreferenceMatrix.class, PreferenceMatrix.class)
+                    .getDeclaringClass() != StableMatchingInterface.class;
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // A copy of a matrix, for a box only reading arrays.
+
+    static int[][] deepCopy2D (int[][] a)
+    {
+        int[][] copy = new int[a.length][];
+        for (int i = 0; i < a.length; i++)
+            copy[i] = Arrays.copyOf(a[i], a[i].length);
+        return copy;
     }
 
     // This method prints a preference matrix.
@@ -120,18 +174,36 @@ public class StableMatchingTest {
     {
         out.println("The result of this test run was:");
         out.println("marriages =");
-        out.println(Arrays.toString(mar));
+        out.println(Arrays.deepToString(mar));
     }
 
-    int[][] deepCopy2D (int[][] arg)
+    static ExecutorService newExecutor ()
     {
-        int[][] copy = new int[arg.length][];
-        for (int i=0; i<arg.length; i++)
-          copy[i] = Arrays.copyOf(arg[i], arg[i].length);
-        return copy;
+        return Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "StableMatchingTest box");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
 
+    int failures ()
+    {
+        return failures;
+    }
+
+    int successes ()
+    {
+        return successes;
+    }
+
+    // Stop the thread running the box, once all runs are done.
+
+    void close ()
+    {
+        executor.shutdownNow();
+    }
+
     // This method records a failure.
 
     void fail ()
@@ -147,6 +219,14 @@ public class StableMatchingTest {
 
     void run (final int[] menGroupCount, final int[] womenGroupCount,
             final int[][] menPrefs, final int[][] womenPrefs)
+    {
+        run("CUSTOM", menGroupCount, womenGroupCount, menPrefs, womenPrefs);
+    }
+
+    // The same, the instance being of the given family in the records.
+
+    void run (String family, final int[] menGroupCount, final int[] womenGroupCount,
+            final int[][] menPrefs, final int[][] womenPrefs)
     {
         // Log the parameters of this test case.
         int n = 0;
@@ -166,63 +246,83 @@ public class StableMatchingTest {
         // (Do this only at large sizes, as it is slow. We do not measure
         // performance at small sizes.)
 
-        if (n >= SMALL)
+        if (n >= SMALL && collectBeforeRun)
             System.gc();
 
-        // Run the student's method in a separate thread, so we can terminate it
-        // if it does not finish in a reasonable time.
-
-        mar = null;
-        exception = null;
-
-        Thread thread = new Thread () {
-
-            public void run () {
-
-                int[] mgc =  Arrays.copyOf(menGroupCount, menGroupCount.length);
-                int[] wgc =  Arrays.copyOf(womenGroupCount, womenGroupCount.length);
-                int[][] mp = deepCopy2D(menPrefs);
-                int[][] wp = deepCopy2D(womenPrefs);
-
-                long startTime = System.currentTimeMillis();
-                try {
-                    mar = box.constructStableMatching(mgc, wgc, mp, wp);
-                } catch (Throwable e) {
-                    // This is either an exception thrown by the student's code, or
-                    // ThreadDeath, caused by a call to thread.stop() below.
-                    // We record the exception and terminate.
-                    exception = e;
-                }
-                if (exception == null) {
-                    long endTime = System.currentTimeMillis();
-                    long duration = endTime - startTime;
-                    out.printf("Elapsed time: %d milliseconds\n", duration);
-                }
-
+        // Run the student's method in a separate thread, with a deadline, so we
+        // can stop it if it does not finish in a reasonable time.
+
+        // The box is given an Instance, whose preferences are read-only views of
+        // the matrices of the harness: it cannot change them, so they need not be
+        // copied. A box only reading arrays is given copies, made before it is
+        // timed, as it may change them.
+
+        // The thread of the box also measures its duration in nanoseconds, the
+        // bytes it allocates and the time spent in garbage collection, for the
+        // records.
+
+        final Instance instance = new Instance(menGroupCount, womenGroupCount, menPrefs, womenPrefs);
+        final Deadline deadline = Deadline.after(TIMEOUT);
+        final long[] measures = new long[3];
+        Future<int[][]> future = executor.submit(() -> {
+
+            int[] mgc = null, wgc = null;
+            int[][] mp = null, wp = null;
+            if (!readsInstances) {
+                mgc = Arrays.copyOf(menGroupCount, menGroupCount.length);
+                wgc = Arrays.copyOf(womenGroupCount, womenGroupCount.length);
+                mp = deepCopy2D(menPrefs);
+                wp = deepCopy2D(womenPrefs);
             }
-
-        };
-
-        // Start the student's thread, and wait for it to terminate.
-
-        thread.start();
+            long thread = Thread.currentThread().getId();
+            long bytes = threads.getThreadAllocatedBytes(thread);
+            long gc = StableMatchingBenchmark.gcMillis();
+            long startNanos = System.nanoTime();
+            long startTime = System.currentTimeMillis();
+            int[][] result = readsInstances
+                ? box.constructStableMatching(instance, deadline)
+                : box.constructStableMatching(mgc, wgc, mp, wp);
+            long endTime = System.currentTimeMillis();
+            measures[0] = System.nanoTime() - startNanos;
+            measures[1] = threads.getThreadAllocatedBytes(thread) - bytes;
+            measures[2] = StableMatchingBenchmark.gcMillis() - gc;
+            long duration = endTime - startTime;
+            out.printf("Elapsed time: %d milliseconds\n", duration);
+            return result;
+
+        });
+
+        // Wait for the student's code to terminate. An exception thrown by the
+        // student's code is recorded, except a SolveCancelledException, which
+        // means that the deadline expired.
+
+        int[][] mar = null;
+        Throwable exception = null;
+        boolean timeout = false;
         try {
-            thread.join(TIMEOUT);
+            mar = future.get(TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            timeout = true;
+        } catch (ExecutionException e) {
+            exception = e.getCause();
+            timeout = exception instanceof SolveCancelledException;
         } catch (InterruptedException e) {
             // In principle, we cannot be interrupted, unless the student does
             // very weird things.
             assert (false);
         }
-        // If the thread is still alive, kill it and declare a timeout.
-        // In principle, the thread could terminate normally after isAlive() returns
-        // true and before we kill it. This does not seem to be a problem -- the
-        // outcome is still considered a timeout.
-        if (thread.isAlive()) {
-            thread.stop();
+        // If the deadline expired, cancel the run and declare a timeout. A box
+        // ignoring the deadline keeps running on the abandoned thread.
+        if (timeout) {
+            deadline.cancel();
+            future.cancel(true);
+            executor.shutdownNow();
+            executor = newExecutor();
             out.println("FAILURE: TIMEOUT!");
             out.printf("Your code did not terminate within %d milliseconds.\n", TIMEOUT);
             if (n < SMALL)
                 printParameters(n, menGroupCount, womenGroupCount, menPrefs, womenPrefs);
+            record(family, n, menGroupCount.length, womenGroupCount.length, null, "TIMEOUT");
             fail();
             return;
         }
@@ -235,144 +335,88 @@ public class StableMatchingTest {
             out.println("Your code unexpectedly throws an exception:");
             out.println(exception);
             printParameters(n, menGroupCount, womenGroupCount, menPrefs, womenPrefs);
+            record(family, n, menGroupCount.length, womenGroupCount.length, null, "EXCEPTION");
             fail();
             return;
         }
 
-        // The thread did not throw an exception.
+        // The thread did not throw an exception. Check its result.
+
+        StabilityReport report = verifier.verify(menGroupCount, womenGroupCount, menPrefs, womenPrefs, mar);
 
-        if (mar == null) {
+        switch (report.kind) {
+        case STABLE:
+            break;
+        case NULL_RESULT:
             out.println("FAILURE: NULL RESULT!");
             out.println("Your code returns a null array.");
-            printParameters(n, menGroupCount, womenGroupCount, menPrefs, womenPrefs);
-            printResult(null);
-            fail();
-            return;
+            break;
+        case WRONG_ROW_COUNT:
+            out.println("FAILURE: INVALID 1st DIMENSION OF RESULT!");
+            out.printf("Your code returns an array of length %d,\nwhereas an array of length %d was expected.\n",
+                    report.value, report.expected);
+            break;
+        case WRONG_ROW_LENGTH:
+            out.println("FAILURE: INVALID 2nd DIMENSION OF RESULT!");
+            out.printf("Your code returns an array of length %d in row %d,\nwhereas an array of length %d was expected.\n",
+                    report.value, report.menGroup, report.expected);
+            break;
+        case INVALID_ENTRY:
+            out.println("FAILURE: INVALID ENTRY IN RESULT!");
+            out.printf("Your code returns %d marriages between group of men %d and group of women %d,\n value in range [0,%d] expected.",
+                    report.value, report.menGroup, report.womenGroup, report.expected);
+            break;
+        case TOO_MANY_MARRIED:
+            out.println("FAILURE: TOO MANY PEOPLE ARE MARRIED!");
+            out.printf("Your code returns >= %d people married, but there are only %d.\n",
+                    report.value, report.expected);
+            break;
+        case WRONG_MEN_COUNT:
+            out.println("FAILURE: WRONG NUMBER OF MEN MARRIED!");
+            out.printf("Your code returns %d men married in group %d, but there are %d in this group.\n",
+                    report.value, report.menGroup, report.expected);
+            break;
+        case WRONG_WOMEN_COUNT:
+            out.println("FAILURE: WRONG NUMBER OF WOMEN MARRIED!");
+            out.printf("Your code returns %d women married in group %d, but there are %d in this group.\n",
+                    report.value, report.womenGroup, report.expected);
+            break;
+        case UNSTABLE:
+            out.println("FAILURE: NOT A STABLE MATCHING!");
+            out.printf("The pair formed by a man from group %d and a woman from group %d is unstable.\n",
+                    report.menGroup, report.womenGroup);
+            out.printf("Indeed, the man from group %d prefers the woman from group %d to his bride from group %d\n",
+                    report.menGroup, report.womenGroup, report.worstWife);
+            out.printf("and a woman from group %d prefers the woman from group %d to her groom from group %d.\n",
+                    report.menGroup, report.womenGroup, report.worstHusband);
+            break;
         }
 
-        int m = menGroupCount.length;
-        int w = womenGroupCount.length;
+        record(family, n, menGroupCount.length, womenGroupCount.length, measures, report.kind.name());
 
-        if (mar.length != m)  {
-            out.println("FAILURE: INVALID 1st DIMENSION OF RESULT!");
-            out.printf("Your code returns an array of length %d,\nwhereas an array of length %d was expected.\n",
-                    mar.length, m);
+        if (!report.isStable()) {
             printParameters(n, menGroupCount, womenGroupCount, menPrefs, womenPrefs);
             printResult(mar);
             fail();
             return;
         }
 
-
-        int sumMar = 0;
-        int[] sumMarMen = new int[m];
-        int[] sumMarWomen = new int[w];
-        for (int i=0; i<m; i++) {
-            if (mar[i].length != w)  {
-                out.println("FAILURE: INVALID 2nd DIMENSION OF RESULT!");
-                out.printf("Your code returns an array of length %d in row %d,\nwhereas an array of length %d was expected.\n",
-                        mar[i].length, i, w);
-                printParameters(n, menGroupCount, womenGroupCount, menPrefs, womenPrefs);
-                printResult(mar);
-                fail();
-                return;
-            }
-            for (int j=0; j<w; j++) {
-                if (mar[i][j] < 0 || mar[i][j] > n) {
-                    out.println("FAILURE: INVALID ENTRY IN RESULT!");
-                    out.printf("Your code returns %d marriages between group of men %d and group of women %d,\n value in range [0,%d] expected.",
-                            mar[i][j], i, j, n);
-                    printParameters(n, menGroupCount, womenGroupCount, menPrefs, womenPrefs);
-                    printResult(mar);
-                    fail();
-                    return;
-                }
-                sumMar += mar[i][j];
-                sumMarMen[i] += mar[i][j];
-                sumMarWomen[j] += mar[i][j];
-                if (sumMar > n){ // No integer overflows, thank you.  Check reliable for n < MAX_INT / 2.
-                    out.println("FAILURE: TOO MANY PEOPLE ARE MARRIED!");
-                    out.printf("Your code returns >= %d people married, but there are only %d.\n",
-                            sumMar, n);
-                    printParameters(n, menGroupCount, womenGroupCount, menPrefs, womenPrefs);
-                    printResult(mar);
-                    fail();
-                    return;
-                }
-            }
-        }
-
-        // Check if correct number of men and women are married in each group (matching condition)
-        for (int i=0; i<m; i++)
-            if (sumMarMen[i] != menGroupCount[i]){
-                out.println("FAILURE: WRONG NUMBER OF MEN MARRIED!");
-                out.printf("Your code returns %d men married in group %d, but there are %d in this group.\n",
-                        sumMarMen[i], i, menGroupCount[i]);
-                printParameters(n, menGroupCount, womenGroupCount, menPrefs, womenPrefs);
-                printResult(mar);
-                fail();
-                return;
-            }
-
-        for (int j=0; j<w; j++)
-            if (sumMarWomen[j] != womenGroupCount[j]){
-                out.println("FAILURE: WRONG NUMBER OF WOMEN MARRIED!");
-                out.printf("Your code returns %d women married in group %d, but there are %d in this group.\n",
-                        sumMarWomen[j], j, womenGroupCount[j]);
-                printParameters(n, menGroupCount, womenGroupCount, menPrefs, womenPrefs);
-                printResult(mar);
-                fail();
-                return;
-            }
-
-        // Now, check matching for stability.
-
-        int[][] revMenPrefs = new int[m][];
-        for (int i = 0; i < m; i++)
-            revMenPrefs[i] = inversePermutation(menPrefs[i]);
-        int[][] revWomenPrefs = new int[w][];
-        for (int j = 0; j < w; j++)
-            revWomenPrefs[j] = inversePermutation(womenPrefs[j]);
-
-        // Find least preferred wife (menPrefs[i][worstWifeIndex[i]]) for a man from every group i
-        int[] worstWifeIndex = new int[m];
-        for (int i=0; i<m; i++)
-            for (int jx=w-1; jx>=0; jx--)
-                if (mar[i][menPrefs[i][jx]] > 0) {
-                    worstWifeIndex[i] = jx;
-                    break;
-                }
-
-        // Find least preferred husband (womenPrefs[j][worstHusbandIndex[j]]) for a woman from every group j
-        int[] worstHusbandIndex = new int[w];
-        for (int j=0; j<w; j++)
-            for (int ix=m-1; ix>=0; ix--)
-                if (mar[womenPrefs[j][ix]][j] > 0) {
-                    worstHusbandIndex[j] = ix;
-                    break;
-                }
-
-        for (int i=0; i<m; i++)
-            for (int j=0; j<w; j++) {
-                if (revWomenPrefs[j][i] < worstHusbandIndex[j] && revMenPrefs[i][j] < worstWifeIndex[i]) {
-                    out.println("FAILURE: NOT A STABLE MATCHING!");
-                    out.printf("The pair formed by a man from group %d and a woman from group %d is unstable.\n",
-                            i, j);
-                    out.printf("Indeed, the man from group %d prefers the woman from group %d to his bride from group %d\n",
-                            i, j, menPrefs[i][worstWifeIndex[i]]);
-                    out.printf("and a woman from group %d prefers the woman from group %d to her groom from group %d.\n",
-                            i, j, womenPrefs[j][worstHusbandIndex[j]]);
-                    printParameters(n, menGroupCount, womenGroupCount, menPrefs, womenPrefs);
-                    printResult(mar);
-                    fail();
-                    return;
-                }
-            }
-
         out.println("SUCCESS!");
         successes++;
     }
 
+    // This method writes the record of a run, if records are wanted. The
+    // measures are -1 for a run that did not finish.
+
+    void record (String family, int n, int m, int w, long[] measures, String outcome)
+    {
+        if (records == null)
+            return;
+        if (measures == null)
+            measures = new long[] { -1, -1, -1 };
+        records.printf("%s,%d,%d,%d,%d,%d,%d,%s\n", family, n, m, w, measures[0], measures[1], measures[2], outcome);
+    }
+
     // This method constructs an identity array.
 
     int[] identityArray (int n)
@@ -451,6 +495,33 @@ public class StableMatchingTest {
         return arr;
     }
 
+    // The number of non-random instances tested at every size.
+
+    public final static int FIXED = 4;
+
+    // This method constructs the men and women preferences of the k-th
+    // non-random instance with m groups of men and w groups of women.
+
+    int[][][] fixedPrefs (int k, int m, int w)
+    {
+        int[] identityM = identityArray(m);
+        int[] identityW = identityArray(w);
+        switch (k) {
+        case 0:
+            // An instance where all men agree and all women agree.
+            return new int[][][] { uniformPrefs(m,identityW), uniformPrefs(w,identityM) };
+        case 1:
+            // Another instance where all men agree and all women agree.
+            return new int[][][] { uniformPrefs(m,identityW), uniformPrefs(w,reverseIdentityArray(m)) };
+        case 2:
+            // An instance where all men agree and women have diverging visions.
+            return new int[][][] { uniformPrefs(m,identityW), mixedPrefs(w, identityM, reverseIdentityArray(m)) };
+        default:
+            // An instance where all women agree and men have diverging visions.
+            return new int[][][] { mixedPrefs(m,identityW, reverseIdentityArray(w)), uniformPrefs(w,identityM) };
+        }
+    }
+
     // This method submits the box to a series of tests with given group size arrays.
 
     public void test (int[] menGroupCount, int[] womenGroupCount)
@@ -460,24 +531,15 @@ public class StableMatchingTest {
         int m = menGroupCount.length;
         int w = womenGroupCount.length;
 
-        int[] identityM = identityArray(m);
-        int[] identityW = identityArray(w);
-        int[] reverseM = reverseIdentityArray(m);
-        int[] reverseW = reverseIdentityArray(w);
-
-        // An instance where all men agree and all women agree.
-        run(menGroupCount, womenGroupCount, uniformPrefs(m,identityW), uniformPrefs(w,identityM));
-        // Another instance where all men agree and all women agree.
-        run(menGroupCount, womenGroupCount, uniformPrefs(m,identityW), uniformPrefs(w,reverseM));
-        // An instance where all men agree and women have diverging visions.
-        run(menGroupCount, womenGroupCount, uniformPrefs(m,identityW), mixedPrefs(w, identityM, reverseM));
-        // An instance where all women agree and men have diverging visions.
-        run(menGroupCount, womenGroupCount, mixedPrefs(m,identityW, reverseW), uniformPrefs(w,identityM));
+        for (int k = 0; k < FIXED; k++) {
+            int[][][] prefs = fixedPrefs(k, m, w);
+            run(FAMILIES[k], menGroupCount, womenGroupCount, prefs[0], prefs[1]);
+        }
 
         // Construct random instances of size n.
 
         for (int r = 0; r < R; r++)
-            run(menGroupCount, womenGroupCount, randomPrefs(m,w), randomPrefs(w,m));
+            run(FAMILIES[FIXED], menGroupCount, womenGroupCount, randomPrefs(m,w), randomPrefs(w,m));
     }
 
     // Returns m groups of men and w groups of women, with a total of n people
@@ -517,6 +579,21 @@ public class StableMatchingTest {
     }
 
 
+    // The estimates of the number of people of the tests with groups.
+
+    final static int[] N_RANGE = new int[]{50, 500, 3000, 6000, 16000, 1000000, 10000000, 100000000, 800000000};
+
+    // The bound on the number of people of the tests with groups, in a test suite.
+
+    static int nBound (char testType)
+    {
+        switch (testType) {
+            case 'A': return 1000000000;
+            case 'B': return LARGE;
+            default:  return -1;
+        }
+    }
+
     // This method submits the box to a series of tests at multiple sizes.
 
     public void test (char testType)
@@ -536,16 +613,9 @@ public class StableMatchingTest {
         for (n = 2 * SMALL; n <= LARGE; n *= 2)
             test(unit(n), unit(n));
 
-        int[] nRange = new int[]{50, 500, 3000, 6000, 16000, 1000000, 10000000, 100000000, 800000000};
-
-        int nBound;
-        switch (testType) {
-            case 'A': nBound = 1000000000; break;
-            case 'B': nBound = LARGE; break;
-            default:  nBound = -1;
-        }
+        int nBound = nBound(testType);
 
-        for (int nEstimate : nRange) {
+        for (int nEstimate : N_RANGE) {
             if (nEstimate < nBound)
                 for (int m = 1; m <= LARGE_NONUNIT; m *= 4)
                     for (int w = 1; w <= LARGE_NONUNIT; w *= 4) {
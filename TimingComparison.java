@@ -0,0 +1,197 @@
+// A comparison of the timing records of the test harness (see
+// StableMatchingTest.records) with the records of one or more baseline runs,
+// flagging the size buckets where the solver became significantly slower.
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class TimingComparison {
+
+    // The runs are compared by bucket: the runs of a bucket have the same
+    // family, the same floor(log2 n) and the same floor(log4 (m w)). Only the
+    // runs whose outcome is STABLE are compared.
+
+    // A bucket is compared when the baseline and the current records have at
+    // least MIN_RUNS runs in it, and when its baseline median is at least
+    // MIN_NANOS: shorter runs are mostly timer and JIT noise.
+
+    public final static int MIN_RUNS = 5;
+
+    public final static long MIN_NANOS = 50000;
+
+    // A bucket is flagged as slower when a one-sided Mann-Whitney test of the
+    // current runs against the runs of all the baselines gives a p-value below
+    // ALPHA, and the current median is more than MIN_SLOWDOWN times the
+    // largest median of the baselines. The test only uses the order of the
+    // durations, so that a few outliers (a collection, a JIT compilation) do
+    // not decide alone. The runs of a bucket are not independent, though: a
+    // whole suite run is often 10 or 20% slower than another on the same
+    // code, and the test alone takes that for a slowdown. Recording several
+    // baselines makes the largest median absorb that spread.
+
+    public final static double ALPHA = 0.01;
+
+    public final static double MIN_SLOWDOWN = 1.10;
+
+    // The durations of the runs of every bucket, in nanoseconds.
+
+    static Map<String, List<Long>> read (String file) throws IOException
+    {
+        Map<String, List<Long>> buckets = new TreeMap<String, List<Long>>();
+        try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+            String header = in.readLine();
+            if (header == null || !header.equals(StableMatchingTest.RECORD_HEADER))
+                throw new IOException(file + " is not a file of timing records");
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] f = line.split(",");
+                long n = Long.parseLong(f[1]);
+                long cells = Long.parseLong(f[2]) * Long.parseLong(f[3]);
+                long nanos = Long.parseLong(f[4]);
+                if (!f[7].equals("STABLE") || nanos < 0)
+                    continue;
+                String key = String.format("%-16s n = 2^%-2d m w = 4^%-2d", f[0], log2(n), log2(cells) / 2);
+                buckets.computeIfAbsent(key, k -> new ArrayList<Long>()).add(nanos);
+            }
+        }
+        return buckets;
+    }
+
+    static int log2 (long x)
+    {
+        return x <= 0 ? 0 : 63 - Long.numberOfLeadingZeros(x);
+    }
+
+    static long median (List<Long> sorted)
+    {
+        int k = sorted.size();
+        return (sorted.get((k - 1) / 2) + sorted.get(k / 2)) / 2;
+    }
+
+    // The Mann-Whitney statistic U of current against baseline: the number of
+    // pairs of a baseline and a current duration where the current one is the
+    // larger, a tie counting for one half. It is computed from the sum of the
+    // ranks of current, and ties[0] receives the sum of t^3 - t over the
+    // groups of t tied durations.
+
+    static double uStatistic (List<Long> baseline, List<Long> current, double[] ties)
+    {
+        int n2 = current.size();
+        List<long[]> all = new ArrayList<long[]>();
+        for (long d : baseline)
+            all.add(new long[] { d, 0 });
+        for (long d : current)
+            all.add(new long[] { d, 1 });
+        all.sort((a, b) -> Long.compare(a[0], b[0]));
+
+        // The sum of the ranks of current, tied durations sharing their mean rank.
+        double rankSum = 0;
+        ties[0] = 0;
+        for (int i = 0; i < all.size(); ) {
+            int j = i;
+            while (j < all.size() && all.get(j)[0] == all.get(i)[0])
+                j++;
+            double rank = (i + 1 + j) / 2.0;
+            for (int k = i; k < j; k++)
+                if (all.get(k)[1] == 1)
+                    rankSum += rank;
+            double t = j - i;
+            ties[0] += t * t * t - t;
+            i = j;
+        }
+        return rankSum - n2 * (n2 + 1) / 2.0;
+    }
+
+    // The p-value of the one-sided Mann-Whitney test that the durations of
+    // current are larger than those of baseline, with the normal
+    // approximation, corrected for ties and continuity.
+
+    static double pValue (List<Long> baseline, List<Long> current)
+    {
+        int n1 = baseline.size(), n2 = current.size();
+        double[] ties = new double[1];
+        double u = uStatistic(baseline, current, ties);
+        double mean = n1 * (double) n2 / 2;
+        double n = n1 + n2;
+        double variance = n1 * (double) n2 / 12 * ((n + 1) - ties[0] / (n * (n - 1)));
+        if (variance <= 0)
+            return 1;
+        double z = (u - mean - 0.5) / Math.sqrt(variance);
+        return 1 - normal(z);
+    }
+
+    // The standard normal distribution function, by the approximation 7.1.26
+    // of Abramowitz and Stegun for erf (absolute error below 1.5e-7).
+
+    static double normal (double z)
+    {
+        double x = Math.abs(z) / Math.sqrt(2);
+        double t = 1 / (1 + 0.3275911 * x);
+        double erf = 1 - t * (0.254829592 + t * (-0.284496736 + t * (1.421413741
+                + t * (-1.453152027 + t * 1.061405429)))) * Math.exp(-x * x);
+        return z >= 0 ? (1 + erf) / 2 : (1 - erf) / 2;
+    }
+
+    // Compare the buckets of the current records with those of the baselines,
+    // print one line per compared bucket, and return the number of buckets
+    // flagged as slower.
+
+    static int compare (List<Map<String, List<Long>>> baselines, Map<String, List<Long>> current, PrintStream out)
+    {
+        int slower = 0;
+        for (Map.Entry<String, List<Long>> e : current.entrySet()) {
+            List<Long> before = new ArrayList<Long>();
+            long reference = 0;
+            for (Map<String, List<Long>> baseline : baselines) {
+                List<Long> runs = baseline.get(e.getKey());
+                if (runs == null)
+                    continue;
+                Collections.sort(runs);
+                reference = Math.max(reference, median(runs));
+                before.addAll(runs);
+            }
+            List<Long> after = e.getValue();
+            if (before.size() < MIN_RUNS || after.size() < MIN_RUNS)
+                continue;
+            Collections.sort(before);
+            Collections.sort(after);
+            if (median(before) < MIN_NANOS)
+                continue;
+            double ratio = median(after) / (double) reference;
+            double p = pValue(before, after);
+            boolean flagged = p < ALPHA && ratio > MIN_SLOWDOWN;
+            if (flagged)
+                slower++;
+            out.printf("%s: baseline p50 %10.3f ms (%4d runs), current p50 %10.3f ms (%4d runs), x %5.2f, p = %.4f%s\n",
+                    e.getKey(), median(before) / 1e6, before.size(), median(after) / 1e6, after.size(),
+                    ratio, p, flagged ? "  SLOWER" : "");
+        }
+        return slower;
+    }
+
+    // Usage: java TimingComparison baseline.csv... current.csv
+    // The ratio printed is the one of the current median to the largest
+    // baseline median. The exit status is 1 when a bucket is slower, so that a
+    // script can stop on it.
+
+    public static void main (String[] args) throws IOException
+    {
+        if (args.length < 2) {
+            System.err.println("Usage: java TimingComparison baseline.csv... current.csv");
+            System.exit(2);
+        }
+        List<Map<String, List<Long>>> baselines = new ArrayList<Map<String, List<Long>>>();
+        for (int i = 0; i < args.length - 1; i++)
+            baselines.add(read(args[i]));
+        int slower = compare(baselines, read(args[args.length - 1]), System.out);
+        System.out.printf("%d bucket(s) significantly slower.\n", slower);
+        System.exit(slower > 0 ? 1 : 0);
+    }
+}
@@ -0,0 +1,226 @@
+// A test of TimingComparison: the Mann-Whitney statistic and p-values of
+// small samples must be the known ones, ties included, and on synthetic
+// timing records, a bucket 20% slower than its baselines must be flagged,
+// and a bucket drawn from the same distribution as its baselines must not.
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class TimingComparisonTest {
+
+    // The largest error of TimingComparison.normal, and that of the p-values
+    // derived from it.
+
+    public final static double TOLERANCE = 1e-6;
+
+    // The number of synthetic comparisons of every kind, the number of runs
+    // of a bucket in every record file, and the number of baselines.
+
+    public final static int TRIALS = 100;
+
+    public final static int RUNS = 50;
+
+    public final static int BASELINES = 2;
+
+    // The median duration of the synthetic runs, in nanoseconds, the standard
+    // deviation of the logarithm of their durations, and the chance that a
+    // run is an outlier OUTLIER times longer (a collection, a compilation).
+
+    public final static long NANOS = 2000000;
+
+    public final static double SIGMA = 0.05;
+
+    public final static double OUTLIER_CHANCE = 0.05;
+
+    public final static double OUTLIER = 3;
+
+    // The slowdown that must be flagged.
+
+    public final static double SLOWDOWN = 1.20;
+
+    // Samples with their statistic U and their p-value, computed with an
+    // exact erf, and a p-value of 1 when all the durations are tied.
+
+    final static long[][][] SAMPLES = {
+        { { 1, 2, 3, 4, 5 }, { 6, 7, 8, 9, 10 } },
+        { { 1, 2, 3, 4, 5 }, { 1, 2, 3, 4, 5 } },
+        { { 6, 7, 8, 9, 10 }, { 1, 2, 3, 4, 5 } },
+        { { 1, 2, 2, 3, 3, 3 }, { 2, 3, 3, 4, 4 } },
+        { { 10, 20, 30, 40, 50, 60, 70 }, { 15, 35, 55, 75, 85, 95 } },
+        { { 5, 5, 5, 5 }, { 5, 5, 5, 5, 5 } },
+    };
+
+    final static double[] SAMPLE_U = { 25, 12.5, 0, 23, 30, 10 };
+
+    final static double[] SAMPLE_P = {
+        0.00609289017767245, 0.5422350133116141, 0.9966923245172357,
+        0.07291270699197416, 0.11231931946189022, 1,
+    };
+
+    // Values of the standard normal distribution function.
+
+    final static double[] Z = { 0, 1, -1, 1.959963984540054, -3 };
+
+    final static double[] PHI = { 0.5, 0.8413447460685429, 0.15865525393145707, 0.975, 0.0013498980316301 };
+
+    // This is the output stream of the tests.
+
+    private PrintStream out;
+
+    private Random random;
+
+    private int failures, successes;
+
+    TimingComparisonTest (PrintStream out, long seed)
+    {
+        this.out = out;
+        this.random = new Random(seed);
+    }
+
+    void check (boolean ok, String what)
+    {
+        if (ok) {
+            successes++;
+        }
+        else {
+            failures++;
+            out.printf("FAILURE: %s\n", what);
+        }
+    }
+
+    static List<Long> list (long[] durations)
+    {
+        List<Long> res = new ArrayList<Long>();
+        for (long d : durations)
+            res.add(d);
+        return res;
+    }
+
+    // U by its definition, over all the pairs.
+
+    static double pairs (List<Long> baseline, List<Long> current)
+    {
+        double u = 0;
+        for (long b : baseline)
+            for (long c : current)
+                u += c > b ? 1 : c == b ? 0.5 : 0;
+        return u;
+    }
+
+    void checkKnownValues ()
+    {
+        for (int k = 0; k < Z.length; k++)
+            check(Math.abs(TimingComparison.normal(Z[k]) - PHI[k]) < TOLERANCE,
+                  "normal(" + Z[k] + ") = " + TimingComparison.normal(Z[k]) + " instead of " + PHI[k]);
+        for (int k = 0; k < SAMPLES.length; k++) {
+            List<Long> baseline = list(SAMPLES[k][0]);
+            List<Long> current = list(SAMPLES[k][1]);
+            String what = Arrays.toString(SAMPLES[k][1]) + " against " + Arrays.toString(SAMPLES[k][0]);
+            double u = TimingComparison.uStatistic(baseline, current, new double[1]);
+            double p = TimingComparison.pValue(baseline, current);
+            check(u == SAMPLE_U[k], "U = " + u + " instead of " + SAMPLE_U[k] + " for " + what);
+            check(Math.abs(p - SAMPLE_P[k]) < TOLERANCE, "p = " + p + " instead of " + SAMPLE_P[k] + " for " + what);
+        }
+    }
+
+    // U against its definition on random samples with many ties, and the
+    // p-values between 0 and 1.
+
+    void checkRandomSamples ()
+    {
+        for (int t = 0; t < TRIALS; t++) {
+            List<Long> baseline = new ArrayList<Long>();
+            List<Long> current = new ArrayList<Long>();
+            for (int k = 1 + random.nextInt(RUNS); k > 0; k--)
+                baseline.add((long) random.nextInt(20));
+            for (int k = 1 + random.nextInt(RUNS); k > 0; k--)
+                current.add((long) random.nextInt(20));
+            double u = TimingComparison.uStatistic(baseline, current, new double[1]);
+            double p = TimingComparison.pValue(baseline, current);
+            check(u == pairs(baseline, current), "U = " + u + " instead of " + pairs(baseline, current)
+                  + " for " + current + " against " + baseline);
+            check(p >= 0 && p <= 1, "p = " + p + " for " + current + " against " + baseline);
+        }
+    }
+
+    // A record file of RUNS stable runs of a grouped random instance, with
+    // durations of the given median, and runs of other outcomes, much longer,
+    // which must be ignored.
+
+    Path records (Path directory, String name, double median) throws IOException
+    {
+        List<String> lines = new ArrayList<String>();
+        lines.add(StableMatchingTest.RECORD_HEADER);
+        for (int r = 0; r < RUNS; r++) {
+            double nanos = median * Math.exp(SIGMA * random.nextGaussian());
+            if (random.nextDouble() < OUTLIER_CHANCE)
+                nanos *= OUTLIER;
+            lines.add(String.format("RANDOM,100000,300,300,%d,0,0,STABLE", (long) nanos));
+            if (r % 10 == 0)
+                lines.add(String.format("RANDOM,100000,300,300,%d,0,0,UNSTABLE", (long) (10 * median)));
+        }
+        Path path = directory.resolve(name);
+        Files.write(path, lines);
+        return path;
+    }
+
+    // The number of buckets flagged when the current runs are the given
+    // factor slower than the baselines.
+
+    int flagged (Path directory, double factor) throws IOException
+    {
+        List<Map<String, List<Long>>> baselines = new ArrayList<Map<String, List<Long>>>();
+        for (int b = 0; b < BASELINES; b++)
+            baselines.add(TimingComparison.read(records(directory, "baseline" + b + ".csv", NANOS).toString()));
+        Map<String, List<Long>> current = TimingComparison.read(records(directory, "current.csv", NANOS * factor).toString());
+        check(current.size() == 1 && current.values().iterator().next().size() == RUNS,
+              "the records of the current runs are not one bucket of " + RUNS + " stable runs");
+        return TimingComparison.compare(baselines, current, new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    void checkSlowdowns () throws IOException
+    {
+        Path directory = Files.createTempDirectory("timing-comparison-test");
+        try {
+            for (int t = 0; t < TRIALS; t++) {
+                check(flagged(directory, SLOWDOWN) == 1, "a slowdown of " + SLOWDOWN + " is not flagged");
+                check(flagged(directory, 1) == 0, "unchanged runs are flagged");
+            }
+        } finally {
+            for (int b = 0; b < BASELINES; b++)
+                Files.deleteIfExists(directory.resolve("baseline" + b + ".csv"));
+            Files.deleteIfExists(directory.resolve("current.csv"));
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    public boolean test () throws IOException
+    {
+        out.println("Starting timing comparison tests...\n");
+
+        checkKnownValues();
+        checkRandomSamples();
+        checkSlowdowns();
+
+        out.println();
+        out.printf("Done timing comparison tests. In total, %d success(es) and %d failure(s).\n", successes, failures);
+        return failures == 0;
+    }
+
+    // Usage: java TimingComparisonTest
+    // The exit status is 1 when a check fails.
+
+    public static void main (String[] args) throws IOException
+    {
+        boolean ok = new TimingComparisonTest(System.out, 0L).test();
+        System.exit(ok ? 0 : 1);
+    }
+}